@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import com.blackrook.commons.math.RMath;
+
+import com.blackrook.ogl.util.OGLSkin.Step;
+import com.blackrook.ogl.util.resource.OGLTextureResource;
+
+/**
+ * A camera listener that predicts where a camera is headed and queues the
+ * textures that will be needed there before they come into view.
+ * <p>
+ * The camera's velocity is estimated from the changes it reports, and its bounds
+ * are extrapolated by a look-ahead time. Every time the camera changes, the region
+ * between its current and predicted bounds (plus a margin) is passed to
+ * {@link #prefetch(float, float, float, float)}, which should call
+ * {@link #prefetchSkin(OGLResourceLoader, OGLSkin, float, float)} for what lies in it.
+ * The look-ahead region never extends more than one view's size past the current bounds.
+ * <p>
+ * Prefetching is done on the thread that changes the camera.
+ * @author Matthew Tropiano
+ */
+public abstract class OGL2DCameraPrefetcher implements OGL2DCameraListener
+{
+	/** Default look-ahead time in milliseconds. */
+	public static final long DEFAULT_LOOK_AHEAD_MILLIS = 500L;
+	/** Camera changes farther apart than this (in nanoseconds) are not treated as continuous motion. */
+	private static final long MAX_SAMPLE_GAP_NANOS = 250000000L;
+	/** How much of each new velocity sample is mixed into the estimate. */
+	private static final float VELOCITY_SMOOTHING = 0.5f;
+
+	/** The camera listened to. */
+	private OGL2DCamera camera;
+	/** Is prefetching enabled? */
+	private boolean enabled;
+	/** Look-ahead time in milliseconds. */
+	private long lookAheadMillis;
+	/** Extra distance around the look-ahead region. */
+	private float margin;
+
+	/** Time of last camera change in nanoseconds, 0 if none. */
+	private long lastChangeNanos;
+	/** Estimated velocity, X, in units per second. */
+	private float velocityX;
+	/** Estimated velocity, Y, in units per second. */
+	private float velocityY;
+	/** Estimated velocity, width, in units per second. */
+	private float velocityWidth;
+	/** Estimated velocity, height, in units per second. */
+	private float velocityHeight;
+
+	/** Predicted center, X. */
+	private float predictedCenterX;
+	/** Predicted center, Y. */
+	private float predictedCenterY;
+	/** Predicted radius. */
+	private float predictedRadius;
+
+	/**
+	 * Creates a new prefetcher that is not attached to a camera.
+	 */
+	public OGL2DCameraPrefetcher()
+	{
+		enabled = true;
+		lookAheadMillis = DEFAULT_LOOK_AHEAD_MILLIS;
+		margin = 0f;
+		reset();
+	}
+
+	/**
+	 * Sets the camera to listen to, removing this from the previous one.
+	 * The velocity estimate is reset.
+	 * @param camera the new camera. Can be null.
+	 */
+	public void setCamera(OGL2DCamera camera)
+	{
+		if (this.camera != null)
+			this.camera.removeListener(this);
+		this.camera = camera;
+		if (camera != null)
+			camera.addListener(this);
+		reset();
+	}
+
+	/**
+	 * Gets the camera listened to.
+	 */
+	public OGL2DCamera getCamera()
+	{
+		return camera;
+	}
+
+	/**
+	 * Is prefetching enabled?
+	 */
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * Sets if prefetching is enabled. Velocity is still estimated if it isn't.
+	 */
+	public void setEnabled(boolean enabled)
+	{
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Gets how far ahead (in milliseconds) the camera's motion is extrapolated.
+	 */
+	public long getLookAheadMillis()
+	{
+		return lookAheadMillis;
+	}
+
+	/**
+	 * Sets how far ahead (in milliseconds) the camera's motion is extrapolated.
+	 * Default is {@link #DEFAULT_LOOK_AHEAD_MILLIS}.
+	 */
+	public void setLookAheadMillis(long lookAheadMillis)
+	{
+		this.lookAheadMillis = Math.max(lookAheadMillis, 0L);
+	}
+
+	/**
+	 * Gets the extra distance around the look-ahead region.
+	 */
+	public float getMargin()
+	{
+		return margin;
+	}
+
+	/**
+	 * Sets the extra distance around the look-ahead region.
+	 * If greater than 0, the area around the view is prefetched even if the camera is not moving.
+	 * Default is 0.
+	 */
+	public void setMargin(float margin)
+	{
+		this.margin = Math.max(margin, 0f);
+	}
+
+	/**
+	 * Gets the estimated velocity of the camera, X, in units per second.
+	 */
+	public float getVelocityX()
+	{
+		return velocityX;
+	}
+
+	/**
+	 * Gets the estimated velocity of the camera, Y, in units per second.
+	 */
+	public float getVelocityY()
+	{
+		return velocityY;
+	}
+
+	/**
+	 * Resets the velocity estimate.
+	 */
+	public void reset()
+	{
+		lastChangeNanos = 0L;
+		velocityX = 0f;
+		velocityY = 0f;
+		velocityWidth = 0f;
+		velocityHeight = 0f;
+	}
+
+	@Override
+	public void onCameraChange(float changeX, float changeY, float changeWidth, float changeHeight)
+	{
+		long now = System.nanoTime();
+		long gap = now - lastChangeNanos;
+		if (lastChangeNanos == 0L || gap <= 0L || gap > MAX_SAMPLE_GAP_NANOS)
+		{
+			// a change after a pause is a jump, not motion.
+			velocityX = 0f;
+			velocityY = 0f;
+			velocityWidth = 0f;
+			velocityHeight = 0f;
+		}
+		else
+		{
+			float scale = 1000000000f / gap;
+			velocityX += (changeX * scale - velocityX) * VELOCITY_SMOOTHING;
+			velocityY += (changeY * scale - velocityY) * VELOCITY_SMOOTHING;
+			velocityWidth += (changeWidth * scale - velocityWidth) * VELOCITY_SMOOTHING;
+			velocityHeight += (changeHeight * scale - velocityHeight) * VELOCITY_SMOOTHING;
+		}
+		lastChangeNanos = now;
+
+		if (!enabled || camera == null)
+			return;
+		if (margin <= 0f && velocityX == 0f && velocityY == 0f && velocityWidth == 0f && velocityHeight == 0f)
+			return;
+
+		float x = camera.getX();
+		float y = camera.getY();
+		float width = camera.getWidth();
+		float height = camera.getHeight();
+		float t = lookAheadMillis / 1000f;
+
+		float px = x + RMath.clampValue(velocityX * t, -width, width);
+		float py = y + RMath.clampValue(velocityY * t, -height, height);
+		float pw = width + RMath.clampValue(velocityWidth * t, -width, width);
+		float ph = height + RMath.clampValue(velocityHeight * t, -height, height);
+
+		predictedCenterX = px + pw / 2f;
+		predictedCenterY = py + ph / 2f;
+		predictedRadius = (float)Math.sqrt(pw * pw + ph * ph) / 2f;
+
+		prefetch(
+			Math.min(x, px) - margin,
+			Math.min(y, py) - margin,
+			Math.max(x + width, px + pw) + margin,
+			Math.max(y + height, py + ph) + margin
+		);
+	}
+
+	/**
+	 * Called when a region should be prefetched.
+	 * This region includes the current view, which does not need prefetching.
+	 * @param x0 the lowest x-coordinate of the region.
+	 * @param y0 the lowest y-coordinate of the region.
+	 * @param x1 the highest x-coordinate of the region.
+	 * @param y1 the highest y-coordinate of the region.
+	 */
+	protected abstract void prefetch(float x0, float y0, float x1, float y1);
+
+	/**
+	 * Requests the textures of all of a skin's steps, if any, with a priority based 
+	 * on how close a point is to the camera's predicted center. The loader skips 
+	 * textures that are already cached or queued, so only the rest are queued.
+	 * @param loader the loader to queue textures on.
+	 * @param skin the skin. Can be null.
+	 * @param x the x-coordinate of the skin's position.
+	 * @param y the y-coordinate of the skin's position.
+	 */
+	protected void prefetchSkin(OGLResourceLoader loader, OGLSkin skin, float x, float y)
+	{
+		if (skin == null)
+			return;
+
+		float priority = getPrefetchPriority(x, y);
+		for (int p = 0; p < skin.size(); p++)
+		{
+			Step step = skin.get(p);
+			for (OGLTextureResource ogltr : step.getTextureList())
+				loader.requestTexture(ogltr, priority);
+		}
+	}
+
+	/**
+	 * Gets the loading priority for a point, based on its distance from the camera's predicted center.
+	 * This is never more than {@link OGLResourceLoader#TEXTURE_PRIORITY_PREFETCH}.
+	 */
+	protected float getPrefetchPriority(float x, float y)
+	{
+		float dx = x - predictedCenterX;
+		float dy = y - predictedCenterY;
+		return OGLResourceLoader.TEXTURE_PRIORITY_PREFETCH
+			- (float)Math.sqrt(dx * dx + dy * dy) / Math.max(predictedRadius, 1f);
+	}
+
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * File and key helpers shared by the disk caches
+ * ({@link OGLTextureDiskCache}, {@link OGLShaderBinaryCache})
+ * and the hashes that their keys are made from.
+ * @author Matthew Tropiano
+ */
+final class OGLCacheFiles
+{
+	/** Hex digits for keys. */
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private OGLCacheFiles() {}
+
+	/**
+	 * Writes buffers to a temporary file in a cache directory and renames it to the target file,
+	 * so that readers never see a partly-written entry.
+	 * @param directory the cache directory.
+	 * @param target the entry file.
+	 * @param key the entry key, used as the temporary file's prefix. Must be at least 3 characters long.
+	 * @param buffers the data to write, from their positions to their limits.
+	 * @throws IOException if the entry could not be written.
+	 */
+	static void write(File directory, File target, String key, ByteBuffer ... buffers) throws IOException
+	{
+		File temp = File.createTempFile(key, ".tmp", directory);
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			FileChannel channel = out.getChannel();
+			for (ByteBuffer buffer : buffers)
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+		} finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(target))
+		{
+			// some platforms will not rename over an existing file.
+			target.delete();
+			if (!temp.renameTo(target))
+			{
+				temp.delete();
+				throw new IOException("Could not write cache entry " + target.getPath());
+			}
+		}
+	}
+
+	/**
+	 * Creates a new SHA-1 digest.
+	 */
+	static MessageDigest createSHA1()
+	{
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// all platforms must support SHA-1.
+			throw new RuntimeException("SHA-1 is not available.", e);
+		}
+	}
+
+	/**
+	 * Converts bytes to a lowercase hex string.
+	 */
+	static String toHex(byte[] bytes)
+	{
+		char[] out = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++)
+		{
+			out[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+			out[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+		}
+		return new String(out);
+	}
+
+}
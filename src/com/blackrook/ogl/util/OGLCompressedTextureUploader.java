@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import com.blackrook.ogl.OGLGraphics;
+import com.blackrook.ogl.object.texture.OGLTexture2D;
+import com.blackrook.ogl.util.image.OGLCompressedImage;
+
+/**
+ * Sends block-compressed data to textures, for an {@link OGLResourceLoader}
+ * that compresses texture data on the CPU.
+ * {@link OGLTexture2D} itself only sends uncompressed images, so this is 
+ * the part that calls the driver's compressed upload (<code>glCompressedTexImage2D</code>).
+ * @author Matthew Tropiano
+ * @see OGLResourceLoader#setCompressedTextureUploader(OGLCompressedTextureUploader)
+ */
+public interface OGLCompressedTextureUploader
+{
+	/**
+	 * Sends block-compressed data to a texture as its base level.
+	 * This is called on the graphics thread, with the texture created and bound.
+	 * @param g the graphics context.
+	 * @param texture the texture, created with the DXT1 or DXT5 internal format that matches the image.
+	 * @param image the compressed data.
+	 * @return true if the data was sent, false if it could not be 
+	 * (the loader then destroys the texture, and uploads the uncompressed image instead).
+	 */
+	public boolean sendCompressedData(OGLGraphics g, OGLTexture2D texture, OGLCompressedImage image);
+
+}
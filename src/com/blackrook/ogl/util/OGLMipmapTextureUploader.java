@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import java.awt.image.BufferedImage;
+
+import com.blackrook.ogl.OGLGraphics;
+import com.blackrook.ogl.object.texture.OGLTexture2D;
+
+/**
+ * Sends each level of a mipmap chain to a texture, for an {@link OGLResourceLoader}
+ * that builds mipmaps on the CPU. {@link OGLTexture2D} itself only sends a base
+ * level and has the driver build the rest, so this is the part that sends
+ * the other levels (<code>glTexImage2D</code> with a level number).
+ * @author Matthew Tropiano
+ * @see OGLResourceLoader#setMipmapTextureUploader(OGLMipmapTextureUploader)
+ */
+public interface OGLMipmapTextureUploader
+{
+	/**
+	 * Sends a mipmap chain to a texture.
+	 * This is called on the graphics thread, with the texture created and bound.
+	 * @param g the graphics context.
+	 * @param texture the texture, created without driver-built mipmaps.
+	 * @param levels the mipmap chain, largest to smallest. Level 0 is the full image,
+	 * and each level after it is half the size of the last (rounded down, to a minimum of 1).
+	 * @return true if the levels were sent, false if they could not be 
+	 * (the loader then destroys the texture, and uploads level 0 with driver-built mipmaps instead).
+	 */
+	public boolean sendMipmapData(OGLGraphics g, OGLTexture2D texture, BufferedImage[] levels);
+
+}
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import com.blackrook.ogl.OGLGraphics;
+import com.blackrook.ogl.object.texture.OGLTexture2D;
+import com.blackrook.ogl.util.image.OGLPixelImage;
+
+/**
+ * Sends pixel data in a direct buffer to textures, for an {@link OGLResourceLoader}
+ * that decodes texture data without a BufferedImage. {@link OGLTexture2D} itself
+ * only sends BufferedImages, so this is the part that sends the buffer as-is
+ * (<code>glTexImage2D</code> with an unpack alignment of 1).
+ * @author Matthew Tropiano
+ * @see OGLResourceLoader#setPixelTextureUploader(OGLPixelTextureUploader)
+ */
+public interface OGLPixelTextureUploader
+{
+	/**
+	 * Sends pixel data to a texture as its base level.
+	 * This is called on the graphics thread, with the texture created and bound.
+	 * The image's buffer is given back to its pool after this returns, so it must not be kept.
+	 * @param g the graphics context.
+	 * @param texture the texture.
+	 * @param image the pixel data, RGB8 or RGBA8, rows tightly packed starting from the top.
+	 * @return true if the data was sent, false if it could not be 
+	 * (the loader then destroys the texture, and decodes the texture into a BufferedImage instead).
+	 */
+	public boolean sendPixelData(OGLGraphics g, OGLTexture2D texture, OGLPixelImage image);
+
+}
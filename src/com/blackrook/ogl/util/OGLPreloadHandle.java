@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.blackrook.commons.list.List;
+import com.blackrook.ogl.object.shader.OGLShaderProgram;
+import com.blackrook.ogl.object.texture.OGLTexture2D;
+import com.blackrook.ogl.util.resource.OGLShaderResource;
+import com.blackrook.ogl.util.resource.OGLTextureResource;
+
+/**
+ * The progress of an {@link OGLPreloadManifest} being loaded by an {@link OGLResourceLoader}.
+ * <p>
+ * The progress counters are updated without locking as each resource finishes,
+ * so they can be read every frame to draw a loading screen.
+ * As a {@link Future}, this completes once every resource in the manifest is done
+ * loading, and its result is true if all of them were cached successfully,
+ * or false if any of them failed.
+ * <p>
+ * Cancelling stops groups that are not queued yet from being queued.
+ * Resources that are already queued still finish loading.
+ * @author Matthew Tropiano
+ * @see OGLResourceLoader#preload(OGLPreloadManifest)
+ */
+public class OGLPreloadHandle implements Future<Boolean>
+{
+	/** The loader that loads the resources. */
+	private OGLResourceLoader loader;
+	/** Loading priority of the textures. */
+	private float priority;
+	/** Group loading states. */
+	private GroupState[] groups;
+
+	/** Total amount of resources. */
+	private int itemCount;
+	/** Total estimated size of the resources' source data in bytes. */
+	private long byteCount;
+	/** Amount of resources done loading. */
+	private AtomicInteger itemsDone;
+	/** Amount of resources that could not be cached. */
+	private AtomicInteger itemsFailed;
+	/** Estimated size of the source data of the resources done loading, in bytes. */
+	private AtomicLong bytesDone;
+	/** Amount of groups not done yet. */
+	private AtomicInteger groupsPending;
+
+	/** Set once this completes or is cancelled. */
+	private AtomicBoolean done;
+	/** Was this cancelled? */
+	private volatile boolean cancelled;
+	/** Latch for blocking waits. */
+	private CountDownLatch latch;
+
+	/**
+	 * Creates a handle for a manifest, and estimates the size of its resources.
+	 * Nothing is queued until {@link #start()} is called.
+	 */
+	OGLPreloadHandle(OGLResourceLoader loader, OGLPreloadManifest manifest, float priority)
+	{
+		this.loader = loader;
+		this.priority = priority;
+
+		List<OGLPreloadManifest.Group> list = manifest.getGroups();
+		this.groups = new GroupState[list.size()];
+		this.itemCount = 0;
+		this.byteCount = 0L;
+		for (int i = 0; i < groups.length; i++)
+		{
+			GroupState state = new GroupState(list.getByIndex(i));
+			groups[i] = state;
+			itemCount += state.textures.length + state.shaders.length;
+			for (int t = 0; t < state.textures.length; t++)
+				byteCount += state.textureBytes[t] = Math.max(loader.getTextureDataLength(state.textures[t]), 0L);
+			for (int s = 0; s < state.shaders.length; s++)
+				byteCount += state.shaderBytes[s] = Math.max(loader.getShaderDataLength(state.shaders[s]), 0L);
+		}
+		for (int i = 0; i < groups.length; i++)
+		{
+			List<OGLPreloadManifest.Group> dependencies = list.getByIndex(i).dependencies;
+			groups[i].dependenciesPending.set(dependencies.size());
+			for (int d = 0; d < dependencies.size(); d++)
+				groups[indexOf(list, dependencies.getByIndex(d))].dependents.add(groups[i]);
+		}
+
+		this.itemsDone = new AtomicInteger(0);
+		this.itemsFailed = new AtomicInteger(0);
+		this.bytesDone = new AtomicLong(0L);
+		this.groupsPending = new AtomicInteger(groups.length);
+		this.done = new AtomicBoolean(false);
+		this.cancelled = false;
+		this.latch = new CountDownLatch(1);
+	}
+
+	private static int indexOf(List<OGLPreloadManifest.Group> list, OGLPreloadManifest.Group group)
+	{
+		for (int i = 0; i < list.size(); i++)
+			if (list.getByIndex(i) == group)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Queues every group that has no dependencies.
+	 */
+	void start()
+	{
+		if (groups.length == 0)
+		{
+			finish();
+			return;
+		}
+		for (GroupState state : groups)
+			if (state.dependenciesPending.get() == 0)
+				startGroup(state);
+	}
+
+	/**
+	 * Requests all of a group's resources.
+	 * Resources that are already cached complete the group's count right away.
+	 */
+	private void startGroup(GroupState state)
+	{
+		if (cancelled)
+			return;
+
+		// the extra count keeps the group from finishing while it is still being requested.
+		state.itemsPending.set(state.textures.length + state.shaders.length + 1);
+		for (int i = 0; i < state.textures.length; i++)
+			loader.requestTexture(state.textures[i], priority).addListener(new ItemListener<OGLTextureResource, OGLTexture2D>(state, state.textureBytes[i]));
+		for (int i = 0; i < state.shaders.length; i++)
+			loader.requestShader(state.shaders[i]).addListener(new ItemListener<OGLShaderResource, OGLShaderProgram>(state, state.shaderBytes[i]));
+		itemDone(state);
+	}
+
+	/**
+	 * Counts down a group's pending resources, and queues its dependents once it is done.
+	 */
+	private void itemDone(GroupState state)
+	{
+		if (state.itemsPending.decrementAndGet() != 0)
+			return;
+
+		for (int i = 0; i < state.dependents.size(); i++)
+		{
+			GroupState dependent = state.dependents.getByIndex(i);
+			if (dependent.dependenciesPending.decrementAndGet() == 0)
+				startGroup(dependent);
+		}
+		if (groupsPending.decrementAndGet() == 0)
+			finish();
+	}
+
+	/**
+	 * Completes this handle. Only the first call has any effect.
+	 */
+	private void finish()
+	{
+		if (done.compareAndSet(false, true))
+			latch.countDown();
+	}
+
+	/**
+	 * Gets the total amount of resources in the manifest.
+	 */
+	public int getItemCount()
+	{
+		return itemCount;
+	}
+
+	/**
+	 * Gets the amount of resources that are done loading, successfully or not.
+	 */
+	public int getItemsDone()
+	{
+		return itemsDone.get();
+	}
+
+	/**
+	 * Gets the amount of resources that could not be cached.
+	 */
+	public int getItemsFailed()
+	{
+		return itemsFailed.get();
+	}
+
+	/**
+	 * Gets the total estimated size of the resources' source data, in bytes.
+	 * Resources whose size is not known count as 0.
+	 * @see OGLResourceLoader#getTextureDataLength(OGLTextureResource)
+	 * @see OGLResourceLoader#getShaderDataLength(OGLShaderResource)
+	 */
+	public long getByteCount()
+	{
+		return byteCount;
+	}
+
+	/**
+	 * Gets the estimated size of the source data of the resources
+	 * that are done loading, in bytes.
+	 */
+	public long getBytesDone()
+	{
+		return bytesDone.get();
+	}
+
+	/**
+	 * Gets the loading progress, from 0 to 1.
+	 * This is weighted by the size of each resource's source data,
+	 * or by resource count if no sizes are known.
+	 */
+	public float getProgress()
+	{
+		if (byteCount > 0L)
+			return (float)((double)bytesDone.get() / byteCount);
+		else if (itemCount > 0)
+			return (float)itemsDone.get() / itemCount;
+		else
+			return 1f;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning)
+	{
+		if (done.get())
+			return false;
+		cancelled = true;
+		finish();
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone()
+	{
+		return done.get();
+	}
+
+	/**
+	 * Waits until every resource in the manifest is done loading.
+	 * This must not be called from the graphics thread, which does the loading.
+	 * @return true if every resource was cached, false if any could not be.
+	 * @throws CancellationException if this was cancelled.
+	 * @throws InterruptedException if the waiting thread is interrupted.
+	 */
+	@Override
+	public Boolean get() throws InterruptedException
+	{
+		latch.await();
+		return getResult();
+	}
+
+	/**
+	 * Waits until every resource in the manifest is done loading, or the timeout elapses.
+	 * This must not be called from the graphics thread, which does the loading.
+	 * @return true if every resource was cached, false if any could not be.
+	 * @throws CancellationException if this was cancelled.
+	 * @throws InterruptedException if the waiting thread is interrupted.
+	 * @throws TimeoutException if the timeout elapsed first.
+	 */
+	@Override
+	public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException
+	{
+		if (!latch.await(timeout, unit))
+			throw new TimeoutException("Preload not done after "+timeout+" "+unit+".");
+		return getResult();
+	}
+
+	private Boolean getResult()
+	{
+		if (cancelled)
+			throw new CancellationException("Preload was cancelled.");
+		return itemsFailed.get() == 0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "OGLPreloadHandle ["+itemsDone.get()+"/"+itemCount+" resources, "+bytesDone.get()+"/"+byteCount+" bytes"
+			+ (cancelled ? ", cancelled" : (done.get() ? ", done" : "")) + "]";
+	}
+
+	/**
+	 * Loading state of a group.
+	 */
+	private static class GroupState
+	{
+		/** The group's textures. */
+		OGLTextureResource[] textures;
+		/** The group's shaders. */
+		OGLShaderResource[] shaders;
+		/** Estimated source data size of each texture. */
+		long[] textureBytes;
+		/** Estimated source data size of each shader. */
+		long[] shaderBytes;
+		/** Groups that depend on this one. */
+		List<GroupState> dependents;
+		/** Amount of groups this one depends on that are not done yet. */
+		AtomicInteger dependenciesPending;
+		/** Amount of this group's resources that are not done yet. */
+		AtomicInteger itemsPending;
+
+		GroupState(OGLPreloadManifest.Group group)
+		{
+			this.textures = new OGLTextureResource[group.textures.size()];
+			for (int i = 0; i < textures.length; i++)
+				textures[i] = group.textures.getByIndex(i);
+			this.shaders = new OGLShaderResource[group.shaders.size()];
+			for (int i = 0; i < shaders.length; i++)
+				shaders[i] = group.shaders.getByIndex(i);
+			this.textureBytes = new long[textures.length];
+			this.shaderBytes = new long[shaders.length];
+			this.dependents = new List<GroupState>(2);
+			this.dependenciesPending = new AtomicInteger(0);
+			this.itemsPending = new AtomicInteger(0);
+		}
+
+	}
+
+	/**
+	 * Counts a resource's handle completing towards the progress and its group.
+	 */
+	private class ItemListener<R, O> implements OGLResourceHandleListener<R, O>
+	{
+		private GroupState state;
+		private long bytes;
+
+		ItemListener(GroupState state, long bytes)
+		{
+			this.state = state;
+			this.bytes = bytes;
+		}
+
+		@Override
+		public void resourceDone(OGLResourceHandle<R, O> handle)
+		{
+			if (handle.isFailed())
+				itemsFailed.incrementAndGet();
+			bytesDone.addAndGet(bytes);
+			itemsDone.incrementAndGet();
+			itemDone(state);
+		}
+
+	}
+
+}
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import com.blackrook.commons.bank.Bank;
+import com.blackrook.commons.list.List;
+import com.blackrook.ogl.util.resource.OGLShaderResource;
+import com.blackrook.ogl.util.resource.OGLTextureResource;
+
+/**
+ * A list of resources to load as a batch, for loading screens and the like,
+ * passed to {@link OGLResourceLoader#preload(OGLPreloadManifest)}.
+ * <p>
+ * Resources are added to named groups. A group can depend on other groups:
+ * its resources are not queued until every resource in the groups it depends
+ * on is done loading (successfully or not). Groups with no dependencies are
+ * all queued at once.
+ * <p>
+ * A manifest is not thread-safe, and should not be changed while it is being preloaded.
+ * @author Matthew Tropiano
+ */
+public class OGLPreloadManifest
+{
+	/** Groups, in the order that they were created. */
+	private List<Group> groupList;
+	/** Groups by name. */
+	private Bank<String, Group> groupMap;
+
+	/**
+	 * Creates a new, empty manifest.
+	 */
+	public OGLPreloadManifest()
+	{
+		groupList = new List<Group>(4);
+		groupMap = new Bank<String, Group>();
+	}
+
+	/**
+	 * Adds textures to a group, creating the group if it does not exist.
+	 * @param group the group name.
+	 * @param textures the textures to add.
+	 */
+	public void addTextures(String group, OGLTextureResource ... textures)
+	{
+		Group g = getOrCreateGroup(group);
+		for (OGLTextureResource texture : textures)
+			g.textures.add(texture);
+	}
+
+	/**
+	 * Adds shaders to a group, creating the group if it does not exist.
+	 * @param group the group name.
+	 * @param shaders the shaders to add.
+	 */
+	public void addShaders(String group, OGLShaderResource ... shaders)
+	{
+		Group g = getOrCreateGroup(group);
+		for (OGLShaderResource shader : shaders)
+			g.shaders.add(shader);
+	}
+
+	/**
+	 * Makes a group depend on other groups, creating any of them that do not exist.
+	 * The group's resources are not queued until the resources in the other groups are done.
+	 * @param group the group name.
+	 * @param requiredGroups the names of the groups that it depends on.
+	 * @throws IllegalArgumentException if the group would depend on itself, directly or not.
+	 */
+	public void addDependencies(String group, String ... requiredGroups)
+	{
+		Group g = getOrCreateGroup(group);
+		for (String name : requiredGroups)
+		{
+			Group required = getOrCreateGroup(name);
+			if (dependsOn(required, g))
+				throw new IllegalArgumentException("Group '"+name+"' already depends on group '"+group+"'.");
+			g.dependencies.add(required);
+		}
+	}
+
+	/**
+	 * Returns true if this manifest contains a group.
+	 */
+	public boolean containsGroup(String group)
+	{
+		return groupMap.containsKey(group);
+	}
+
+	/**
+	 * Gets the names of all groups, in the order that they were created.
+	 */
+	public String[] getGroupNames()
+	{
+		String[] out = new String[groupList.size()];
+		for (int i = 0; i < out.length; i++)
+			out[i] = groupList.getByIndex(i).name;
+		return out;
+	}
+
+	/**
+	 * Gets the amount of resources in all groups.
+	 */
+	public int getResourceCount()
+	{
+		int out = 0;
+		for (int i = 0; i < groupList.size(); i++)
+		{
+			Group g = groupList.getByIndex(i);
+			out += g.textures.size() + g.shaders.size();
+		}
+		return out;
+	}
+
+	/**
+	 * Gets the groups, in the order that they were created.
+	 */
+	List<Group> getGroups()
+	{
+		return groupList;
+	}
+
+	/**
+	 * Gets a group by name, creating it if it does not exist.
+	 */
+	private Group getOrCreateGroup(String name)
+	{
+		Group out = groupMap.getByKey(name);
+		if (out == null)
+		{
+			out = new Group(name);
+			groupMap.add(name, out);
+			groupList.add(out);
+		}
+		return out;
+	}
+
+	/**
+	 * Returns true if a group is, or depends on, another group, directly or not.
+	 */
+	private static boolean dependsOn(Group group, Group other)
+	{
+		if (group == other)
+			return true;
+		for (int i = 0; i < group.dependencies.size(); i++)
+			if (dependsOn(group.dependencies.getByIndex(i), other))
+				return true;
+		return false;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "OGLPreloadManifest ["+groupList.size()+" groups, "+getResourceCount()+" resources]";
+	}
+
+	/**
+	 * A named group of resources.
+	 */
+	static class Group
+	{
+		/** Group name. */
+		String name;
+		/** Textures in this group. */
+		List<OGLTextureResource> textures;
+		/** Shaders in this group. */
+		List<OGLShaderResource> shaders;
+		/** Groups that need to be done before this one is queued. */
+		List<Group> dependencies;
+
+		Group(String name)
+		{
+			this.name = name;
+			this.textures = new List<OGLTextureResource>(16);
+			this.shaders = new List<OGLShaderResource>(4);
+			this.dependencies = new List<Group>(2);
+		}
+
+	}
+
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A handle to a resource that an {@link OGLResourceLoader} is caching.
+ * Handles can be polled every frame without blocking, and waited on 
+ * (or listened to) for completion.
+ * <p>
+ * A handle is complete once the loader has attempted to cache its resource.
+ * If caching failed, the handle is still complete, but {@link #isReady()} 
+ * returns false and {@link #get()} returns null.
+ * @author Matthew Tropiano
+ * @param <R> the resource definition type.
+ * @param <O> the cached object type.
+ */
+public class OGLResourceHandle<R, O>
+{
+	/** The resource definition. */
+	private R resource;
+	/** The cached object, if any. */
+	private volatile O object;
+	/** Set by the first call to complete this handle. */
+	private AtomicBoolean claimed;
+	/** Set once this handle completes, after the object is set. */
+	private volatile boolean done;
+	/** Latch for blocking waits. */
+	private CountDownLatch latch;
+	/** Listeners waiting on completion. */
+	private ConcurrentLinkedQueue<OGLResourceHandleListener<R, O>> listeners;
+	
+	/**
+	 * Creates a new, incomplete handle.
+	 * @param resource the resource definition.
+	 */
+	public OGLResourceHandle(R resource)
+	{
+		this.resource = resource;
+		this.object = null;
+		this.claimed = new AtomicBoolean(false);
+		this.done = false;
+		this.latch = new CountDownLatch(1);
+		this.listeners = new ConcurrentLinkedQueue<OGLResourceHandleListener<R, O>>();
+	}
+
+	/**
+	 * Returns the resource definition of this handle.
+	 */
+	public R getResource()
+	{
+		return resource;
+	}
+	
+	/**
+	 * Returns true if the loader has finished with this resource, 
+	 * whether or not caching succeeded.
+	 */
+	public boolean isDone()
+	{
+		return done;
+	}
+	
+	/**
+	 * Returns true if this handle's resource was cached successfully.
+	 */
+	public boolean isReady()
+	{
+		return done && object != null;
+	}
+	
+	/**
+	 * Returns true if the loader has finished with this resource, 
+	 * but could not cache it.
+	 */
+	public boolean isFailed()
+	{
+		return done && object == null;
+	}
+	
+	/**
+	 * Returns the cached object without blocking.
+	 * @return the object, or null if not ready.
+	 */
+	public O get()
+	{
+		return object;
+	}
+	
+	/**
+	 * Returns the cached object without blocking, or a placeholder if not ready.
+	 * @param placeholder the object to return if this is not ready.
+	 */
+	public O getOrPlaceholder(O placeholder)
+	{
+		O out = object;
+		return out != null ? out : placeholder;
+	}
+	
+	/**
+	 * Waits until this handle completes and returns the cached object.
+	 * @return the object, or null if caching failed.
+	 * @throws InterruptedException if the waiting thread is interrupted.
+	 */
+	public O await() throws InterruptedException
+	{
+		latch.await();
+		return object;
+	}
+	
+	/**
+	 * Waits until this handle completes or the timeout elapses.
+	 * @param timeout the maximum time to wait.
+	 * @param unit the unit of the timeout.
+	 * @return the object, or null if caching failed or is not complete.
+	 * @throws InterruptedException if the waiting thread is interrupted.
+	 */
+	public O await(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		latch.await(timeout, unit);
+		return object;
+	}
+	
+	/**
+	 * Adds a listener that is called once when this handle completes.
+	 * If this handle is already complete, the listener is called immediately
+	 * on the calling thread; otherwise, it is called on the thread that completes
+	 * the handle (normally the graphics thread).
+	 * @param listener the listener to add.
+	 */
+	public void addListener(OGLResourceHandleListener<R, O> listener)
+	{
+		listeners.add(listener);
+		if (done)
+			fireListeners();
+	}
+	
+	/**
+	 * Completes this handle. Only the first call has any effect.
+	 * @param object the cached object, or null if caching failed.
+	 * @return true if this call completed the handle, false if it was already complete.
+	 */
+	protected boolean complete(O object)
+	{
+		if (!claimed.compareAndSet(false, true))
+			return false;
+		// the object is published before the handle reads as done.
+		this.object = object;
+		done = true;
+		latch.countDown();
+		fireListeners();
+		return true;
+	}
+	
+	/**
+	 * Calls and removes all pending listeners.
+	 * Each listener is polled off the queue, so it is called exactly once.
+	 */
+	private void fireListeners()
+	{
+		OGLResourceHandleListener<R, O> listener;
+		while ((listener = listeners.poll()) != null)
+			listener.resourceDone(this);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Handle[" + resource + (isReady() ? ", ready" : (isFailed() ? ", failed" : ", pending")) + "]";
+	}
+	
+}
@@ -0,0 +1,25 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+/**
+ * Listener interface for {@link OGLResourceHandle} completion.
+ * @author Matthew Tropiano
+ * @param <R> the resource definition type.
+ * @param <O> the cached object type.
+ */
+public interface OGLResourceHandleListener<R, O>
+{
+	/**
+	 * Called when a handle completes, successfully or not.
+	 * Use {@link OGLResourceHandle#isReady()} to tell which.
+	 * @param handle the handle that completed.
+	 */
+	public void resourceDone(OGLResourceHandle<R, O> handle);
+
+}
@@ -9,19 +9,40 @@ package com.blackrook.ogl.util;
 
 import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.imageio.ImageIO;
 
 import com.blackrook.commons.bank.Bank;
-import com.blackrook.commons.hash.Hash;
 import com.blackrook.commons.linkedlist.Queue;
 import com.blackrook.commons.list.List;
 import com.blackrook.commons.math.RMath;
-import com.blackrook.ogl.OGLGraphicUtils;
 import com.blackrook.ogl.OGLGraphics;
 import com.blackrook.ogl.enums.AttribType;
 import com.blackrook.ogl.exception.GraphicsException;
@@ -40,61 +61,213 @@ import com.blackrook.ogl.object.texture.OGLTexture2D;
 import com.blackrook.ogl.object.texture.OGLTexture.InternalFormat;
 import com.blackrook.ogl.object.texture.OGLTexture.MagFilter;
 import com.blackrook.ogl.object.texture.OGLTexture.MinFilter;
+import com.blackrook.ogl.object.texture.OGLTexture.WrapType;
+import com.blackrook.ogl.util.OGLResourceLoaderMetrics.Counter;
+import com.blackrook.ogl.util.OGLResourceLoaderMetrics.Stage;
+import com.blackrook.ogl.util.image.OGLCompressedImage;
+import com.blackrook.ogl.util.image.OGLDXTCompressor;
+import com.blackrook.ogl.util.image.OGLImageBufferPool;
+import com.blackrook.ogl.util.image.OGLImageResizer;
+import com.blackrook.ogl.util.image.OGLMipmapGenerator;
+import com.blackrook.ogl.util.image.OGLPixelDecoder;
+import com.blackrook.ogl.util.image.OGLPixelImage;
+import com.blackrook.ogl.util.resource.OGLResourceArchive;
+import com.blackrook.ogl.util.resource.OGLShaderArchiveEntry;
 import com.blackrook.ogl.util.resource.OGLShaderResource;
+import com.blackrook.ogl.util.resource.OGLShaderResourceAbstract;
+import com.blackrook.ogl.util.resource.OGLTextureArchiveEntry;
+import com.blackrook.ogl.util.resource.OGLTextureAtlas;
+import com.blackrook.ogl.util.resource.OGLTextureAtlasRegion;
 import com.blackrook.ogl.util.resource.OGLTextureResource;
+import com.blackrook.ogl.util.resource.OGLTextureResourceAbstract;
 
 /**
  * This is an OGLSystemListener that automatically loads textures and shaders
  * within a frame. This should be placed at the beginning of the listener list
  * for best results.
+ * <p>
+ * OpenGL objects are only created, changed and destroyed on the graphics thread,
+ * in {@link #display(OGLGraphics)} and the calls made from it, and so are the
+ * texture and shader banks and the bookkeeping kept with them: atlas packing,
+ * shared textures, render target pools. Methods that can be called from
+ * other threads say so, and hand their work to the graphics thread.
  * @author Matthew Tropiano
  */
 public class OGLResourceLoader extends OGLCanvasNodeAdapter
 {
+	/** How many times per sweep period the resources are checked for sweeping. */
+	private static final int SWEEP_CHECKS_PER_PERIOD = 4;
+	/** Maximum generation for swept resources - caps the sweep period multiplier. */
+	private static final int SWEEP_MAX_GENERATION = 16;
+	/** Frames between checks of the texture quality tier. */
+	private static final int TEXTURE_QUALITY_PERIOD = 30;
+	/** Fraction of the texture memory budget above which the texture quality tier is raised. */
+	private static final float TEXTURE_REDUCE_FRACTION = 0.9f;
+	/** Fraction of the texture memory budget that reduced textures are restored within. */
+	private static final float TEXTURE_RESTORE_FRACTION = 0.7f;
+	
+	/** Loading priority of textures queued without a priority. */
+	public static final float TEXTURE_PRIORITY_DEFAULT = 0f;
+	/** Loading priority of textures that are needed for drawing, but not loaded. */
+	public static final float TEXTURE_PRIORITY_DEMAND = 1000f;
+	/** Loading priority of textures that are not drawn yet, but are predicted to be needed soon. */
+	public static final float TEXTURE_PRIORITY_PREFETCH = 500f;
+	
 	/** List of resource loader listeners. */
 	private List<OGLResourceLoaderListener> resourceListeners;
 	
 	/** Texture bank. */
 	private Bank<OGLTextureResource, OGLTexture2D> textureBank;
 	/** Queue of texture objects that need caching this frame. */
-	private Queue<OGLTextureResource> textureCacheQueue;
-	/** Hash of texture objects that need caching this frame. */
-	private Hash<OGLTextureResource> textureCacheQueueNameList;
+	private PriorityBlockingQueue<QueuedTexture> textureCacheQueue;
+	/** Loading priority of textures that were queued, but not cached yet. */
+	private ConcurrentHashMap<OGLTextureResource, TextureTicket> textureTickets;
+	/** Queue order for textures with the same priority. */
+	private AtomicLong textureQueueSequence;
+	/** Handles for textures that are queued, but not cached yet. */
+	private ConcurrentHashMap<OGLTextureResource, OGLTextureHandle> texturePendingHandles;
+	/** Textures requested off of the graphics thread, waiting to be handled on it. */
+	private ConcurrentLinkedQueue<TextureRequest> textureRequests;
+	/** Handles for textures looked up off of the graphics thread, waiting to be handled on it. */
+	private ConcurrentLinkedQueue<OGLTextureHandle> textureLookups;
+	/** Texture drawn in place of textures that are not cached yet. Null if not used. */
+	private OGLTextureResource placeholderTexture;
 	/** Queue of OpenGL texture objects that need destroying this frame. */
 	private Queue<OGLTextureResource> textureDestroyQueue;
 	
+	/** Size and usage records for each texture in the texture bank. */
+	private ConcurrentHashMap<OGLTextureResource, TextureRecord> textureRecords;
+	/** Sweep history for textures that were swept, for detecting thrashing. */
+	private ConcurrentHashMap<OGLTextureResource, ResourceRecord> textureSweepHistory;
+	/** Set of textures that are never swept. */
+	private Set<OGLTextureResource> texturePinnedSet;
+	/** Set of textures evicted due to the memory budget, reloaded on next request. */
+	private Set<OGLTextureResource> textureEvictedSet;
+	/** Set of cached textures that are still used while they wait to be replaced by a reload. */
+	private Set<OGLTextureResource> textureStaleSet;
+	/** Queue of stale textures waiting to be replaced. */
+	private PriorityBlockingQueue<QueuedTexture> textureReplaceQueue;
+	/** Maximum amount of textures being replaced at once, 0 or less is unlimited. */
+	private int textureReplaceLimit;
+	/** Amount of texture replacements given to the worker pool that were not uploaded yet. */
+	private int textureReplacePendingCount;
+	/** Maximum amount of estimated texture memory to keep in bytes, 0 or less is unlimited. */
+	private long textureMemoryBudget;
+	/** Amount of recent frames whose textures are never evicted, counting the current one. */
+	private int textureEvictionFrames;
+	/** Current amount of estimated texture memory used in bytes. */
+	private long textureMemoryUsed;
+	/** Maximum amount of times that a texture's size is halved to stay under the memory budget. */
+	private volatile int textureMaxReduction;
+	/** Current texture quality tier: how many times newly loaded textures are halved, before their quality priority. */
+	private volatile int textureQualityTier;
+	/** Frame that the texture quality tier was last checked. */
+	private long textureQualityFrame;
+	/** Amount of times the image of a texture being loaded on the graphics thread was halved, if it was. Decoding jobs hand theirs over with the decoded data. */
+	private ConcurrentHashMap<OGLTextureResource, Integer> textureReductions;
+
+	/** Worker pool for decoding texture data off of the graphics thread. Null if not used. */
+	private ExecutorService textureDecodeExecutor;
+	/** Number of threads in the texture decoding pool. */
+	private int textureDecodeThreads;
+	/** Queue of texture data that was decoded by the worker pool and needs uploading. */
+	private ConcurrentLinkedQueue<DecodedTexture> textureDecodedQueue;
+	/** Number of textures given to the worker pool that were not uploaded yet. */
+	private AtomicInteger textureDecodePendingCount;
+	/** Current texture settings. Replaced, never changed, so that decoding jobs can keep the ones they were queued with. */
+	private volatile TextureSettings textureSettings;
+	/** Settings and reduction of the texture being decoded on this thread by a decoding job. */
+	private ThreadLocal<TextureDecodeState> textureDecodeStates;
+	/** Block compressor for precompressing texture data. */
+	private final OGLDXTCompressor textureCompressor;
+	/** Resizer for textures with a set dimension. */
+	private final OGLImageResizer textureResizer;
+	/** Pool of direct buffers for texture data decoded without a BufferedImage. */
+	private final OGLImageBufferPool textureBufferPool;
+	/** Decoder for texture data decoded without a BufferedImage. */
+	private final OGLPixelDecoder texturePixelDecoder;
+	
+	/** Textures packed into the texture atlas, and its page textures. */
+	private final OGLTexturePacking texturePacking;
+	/** Textures shared by resources with the same content. */
+	private final OGLTextureSharing textureSharing;
+	/** Are textures being cached by cycleTextures()? */
+	private boolean cyclingTextures;
+	/** Loading metrics. Null if not recorded. */
+	private volatile OGLResourceLoaderMetrics metrics;
+	
 	/** Special bank for render target objects. */
 	private Bank<OGLTextureResource, RenderTarget> targetBank;
 	/** Special bank for render target depth buffer objects. */
 	private Bank<Integer, DepthBuffer> depthBufferBank;
+	/** Render targets that are not used by any resource, by size and format. */
+	private Bank<String, Queue<RenderTarget>> renderTargetPool;
+	/** Depth buffers that are not used by any render target, by size. */
+	private Bank<String, Queue<DepthBuffer>> depthBufferPool;
+	/** Amount of render targets in the pool. */
+	private int renderTargetPoolCount;
+	/** Amount of depth buffers in the pool. */
+	private int depthBufferPoolCount;
+	/** Maximum amount of render targets, and of depth buffers, kept in the pools. */
+	private volatile int renderTargetPoolCapacity;
 	
 	/** Shader program bank. */
 	private Bank<OGLShaderResource, OGLShaderProgram> shaderBank;
+	/** Preprocessor for shader program sources. */
+	private OGLShaderPreprocessor shaderPreprocessor;
+	/** Disk cache for linked shader program binaries. Null if not used. */
+	private OGLShaderBinaryCache shaderBinaryCache;
+	/** Gets and sets program binaries for the binary cache. Null if not used. */
+	private OGLShaderBinaryAccess shaderBinaryAccess;
+	/** Shader programs shared by resources, by resolved source hash. */
+	private Bank<String, SharedShaderProgram> shaderSharedPrograms;
+	/** The shared program used by each resource that uses one. */
+	private Bank<OGLShaderResource, SharedShaderProgram> shaderSharedResources;
 	/** Queue of shader objects that need caching this frame. */
 	private Queue<OGLShaderResource> shaderCacheQueue;
-	/** Hash of shader objects that need caching this frame. */
-	private Hash<OGLShaderResource> shaderCacheQueueNameList;
+	/** Handles for shaders that are queued, but not cached yet. */
+	private ConcurrentHashMap<OGLShaderResource, OGLShaderHandle> shaderPendingHandles;
+	/** Handles for shaders requested off of the graphics thread, waiting to be handled on it. */
+	private ConcurrentLinkedQueue<OGLShaderHandle> shaderRequests;
+	/** Handles for shaders looked up off of the graphics thread, waiting to be handled on it. */
+	private ConcurrentLinkedQueue<OGLShaderHandle> shaderLookups;
+	/** Shader used in place of shaders that are not cached yet. Null if not used. */
+	private OGLShaderResource placeholderShader;
 	/** Queue of OpenGL shader objects that need destroying this frame. */
 	private Queue<OGLShaderResource> shaderDestroyQueue;
+	/** Usage records for each shader in the shader bank. */
+	private ConcurrentHashMap<OGLShaderResource, ResourceRecord> shaderRecords;
+	/** Sweep history for shaders that were swept, for detecting thrashing. */
+	private ConcurrentHashMap<OGLShaderResource, ResourceRecord> shaderSweepHistory;
+	/** Set of shaders that are never swept. */
+	private Set<OGLShaderResource> shaderPinnedSet;
+	
+	/** Amount of frames that a resource can go untouched before it is swept. 0 or less is never. */
+	private int sweepFrames;
+	
+	/** The current frame number. */
+	private volatile long frameCount;
+	/** The thread that last called display(). */
+	private volatile Thread graphicsThread;
+	
+	/** Maximum amount of time to spend caching resources per frame in nanoseconds, 0 or less is unlimited. */
+	private long frameBudgetNanos;
+	/** Maximum amount of texture bytes to upload per frame, 0 or less is unlimited. */
+	private long frameBudgetBytes;
+	/** Time that the current frame's caching started in nanoseconds. */
+	private long frameStartNanos;
+	/** Amount of texture bytes uploaded this frame. */
+	private long frameBytesUploaded;
+	/** Amount of resources cached this frame from the queues. */
+	private int frameCachedCount;
 	
 	/** Do textures need to be reloaded this frame? */
 	private boolean textureReloadTrigger;
 	/** Do shaders need to be reloaded this frame? */
 	private boolean shaderReloadTrigger;
+	/** Paths of changed files whose resources need to be reloaded. */
+	private ConcurrentLinkedQueue<String> changedFiles;
 
-	/** Are we forcing no mipmapping? */
-	private boolean forceNoMipmap;
-	/** Are we forcing 32 bit textures? */
-	private boolean force32BitTextures;
-	/** Are we forcing nearest filtering? */
-	private boolean forceNearest;
-	/** Are we compressing textures? */
-	private boolean compressTextures;
-	/** What is the texture anisotropy level? */
-	private float textureAnisotropy;
-	/** Are we using the best filtering possible for texture minification? */
-	private boolean textureBestFiltering;
-	
 	/**
 	 * Creates a new resource loader node.
 	 */
@@ -102,21 +275,71 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 	{
 		resourceListeners = new List<OGLResourceLoaderListener>(4);
 		textureBank = new Bank<OGLTextureResource,OGLTexture2D>();
-		textureCacheQueue = new Queue<OGLTextureResource>();
-		textureCacheQueueNameList = new Hash<OGLTextureResource>();
+		textureCacheQueue = new PriorityBlockingQueue<QueuedTexture>();
+		textureTickets = new ConcurrentHashMap<OGLTextureResource, TextureTicket>();
+		textureQueueSequence = new AtomicLong(0L);
+		texturePendingHandles = new ConcurrentHashMap<OGLTextureResource, OGLTextureHandle>();
+		textureRequests = new ConcurrentLinkedQueue<TextureRequest>();
+		textureLookups = new ConcurrentLinkedQueue<OGLTextureHandle>();
+		placeholderTexture = null;
 		textureDestroyQueue = new Queue<OGLTextureResource>();
+		textureRecords = new ConcurrentHashMap<OGLTextureResource, TextureRecord>();
+		textureSweepHistory = new ConcurrentHashMap<OGLTextureResource, ResourceRecord>();
+		texturePinnedSet = Collections.newSetFromMap(new ConcurrentHashMap<OGLTextureResource, Boolean>());
+		textureEvictedSet = Collections.newSetFromMap(new ConcurrentHashMap<OGLTextureResource, Boolean>());
+		textureStaleSet = Collections.newSetFromMap(new ConcurrentHashMap<OGLTextureResource, Boolean>());
+		textureReplaceQueue = new PriorityBlockingQueue<QueuedTexture>();
+		textureReplaceLimit = 4;
+		textureReplacePendingCount = 0;
+		textureMemoryBudget = 0L;
+		textureEvictionFrames = 3;
+		textureMemoryUsed = 0L;
+		textureMaxReduction = 0;
+		textureQualityTier = 0;
+		textureQualityFrame = 0L;
+		textureReductions = new ConcurrentHashMap<OGLTextureResource, Integer>();
+		textureDecodeExecutor = null;
+		textureDecodeThreads = 0;
+		textureDecodedQueue = new ConcurrentLinkedQueue<DecodedTexture>();
+		textureDecodePendingCount = new AtomicInteger(0);
+		textureSettings = new TextureSettings();
+		textureDecodeStates = new ThreadLocal<TextureDecodeState>();
+		textureCompressor = new OGLDXTCompressor();
+		textureResizer = new OGLImageResizer();
+		textureBufferPool = new OGLImageBufferPool();
+		texturePixelDecoder = new OGLPixelDecoder(textureBufferPool);
+		texturePacking = new OGLTexturePacking();
+		textureSharing = new OGLTextureSharing();
+		cyclingTextures = false;
+		metrics = null;
 		targetBank = new Bank<OGLTextureResource,RenderTarget>();
 		depthBufferBank = new Bank<Integer,DepthBuffer>();
+		renderTargetPool = new Bank<String, Queue<RenderTarget>>();
+		depthBufferPool = new Bank<String, Queue<DepthBuffer>>();
+		renderTargetPoolCount = 0;
+		depthBufferPoolCount = 0;
+		renderTargetPoolCapacity = 4;
 		shaderBank = new Bank<OGLShaderResource,OGLShaderProgram>();
+		shaderPreprocessor = new OGLShaderPreprocessor();
+		shaderBinaryCache = null;
+		shaderBinaryAccess = null;
+		shaderSharedPrograms = new Bank<String, SharedShaderProgram>();
+		shaderSharedResources = new Bank<OGLShaderResource, SharedShaderProgram>();
 		shaderCacheQueue = new Queue<OGLShaderResource>();
-		shaderCacheQueueNameList = new Hash<OGLShaderResource>();
+		shaderPendingHandles = new ConcurrentHashMap<OGLShaderResource, OGLShaderHandle>();
+		shaderRequests = new ConcurrentLinkedQueue<OGLShaderHandle>();
+		shaderLookups = new ConcurrentLinkedQueue<OGLShaderHandle>();
+		placeholderShader = null;
 		shaderDestroyQueue = new Queue<OGLShaderResource>();
-		forceNoMipmap = false;
-		force32BitTextures = false;
-		forceNearest = false;
-		compressTextures = false;
-		textureAnisotropy = 0f;
-		textureBestFiltering = false;
+		shaderRecords = new ConcurrentHashMap<OGLShaderResource, ResourceRecord>();
+		shaderSweepHistory = new ConcurrentHashMap<OGLShaderResource, ResourceRecord>();
+		shaderPinnedSet = Collections.newSetFromMap(new ConcurrentHashMap<OGLShaderResource, Boolean>());
+		sweepFrames = 0;
+		frameBudgetNanos = 0L;
+		frameBudgetBytes = 0L;
+		changedFiles = new ConcurrentLinkedQueue<String>();
+		frameCount = 0L;
+		graphicsThread = null;
 	}
 	
 	/**
@@ -138,6 +361,12 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 	@Override
 	public void display(OGLGraphics g)
 	{
+		graphicsThread = Thread.currentThread();
+		frameCount++;
+		frameStartNanos = System.nanoTime();
+		frameBytesUploaded = 0L;
+		frameCachedCount = 0;
+
 		if (textureReloadTrigger)
 		{
 			reloadTextures(g);
@@ -150,14 +379,33 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 			shaderReloadTrigger = false;
 		}
 		
+		if (!changedFiles.isEmpty())
+			reloadChangedFiles(g);
+		
+		if (!textureRequests.isEmpty() || !shaderRequests.isEmpty() || !textureLookups.isEmpty() || !shaderLookups.isEmpty())
+			handleRequests();
+		
 		cycleShaders(g);
 		cycleTextures(g);
+		
+		if (frameCount - textureQualityFrame >= TEXTURE_QUALITY_PERIOD)
+			updateTextureQualityTier();
+		
+		if (textureMemoryBudget > 0L && textureMemoryUsed > textureMemoryBudget)
+			evictTextures(g);
+		
+		if (renderTargetPoolCount > renderTargetPoolCapacity || depthBufferPoolCount > renderTargetPoolCapacity)
+			trimRenderTargetPools(g);
+		
+		if (sweepFrames > 0 && frameCount % Math.max(1, sweepFrames / SWEEP_CHECKS_PER_PERIOD) == 0)
+			sweepResources();
 	}
 
 	/**
 	 * Triggers a texture reload for the next frame. 
-	 * May consume quite a bit of time depending on how many textures
-	 * are present in memory.
+	 * Cached textures are replaced progressively: each one is still used until
+	 * its replacement is ready, and replacements are spread over several frames.
+	 * @see #replaceTextures(OGLTextureResource...)
 	 */
 	public void triggerTextureReload()
 	{
@@ -175,17 +423,183 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 	}
 
 	/**
-	 * Queues a bunch of textures for loading each frame.
+	 * Reloads only the cached resources that use a set of changed files, starting next frame:
+	 * textures whose path is one of the files, and shaders with a program source
+	 * that is one of the files or includes one of them.
+	 * Textures are replaced progressively (see {@link #replaceTextures(OGLTextureResource...)}),
+	 * and shaders are re-queued, so they are reloaded within the frame budget.
+	 * This is safe to call from any thread.
+	 * @param paths the paths of the files that changed.
+	 * @see OGLResourceWatcher
+	 */
+	public void reloadFiles(String ... paths)
+	{
+		for (String path : paths)
+			changedFiles.add(normalizeFilePath(path));
+	}
+
+	/**
+	 * Reloads a bunch of cached textures progressively.
+	 * Unlike destroying and queuing them, each texture stays cached (and is still
+	 * returned by {@link #getTexture(OGLTextureResource)} and the like) until its replacement
+	 * is loaded, and only a few replacements are loaded at a time (see {@link #setTextureReplaceLimit(int)}),
+	 * within the frame budget.
+	 * <p>
+	 * Textures used most recently are replaced first, and textures fetched with
+	 * {@link #fetchTexture(OGLGraphics, OGLTextureResource, float)} or requested with 
+	 * {@link #requestTexture(OGLTextureResource, float)} while they wait are raised to that priority,
+	 * so what is on screen is replaced before anything else.
+	 * Textures that are not cached are ignored, and render targets are destroyed and queued.
+	 * This should be called from the graphics thread.
+	 * @param textures the textures to reload.
+	 */
+	public void replaceTextures(OGLTextureResource ... textures)
+	{
+		List<OGLTextureResource> targets = new List<OGLTextureResource>();
+		for (OGLTextureResource textureDef : textures)
+		{
+			if (!textureBank.containsKey(textureDef))
+				continue;
+			if (textureDef.isRenderTarget())
+			{
+				targets.add(textureDef);
+				continue;
+			}
+			
+			TextureRecord record = textureRecords.get(textureDef);
+			float priority = record == null || record.lastTouchedFrame >= frameCount - 1 
+				? TEXTURE_PRIORITY_DEMAND 
+				: TEXTURE_PRIORITY_DEFAULT - (frameCount - record.lastTouchedFrame);
+			
+			TextureTicket queued = textureTickets.get(textureDef);
+			if (queued != null && queued.replacement && !queued.claimed.get() && textureStaleSet.contains(textureDef))
+			{
+				raiseTexturePriority(textureDef, priority);
+				continue;
+			}
+
+			// textures with old settings must not be shared with the replacements.
+			textureSharing.unshare(textureDef);
+			
+			textureStaleSet.add(textureDef);
+			TextureTicket ticket = new TextureTicket(textureDef, priority, textureSettings);
+			ticket.replacement = true;
+			textureTickets.put(textureDef, ticket);
+			enqueueTexture(ticket, priority);
+		}
+		
+		if (targets.size() > 0)
+		{
+			OGLTextureResource[] out = new OGLTextureResource[targets.size()];
+			for (int i = 0; i < out.length; i++)
+				out[i] = targets.getByIndex(i);
+			destroyTextures(out);
+			queueTextures(out);
+		}
+	}
+
+	/**
+	 * Queues a bunch of textures for loading each frame, with the default priority.
 	 * All textures queued are not guaranteed to be loaded the next frame.
+	 * If background decoding is on (see {@link #setTextureDecodeThreads(int)}), 
+	 * textures that are read from a path are decoded by the worker pool, and
+	 * uploaded on the first frame after they finish decoding.
+	 * @see #TEXTURE_PRIORITY_DEFAULT
 	 */
 	public void queueTextures(OGLTextureResource ... textures)
+	{
+		queueTextures(TEXTURE_PRIORITY_DEFAULT, textures);
+	}
+	
+	/**
+	 * Queues a bunch of textures for loading each frame.
+	 * Textures with a higher priority are decoded and loaded before textures with a lower one,
+	 * and textures with the same priority are loaded in the order that they were queued.
+	 * If a texture is already queued with a lower priority, its priority is raised.
+	 * All textures queued are not guaranteed to be loaded the next frame.
+	 * @param priority the loading priority.
+	 * @param textures the textures to queue.
+	 * @see #TEXTURE_PRIORITY_DEFAULT
+	 * @see #TEXTURE_PRIORITY_PREFETCH
+	 * @see #TEXTURE_PRIORITY_DEMAND
+	 * @see #getCameraPriority(OGL2DCamera, float, float)
+	 */
+	public void queueTextures(float priority, OGLTextureResource ... textures)
 	{
 		for (OGLTextureResource textureDef : textures)
+			queueTexture(textureDef, priority);
+	}
+	
+	/**
+	 * Queues a texture for loading, if it is not queued already.
+	 * If it is, its priority is raised if the new priority is higher.
+	 * @return the handle for the queued texture.
+	 */
+	private OGLTextureHandle queueTexture(OGLTextureResource textureDef, float priority)
+	{
+		OGLTextureHandle handle = new OGLTextureHandle(textureDef);
+		OGLTextureHandle pending = texturePendingHandles.putIfAbsent(textureDef, handle);
+		if (pending != null)
 		{
-			textureCacheQueue.enqueue(textureDef);
-			fireTextureAddedEvent(textureDef);
-			textureCacheQueueNameList.put(textureDef);
+			raiseTexturePriority(textureDef, priority);
+			return pending;
 		}
+
+		TextureTicket ticket = new TextureTicket(textureDef, priority, textureSettings);
+		textureTickets.put(textureDef, ticket);
+		if (textureDecodeExecutor != null && isDecodableOffThread(textureDef))
+			textureDecodePendingCount.incrementAndGet();
+		enqueueTexture(ticket, priority);
+		fireTextureAddedEvent(textureDef);
+		return handle;
+	}
+
+	/**
+	 * Raises the priority of a texture that is queued, but not loading yet.
+	 * Does nothing if the new priority is not higher.
+	 */
+	private void raiseTexturePriority(OGLTextureResource textureDef, float priority)
+	{
+		TextureTicket ticket = textureTickets.get(textureDef);
+		if (ticket == null || ticket.claimed.get() || priority <= ticket.priority)
+			return;
+		ticket.priority = priority;
+		// the old entry is skipped once this one is claimed.
+		enqueueTexture(ticket, priority);
+	}
+	
+	/**
+	 * Adds an entry for a queued texture to the decoding pool's queue, 
+	 * or the cache queue if it is not decoded by the pool.
+	 * Entries for replacements go to the replacement queue.
+	 */
+	private void enqueueTexture(TextureTicket ticket, float priority)
+	{
+		QueuedTexture entry = new QueuedTexture(ticket, priority, textureQueueSequence.getAndIncrement());
+		ExecutorService executor = textureDecodeExecutor;
+		if (ticket.replacement)
+			textureReplaceQueue.add(entry);
+		else if (executor != null && isDecodableOffThread(ticket.resource))
+			executor.execute(new TextureDecodeJob(entry));
+		else
+			textureCacheQueue.add(entry);
+	}
+	
+	/**
+	 * Returns a loading priority for an object from its distance to a camera's center.
+	 * The priority is 0 at the center, and drops by 1 for every camera radius away from it,
+	 * so it can be added to another priority to order textures by their distance to the camera.
+	 * @param camera the camera.
+	 * @param x the object's x-coordinate.
+	 * @param y the object's y-coordinate.
+	 * @return the priority, 0 or less.
+	 */
+	public static float getCameraPriority(OGL2DCamera camera, float x, float y)
+	{
+		double dx = x - camera.getObjectCenterX();
+		double dy = y - camera.getObjectCenterY();
+		double radius = Math.max(camera.getObjectRadius(), 1.0);
+		return (float)(-Math.sqrt(dx * dx + dy * dy) / radius);
 	}
 
 	/**
@@ -195,11 +609,23 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 	public void queueShaders(OGLShaderResource ... shaders)
 	{
 		for (OGLShaderResource shaderDef : shaders)
-		{
-			shaderCacheQueue.enqueue(shaderDef);
-			fireShaderAddedEvent(shaderDef);
-			shaderCacheQueueNameList.put(shaderDef);
-		}
+			queueShader(shaderDef);
+	}
+	
+	/**
+	 * Queues a shader for loading, if it is not queued already.
+	 * @return the handle for the queued shader.
+	 */
+	private OGLShaderHandle queueShader(OGLShaderResource shaderDef)
+	{
+		OGLShaderHandle handle = new OGLShaderHandle(shaderDef);
+		OGLShaderHandle pending = shaderPendingHandles.putIfAbsent(shaderDef, handle);
+		if (pending != null)
+			return pending;
+
+		shaderCacheQueue.enqueue(shaderDef);
+		fireShaderAddedEvent(shaderDef);
+		return handle;
 	}
 
 	/**
@@ -212,44 +638,298 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 		if (textureBank.getByKey(textureDef) != null)
 		{
 			textureBank.clearFlag(textureDef);
+			touchTexture(textureDef);
 			fireTextureTouchedEvent(textureDef);
 		}
 		else
 		{
-			synchronized (textureCacheQueue)
+			try{
+				if (textureDef.isRenderTarget() && !isDecodableOffThread(textureDef))
+					storeRenderTarget(g, textureDef);
+				else
+					storeTexture(g, textureDef, loadTexture(g, textureDef, true));
+				if (!cyclingTextures)
+					updateTextureAtlasPages(g);
+			} catch (GraphicsException e) {
+				fireTextureCacheGraphicErrorEvent(textureDef, e);
+			}
+		}
+		completeTextureHandle(textureDef);
+	}
+
+	/**
+	 * Caches a texture into OpenGL using image data that was already decoded
+	 * by the decoding pool. If the texture was already cached in the meantime,
+	 * the decoded data is discarded.
+	 */
+	protected void cacheDecodedTexture(OGLGraphics g, DecodedTexture decoded)
+	{
+		OGLTextureResource textureDef = decoded.resource;
+		if (decoded.replacement != null)
+		{
+			textureReplacePendingCount--;
+			if (textureTickets.get(textureDef) != decoded.replacement || !textureStaleSet.remove(textureDef))
 			{
-				try{
-					OGLTexture2D texture = loadTexture(g, textureDef);
-	
-					if (texture != null)
+				// destroyed, or reloaded again, while it was decoded.
+				textureDecodePendingCount.decrementAndGet();
+				textureTickets.remove(textureDef, decoded.replacement);
+				if (decoded.pixels != null)
+					decoded.pixels.release();
+				return;
+			}
+			// the old texture is kept if the replacement could not be read. It stays in the bank,
+			// so the next change to its file (see reloadFiles()) replaces it again.
+			if (decoded.exception != null)
+				fireTextureCacheLoadErrorEvent(textureDef, decoded.exception);
+			else if (decoded.image == null && decoded.compressed == null && decoded.pixels == null)
+				fireTextureCacheLoadErrorEvent(textureDef, 
+						new IOException("Could not open stream for resource '"+textureDef.getPath()+"'."));
+			else
+				purgeTexture(g, textureDef);
+		}
+		
+		if (textureBank.getByKey(textureDef) == null)
+		{
+			// read by storeTexture().
+			if (decoded.reduction > 0)
+				textureReductions.put(textureDef, decoded.reduction);
+			else
+				textureReductions.remove(textureDef);
+			try{
+				if (decoded.exception != null)
+					fireTextureCacheLoadErrorEvent(textureDef, decoded.exception);
+				else if (decoded.compressed != null)
+				{
+					OGLTexture2D texture = textureSharing.find(textureDef, decoded.contentHash);
+					if (texture == null && (texture = uploadCompressedTexture(g, textureDef, decoded.compressed)) != null)
+						shareTexture(textureDef, decoded.contentHash, texture);
+					storeTexture(g, textureDef, texture != null ? texture : loadTexture(g, textureDef, true));
+				}
+				else if (decoded.pixels != null)
+				{
+					OGLTexture2D texture = textureSharing.find(textureDef, decoded.contentHash);
+					if (texture == null && (texture = uploadPixelTexture(g, textureDef, decoded.pixels)) != null)
+						shareTexture(textureDef, decoded.contentHash, texture);
+					storeTexture(g, textureDef, texture != null ? texture : loadTexture(g, textureDef, true));
+				}
+				else if (decoded.image == null)
+					fireTextureCacheLoadErrorEvent(textureDef, 
+							new IOException("Could not open stream for resource '"+textureDef.getPath()+"'."));
+				else
+				{
+					OGLTexture2D texture = textureSharing.find(textureDef, decoded.contentHash);
+					if (texture == null)
 					{
-						if (textureDef.isRenderTarget())
-						{
-							RenderTarget rt = new RenderTarget(g, texture);
-							DepthBuffer db = depthBufferBank.getByKey(textureDef.getDepthId()); 
-							if (db == null)
-							{
-								db = new DepthBuffer(g, texture.getWidth(), texture.getHeight());
-								depthBufferBank.add(textureDef.getDepthId(), db);
-							}
-							rt.depthBuffer = db;
-							db.renderTargetList.add(rt);
-							rt.frameBufferObject.attachToRenderBuffer(g, AttachPoint.DEPTH, db.depthBuffer);
-							g.checkFrameBufferStatus();
-							targetBank.add(textureDef, rt);
-						}
-						textureBank.add(textureDef, texture);
-						fireTextureCachedEvent(textureDef, texture);
+						texture = createTexture(g, textureDef, decoded.image, decoded.mipmaps);
+						shareTexture(textureDef, decoded.contentHash, texture);
 					}
-				} catch (GraphicsException e) {
-					fireTextureCacheGraphicErrorEvent(textureDef, e);
+					storeTexture(g, textureDef, texture);
 				}
-				textureCacheQueueNameList.remove(textureDef);
-				textureCacheQueue.notify();
+			} catch (GraphicsException e) {
+				fireTextureCacheGraphicErrorEvent(textureDef, e);
+			}
+		}
+		// unused if the texture was cached in the meantime, or shared.
+		if (decoded.pixels != null)
+			decoded.pixels.release();
+		textureDecodePendingCount.decrementAndGet();
+		completeTextureHandle(textureDef);
+	}
+	
+	/**
+	 * Completes and removes the pending handle for a texture, if any,
+	 * with whatever is in the texture bank.
+	 */
+	private void completeTextureHandle(OGLTextureResource textureDef)
+	{
+		textureTickets.remove(textureDef);
+		OGLTextureHandle handle = texturePendingHandles.remove(textureDef);
+		if (handle != null)
+			handle.complete(textureBank.getByKey(textureDef));
+	}
+
+	/**
+	 * Adds a render target that has no path to the texture bank, reusing
+	 * a pooled render target of the same size and format, if there is one.
+	 */
+	private void storeRenderTarget(OGLGraphics g, OGLTextureResource textureDef)
+	{
+		Dimension size = getRenderTargetSize(g, textureDef);
+		RenderTarget rt = takePooled(renderTargetPool, getRenderTargetKey(textureDef, size.width, size.height));
+		if (rt == null)
+			storeTexture(g, textureDef, loadTexture(g, textureDef, true));
+		else
+		{
+			renderTargetPoolCount--;
+			storeTexture(g, textureDef, rt.colorBufferTexture, rt);
+		}
+	}
+
+	/**
+	 * Adds a freshly-loaded texture to the texture bank, creating its
+	 * render target attachments if it is a render target.
+	 * Does nothing if the texture is null.
+	 */
+	private void storeTexture(OGLGraphics g, OGLTextureResource textureDef, OGLTexture2D texture)
+	{
+		storeTexture(g, textureDef, texture, null);
+	}
+	
+	/**
+	 * Adds a freshly-loaded texture to the texture bank, creating its
+	 * render target attachments if it is a render target, or using the
+	 * provided pooled render target, if not null.
+	 * Does nothing if the texture is null.
+	 */
+	private void storeTexture(OGLGraphics g, OGLTextureResource textureDef, OGLTexture2D texture, RenderTarget pooled)
+	{
+		if (texture == null)
+			return;
+		
+		if (textureDef.isRenderTarget())
+		{
+			RenderTarget rt = pooled != null ? pooled : new RenderTarget(g, texture);
+			rt.poolKey = getRenderTargetKey(textureDef, texture.getWidth(), texture.getHeight());
+			DepthBuffer db = depthBufferBank.getByKey(textureDef.getDepthId()); 
+			if (db == null)
+			{
+				db = takePooled(depthBufferPool, getDepthBufferKey(texture.getWidth(), texture.getHeight()));
+				if (db != null)
+					depthBufferPoolCount--;
+				else
+					db = new DepthBuffer(g, texture.getWidth(), texture.getHeight());
+				db.depthId = textureDef.getDepthId();
+				depthBufferBank.add(textureDef.getDepthId(), db);
+			}
+			rt.depthBuffer = db;
+			db.renderTargetList.add(rt);
+			rt.frameBufferObject.attachToRenderBuffer(g, AttachPoint.DEPTH, db.depthBuffer);
+			g.checkFrameBufferStatus();
+			targetBank.add(textureDef, rt);
+		}
+		textureBank.add(textureDef, texture);
+		OGLTextureAtlasRegion region = texturePacking.getRegion(textureDef);
+		long size = region != null ? 4L * region.getWidth() * region.getHeight() : texture.getEstimatedSize();
+		long uploaded = size;
+		if (textureSharing.isShared(textureDef))
+		{
+			// shared textures are counted once, until the last resource using them is purged.
+			if (textureSharing.setSize(textureDef, size))
+			{
+				textureMemoryUsed += size;
+				frameBytesUploaded += size;
 			}
+			else
+				uploaded = 0L;
+			size = 0L;
+		}
+		OGLResourceLoaderMetrics m = metrics;
+		if (m != null)
+		{
+			m.countUpload(textureDef, uploaded);
+			m.count(Counter.TEXTURES_CACHED, 1L);
+		}
+		TextureRecord record = new TextureRecord(size, frameCount);
+		record.generation = getSweepGeneration(textureSweepHistory.remove(textureDef));
+		Integer reduction = textureReductions.remove(textureDef);
+		record.reduction = reduction != null ? reduction : 0;
+		textureRecords.put(textureDef, record);
+		textureEvictedSet.remove(textureDef);
+		textureMemoryUsed += record.size;
+		frameBytesUploaded += record.size;
+		fireTextureCachedEvent(textureDef, texture);
+	}
+
+	/**
+	 * Marks a texture as used this frame, for the texture memory budget and sweeping.
+	 */
+	private void touchTexture(OGLTextureResource textureDef)
+	{
+		TextureRecord record = textureRecords.get(textureDef);
+		if (record != null)
+		{
+			record.lastTouchedFrame = frameCount;
+			recordCount(Counter.TOUCHES, 1L);
+		}
+	}
+
+	/**
+	 * Marks a shader as used this frame, for sweeping.
+	 */
+	private void touchShader(OGLShaderResource shaderDef)
+	{
+		ResourceRecord record = shaderRecords.get(shaderDef);
+		if (record != null)
+		{
+			record.lastTouchedFrame = frameCount;
+			recordCount(Counter.TOUCHES, 1L);
 		}
 	}
 
+	/**
+	 * Returns the current time in nanoseconds if metrics are recorded, 0 if not.
+	 */
+	private long getMetricsTime()
+	{
+		return metrics != null ? System.nanoTime() : 0L;
+	}
+
+	/**
+	 * Records the time spent in a stage since a time from {@link #getMetricsTime()}, if metrics are recorded.
+	 */
+	private void recordTime(Stage stage, Object resource, long startNanos)
+	{
+		OGLResourceLoaderMetrics m = metrics;
+		if (m != null && startNanos != 0L)
+			m.record(stage, resource, System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Adds to a metrics counter, if metrics are recorded.
+	 */
+	private void recordCount(Counter counter, long amount)
+	{
+		OGLResourceLoaderMetrics m = metrics;
+		if (m != null)
+			m.count(counter, amount);
+	}
+
+	/**
+	 * Removes a resource's recorded times from the metrics, if metrics are recorded.
+	 */
+	private void removeMetrics(Object resource)
+	{
+		OGLResourceLoaderMetrics m = metrics;
+		if (m != null)
+			m.removeResource(resource);
+	}
+
+	/**
+	 * Records how long a texture waited in a queue, if metrics are recorded.
+	 */
+	private void recordQueueWait(TextureTicket ticket)
+	{
+		OGLResourceLoaderMetrics m = metrics;
+		if (m != null)
+			m.record(Stage.QUEUE_WAIT, ticket.resource, System.nanoTime() - ticket.queuedNanos);
+	}
+
+	/**
+	 * Figures out the sweep generation of a resource that is being cached,
+	 * using its sweep history. If it was swept too recently, it goes up 
+	 * a generation, which makes it take longer to be swept again.
+	 * @param history the resource's sweep history, or null if none.
+	 */
+	private int getSweepGeneration(ResourceRecord history)
+	{
+		if (history == null)
+			return 1;
+		else if (frameCount - history.lastTouchedFrame <= (long)sweepFrames * history.generation)
+			return Math.min(history.generation * 2, SWEEP_MAX_GENERATION);
+		else
+			return history.generation;
+	}
+
 	/**
 	 * Caches a shader program into OpenGL. This will do nothing if the shader
 	 * is already added to the internal bank (except clear its flag).
@@ -260,26 +940,29 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 		if (shaderBank.getByKey(shaderDef) != null)
 		{
 			shaderBank.clearFlag(shaderDef);
+			touchShader(shaderDef);
 			fireShaderTouchedEvent(shaderDef);
 		}
 		else
 		{
-			synchronized (shaderCacheQueue)
-			{
-				try{
-					OGLShaderProgram shader = loadShader(g, shaderDef);
-					if (shader != null)
-					{
-						shaderBank.add(shaderDef, shader);
-						fireShaderCachedEvent(shaderDef, shader);
-					}
-				} catch (GraphicsException e) {
-					fireShaderCacheGraphicErrorEvent(shaderDef, e);
+			try{
+				OGLShaderProgram shader = acquireShader(g, shaderDef);
+				if (shader != null)
+				{
+					shaderBank.add(shaderDef, shader);
+					ResourceRecord record = new ResourceRecord(frameCount);
+					record.generation = getSweepGeneration(shaderSweepHistory.remove(shaderDef));
+					shaderRecords.put(shaderDef, record);
+					recordCount(Counter.SHADERS_CACHED, 1L);
+					fireShaderCachedEvent(shaderDef, shader);
 				}
-				shaderCacheQueueNameList.remove(shaderDef);
-				shaderCacheQueue.notify();
+			} catch (GraphicsException e) {
+				fireShaderCacheGraphicErrorEvent(shaderDef, e);
 			}
 		}
+		OGLShaderHandle handle = shaderPendingHandles.remove(shaderDef);
+		if (handle != null)
+			handle.complete(shaderBank.getByKey(shaderDef));
 	}
 
 	/**
@@ -289,7 +972,10 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 	public void destroyTextures(OGLTextureResource ... textures)
 	{
 		for (OGLTextureResource textureDef : textures)
+		{
+			textureEvictedSet.remove(textureDef);
 			textureDestroyQueue.enqueue(textureDef);
+		}
 	}
 
 	/**
@@ -304,503 +990,3017 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 
 	/**
 	 * Returns true if the loader contains a cached texture.
+	 * This can be called from any thread.
 	 */
 	public boolean containsTexture(OGLTextureResource handle)
 	{
-		return textureBank.containsKey(handle);
+		// the records are kept alongside the bank, and can be read off of the graphics thread.
+		return textureRecords.containsKey(handle);
 	}
 
 	/**
 	 * Returns true if the loader contains a cached shader.
+	 * This can be called from any thread.
 	 */
 	public boolean containsShader(OGLShaderResource handle)
 	{
-		return shaderBank.containsKey(handle);
+		return shaderRecords.containsKey(handle);
 	}
 
 	/**
 	 * Retrieves a texture that has been cached by this.
-	 * If it is in the middle of being cached, and the caching has not been
-	 * suspended, the current thread calling the method will wait until it
-	 * finishes.
+	 * If the texture was evicted due to the texture memory budget, it is
+	 * queued for loading again.
+	 * <p>
+	 * The texture bank is only read on the graphics thread. If this is called from
+	 * another thread, the lookup is handed to the graphics thread, and the calling
+	 * thread waits until it is handled at the start of the next frame - and, if the 
+	 * texture is in the middle of being cached, until it finishes.
+	 * Use {@link #requestTexture(OGLTextureResource)} to avoid waiting.
 	 * @param handle the texture resource to use for texture acquisition.
-	 * @return an OGLTexture2D handle to the texture, now cached.
+	 * @return an OGLTexture2D handle to the texture, now cached, or null 
+	 * if it is not cached yet.
 	 */
 	public OGLTexture2D getTexture(OGLTextureResource handle)
 	{
-		synchronized (textureCacheQueue)
+		if (Thread.currentThread() != graphicsThread)
 		{
-			while (textureCacheQueueNameList.contains(handle))
-				try {textureCacheQueue.wait();	} catch (InterruptedException e) {}
+			OGLTextureHandle lookup = new OGLTextureHandle(handle);
+			textureLookups.add(lookup);
+			while (!lookup.isDone())
+				try {lookup.await();} catch (InterruptedException e) {}
+			return lookup.get();
 		}
+		
+		if (textureEvictedSet.remove(handle))
+			queueTexture(handle, TEXTURE_PRIORITY_DEMAND);
+		touchTexture(handle);
 		return textureBank.getByKey(handle);
 	}
 	
 	/**
 	 * Retrieves a shader that has been cached by this.
-	 * If it is in the middle of being cached, and the caching has not been
-	 * suspended, the current thread calling the method will wait until it
-	 * finishes.
+	 * <p>
+	 * The shader bank is only read on the graphics thread. If this is called from
+	 * another thread, the lookup is handed to the graphics thread, and the calling
+	 * thread waits until it is handled at the start of the next frame - and, if the 
+	 * shader is in the middle of being cached, until it finishes.
+	 * Use {@link #requestShader(OGLShaderResource)} to avoid waiting.
 	 * @param handle	the shader resource to use for shader acquisition.
-	 * @return			the shader object cached by 
+	 * @return			the shader object cached by this, or null if it is not cached yet.
 	 */
 	public OGLShaderProgram getShader(OGLShaderResource handle)
 	{
-		synchronized (shaderCacheQueue)
+		if (Thread.currentThread() != graphicsThread)
 		{
-			while (shaderCacheQueueNameList.contains(handle))
-				try {shaderCacheQueue.wait();	} catch (InterruptedException e) {}
+			OGLShaderHandle lookup = new OGLShaderHandle(handle);
+			shaderLookups.add(lookup);
+			while (!lookup.isDone())
+				try {lookup.await();} catch (InterruptedException e) {}
+			return lookup.get();
 		}
+		
+		touchShader(handle);
 		return shaderBank.getByKey(handle);
 	}
 	
 	/**
-	 * Sets if texture compression is turned on.
-	 * Setting this to a different value will trigger a texture reload,
-	 * and may slow down the system.
+	 * Requests a texture without waiting for it.
+	 * If the texture is cached, the returned handle is already complete.
+	 * If not, the texture is queued for loading (if it is not queued already),
+	 * and the returned handle completes when it is cached or fails to load.
+	 * This can be called from any thread, but off of the graphics thread,
+	 * the texture is looked up on the next frame instead (see {@link #requestTexture(OGLTextureResource, float)}).
+	 * @param resource the texture resource.
+	 * @return a handle to the texture.
 	 */
-	public void setCompressTextures(boolean value)
+	public OGLTextureHandle requestTexture(OGLTextureResource resource)
 	{
-		boolean old = compressTextures;
-		compressTextures = value;
-		if (value != old)
-			triggerTextureReload();
+		return requestTexture(resource, TEXTURE_PRIORITY_DEFAULT);
 	}
 	
 	/**
-	 * Sets if all textures are forced to be loaded as 32-bit textures.
-	 * Setting this to a different value will trigger a texture reload,
-	 * and may slow down the system.
+	 * Requests a texture without waiting for it, with a loading priority.
+	 * If the texture is cached, the returned handle is already complete.
+	 * If not, the texture is queued for loading (or its priority is raised, if it
+	 * was queued with a lower one), and the returned handle completes when it 
+	 * is cached or fails to load.
+	 * <p>
+	 * This can be called from any thread. The texture bank is only read on the
+	 * graphics thread, though, so if this is called from another thread, and the 
+	 * texture is not already queued, the request is handed to the graphics thread 
+	 * and handled at the start of the next frame: the returned handle is not complete 
+	 * until then, even if the texture is cached.
+	 * @param resource the texture resource.
+	 * @param priority the loading priority.
+	 * @return a handle to the texture.
+	 * @see #queueTextures(float, OGLTextureResource...)
 	 */
-	public void setForce32BitTextures(boolean value)
+	public OGLTextureHandle requestTexture(OGLTextureResource resource, float priority)
 	{
-		boolean old = force32BitTextures;
-		force32BitTextures = value;
-		if (value != old)
-			triggerTextureReload();
+		OGLTextureHandle pending = texturePendingHandles.get(resource);
+		if (pending != null)
+		{
+			recordCount(Counter.CACHE_MISSES, 1L);
+			raiseTexturePriority(resource, priority);
+			return pending;
+		}
+		
+		if (Thread.currentThread() != graphicsThread)
+		{
+			OGLTextureHandle out = new OGLTextureHandle(resource);
+			textureRequests.add(new TextureRequest(out, priority));
+			return out;
+		}
+		
+		OGLTexture2D texture = textureBank.getByKey(resource);
+		recordCount(texture != null ? Counter.CACHE_HITS : Counter.CACHE_MISSES, 1L);
+		if (texture != null)
+		{
+			if (textureStaleSet.contains(resource))
+				raiseTexturePriority(resource, priority);
+			touchTexture(resource);
+			OGLTextureHandle out = new OGLTextureHandle(resource);
+			out.complete(texture);
+			return out;
+		}
+
+		textureEvictedSet.remove(resource);
+		return queueTexture(resource, priority);
 	}
 	
 	/**
-	 * Sets if all textures will have mipmaps built on load if they are not filtered
-	 * using NEAREST filtering.
-	 * Setting this to a different value will trigger a texture reload,
-	 * and may slow down the system.
+	 * Requests a shader without waiting for it.
+	 * If the shader is cached, the returned handle is already complete.
+	 * If not, the shader is queued for loading (if it is not queued already),
+	 * and the returned handle completes when it is cached or fails to load.
+	 * <p>
+	 * This can be called from any thread. The shader bank is only read on the
+	 * graphics thread, though, so if this is called from another thread, and the 
+	 * shader is not already queued, the request is handed to the graphics thread 
+	 * and handled at the start of the next frame: the returned handle is not complete 
+	 * until then, even if the shader is cached.
+	 * @param resource the shader resource.
+	 * @return a handle to the shader.
 	 */
-	public void setForceNoMipMaps(boolean value)
+	public OGLShaderHandle requestShader(OGLShaderResource resource)
 	{
-		boolean old = forceNoMipmap;
-		forceNoMipmap = value;
-		if (value != old)
-			triggerTextureReload();
+		OGLShaderHandle pending = shaderPendingHandles.get(resource);
+		if (pending != null)
+			return pending;
+		
+		if (Thread.currentThread() != graphicsThread)
+		{
+			OGLShaderHandle out = new OGLShaderHandle(resource);
+			shaderRequests.add(out);
+			return out;
+		}
+		
+		OGLShaderProgram shader = shaderBank.getByKey(resource);
+		if (shader != null)
+		{
+			touchShader(resource);
+			OGLShaderHandle out = new OGLShaderHandle(resource);
+			out.complete(shader);
+			return out;
+		}
+
+		return queueShader(resource);
 	}
 	
 	/**
-	 * Sets if all textures will have will be forced to use NEAREST filtering.
-	 * Setting this to a different value will trigger a texture reload,
-	 * and may slow down the system.
+	 * Handles the texture and shader requests and lookups made off of the graphics thread, 
+	 * completing each request's handle along with the handle of the request made for it here,
+	 * and each lookup's handle once its resource is no longer pending.
 	 */
-	public void setForceNearest(boolean value)
+	private void handleRequests()
 	{
-		boolean old = forceNearest;
-		forceNearest = value;
-		if (value != old)
-			triggerTextureReload();
-	}
+		OGLTextureHandle textureLookup;
+		while ((textureLookup = textureLookups.poll()) != null)
+		{
+			OGLTexture2D texture = getTexture(textureLookup.getResource());
+			OGLTextureHandle pending = texturePendingHandles.get(textureLookup.getResource());
+			if (pending != null)
+				pending.addListener(new HandleRelay<OGLTextureResource, OGLTexture2D>(textureLookup));
+			else
+				textureLookup.complete(texture);
+		}
+		OGLShaderHandle shaderLookup;
+		while ((shaderLookup = shaderLookups.poll()) != null)
+		{
+			OGLShaderProgram shader = getShader(shaderLookup.getResource());
+			OGLShaderHandle pending = shaderPendingHandles.get(shaderLookup.getResource());
+			if (pending != null)
+				pending.addListener(new HandleRelay<OGLShaderResource, OGLShaderProgram>(shaderLookup));
+			else
+				shaderLookup.complete(shader);
+		}
 
+		TextureRequest textureRequest;
+		while ((textureRequest = textureRequests.poll()) != null)
+		{
+			OGLTextureHandle handle = requestTexture(textureRequest.handle.getResource(), textureRequest.priority);
+			handle.addListener(new HandleRelay<OGLTextureResource, OGLTexture2D>(textureRequest.handle));
+		}
+		OGLShaderHandle shaderRequest;
+		while ((shaderRequest = shaderRequests.poll()) != null)
+		{
+			OGLShaderHandle handle = requestShader(shaderRequest.getResource());
+			handle.addListener(new HandleRelay<OGLShaderResource, OGLShaderProgram>(shaderRequest));
+		}
+	}
+	
 	/**
-	 * Sets the texture anisotropy for all textures.
-	 * Setting this to a different value will trigger a texture reload,
-	 * and may slow down the system.
+	 * Loads the resources in a manifest as a batch, with the demand priority.
+	 * @param manifest the manifest to load.
+	 * @return a handle for tracking the progress, which completes once every resource is done loading.
+	 * @see #preload(OGLPreloadManifest, float)
 	 */
-	public void setTextureAnisotropy(float value)
+	public OGLPreloadHandle preload(OGLPreloadManifest manifest)
 	{
-		float old = textureAnisotropy;
-		textureAnisotropy = value;
-		if (value != old)
-			triggerTextureReload();
+		return preload(manifest, TEXTURE_PRIORITY_DEMAND);
 	}
-
+	
 	/**
-	 * Sets if we are using the best minification filtering for all textures (trilinear).
-	 * A texture will be set to use bilinear filtering if "force nearest" and "no mip maps"
-	 * are both set to false. If this is set, it will be trilinear that is used instead of bilinear.
-	 * Setting this to a different value will trigger a texture reload,
-	 * and may slow down the system.
+	 * Loads the resources in a manifest as a batch.
+	 * Each group's resources are requested all at once, as soon as the groups that it
+	 * depends on are done, so that as much as possible is in flight at a time.
+	 * If background decoding is on (see {@link #setTextureDecodeThreads(int)}),
+	 * the textures' data is read and decoded by all of the worker threads in parallel,
+	 * and uploaded as it finishes; otherwise, it is all read on the graphics thread.
+	 * <p>
+	 * The size of each resource's source data is estimated up front for progress reporting,
+	 * which reads file sizes on the calling thread. This is safe to call from any thread.
+	 * @param manifest the manifest to load.
+	 * @param priority the loading priority of the textures.
+	 * @return a handle for tracking the progress, which completes once every resource is done loading.
 	 */
-	public void setTextureBestFiltering(boolean value)
+	public OGLPreloadHandle preload(OGLPreloadManifest manifest, float priority)
 	{
-		boolean old = textureBestFiltering;
-		textureBestFiltering = value;
-		if (value != old)
-			triggerTextureReload();
+		OGLPreloadHandle out = new OGLPreloadHandle(this, manifest, priority);
+		out.start();
+		return out;
 	}
-
+	
 	/**
-	 * Starts the render target rendering for a particular target.
-	 * Does nothing if the resource is not a render target.
+	 * Fetches a texture for drawing in the current frame.
+	 * This must be called from the graphics thread.
+	 * <p>
+	 * If there is no placeholder texture set, a texture that is not cached
+	 * is cached immediately, stalling the frame until it is loaded.
+	 * If there is one, the texture is queued instead, and the placeholder is 
+	 * returned until the texture is ready.
+	 * @param g the graphics context.
+	 * @param resource the texture resource.
+	 * @return the texture to draw with, or null if neither it nor the placeholder could be cached.
+	 * @see #setPlaceholderTexture(OGLTextureResource)
+	 * @see #TEXTURE_PRIORITY_DEMAND
+	 */
+	public OGLTexture2D fetchTexture(OGLGraphics g, OGLTextureResource resource)
+	{
+		return fetchTexture(g, resource, TEXTURE_PRIORITY_DEMAND);
+	}
+	
+	/**
+	 * Fetches a texture for drawing in the current frame.
+	 * This must be called from the graphics thread.
+	 * <p>
+	 * This is the same as {@link #fetchTexture(OGLGraphics, OGLTextureResource)},
+	 * except that a texture that is not cached is queued with a specific priority,
+	 * (for example, {@link #TEXTURE_PRIORITY_DEMAND} plus its {@link #getCameraPriority(OGL2DCamera, float, float)}),
+	 * so that textures closer to the center of the view are loaded first.
+	 * @param g the graphics context.
+	 * @param resource the texture resource.
+	 * @param priority the loading priority, if the texture is queued.
+	 * @return the texture to draw with, or null if neither it nor the placeholder could be cached.
+	 */
+	public OGLTexture2D fetchTexture(OGLGraphics g, OGLTextureResource resource, float priority)
+	{
+		OGLTextureResource placeholder = placeholderTexture;
+		if (placeholder == null || placeholder.equals(resource))
+		{
+			boolean hit = containsTexture(resource);
+			recordCount(hit ? Counter.CACHE_HITS : Counter.CACHE_MISSES, 1L);
+			if (!hit)
+				cacheTexture(g, resource);
+			return getTexture(resource);
+		}
+
+		OGLTexture2D texture = textureBank.getByKey(resource);
+		recordCount(texture != null ? Counter.CACHE_HITS : Counter.CACHE_MISSES, 1L);
+		if (texture != null)
+		{
+			if (textureStaleSet.contains(resource))
+				raiseTexturePriority(resource, priority);
+			touchTexture(resource);
+			return texture;
+		}
+		
+		textureEvictedSet.remove(resource);
+		queueTexture(resource, priority);
+		return fetchTexture(g, placeholder);
+	}
+	
+	/**
+	 * Fetches a shader for drawing in the current frame.
+	 * This must be called from the graphics thread.
+	 * <p>
+	 * If there is no placeholder shader set, a shader that is not cached
+	 * is cached immediately, stalling the frame until it is loaded.
+	 * If there is one, the shader is queued instead, and the placeholder is 
+	 * returned until the shader is ready.
+	 * @param g the graphics context.
+	 * @param resource the shader resource.
+	 * @return the shader to draw with, or null if neither it nor the placeholder could be cached.
+	 * @see #setPlaceholderShader(OGLShaderResource)
+	 */
+	public OGLShaderProgram fetchShader(OGLGraphics g, OGLShaderResource resource)
+	{
+		OGLShaderResource placeholder = placeholderShader;
+		if (placeholder == null || placeholder.equals(resource))
+		{
+			boolean hit = containsShader(resource);
+			recordCount(hit ? Counter.CACHE_HITS : Counter.CACHE_MISSES, 1L);
+			if (!hit)
+				cacheShader(g, resource);
+			return getShader(resource);
+		}
+
+		OGLShaderProgram shader = shaderBank.getByKey(resource);
+		recordCount(shader != null ? Counter.CACHE_HITS : Counter.CACHE_MISSES, 1L);
+		if (shader != null)
+		{
+			touchShader(resource);
+			return shader;
+		}
+		
+		queueShader(resource);
+		return fetchShader(g, placeholder);
+	}
+	
+	/**
+	 * Sets the texture that {@link #fetchTexture(OGLGraphics, OGLTextureResource)} 
+	 * returns in place of textures that are not cached yet.
+	 * If null (the default), uncached textures are loaded immediately instead.
+	 * The placeholder should be small, as it is loaded immediately when first needed,
+	 * and should be pinned if sweeping is on.
+	 */
+	public void setPlaceholderTexture(OGLTextureResource placeholder)
+	{
+		placeholderTexture = placeholder;
+	}
+	
+	/**
+	 * Gets the texture used in place of textures that are not cached yet.
+	 */
+	public OGLTextureResource getPlaceholderTexture()
+	{
+		return placeholderTexture;
+	}
+	
+	/**
+	 * Sets the shader that {@link #fetchShader(OGLGraphics, OGLShaderResource)} 
+	 * returns in place of shaders that are not cached yet.
+	 * If null (the default), uncached shaders are loaded immediately instead.
+	 */
+	public void setPlaceholderShader(OGLShaderResource placeholder)
+	{
+		placeholderShader = placeholder;
+	}
+	
+	/**
+	 * Gets the shader used in place of shaders that are not cached yet.
+	 */
+	public OGLShaderResource getPlaceholderShader()
+	{
+		return placeholderShader;
+	}
+	
+	/**
+	 * Sets up packing of small textures into shared atlas pages, so that
+	 * nodes drawing different small textures do not need to change textures.
+	 * Setting this will trigger a texture reload, and may slow down the system.
+	 * @param pageSize the width and height of each atlas page in pixels, or 0 or less to turn off atlasing (the default). 
+	 * @param maxTextureSize the maximum width or height of a texture that is packed.
+	 * @see #isAtlasEligible(OGLTextureResource, BufferedImage)
+	 */
+	public void setTextureAtlas(int pageSize, int maxTextureSize)
+	{
+		TextureSettings settings = new TextureSettings(textureSettings);
+		settings.atlas = pageSize > 0 ? new OGLTextureAtlas(pageSize) : null;
+		settings.atlasMaxSize = maxTextureSize;
+		textureSettings = settings;
+		triggerTextureReload();
+	}
+	
+	/**
+	 * Gets the texture atlas, or null if atlasing is off.
+	 */
+	public OGLTextureAtlas getTextureAtlas()
+	{
+		return textureSettings.atlas;
+	}
+
+	/**
+	 * Gets the atlas region that a texture was packed into.
+	 * If the texture is not cached and a placeholder texture is set, 
+	 * this returns the placeholder's region, since that is what
+	 * {@link #fetchTexture(OGLGraphics, OGLTextureResource)} returns.
+	 * @param resource the texture resource.
+	 * @return the region, or null if the texture is not on an atlas page.
+	 */
+	public OGLTextureAtlasRegion getTextureRegion(OGLTextureResource resource)
+	{
+		OGLTextureAtlasRegion out = texturePacking.getRegion(resource);
+		if (out == null && placeholderTexture != null && !textureBank.containsKey(resource))
+			out = texturePacking.getRegion(placeholderTexture);
+		return out;
+	}
+	
+	/**
+	 * Sets if texture compression is turned on.
+	 * Setting this to a different value will trigger a progressive texture reload.
+	 */
+	public void setCompressTextures(boolean value)
+	{
+		TextureSettings settings = new TextureSettings(textureSettings);
+		boolean old = settings.compressTextures;
+		settings.compressTextures = value;
+		textureSettings = settings;
+		if (value != old)
+			triggerTextureReload();
+	}
+	
+	/**
+	 * Sets what sends block-compressed data to OpenGL, which turns on compressing
+	 * texture data on the CPU. While this is set and texture compression is on 
+	 * (see {@link #setCompressTextures(boolean)}), textures read from a path are
+	 * compressed to DXT1 or DXT5 by the loader (on the decoding pool, if used) and
+	 * uploaded as-is, instead of being compressed by the driver on upload. 
+	 * If a disk cache is set, the compressed data is stored in it.
+	 * Changing this does not reload textures that are already cached.
+	 * @param uploader the uploader to use, or null to leave compression to the driver (the default).
+	 */
+	public void setCompressedTextureUploader(OGLCompressedTextureUploader uploader)
+	{
+		TextureSettings settings = new TextureSettings(textureSettings);
+		settings.compressedUploader = uploader;
+		textureSettings = settings;
+	}
+	
+	/**
+	 * Gets what sends block-compressed data to OpenGL, or null if texture data is not compressed on the CPU.
+	 */
+	public OGLCompressedTextureUploader getCompressedTextureUploader()
+	{
+		return textureSettings.compressedUploader;
+	}
+	
+	/**
+	 * Sets if all textures are forced to be loaded as 32-bit textures.
+	 * Setting this to a different value will trigger a progressive texture reload.
+	 */
+	public void setForce32BitTextures(boolean value)
+	{
+		TextureSettings settings = new TextureSettings(textureSettings);
+		boolean old = settings.force32BitTextures;
+		settings.force32BitTextures = value;
+		textureSettings = settings;
+		if (value != old)
+			triggerTextureReload();
+	}
+	
+	/**
+	 * Sets if all textures will have mipmaps built on load if they are not filtered
+	 * using NEAREST filtering.
+	 * Setting this to a different value will trigger a progressive texture reload.
+	 */
+	public void setForceNoMipMaps(boolean value)
+	{
+		TextureSettings settings = new TextureSettings(textureSettings);
+		boolean old = settings.forceNoMipmap;
+		settings.forceNoMipmap = value;
+		textureSettings = settings;
+		if (value != old)
+			triggerTextureReload();
+	}
+	
+	/**
+	 * Sets if all textures will have will be forced to use NEAREST filtering.
+	 * Setting this to a different value will trigger a progressive texture reload.
+	 */
+	public void setForceNearest(boolean value)
+	{
+		TextureSettings settings = new TextureSettings(textureSettings);
+		boolean old = settings.forceNearest;
+		settings.forceNearest = value;
+		textureSettings = settings;
+		if (value != old)
+			triggerTextureReload();
+	}
+
+	/**
+	 * Sets the texture anisotropy for all textures.
+	 * Setting this to a different value will trigger a progressive texture reload.
+	 */
+	public void setTextureAnisotropy(float value)
+	{
+		TextureSettings settings = new TextureSettings(textureSettings);
+		float old = settings.anisotropy;
+		settings.anisotropy = value;
+		textureSettings = settings;
+		if (value != old)
+			triggerTextureReload();
+	}
+
+	/**
+	 * Sets if we are using the best minification filtering for all textures (trilinear).
+	 * A texture will be set to use bilinear filtering if "force nearest" and "no mip maps"
+	 * are both set to false. If this is set, it will be trilinear that is used instead of bilinear.
+	 * Setting this to a different value will trigger a progressive texture reload.
+	 */
+	public void setTextureBestFiltering(boolean value)
+	{
+		TextureSettings settings = new TextureSettings(textureSettings);
+		boolean old = settings.bestFiltering;
+		settings.bestFiltering = value;
+		textureSettings = settings;
+		if (value != old)
+			triggerTextureReload();
+	}
+
+	/**
+	 * Sets the amount of frames that a texture or shader can go without being touched 
+	 * (cached, or retrieved via {@link #getTexture(OGLTextureResource)} or {@link #getShader(OGLShaderResource)})
+	 * before it is swept - queued for destruction. Rendering nodes touch what they draw each frame,
+	 * so this frees resources that are no longer drawn by any node.
+	 * <p>
+	 * To prevent thrashing, resources that are used again shortly after being swept take 
+	 * longer to be swept the next time. Pinned resources and render targets are never swept.
+	 * Swept textures are reloaded the next time they are requested.
+	 * @param frames the amount of frames, or 0 or less to never sweep (the default).
+	 * @see #pinTextures(OGLTextureResource...)
+	 * @see #pinShaders(OGLShaderResource...)
+	 */
+	public void setSweepFrames(int frames)
+	{
+		sweepFrames = frames;
+	}
+	
+	/**
+	 * Gets the amount of frames that a texture or shader can go without being touched before it is swept.
+	 * 0 or less means never.
+	 */
+	public int getSweepFrames()
+	{
+		return sweepFrames;
+	}
+	
+	/**
+	 * Pins a bunch of textures so that they are never swept.
+	 * @see #setSweepFrames(int)
+	 */
+	public void pinTextures(OGLTextureResource ... textures)
+	{
+		for (OGLTextureResource textureDef : textures)
+			texturePinnedSet.add(textureDef);
+	}
+	
+	/**
+	 * Unpins a bunch of textures so that they can be swept.
+	 * @see #setSweepFrames(int)
+	 */
+	public void unpinTextures(OGLTextureResource ... textures)
+	{
+		for (OGLTextureResource textureDef : textures)
+			texturePinnedSet.remove(textureDef);
+	}
+	
+	/**
+	 * Pins a bunch of shaders so that they are never swept.
+	 * @see #setSweepFrames(int)
+	 */
+	public void pinShaders(OGLShaderResource ... shaders)
+	{
+		for (OGLShaderResource shaderDef : shaders)
+			shaderPinnedSet.add(shaderDef);
+	}
+	
+	/**
+	 * Unpins a bunch of shaders so that they can be swept.
+	 * @see #setSweepFrames(int)
+	 */
+	public void unpinShaders(OGLShaderResource ... shaders)
+	{
+		for (OGLShaderResource shaderDef : shaders)
+			shaderPinnedSet.remove(shaderDef);
+	}
+	
+	/**
+	 * Sets the maximum amount of texture memory to keep cached, in bytes
+	 * (as estimated by {@link OGLTexture#getEstimatedSize()}). When the loader goes over
+	 * this budget, the least-recently-used textures are destroyed until it is under budget
+	 * again. Render targets and textures used in the last few frames are never evicted
+	 * (see {@link #setTextureEvictionFrames(int)}). 
+	 * Evicted textures are reloaded the next time they are requested.
+	 * <p>
+	 * If texture reduction is on (see {@link #setTextureMaxReduction(int)}), newly loaded textures
+	 * are also shrunk as the budget fills, so that fewer need evicting.
+	 * @param bytes the amount of bytes, or 0 or less for no limit (the default).
+	 */
+	public void setTextureMemoryBudget(long bytes)
+	{
+		textureMemoryBudget = bytes;
+	}
+	
+	/**
+	 * Gets the maximum amount of texture memory to keep cached, in bytes.
+	 * 0 or less means no limit.
+	 */
+	public long getTextureMemoryBudget()
+	{
+		return textureMemoryBudget;
+	}
+	
+	/**
+	 * Sets how many recent frames' textures are kept when evicting textures to stay under
+	 * the memory budget, counting the current one. Eviction happens at the start of a frame, 
+	 * before anything is drawn, so this should be more than 1 for textures drawn
+	 * in the last frame to be kept; a few more frames keep textures that are drawn
+	 * every other frame or so from being evicted and reloaded over and over.
+	 * If every texture is that recent, the loader stays over budget until some are not.
+	 * @param frames the amount of frames, at least 1. Default is 3.
+	 * @see #setTextureMemoryBudget(long)
+	 */
+	public void setTextureEvictionFrames(int frames)
+	{
+		textureEvictionFrames = Math.max(1, frames);
+	}
+	
+	/**
+	 * Gets how many recent frames' textures are kept when evicting textures, counting the current one.
+	 */
+	public int getTextureEvictionFrames()
+	{
+		return textureEvictionFrames;
+	}
+	
+	/**
+	 * Gets the estimated amount of texture memory used by the textures in this loader, in bytes.
+	 */
+	public long getTextureMemoryUsed()
+	{
+		return textureMemoryUsed;
+	}
+
+	/**
+	 * Sets the maximum amount of times that a texture's image is halved in size, 
+	 * when it is loaded, to stay under the texture memory budget.
+	 * <p>
+	 * When the texture memory used nears the budget, the loader raises its quality tier,
+	 * and textures loaded after that are reduced by the tier, less their quality priority
+	 * (see {@link #getTextureQualityPriority(OGLTextureResource)}), up to this maximum. 
+	 * Their images go through the same resizing as textures with a set dimension.
+	 * When memory frees up, the tier is lowered again, and reduced textures are
+	 * reloaded at their higher size progressively (see {@link #replaceTextures(OGLTextureResource...)}),
+	 * highest quality priority and most recently used first, as long as they fit comfortably in the budget.
+	 * <p>
+	 * Render targets and textures without a path are never reduced, and reduced images
+	 * are not stored in the disk cache.
+	 * @param levels the amount of times, or 0 for no reduction (the default).
+	 * @see #setTextureMemoryBudget(long)
+	 */
+	public void setTextureMaxReduction(int levels)
+	{
+		textureMaxReduction = Math.max(levels, 0);
+	}
+
+	/**
+	 * Gets the maximum amount of times that a texture's image is halved in size
+	 * to stay under the texture memory budget. 0 means no reduction.
+	 */
+	public int getTextureMaxReduction()
+	{
+		return textureMaxReduction;
+	}
+
+	/**
+	 * Gets the current texture quality tier: how many times newly loaded textures with a quality
+	 * priority of 0 are halved in size. Always 0 if texture reduction is off.
+	 * @see #setTextureMaxReduction(int)
+	 */
+	public int getTextureQualityTier()
+	{
+		return textureQualityTier;
+	}
+	
+	/**
+	 * Sets the maximum amount of time to spend caching queued textures and shaders
+	 * per frame, in nanoseconds. Queued resources that do not fit in a frame's budget
+	 * are carried over to the next frame. At least one resource is always cached per 
+	 * frame, if any are waiting. Resources cached directly via {@link #cacheTexture(OGLGraphics, OGLTextureResource)}
+	 * or {@link #cacheShader(OGLGraphics, OGLShaderResource)} are not held back, 
+	 * but count against the budget. 
+	 * @param nanos the amount of nanoseconds, or 0 or less for no limit (the default).
+	 */
+	public void setFrameBudgetNanos(long nanos)
+	{
+		frameBudgetNanos = nanos;
+	}
+	
+	/**
+	 * Gets the maximum amount of time to spend caching queued resources per frame, in nanoseconds.
+	 * 0 or less means no limit.
+	 */
+	public long getFrameBudgetNanos()
+	{
+		return frameBudgetNanos;
+	}
+	
+	/**
+	 * Sets the maximum amount of texture data to upload per frame, in bytes
+	 * (as estimated by {@link OGLTexture#getEstimatedSize()}). Queued textures that 
+	 * do not fit in a frame's budget are carried over to the next frame. 
+	 * At least one resource is always cached per frame, if any are waiting.
+	 * @param bytes the amount of bytes, or 0 or less for no limit (the default).
+	 */
+	public void setFrameBudgetBytes(long bytes)
+	{
+		frameBudgetBytes = bytes;
+	}
+	
+	/**
+	 * Gets the maximum amount of texture data to upload per frame, in bytes.
+	 * 0 or less means no limit.
+	 */
+	public long getFrameBudgetBytes()
+	{
+		return frameBudgetBytes;
+	}
+
+	/**
+	 * Sets the maximum amount of textures replaced at once during a progressive reload,
+	 * including replacements still being decoded by the decoding pool.
+	 * This keeps reloads from stalling frames even if the frame budget is unlimited.
+	 * Default is 4.
+	 * @param limit the maximum amount, 0 or less for no limit.
+	 * @see #replaceTextures(OGLTextureResource...)
+	 */
+	public void setTextureReplaceLimit(int limit)
+	{
+		textureReplaceLimit = limit;
+	}
+
+	/**
+	 * Gets the maximum amount of textures replaced at once during a progressive reload.
+	 */
+	public int getTextureReplaceLimit()
+	{
+		return textureReplaceLimit;
+	}
+	
+	/**
+	 * Gets the amount of textures that were queued for caching, but are not cached yet.
+	 * This includes textures still being decoded by the decoding pool.
+	 */
+	public int getPendingTextureCount()
+	{
+		return textureTickets.size();
+	}
+	
+	/**
+	 * Gets the amount of shaders that were queued for caching, but are not cached yet.
+	 */
+	public int getPendingShaderCount()
+	{
+		return shaderCacheQueue.size();
+	}
+	
+	/**
+	 * Checks if this frame's caching budget was used up.
+	 * Always returns false if nothing was cached from the queues yet this frame.
+	 * @see #setFrameBudgetNanos(long)
+	 * @see #setFrameBudgetBytes(long)
+	 */
+	protected boolean isFrameBudgetSpent()
+	{
+		if (frameCachedCount == 0)
+			return false;
+		if (frameBudgetNanos > 0L && System.nanoTime() - frameStartNanos >= frameBudgetNanos)
+			return true;
+		if (frameBudgetBytes > 0L && frameBytesUploaded >= frameBudgetBytes)
+			return true;
+		return false;
+	}
+	
+	/**
+	 * Sets the number of worker threads used for decoding (and resizing) queued 
+	 * textures off of the graphics thread. If 0, decoding is done on the graphics
+	 * thread when the texture is cached, which is the default.
+	 * <p>
+	 * Changing this shuts down the previous pool after it finishes what it 
+	 * was already given - those textures will still be uploaded.
+	 * @param threads the number of threads to use, or 0 to turn off background decoding.
+	 * @throws IllegalArgumentException if threads is less than 0.
+	 */
+	public void setTextureDecodeThreads(int threads)
+	{
+		if (threads < 0)
+			throw new IllegalArgumentException("Thread count cannot be less than 0.");
+		if (threads == textureDecodeThreads)
+			return;
+		
+		if (textureDecodeExecutor != null)
+			textureDecodeExecutor.shutdown();
+		
+		textureDecodeThreads = threads;
+		// jobs are run highest priority first.
+		textureDecodeExecutor = threads > 0 
+			? new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new DecoderThreadFactory()) 
+			: null; 
+	}
+	
+	/**
+	 * Gets the number of worker threads used for decoding queued textures.
+	 * 0 means that background decoding is off.
+	 */
+	public int getTextureDecodeThreads()
+	{
+		return textureDecodeThreads;
+	}
+
+	/**
+	 * Sets the disk cache to use for decoded texture data.
+	 * Decoded and resized images are written to it, and read back 
+	 * instead of decoding the source data again if the source was not modified.
+	 * @param cache the cache to use, or null to not use one (the default).
+	 */
+	public void setTextureDiskCache(OGLTextureDiskCache cache)
+	{
+		TextureSettings settings = new TextureSettings(textureSettings);
+		settings.diskCache = cache;
+		textureSettings = settings;
+	}
+
+	/**
+	 * Gets the disk cache used for decoded texture data, or null if not used.
+	 */
+	public OGLTextureDiskCache getTextureDiskCache()
+	{
+		return textureSettings.diskCache;
+	}
+
+	/**
+	 * Sets what sends mipmap chains built on the CPU to OpenGL, which turns on building them.
+	 * While this is set, textures read from a path that use a mipmapping filter have their
+	 * mipmaps built by the loader's generator (see {@link #setTextureMipmapGenerator(OGLMipmapGenerator)}),
+	 * on the decoding pool, if used, instead of by the driver. If a disk cache is set, the levels are stored in it.
+	 * Changing this does not reload textures that are already cached.
+	 * @param uploader the uploader to use, or null to have the driver build mipmaps (the default).
+	 */
+	public void setMipmapTextureUploader(OGLMipmapTextureUploader uploader)
+	{
+		TextureSettings settings = new TextureSettings(textureSettings);
+		settings.mipmapUploader = uploader;
+		textureSettings = settings;
+	}
+
+	/**
+	 * Gets what sends mipmap chains built on the CPU to OpenGL, or null if mipmaps are built by the driver.
+	 */
+	public OGLMipmapTextureUploader getMipmapTextureUploader()
+	{
+		return textureSettings.mipmapUploader;
+	}
+
+	/**
+	 * Sets the generator used for building mipmap chains on the CPU.
+	 * This is only used if a mipmap uploader is set (see {@link #setMipmapTextureUploader(OGLMipmapTextureUploader)}).
+	 * Changing this does not reload textures that are already cached.
+	 * @param generator the generator to use. Cannot be null.
+	 * @throws IllegalArgumentException if generator is null.
+	 */
+	public void setTextureMipmapGenerator(OGLMipmapGenerator generator)
+	{
+		if (generator == null)
+			throw new IllegalArgumentException("Generator cannot be null.");
+		TextureSettings settings = new TextureSettings(textureSettings);
+		settings.mipmapGenerator = generator;
+		textureSettings = settings;
+	}
+
+	/**
+	 * Gets the generator used for building mipmap chains on the CPU.
+	 * By default, this is a gamma-correct generator that uses a box filter.
+	 */
+	public OGLMipmapGenerator getTextureMipmapGenerator()
+	{
+		return textureSettings.mipmapGenerator;
+	}
+
+	/**
+	 * Gets the pool of direct buffers that texture data is decoded into, 
+	 * for textures that are decoded without a BufferedImage.
+	 * @see #setPixelTextureUploader(OGLPixelTextureUploader)
+	 */
+	public OGLImageBufferPool getTextureBufferPool()
+	{
+		return textureBufferPool;
+	}
+
+	/**
+	 * Sets what sends pixel data in direct buffers to OpenGL, which turns on decoding
+	 * texture data without a BufferedImage. While this is set, PNG and TGA textures 
+	 * read from a path are decoded straight into buffers from the loader's buffer pool
+	 * (see {@link #getTextureBufferPool()}), as long as nothing else needs a BufferedImage:
+	 * they are not resized, reduced, atlased, disk cached or mipmapped on the CPU.
+	 * Changing this does not reload textures that are already cached.
+	 * @param uploader the uploader to use, or null to always decode into BufferedImages (the default).
+	 */
+	public void setPixelTextureUploader(OGLPixelTextureUploader uploader)
+	{
+		TextureSettings settings = new TextureSettings(textureSettings);
+		settings.pixelUploader = uploader;
+		textureSettings = settings;
+	}
+
+	/**
+	 * Gets what sends pixel data in direct buffers to OpenGL, or null if textures are always decoded into BufferedImages.
+	 */
+	public OGLPixelTextureUploader getPixelTextureUploader()
+	{
+		return textureSettings.pixelUploader;
+	}
+
+	/**
+	 * Sets if textures loaded from paths are deduplicated by content.
+	 * If true, the decoded data of each texture is hashed along with its format 
+	 * and filtering, and resources with the same hash share a single texture object,
+	 * which is only destroyed once all of them are destroyed.
+	 * This does not affect textures that are already cached. 
+	 * @param value true to deduplicate, false to not (the default).
+	 */
+	public void setTextureDeduplication(boolean value)
+	{
+		TextureSettings settings = new TextureSettings(textureSettings);
+		settings.deduplication = value;
+		textureSettings = settings;
+	}
+
+	/**
+	 * Returns true if textures loaded from paths are deduplicated by content.
+	 */
+	public boolean isTextureDeduplication()
+	{
+		return textureSettings.deduplication;
+	}
+	
+	/**
+	 * Sets the metrics that loading times and counts are recorded to.
+	 * Recording costs a little time per load and lookup, so this is off (null) by default.
+	 * @param metrics the metrics to record to, or null to stop recording.
+	 */
+	public void setMetrics(OGLResourceLoaderMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Gets the metrics that loading times and counts are recorded to, or null if they are not recorded.
+	 */
+	public OGLResourceLoaderMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * Sets the maximum amount of unused render targets, and of unused depth buffers, 
+	 * that are kept for reuse by render targets of the same size and format, 
+	 * instead of being destroyed. Pooled objects still use video memory, and 
+	 * are not counted towards the texture memory budget.
+	 * Pools over capacity are trimmed the next frame. Default is 4.
+	 * @param capacity the new capacity. 0 or less turns pooling off.
+	 */
+	public void setRenderTargetPoolCapacity(int capacity)
+	{
+		renderTargetPoolCapacity = Math.max(capacity, 0);
+	}
+	
+	/**
+	 * Gets the maximum amount of unused render targets, and of unused depth buffers, 
+	 * that are kept for reuse.
+	 */
+	public int getRenderTargetPoolCapacity()
+	{
+		return renderTargetPoolCapacity;
+	}
+	
+	/**
+	 * Starts the render target rendering for a particular target.
+	 * Does nothing if the resource is not a render target.
 	 */
 	public void startRenderTarget(OGLGraphics g, OGLTextureResource resource)
 	{
-		RenderTarget rt = null;
-		if (!resource.isRenderTarget())
+		RenderTarget rt = null;
+		if (!resource.isRenderTarget())
+		{
+			return;
+		}
+		else if (!containsTexture(resource))
+		{
+			cacheTexture(g, resource);
+		}
+		else
+		{
+			touchTexture(resource);
+		}
+		
+		if ((rt = targetBank.getByKey(resource)) != null)
+		{
+			g.attribPush(AttribType.ENABLE, AttribType.VIEWPORT);
+			rt.getFrameBufferObject().bindTo(g);
+			g.setViewportToTexture(rt.getColorBufferTexture());
+		}
+	}
+	
+	/**
+	 * Ends the render target rendering for a particular target.
+	 */
+	public void endRenderTarget(OGLGraphics g)
+	{
+		g.unbindFrameBuffer();
+		g.attribPop();
+	}
+	
+	/**
+	 * Loads a texture into OpenGL. 
+	 * Returns an OGLTexture handle of the loaded texture, or null if a problem occurred.
+	 */
+	public OGLTexture2D loadTexture(OGLGraphics g, OGLTextureResource textureDef)
+	{
+		return loadTexture(g, textureDef, false);
+	}
+
+	/**
+	 * Loads a texture into OpenGL, or gets a texture with the same content that
+	 * is already loaded, if sharing and deduplication is on.
+	 * Shared textures must be stored in the bank with {@link #storeTexture(OGLGraphics, OGLTextureResource, OGLTexture2D)}.
+	 */
+	private OGLTexture2D loadTexture(OGLGraphics g, OGLTextureResource textureDef, boolean share)
+	{
+		OGLTexture2D texture = null;
+		textureReductions.remove(textureDef);
+		try{
+			if (isPrecompressed(textureDef))
+			{
+				OGLCompressedImage compressed = getCompressedTextureImage(textureDef);
+				String hash = share && compressed != null ? getTextureContentHash(textureDef, compressed) : null;
+				if ((texture = textureSharing.find(textureDef, hash)) != null)
+					return texture;
+				if (compressed != null && (texture = uploadCompressedTexture(g, textureDef, compressed)) != null)
+				{
+					shareTexture(textureDef, hash, texture);
+					return texture;
+				}
+			}
+			
+			if (isPixelDecoded(textureDef))
+			{
+				OGLPixelImage pixels = readPixelTextureImage(textureDef);
+				if (pixels != null)
+				{
+					String hash = share ? getTextureContentHash(textureDef, pixels) : null;
+					if ((texture = textureSharing.find(textureDef, hash)) != null)
+					{
+						pixels.release();
+						return texture;
+					}
+					if ((texture = uploadPixelTexture(g, textureDef, pixels)) != null)
+					{
+						shareTexture(textureDef, hash, texture);
+						return texture;
+					}
+				}
+			}
+			
+			BufferedImage bi = getTextureImage(g, textureDef);
+			String hash = share && bi != null ? getTextureContentHash(textureDef, bi) : null;
+			if ((texture = textureSharing.find(textureDef, hash)) != null)
+				return texture;
+			if (bi != null)
+			{
+				texture = createTexture(g, textureDef, bi, getTextureMipmaps(textureDef, bi));
+				shareTexture(textureDef, hash, texture);
+			}
+			else
+				fireTextureCacheLoadErrorEvent(textureDef, 
+						new IOException("Could not open stream for resource '"+textureDef.getPath()+"'."));
+		} catch (IOException e) {
+			fireTextureCacheLoadErrorEvent(textureDef, e);
+		} 
+		
+		return texture;
+	}
+
+	/**
+	 * Makes a freshly-created texture shareable by other resources with the same content hash.
+	 * Does nothing if the hash or texture is null, or the texture is an atlas page.
+	 */
+	private void shareTexture(OGLTextureResource textureDef, String hash, OGLTexture2D texture)
+	{
+		if (!texturePacking.isPacked(textureDef))
+			textureSharing.share(textureDef, hash, texture);
+	}
+
+	/**
+	 * Creates a texture in OpenGL using already-read image data and sends the data to it. 
+	 * This must be called on the graphics thread.
+	 * @param g the graphics context.
+	 * @param textureDef the texture resource that the image belongs to.
+	 * @param image the image data to upload.
+	 * @return the new texture.
+	 */
+	protected OGLTexture2D createTexture(OGLGraphics g, OGLTextureResource textureDef, BufferedImage image)
+	{
+		if (isAtlasEligible(textureDef, image))
+		{
+			OGLTexture2D page = createAtlasTexture(g, textureDef, image);
+			if (page != null)
+				return page;
+		}
+
+		OGLTexture2D texture = newTexture(g, textureDef, true);
+		texture.sendData(g, image);
+		return texture;
+	}
+
+	/**
+	 * Creates an empty texture in OpenGL with the format, filtering and wrapping decided for a texture resource.
+	 * @param driverMipmaps if true, the driver builds the texture's mipmaps if its minification filter uses them.
+	 */
+	private OGLTexture2D newTexture(OGLGraphics g, OGLTextureResource textureDef, boolean driverMipmaps)
+	{
+		InternalFormat informat = decideInternalFormat(textureDef);
+		MinFilter min_f = decideMinificationFilter(textureDef);
+		MagFilter mag_f = decideMagnificationFilter(textureDef);
+
+		return new OGLTexture2D(g, informat, min_f, mag_f, getTextureSettings().anisotropy, 
+				textureDef.getBorder(), 
+				driverMipmaps && !textureDef.isNotMipmapped() && min_f != MinFilter.NEAREST && min_f != MinFilter.LINEAR, 
+				textureDef.getWrappingModeS(), textureDef.getWrappingModeT());
+	}
+
+	/**
+	 * Creates a texture in OpenGL using already-read image data and a mipmap chain built
+	 * for it, if any. If the chain is null or {@link #createMipmappedTexture(OGLGraphics, OGLTextureResource, BufferedImage[])}
+	 * returns null, this falls back to {@link #createTexture(OGLGraphics, OGLTextureResource, BufferedImage)}.
+	 */
+	private OGLTexture2D createTexture(OGLGraphics g, OGLTextureResource textureDef, BufferedImage image, BufferedImage[] mipmaps)
+	{
+		long start = getMetricsTime();
+		OGLTexture2D texture = null;
+		if (mipmaps != null)
+			texture = createMipmappedTexture(g, textureDef, mipmaps);
+		if (texture == null)
+			texture = createTexture(g, textureDef, image);
+		recordTime(Stage.UPLOAD, textureDef, start);
+		return texture;
+	}
+
+	/**
+	 * Creates a texture from an already-compressed image, recording the time spent, if metrics are recorded.
+	 */
+	private OGLTexture2D uploadCompressedTexture(OGLGraphics g, OGLTextureResource textureDef, OGLCompressedImage compressed)
+	{
+		long start = getMetricsTime();
+		OGLTexture2D texture = createCompressedTexture(g, textureDef, compressed);
+		recordTime(Stage.UPLOAD, textureDef, start);
+		return texture;
+	}
+
+	/**
+	 * Creates a texture from decoded pixel data, recording the time spent, if metrics are recorded.
+	 * The image's data is given back to its pool afterward.
+	 */
+	private OGLTexture2D uploadPixelTexture(OGLGraphics g, OGLTextureResource textureDef, OGLPixelImage pixels)
+	{
+		long start = getMetricsTime();
+		try {
+			return createPixelTexture(g, textureDef, pixels);
+		} finally {
+			pixels.release();
+			recordTime(Stage.UPLOAD, textureDef, start);
+		}
+	}
+
+	/**
+	 * Creates a texture in OpenGL without driver-built mipmaps, and sends each level of 
+	 * a mipmap chain built on the CPU to it through the uploader set with 
+	 * {@link #setMipmapTextureUploader(OGLMipmapTextureUploader)}.
+	 * This must be called on the graphics thread.
+	 * @param g the graphics context.
+	 * @param textureDef the texture resource that the levels belong to.
+	 * @param levels the mipmap chain, largest to smallest. Level 0 is the full image.
+	 * @return the new texture, or null if there is no uploader or it could not send the levels,
+	 * in which case the loader uploads the full image with driver-built mipmaps instead.
+	 */
+	protected OGLTexture2D createMipmappedTexture(OGLGraphics g, OGLTextureResource textureDef, BufferedImage[] levels)
+	{
+		OGLMipmapTextureUploader uploader = getTextureSettings().mipmapUploader;
+		if (uploader == null)
+			return null;
+		
+		OGLTexture2D texture = newTexture(g, textureDef, false);
+		texture.bindTo(g);
+		if (uploader.sendMipmapData(g, texture, levels))
+			return texture;
+		texture.destroy(g);
+		return null;
+	}
+
+	/**
+	 * Caches a shader into OpenGL.
+	 * The program sources are preprocessed first, but the program is always
+	 * compiled, even if another resource resolves to the same sources.
+	 */
+	public OGLShaderProgram loadShader(OGLGraphics g, OGLShaderResource shaderDef)
+	{
+		ShaderSources sources;
+		try {
+			sources = readShaderSources(shaderDef);
+		} catch (IOException e) {
+			fireShaderCacheLoadErrorEvent(shaderDef, e);
+			return null;
+		}
+		return buildShader(g, shaderDef, sources, getShaderUniforms(shaderDef));
+	}
+
+	/**
+	 * Gets a shader program for a resource, sharing an existing program
+	 * if another resource resolves to the same sources and uses the same uniforms,
+	 * or compiling a new one if not.
+	 * Programs gotten this way must be released with {@link #releaseShader(OGLGraphics, OGLShaderResource, OGLShaderProgram)}.
+	 * @return the program, or null if a problem occurred.
+	 */
+	protected OGLShaderProgram acquireShader(OGLGraphics g, OGLShaderResource shaderDef)
+	{
+		ShaderSources sources;
+		try {
+			sources = readShaderSources(shaderDef);
+		} catch (IOException e) {
+			fireShaderCacheLoadErrorEvent(shaderDef, e);
+			return null;
+		}
+		
+		OGLUniform[] uniforms = getShaderUniforms(shaderDef);
+		SharedShaderProgram shared = shaderSharedPrograms.getByKey(sources.hash);
+		if (shared != null && Arrays.equals(shared.uniforms, uniforms))
+		{
+			shared.references++;
+			shaderSharedResources.add(shaderDef, shared);
+			return shared.program;
+		}
+		
+		OGLShaderProgram shader = buildShader(g, shaderDef, sources, uniforms);
+		// programs with the same sources but different uniforms are not shared.
+		if (shader != null && shared == null)
+		{
+			shared = new SharedShaderProgram(sources.hash, shader, uniforms);
+			shaderSharedPrograms.add(sources.hash, shared);
+			shaderSharedResources.add(shaderDef, shared);
+		}
+		return shader;
+	}
+
+	/**
+	 * Releases a resource's shader program gotten from {@link #acquireShader(OGLGraphics, OGLShaderResource)}.
+	 * The program is destroyed if no other resource shares it.
+	 */
+	protected void releaseShader(OGLGraphics g, OGLShaderResource shaderDef, OGLShaderProgram shader)
+	{
+		SharedShaderProgram shared = shaderSharedResources.removeByKey(shaderDef);
+		if (shared != null && --shared.references > 0)
+			return;
+		if (shared != null)
+			shaderSharedPrograms.removeByKey(shared.hash);
+		shader.destroy(g);
+	}
+
+	/**
+	 * Creates a shader program from a cached program binary, if there is a usable one,
+	 * or else compiles it from its sources and stores its binary in the cache.
+	 * @return the program, or null if a problem occurred.
+	 */
+	private OGLShaderProgram buildShader(OGLGraphics g, OGLShaderResource shaderDef, ShaderSources sources, OGLUniform[] uniforms)
+	{
+		long start = getMetricsTime();
+		try {
+			return buildShaderProgram(g, shaderDef, sources, uniforms);
+		} finally {
+			recordTime(Stage.SHADER_BUILD, shaderDef, start);
+		}
+	}
+
+	/**
+	 * Creates a shader program from its sources, or from a cached binary, if any.
+	 */
+	private OGLShaderProgram buildShaderProgram(OGLGraphics g, OGLShaderResource shaderDef, ShaderSources sources, OGLUniform[] uniforms)
+	{
+		OGLShaderBinaryCache cache = shaderBinaryCache;
+		String key = null;
+		if (cache != null && (key = getShaderBinaryKey(g, cache, sources)) != null)
+		{
+			OGLShaderProgram shader = loadShaderBinary(g, cache, key, shaderDef, uniforms);
+			if (shader != null)
+				return shader;
+		}
+		
+		OGLShaderProgram shader = compileShader(g, shaderDef, sources, uniforms);
+		if (shader != null && key != null)
+		{
+			OGLShaderBinaryCache.Binary binary = null;
+			try {
+				binary = getShaderProgramBinary(g, shader);
+			} catch (GraphicsException e) {
+				// no binary - the program is built from source again next run.
+			}
+			if (binary != null)
+			{
+				try {
+					cache.write(key, binary);
+				} catch (IOException e) {
+					// unwritable cache - the program is built from source again next run.
+				}
+			}
+		}
+		return shader;
+	}
+
+	/**
+	 * Creates a shader program from a cached program binary.
+	 * Entries that cannot be read or that the driver rejects are removed from the cache.
+	 * @return the program, or null if there is no usable binary.
+	 */
+	private OGLShaderProgram loadShaderBinary(OGLGraphics g, OGLShaderBinaryCache cache, String key, OGLShaderResource shaderDef, OGLUniform[] uniforms)
+	{
+		OGLShaderBinaryCache.Binary binary = null;
+		try {
+			binary = cache.read(key);
+		} catch (IOException e) {
+			// bad entry - build from source.
+		}
+		if (binary == null)
+		{
+			cache.remove(key);
+			return null;
+		}
+		
+		OGLShaderProgram shader = null;
+		try {
+			shader = createShaderFromBinary(g, shaderDef, binary, uniforms);
+		} catch (GraphicsException e) {
+			// rejected - build from source.
+		}
+		if (shader == null)
+			cache.remove(key);
+		return shader;
+	}
+
+	/**
+	 * Returns the binary cache key for a shader program's sources.
+	 * @return the key, or null if the program's binary should not be cached.
+	 */
+	private String getShaderBinaryKey(OGLGraphics g, OGLShaderBinaryCache cache, ShaderSources sources)
+	{
+		String driver = getShaderDriverString(g);
+		if (driver == null)
+			return null;
+		return cache.createKey(sources.hash, driver);
+	}
+
+	/**
+	 * Returns a string that identifies the current graphics driver, for keying cached program binaries,
+	 * from the binary access set with {@link #setShaderBinaryCache(OGLShaderBinaryCache, OGLShaderBinaryAccess)}.
+	 * Binaries are only cached if this does not return null.
+	 * @return the driver string, or null if there is no binary access or it returned null.
+	 */
+	protected String getShaderDriverString(OGLGraphics g)
+	{
+		OGLShaderBinaryAccess access = shaderBinaryAccess;
+		return access != null ? access.getDriverString(g) : null;
+	}
+
+	/**
+	 * Gets the linked binary of a shader program, for storing in the binary cache,
+	 * from the binary access set with {@link #setShaderBinaryCache(OGLShaderBinaryCache, OGLShaderBinaryAccess)}.
+	 * This is called on the graphics thread.
+	 * @return the program binary, or null if there is no binary access or it could not get one.
+	 */
+	protected OGLShaderBinaryCache.Binary getShaderProgramBinary(OGLGraphics g, OGLShaderProgram shader)
+	{
+		OGLShaderBinaryAccess access = shaderBinaryAccess;
+		return access != null ? access.getProgramBinary(g, shader) : null;
+	}
+
+	/**
+	 * Creates a shader program from a cached program binary through the binary access set with 
+	 * {@link #setShaderBinaryCache(OGLShaderBinaryCache, OGLShaderBinaryAccess)}, and sets its uniforms.
+	 * This is called on the graphics thread.
+	 * Returning null makes the loader remove the entry and build the program from its sources.
+	 * @return the program, or null if there is no binary access, the driver rejected the binary,
+	 * or the uniforms could not be set.
+	 */
+	protected OGLShaderProgram createShaderFromBinary(OGLGraphics g, OGLShaderResource shaderDef, OGLShaderBinaryCache.Binary binary, OGLUniform[] uniforms)
+	{
+		OGLShaderBinaryAccess access = shaderBinaryAccess;
+		if (access == null)
+			return null;
+		
+		OGLShaderProgram shader = access.createProgram(g, binary);
+		if (shader == null)
+			return null;
+		try {
+			shader.setUniforms(uniforms);
+		} catch (GraphicsException e) {
+			shader.destroy(g);
+			return null;
+		}
+		return shader;
+	}
+
+	/**
+	 * Sets the disk cache to use for linked shader program binaries, and what gets and sets the binaries.
+	 * While both are set, linked programs are written to the cache, and later builds of 
+	 * the same sources on the same driver are created from the cached binary instead of compiled.
+	 * @param cache the cache to use, or null to not use one (the default).
+	 * @param access what gets and sets program binaries, or null to not cache binaries (the default).
+	 */
+	public void setShaderBinaryCache(OGLShaderBinaryCache cache, OGLShaderBinaryAccess access)
+	{
+		shaderBinaryCache = cache;
+		shaderBinaryAccess = access;
+	}
+
+	/**
+	 * Gets what gets and sets program binaries for the binary cache, or null if not used.
+	 */
+	public OGLShaderBinaryAccess getShaderBinaryAccess()
+	{
+		return shaderBinaryAccess;
+	}
+
+	/**
+	 * Gets the disk cache used for linked shader program binaries, or null if not used.
+	 */
+	public OGLShaderBinaryCache getShaderBinaryCache()
+	{
+		return shaderBinaryCache;
+	}
+
+	/**
+	 * Compiles and links a shader program from preprocessed sources.
+	 * @return the program, or null if a problem occurred.
+	 */
+	protected OGLShaderProgram compileShader(OGLGraphics g, OGLShaderResource shaderDef, ShaderSources sources, OGLUniform[] uniforms)
+	{
+		OGLShaderProgram shader = null;
+		OGLShaderVertexProgram vertShader = null;
+		OGLShaderGeometryProgram geomShader = null;
+		OGLShaderFragmentProgram fragShader = null;
+		
+		try{
+			if (sources.vertex != null)
+				vertShader = new OGLShaderVertexProgram(g, shaderDef.getVertexPath(), openStreamForSource(sources.vertex));
+			
+			if (sources.geometry != null)
+				geomShader = new OGLShaderGeometryProgram(g, shaderDef.getGeometryPath(), openStreamForSource(sources.geometry));
+
+			if (sources.fragment != null)
+				fragShader = new OGLShaderFragmentProgram(g, shaderDef.getFragmentPath(), openStreamForSource(sources.fragment));
+
+			shader = new OGLShaderProgram(g, vertShader, geomShader, fragShader);
+			shader.setUniforms(uniforms);
+			
+		} catch (GraphicsException e) {
+			if (vertShader != null)
+				vertShader.destroy(g);
+			if (geomShader != null)
+				geomShader.destroy(g);
+			if (fragShader != null)
+				fragShader.destroy(g);
+			if (shader != null)
+				shader.destroy(g);
+			shader = null;
+			fireShaderCacheGraphicErrorEvent(shaderDef, e);
+		} catch (IOException e) {
+			if (vertShader != null)
+				vertShader.destroy(g);
+			if (geomShader != null)
+				geomShader.destroy(g);
+			if (fragShader != null)
+				fragShader.destroy(g);
+			if (shader != null)
+				shader.destroy(g);
+			shader = null;
+			fireShaderCacheLoadErrorEvent(shaderDef, e);
+		}
+		
+		return shader;
+	}
+
+	/**
+	 * Returns a shader resource's uniforms as an array.
+	 */
+	private static OGLUniform[] getShaderUniforms(OGLShaderResource shaderDef)
+	{
+		Queue<OGLUniform> uniformList = shaderDef.getUniforms();
+		OGLUniform[] uniforms = new OGLUniform[uniformList.size()];
+		uniformList.toArray(uniforms);
+		return uniforms;
+	}
+
+	/**
+	 * Opens a stream for reading preprocessed source text.
+	 */
+	private static InputStream openStreamForSource(String source)
+	{
+		return new ByteArrayInputStream(source.getBytes(Charset.forName("UTF-8")));
+	}
+
+	/**
+	 * Reads and preprocesses all of a shader resource's program sources,
+	 * injecting the resource's defines.
+	 * Calls openStreamForVertexProgramData(), openStreamForGeometryProgramData(),
+	 * openStreamForFragmentProgramData() and openStreamForShaderInclude()
+	 * to get the necessary data, if the sources are not in the preprocessor's cache.
+	 * @throws IOException if a source could not be read or preprocessed.
+	 */
+	protected ShaderSources readShaderSources(OGLShaderResource shaderDef) throws IOException
+	{
+		ShaderSourceResolver resolver = new ShaderSourceResolver(shaderDef);
+		Queue<String> defines = getShaderDefines(shaderDef);
+		String vertex = shaderDef.getVertexPath() != null ? shaderPreprocessor.process(shaderDef.getVertexPath(), defines, resolver) : null;
+		String geometry = shaderDef.getGeometryPath() != null ? shaderPreprocessor.process(shaderDef.getGeometryPath(), defines, resolver) : null;
+		String fragment = shaderDef.getFragmentPath() != null ? shaderPreprocessor.process(shaderDef.getFragmentPath(), defines, resolver) : null;
+		return new ShaderSources(vertex, geometry, fragment);
+	}
+
+	/**
+	 * Gets the defines injected into a shader resource's programs: the defines added to shaders
+	 * that extend {@link OGLShaderResourceAbstract}, and none for any other shader.
+	 * @return the define lines, or null for none.
+	 * @see OGLShaderResourceAbstract#addDefine(String, String)
+	 */
+	protected Queue<String> getShaderDefines(OGLShaderResource shaderDef)
+	{
+		if (shaderDef instanceof OGLShaderResourceAbstract)
+			return ((OGLShaderResourceAbstract)shaderDef).getDefines();
+		return null;
+	}
+
+	/**
+	 * Gets the preprocessor used for shader program sources.
+	 */
+	public OGLShaderPreprocessor getShaderPreprocessor()
+	{
+		return shaderPreprocessor;
+	}
+
+	/**
+	 * Returns the time that a texture resource's data was last modified.
+	 * This assumes that the path is a file path (this should be
+	 * overridden if this is not the case).
+	 * @return the modified time in milliseconds, or 0L if unknown.
+	 */
+	protected long getTextureDataModifiedTime(OGLTextureResource resource)
+	{
+		if (resource instanceof OGLTextureArchiveEntry)
+		{
+			OGLTextureArchiveEntry entry = (OGLTextureArchiveEntry)resource;
+			return entry.getArchive().getEntryModifiedTime(entry.getEntryName());
+		}
+		return new File(resource.getPath()).lastModified();
+	}
+
+	/**
+	 * Returns the size of a texture resource's source data, for progress reporting.
+	 * This assumes that the path is a file path, unless the resource
+	 * is an {@link OGLTextureArchiveEntry} (this should be overridden if this is not the case).
+	 * @return the size in bytes, or 0L if unknown.
+	 */
+	protected long getTextureDataLength(OGLTextureResource resource)
+	{
+		if (resource instanceof OGLTextureArchiveEntry)
+		{
+			OGLTextureArchiveEntry entry = (OGLTextureArchiveEntry)resource;
+			return Math.max(entry.getArchive().getEntrySize(entry.getEntryName()), 0L);
+		}
+		if (resource.getPath() == null)
+			return 0L;
+		return new File(resource.getPath()).length();
+	}
+
+	/**
+	 * Returns the size of a shader resource's program sources, not counting includes, 
+	 * for progress reporting. This assumes that the paths are file paths, unless the resource
+	 * is an {@link OGLShaderArchiveEntry} (this should be overridden if this is not the case).
+	 * @return the size in bytes, or 0L if unknown.
+	 */
+	protected long getShaderDataLength(OGLShaderResource resource)
+	{
+		OGLResourceArchive archive = resource instanceof OGLShaderArchiveEntry ? ((OGLShaderArchiveEntry)resource).getArchive() : null;
+		return getSourceLength(archive, resource.getVertexPath())
+			+ getSourceLength(archive, resource.getGeometryPath())
+			+ getSourceLength(archive, resource.getFragmentPath());
+	}
+
+	/**
+	 * Returns the size of a shader program source, in an archive if not null.
+	 * @return the size in bytes, or 0L if unknown or the path is null.
+	 */
+	private static long getSourceLength(OGLResourceArchive archive, String path)
+	{
+		if (path == null)
+			return 0L;
+		if (archive != null)
+		{
+			String name = archive.getEntryName(path);
+			return name != null ? Math.max(archive.getEntrySize(name), 0L) : 0L;
+		}
+		return new File(path).length();
+	}
+
+	/**
+	 * Returns the disk cache key for a texture resource's decoded data.
+	 * The key covers everything that changes the decoded pixels: the path,
+	 * the source's modified time, the target dimension and the resize filtering.
+	 * @return the key, or null if the texture's data should not be disk cached.
+	 */
+	protected String getTextureDiskCacheKey(OGLTextureDiskCache cache, OGLTextureResource textureDef)
+	{
+		long modified = getTextureDataModifiedTime(textureDef);
+		if (modified == 0L)
+			return null;
+		
+		TextureSettings settings = getTextureSettings();
+		int flags = 0;
+		if (textureDef.isForcedNearest() || settings.forceNearest)
+			flags |= 1;
+		if (settings.bestFiltering)
+			flags |= 2;
+		if (isMipmapGenerated(textureDef))
+		{
+			// the stored mipmap levels depend on the generator.
+			OGLMipmapGenerator generator = settings.mipmapGenerator;
+			flags |= 4;
+			if (generator.getFilter() == OGLMipmapGenerator.Filter.KAISER)
+				flags |= 8;
+			if (generator.isGammaCorrect())
+				flags |= 16;
+		}
+		return cache.createKey(textureDef.getPath(), modified, textureDef.getDimension(), flags);
+	}
+
+	/**
+	 * Opens a stream using a texture resource's path.
+	 * This assumes that the path is a file path, unless the resource
+	 * is an {@link OGLTextureArchiveEntry}, which is read from its archive 
+	 * (this should be overridden if this is not the case).
+	 * @return	an open stream for reading the resource.
+	 */
+	protected InputStream openStreamForTextureData(OGLTextureResource resource) throws IOException
+	{
+		if (resource instanceof OGLTextureArchiveEntry)
+			return ((OGLTextureArchiveEntry)resource).openStream();
+		return new FileInputStream(new File(resource.getPath()));
+	}
+	
+	/**
+	 * Opens a stream using a shader resource's vertex program path.
+	 * This assumes that the path is a file path, unless the resource
+	 * is an {@link OGLShaderArchiveEntry}, which is read from its archive
+	 * (this should be overridden if this is not the case).
+	 * @return	an open stream for reading the resource.
+	 */
+	protected InputStream openStreamForVertexProgramData(OGLShaderResource resource) throws IOException
+	{
+		if (resource.getVertexPath() != null && resource instanceof OGLShaderArchiveEntry)
+			return ((OGLShaderArchiveEntry)resource).getArchive().openStreamForPath(resource.getVertexPath());
+		if (resource.getVertexPath() != null)
+			return new FileInputStream(new File(resource.getVertexPath()));
+		return null;
+	}
+	
+	/**
+	 * Opens a stream using a shader resource's geometry program path.
+	 * This assumes that the path is a file path, unless the resource
+	 * is an {@link OGLShaderArchiveEntry}, which is read from its archive
+	 * (this should be overridden if this is not the case).
+	 * @return	an open stream for reading the resource.
+	 */
+	protected InputStream openStreamForGeometryProgramData(OGLShaderResource resource) throws IOException
+	{
+		if (resource.getGeometryPath() != null && resource instanceof OGLShaderArchiveEntry)
+			return ((OGLShaderArchiveEntry)resource).getArchive().openStreamForPath(resource.getGeometryPath());
+		if (resource.getGeometryPath() != null)
+			return new FileInputStream(new File(resource.getGeometryPath()));
+		return null;
+	}
+	
+	/**
+	 * Opens a stream using a shader resource's fragment program path.
+	 * This assumes that the path is a file path, unless the resource
+	 * is an {@link OGLShaderArchiveEntry}, which is read from its archive
+	 * (this should be overridden if this is not the case).
+	 * @return	an open stream for reading the resource.
+	 */
+	protected InputStream openStreamForFragmentProgramData(OGLShaderResource resource) throws IOException
+	{
+		if (resource.getFragmentPath() != null && resource instanceof OGLShaderArchiveEntry)
+			return ((OGLShaderArchiveEntry)resource).getArchive().openStreamForPath(resource.getFragmentPath());
+		if (resource.getFragmentPath() != null)
+			return new FileInputStream(new File(resource.getFragmentPath()));
+		return null;
+	}
+	
+	/**
+	 * Resolves the path of a file included by a shader program source.
+	 * This assumes that the paths are file paths (this should be
+	 * overridden if this is not the case): relative paths are resolved
+	 * against the including file's directory.
+	 * @param parentPath the path of the including file.
+	 * @param includePath the path in the include directive.
+	 * @return the resolved path.
+	 */
+	protected String resolveShaderIncludePath(String parentPath, String includePath)
+	{
+		File file = new File(includePath);
+		if (file.isAbsolute())
+			return file.getPath();
+		return new File(new File(parentPath).getParentFile(), includePath).getPath();
+	}
+	
+	/**
+	 * Opens a stream for a file included by a shader program source.
+	 * This assumes that the path is a file path (this should be
+	 * overridden if this is not the case).
+	 * @return	an open stream for reading the file, or null if it does not exist.
+	 */
+	protected InputStream openStreamForShaderInclude(String path) throws IOException
+	{
+		File file = new File(path);
+		if (!file.exists())
+			return null;
+		return new FileInputStream(file);
+	}
+	
+	/**
+	 * Reloads all textures cached in this renderer, progressively.
+	 * @see #replaceTextures(OGLTextureResource...)
+	 */
+	protected void reloadTextures(OGLGraphics g)
+	{
+		OGLTextureResource[] allRes = new OGLTextureResource[textureBank.size()];
+		textureBank.getAllKeys(allRes);
+		replaceTextures(allRes);
+	}
+
+	/**
+	 * Reloads all textures cached in this renderer.
+	 */
+	protected void reloadShaders(OGLGraphics g)
+	{
+		OGLShaderResource[] allRes = new OGLShaderResource[shaderBank.size()];
+		shaderBank.getAllKeys(allRes);
+		shaderPreprocessor.clearCache();
+		destroyShaders(allRes);
+		queueShaders(allRes);
+	}
+
+	/**
+	 * Reloads the cached resources that use the files passed to {@link #reloadFiles(String...)}.
+	 */
+	protected void reloadChangedFiles(OGLGraphics g)
+	{
+		Set<String> changed = new HashSet<String>();
+		String path;
+		while ((path = changedFiles.poll()) != null)
+			changed.add(path);
+
+		OGLTextureResource[] allTextures = new OGLTextureResource[textureBank.size()];
+		textureBank.getAllKeys(allTextures);
+		List<OGLTextureResource> textures = new List<OGLTextureResource>();
+		for (OGLTextureResource res : allTextures)
+			if (res.getPath() != null && changed.contains(normalizeFilePath(res.getPath())))
+				textures.add(res);
+
+		// sources are checked before they are invalidated, so that includes are known.
+		OGLShaderResource[] allShaders = new OGLShaderResource[shaderBank.size()];
+		shaderBank.getAllKeys(allShaders);
+		List<OGLShaderResource> shaders = new List<OGLShaderResource>();
+		List<String> staleSources = new List<String>();
+		for (OGLShaderResource res : allShaders)
+		{
+			boolean reload = false;
+			for (String stagePath : new String[]{res.getVertexPath(), res.getGeometryPath(), res.getFragmentPath()})
+			{
+				if (stagePath == null)
+					continue;
+				for (String file : shaderPreprocessor.getSourceFiles(stagePath))
+				{
+					if (changed.contains(normalizeFilePath(file)))
+					{
+						staleSources.add(file);
+						reload = true;
+					}
+				}
+				if (changed.contains(normalizeFilePath(stagePath)))
+					reload = true;
+			}
+			if (reload)
+				shaders.add(res);
+		}
+		for (int i = 0; i < staleSources.size(); i++)
+			shaderPreprocessor.invalidate(staleSources.getByIndex(i));
+		for (String file : changed)
+			shaderPreprocessor.invalidate(file);
+
+		if (textures.size() > 0)
+		{
+			OGLTextureResource[] out = new OGLTextureResource[textures.size()];
+			for (int i = 0; i < out.length; i++)
+				out[i] = textures.getByIndex(i);
+			replaceTextures(out);
+		}
+		if (shaders.size() > 0)
+		{
+			OGLShaderResource[] out = new OGLShaderResource[shaders.size()];
+			for (int i = 0; i < out.length; i++)
+				out[i] = shaders.getByIndex(i);
+			destroyShaders(out);
+			queueShaders(out);
+		}
+	}
+
+	/**
+	 * Normalizes a file path for comparing, or returns it as-is if it is not a valid file path.
+	 */
+	private static String normalizeFilePath(String path)
+	{
+		try {
+			return Paths.get(path).toAbsolutePath().normalize().toString();
+		} catch (InvalidPathException e) {
+			return path;
+		}
+	}
+
+	/**
+	 * Destroys textures that need to be destroyed and loads textures
+	 * that need to be loaded, until this frame's budget is spent.
+	 */
+	protected void cycleTextures(OGLGraphics g)
+	{
+		while (!textureDestroyQueue.isEmpty())
+		{
+			OGLTextureResource res = textureDestroyQueue.dequeue();
+			purgeTexture(g, res);
+			removeMetrics(res);
+		}
+	
+		cyclingTextures = true;
+		try {
+			DecodedTexture decoded;
+			while (!isFrameBudgetSpent() && (decoded = textureDecodedQueue.poll()) != null)
+			{
+				cacheDecodedTexture(g, decoded);
+				frameCachedCount++;
+			}
+	
+			QueuedTexture entry;
+			while (!isFrameBudgetSpent() && (entry = textureCacheQueue.poll()) != null)
+			{
+				// skip entries superseded by a higher priority.
+				if (!entry.ticket.claimed.compareAndSet(false, true))
+					continue;
+				recordQueueWait(entry.ticket);
+				cacheTexture(g, entry.ticket.resource);
+				frameCachedCount++;
+			}
+			
+			cycleTextureReplacements(g);
+		} finally {
+			cyclingTextures = false;
+		}
+		
+		updateTextureAtlasPages(g);
+	}
+
+	/**
+	 * Replaces stale textures, until this frame's budget is spent or the
+	 * limit of replacements at once is reached. Replacements that can be 
+	 * decoded by the decoding pool are handed to it, and the rest are
+	 * replaced immediately. 
+	 */
+	private void cycleTextureReplacements(OGLGraphics g)
+	{
+		QueuedTexture entry;
+		while (!isFrameBudgetSpent() && (textureReplaceLimit <= 0 || textureReplacePendingCount < textureReplaceLimit))
+		{
+			if ((entry = textureReplaceQueue.poll()) == null)
+				break;
+			// skip entries superseded by a higher priority.
+			if (!entry.ticket.claimed.compareAndSet(false, true))
+				continue;
+			
+			OGLTextureResource textureDef = entry.ticket.resource;
+			if (!textureStaleSet.contains(textureDef))
+			{
+				// destroyed while it waited.
+				textureTickets.remove(textureDef, entry.ticket);
+				continue;
+			}
+			
+			recordQueueWait(entry.ticket);
+			ExecutorService executor = textureDecodeExecutor;
+			if (executor != null && isDecodableOffThread(textureDef))
+			{
+				textureReplacePendingCount++;
+				textureDecodePendingCount.incrementAndGet();
+				executor.execute(new TextureDecodeJob(entry));
+			}
+			else
+			{
+				// nothing is drawn in between, so the old texture is in use until the new one is ready.
+				purgeTexture(g, textureDef);
+				cacheTexture(g, textureDef);
+				frameCachedCount++;
+			}
+		}
+	}
+
+	/**
+	 * Destroys shaders that need to be destroyed and loads shaders
+	 * that need to be loaded, until this frame's budget is spent.
+	 */
+	protected void cycleShaders(OGLGraphics g)
+	{
+		while (!shaderDestroyQueue.isEmpty())
+		{
+			OGLShaderResource res = shaderDestroyQueue.dequeue();
+			purgeShader(g, res);
+			removeMetrics(res);
+		}
+	
+		while (!isFrameBudgetSpent() && !shaderCacheQueue.isEmpty())
+		{
+			cacheShader(g,shaderCacheQueue.dequeue());
+			frameCachedCount++;
+		}
+	}
+
+	/**
+	 * Deletes a texture resource from OpenGL's memory and from the loader banks.
+	 */
+	protected void purgeTexture(OGLGraphics g, OGLTextureResource res)
+	{
+		textureStaleSet.remove(res);
+		TextureRecord record = textureRecords.remove(res);
+		if (record != null)
+			textureMemoryUsed -= record.size;
+		
+		if (res.isRenderTarget())
+		{
+			RenderTarget rt = targetBank.removeByKey(res);
+			DepthBuffer db = rt.depthBuffer;
+			db.renderTargetList.remove(rt);
+			rt.detachDepthBuffer(g);
+			rt.depthBuffer = null;
+			if (db.renderTargetList.size() == 0)
+			{
+				depthBufferBank.removeByKey(db.depthId);
+				if (depthBufferPoolCount < renderTargetPoolCapacity)
+				{
+					addPooled(depthBufferPool, getDepthBufferKey(db.width, db.height), db);
+					depthBufferPoolCount++;
+				}
+				else
+					db.destroy(g);
+			}
+			textureBank.removeByKey(res);
+			if (renderTargetPoolCount < renderTargetPoolCapacity)
+			{
+				addPooled(renderTargetPool, rt.poolKey, rt);
+				renderTargetPoolCount++;
+			}
+			else
+				rt.destroy(g);
+			fireTextureDestroyedEvent(res);
+		}
+		else
+		{
+			OGLTexture2D obj = textureBank.removeByKey(res);
+			// shared page: only destroyed once all of its regions are gone.
+			if (texturePacking.release(g, res))
+				fireTextureDestroyedEvent(res);
+			else if (obj != null)
+			{
+				if (!textureSharing.isShared(res))
+					obj.destroy(g);
+				else
+				{
+					long sharedSize = textureSharing.release(res);
+					if (sharedSize >= 0L)
+					{
+						textureMemoryUsed -= sharedSize;
+						obj.destroy(g);
+					}
+				}
+				fireTextureDestroyedEvent(res);
+			}
+		}
+	}
+	
+	/**
+	 * Destroys pooled render targets and depth buffers until 
+	 * the pools are within their capacity.
+	 */
+	protected void trimRenderTargetPools(OGLGraphics g)
+	{
+		int capacity = renderTargetPoolCapacity;
+		
+		String[] keys = new String[renderTargetPool.size()];
+		renderTargetPool.getAllKeys(keys);
+		for (int i = 0; i < keys.length && renderTargetPoolCount > capacity; i++)
+		{
+			Queue<RenderTarget> queue = renderTargetPool.getByKey(keys[i]);
+			while (renderTargetPoolCount > capacity && !queue.isEmpty())
+			{
+				queue.dequeue().destroy(g);
+				renderTargetPoolCount--;
+			}
+			if (queue.isEmpty())
+				renderTargetPool.removeByKey(keys[i]);
+		}
+
+		keys = new String[depthBufferPool.size()];
+		depthBufferPool.getAllKeys(keys);
+		for (int i = 0; i < keys.length && depthBufferPoolCount > capacity; i++)
+		{
+			Queue<DepthBuffer> queue = depthBufferPool.getByKey(keys[i]);
+			while (depthBufferPoolCount > capacity && !queue.isEmpty())
+			{
+				queue.dequeue().destroy(g);
+				depthBufferPoolCount--;
+			}
+			if (queue.isEmpty())
+				depthBufferPool.removeByKey(keys[i]);
+		}
+	}
+	
+	/**
+	 * Gets the size of a render target that has no path: its dimension, if it has one,
+	 * or else the canvas size rounded to the closest powers of two.
+	 */
+	private Dimension getRenderTargetSize(OGLGraphics g, OGLTextureResource textureDef)
+	{
+		Dimension dim = textureDef.getDimension();
+		if (dim != null)
+			return dim;
+		return new Dimension(
+			RMath.closestPowerOfTwo((int)g.getCanvasWidth()), 
+			RMath.closestPowerOfTwo((int)g.getCanvasHeight())
+		);
+	}
+
+	/**
+	 * Gets the pool key for a render target: its size and everything that decides its texture's format.
+	 */
+	private String getRenderTargetKey(OGLTextureResource textureDef, int width, int height)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(width).append('x').append(height);
+		sb.append(' ').append(decideInternalFormat(textureDef));
+		sb.append(' ').append(decideMinificationFilter(textureDef));
+		sb.append(' ').append(decideMagnificationFilter(textureDef));
+		sb.append(' ').append(textureDef.getWrappingModeS());
+		sb.append(' ').append(textureDef.getWrappingModeT());
+		sb.append(' ').append(textureDef.getBorder());
+		sb.append(' ').append(getTextureSettings().anisotropy);
+		return sb.toString();
+	}
+
+	/**
+	 * Gets the pool key for a depth buffer.
+	 */
+	private static String getDepthBufferKey(int width, int height)
+	{
+		return width + "x" + height;
+	}
+
+	/**
+	 * Takes an object out of a pool.
+	 * @return the object, or null if there are none pooled with that key.
+	 */
+	private static <T> T takePooled(Bank<String, Queue<T>> pool, String key)
+	{
+		Queue<T> queue = pool.getByKey(key);
+		if (queue == null || queue.isEmpty())
+			return null;
+		return queue.dequeue();
+	}
+
+	/**
+	 * Puts an object into a pool.
+	 */
+	private static <T> void addPooled(Bank<String, Queue<T>> pool, String key, T object)
+	{
+		Queue<T> queue = pool.getByKey(key);
+		if (queue == null)
+			pool.add(key, queue = new Queue<T>());
+		queue.enqueue(object);
+	}
+
+	/**
+	 * Destroys the least-recently-used textures until the texture memory 
+	 * is under budget. Render targets and textures touched within the last 
+	 * {@link #getTextureEvictionFrames()} frames are skipped.
+	 * Evicted textures are remembered so that they can be reloaded on the next request.
+	 */
+	protected void evictTextures(OGLGraphics g)
+	{
+		OGLTextureResource[] allRes = new OGLTextureResource[textureBank.size()];
+		textureBank.getAllKeys(allRes);
+		
+		long minFrame = frameCount - textureEvictionFrames;
+		int count = 0;
+		final long[] lastTouched = new long[allRes.length];
+		Integer[] order = new Integer[allRes.length];
+		for (int i = 0; i < allRes.length; i++)
+		{
+			TextureRecord record = textureRecords.get(allRes[i]);
+			if (record == null || allRes[i].isRenderTarget() || record.lastTouchedFrame > minFrame)
+				continue;
+			lastTouched[i] = record.lastTouchedFrame;
+			order[count++] = i;
+		}
+		
+		Arrays.sort(order, 0, count, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				return Long.compare(lastTouched[a], lastTouched[b]);
+			}
+		});
+		
+		for (int i = 0; i < count && textureMemoryUsed > textureMemoryBudget; i++)
+		{
+			OGLTextureResource res = allRes[order[i]];
+			purgeTexture(g, res);
+			removeMetrics(res);
+			textureEvictedSet.add(res);
+			recordCount(Counter.EVICTIONS, 1L);
+		}
+	}
+	
+	/**
+	 * Raises the texture quality tier if the texture memory used is near the budget, 
+	 * or lowers it if there is room, and restores reduced textures that fit in the budget.
+	 * The tier is changed by one step at most per check.
+	 * @see #setTextureMaxReduction(int)
+	 */
+	protected void updateTextureQualityTier()
+	{
+		textureQualityFrame = frameCount;
+		
+		OGLTextureResource[] allRes = new OGLTextureResource[textureBank.size()];
+		textureBank.getAllKeys(allRes);
+		
+		long budget = textureMemoryBudget;
+		int maxReduction = textureMaxReduction;
+		if (budget > 0L && maxReduction > 0 && textureMemoryUsed > budget * TEXTURE_REDUCE_FRACTION)
 		{
+			// no higher than the tier that reduces the highest-priority texture as much as possible.
+			int maxPriority = 0;
+			for (OGLTextureResource res : allRes)
+				maxPriority = Math.max(maxPriority, getTextureQualityPriority(res));
+			if (textureQualityTier < maxReduction + maxPriority)
+				textureQualityTier++;
 			return;
 		}
-		else if (!containsTexture(resource))
+		
+		if (budget <= 0L || maxReduction <= 0)
+			textureQualityTier = 0;
+		else if (textureQualityTier > 0 && textureMemoryUsed < budget * TEXTURE_RESTORE_FRACTION)
+			textureQualityTier--;
+		
+		// wait for restores in progress to finish, so that their sizes are counted.
+		if (textureStaleSet.isEmpty())
+			restoreReducedTextures(allRes, budget > 0L ? (long)(budget * TEXTURE_RESTORE_FRACTION) : Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Reloads textures that are reduced more than they would be if loaded now, 
+	 * highest quality priority and most recently used first, as long as the texture
+	 * memory used stays under a limit once they are reloaded.
+	 * @param allRes the cached textures.
+	 * @param limit the limit in bytes.
+	 */
+	private void restoreReducedTextures(OGLTextureResource[] allRes, long limit)
+	{
+		int count = 0;
+		final OGLTextureResource[] candidates = new OGLTextureResource[allRes.length];
+		final long[] lastTouched = new long[allRes.length];
+		final long[] growth = new long[allRes.length];
+		for (OGLTextureResource res : allRes)
 		{
-			cacheTexture(g, resource);
+			TextureRecord record = textureRecords.get(res);
+			if (record == null)
+				continue;
+			int levels = record.reduction - getTextureReduction(res);
+			if (levels <= 0)
+				continue;
+			candidates[count] = res;
+			lastTouched[count] = record.lastTouchedFrame;
+			// each level restored is four times the size.
+			growth[count] = record.size * ((1L << (levels * 2)) - 1L);
+			count++;
 		}
+		if (count == 0)
+			return;
 		
-		if ((rt = targetBank.getByKey(resource)) != null)
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>()
 		{
-			g.attribPush(AttribType.ENABLE, AttribType.VIEWPORT);
-			rt.getFrameBufferObject().bindTo(g);
-			g.setViewportToTexture(rt.getColorBufferTexture());
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				int c = getTextureQualityPriority(candidates[b]) - getTextureQualityPriority(candidates[a]);
+				return c != 0 ? c : Long.compare(lastTouched[b], lastTouched[a]);
+			}
+		});
+		
+		List<OGLTextureResource> restored = new List<OGLTextureResource>();
+		long used = textureMemoryUsed;
+		for (int i = 0; i < count; i++)
+		{
+			int index = order[i];
+			if (used + growth[index] > limit)
+				continue;
+			used += growth[index];
+			restored.add(candidates[index]);
+		}
+		if (restored.size() == 0)
+			return;
+		
+		OGLTextureResource[] out = new OGLTextureResource[restored.size()];
+		for (int i = 0; i < out.length; i++)
+			out[i] = restored.getByIndex(i);
+		replaceTextures(out);
+		recordCount(Counter.RESTORES, out.length);
+	}
+	
+	/**
+	 * Queues textures and shaders for destruction that have not been touched
+	 * for their sweep period (the sweep frames times their generation).
+	 * Also forgets sweep history that is too old to matter.
+	 */
+	protected void sweepResources()
+	{
+		long maxHistory = (long)sweepFrames * SWEEP_MAX_GENERATION;
+		
+		OGLTextureResource[] allTextures = new OGLTextureResource[textureBank.size()];
+		textureBank.getAllKeys(allTextures);
+		for (OGLTextureResource res : allTextures)
+		{
+			TextureRecord record = textureRecords.get(res);
+			if (record == null || res.isRenderTarget() || texturePinnedSet.contains(res))
+				continue;
+			if (frameCount - record.lastTouchedFrame > (long)sweepFrames * record.generation)
+			{
+				textureSweepHistory.put(res, new ResourceRecord(frameCount, record.generation));
+				textureDestroyQueue.enqueue(res);
+				textureEvictedSet.add(res);
+				recordCount(Counter.SWEEPS, 1L);
+			}
+		}
+		for (OGLTextureResource res : textureSweepHistory.keySet())
+			if (frameCount - textureSweepHistory.get(res).lastTouchedFrame > maxHistory)
+				textureSweepHistory.remove(res);
+
+		OGLShaderResource[] allShaders = new OGLShaderResource[shaderBank.size()];
+		shaderBank.getAllKeys(allShaders);
+		for (OGLShaderResource res : allShaders)
+		{
+			ResourceRecord record = shaderRecords.get(res);
+			if (record == null || shaderPinnedSet.contains(res))
+				continue;
+			if (frameCount - record.lastTouchedFrame > (long)sweepFrames * record.generation)
+			{
+				shaderSweepHistory.put(res, new ResourceRecord(frameCount, record.generation));
+				shaderDestroyQueue.enqueue(res);
+				recordCount(Counter.SWEEPS, 1L);
+			}
+		}
+		for (OGLShaderResource res : shaderSweepHistory.keySet())
+			if (frameCount - shaderSweepHistory.get(res).lastTouchedFrame > maxHistory)
+				shaderSweepHistory.remove(res);
+	}
+	
+	/**
+	 * Deletes a shader resource from OpenGL's memory and from the loader banks.
+	 */
+	protected void purgeShader(OGLGraphics g, OGLShaderResource res)
+	{
+		shaderRecords.remove(res);
+		OGLShaderProgram obj = shaderBank.removeByKey(res);
+		if (obj != null)
+		{
+			releaseShader(g, res, obj);
+			fireShaderDestroyedEvent(res);
+		}
+	}
+	
+	/**
+	 * Figures out the texture's internal format.
+	 */
+	protected InternalFormat decideInternalFormat(OGLTextureResource textureDef)
+	{
+		TextureSettings settings = getTextureSettings();
+		if (textureDef.isHeightMap())
+		{
+			if (textureDef.isNotAlpha())
+				return InternalFormat.LUMINANCE;
+			else
+				return InternalFormat.INTENSITY;
+		}
+		else if (textureDef.isNotCompressable() || textureDef.isRenderTarget() || !settings.compressTextures)
+		{
+			if (settings.force32BitTextures)
+				return InternalFormat.RGBA8;
+			else if (textureDef.isNotAlpha())
+				return InternalFormat.RGB;
+			else
+				return InternalFormat.RGBA;
+		}
+		else
+		{
+			if (textureDef.isNotAlpha())
+				return InternalFormat.COMPRESSED_RGB_DXT1;
+			else
+				return InternalFormat.COMPRESSED_RGBA_DXT5;
+		}
+	}
+
+	/**
+	 * Figures out the texture's minification filter.
+	 */
+	protected MinFilter decideMinificationFilter(OGLTextureResource textureDef)
+	{
+		TextureSettings settings = getTextureSettings();
+		if (settings.forceNearest || textureDef.isForcedNearest())
+			return MinFilter.NEAREST;
+		else if (settings.forceNoMipmap || textureDef.isNotMipmapped() || textureDef.isRenderTarget())
+			return MinFilter.LINEAR;
+		else if (!settings.bestFiltering)
+			return MinFilter.BILINEAR;
+		else 
+			return MinFilter.TRILINEAR;
+	}
+
+	/**
+	 * Figures out the texture's magnification filter.
+	 */
+	protected MagFilter decideMagnificationFilter(OGLTextureResource textureDef)
+	{
+		if (getTextureSettings().forceNearest || textureDef.isForcedNearest())
+			return MagFilter.NEAREST;
+		else
+			return MagFilter.LINEAR;
+	}
+
+	/**
+	 * Reads the texture's data. Calls openStreamForTextureData()
+	 * to get the necessary data.
+	 */
+	protected BufferedImage getTextureImage(OGLGraphics g, OGLTextureResource textureDef) throws IOException
+	{
+		String tpath = textureDef.getPath();
+		Dimension dim = textureDef.getDimension();
+		if (tpath == null || tpath.trim().length() == 0)
+		{
+			if (dim != null)
+				return new BufferedImage(dim.width, dim.height, BufferedImage.TYPE_INT_ARGB);
+			else if (textureDef.isRenderTarget()) // render target and no size specified.
+			{
+				Dimension size = getRenderTargetSize(g, textureDef);
+				return new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_ARGB);
+			}
+			else
+				return new BufferedImage(0, 0, BufferedImage.TYPE_INT_ARGB);
 		}
+		
+		return decodeTextureImage(textureDef);
+	}
+
+	/**
+	 * Packs a texture's image into the texture atlas, and returns the texture of the page that it was packed on.
+	 * The page texture is created if it does not exist yet, but its data is sent later,
+	 * in {@link #updateTextureAtlasPages(OGLGraphics)}.
+	 * @return the page texture, or null if the image could not be packed.
+	 */
+	protected OGLTexture2D createAtlasTexture(OGLGraphics g, OGLTextureResource textureDef, BufferedImage image)
+	{
+		TextureSettings settings = getTextureSettings();
+		return texturePacking.pack(g, settings.atlas, textureDef, image, 
+			decideMinificationFilter(textureDef), decideMagnificationFilter(textureDef), settings.anisotropy);
+	}
+	
+	/**
+	 * Sends the data of changed texture atlas pages to OpenGL.
+	 * Called after textures are cached.
+	 */
+	protected void updateTextureAtlasPages(OGLGraphics g)
+	{
+		texturePacking.update(g, getTextureSettings().atlas);
+	}
+
+	/**
+	 * Checks if a texture is packed into the texture atlas instead of getting its own texture.
+	 * By default, this is true if the atlas is on, the texture is read from a path,
+	 * is not a render target nor a height map, is not tiled on either axis, 
+	 * and its image fits in the maximum atlas texture size. 
+	 * <p>
+	 * Textures on an atlas page must be drawn with texture coordinates remapped to their region
+	 * (see {@link #getTextureRegion(OGLTextureResource)}), and should not be used for multitexturing.
+	 */
+	protected boolean isAtlasEligible(OGLTextureResource textureDef, BufferedImage image)
+	{
+		TextureSettings settings = getTextureSettings();
+		OGLTextureAtlas atlas = settings.atlas;
+		return atlas != null
+			&& isDecodableOffThread(textureDef)
+			&& !textureDef.isRenderTarget()
+			&& !textureDef.isHeightMap()
+			&& textureDef.getWrappingModeS() != WrapType.TILE
+			&& textureDef.getWrappingModeT() != WrapType.TILE
+			&& image.getWidth() <= settings.atlasMaxSize
+			&& image.getHeight() <= settings.atlasMaxSize
+			&& atlas.fits(image.getWidth(), image.getHeight());
+	}
+	
+	/**
+	 * Creates a texture in OpenGL using block-compressed data, sending the blocks as-is
+	 * through the uploader set with {@link #setCompressedTextureUploader(OGLCompressedTextureUploader)}.
+	 * This must be called on the graphics thread.
+	 * @param g the graphics context.
+	 * @param textureDef the texture resource that the data belongs to.
+	 * @param image the compressed data to upload.
+	 * @return the new texture, or null if there is no uploader or it could not send the data,
+	 * in which case the loader uploads the uncompressed image instead.
+	 */
+	protected OGLTexture2D createCompressedTexture(OGLGraphics g, OGLTextureResource textureDef, OGLCompressedImage image)
+	{
+		OGLCompressedTextureUploader uploader = getTextureSettings().compressedUploader;
+		if (uploader == null)
+			return null;
+		
+		OGLTexture2D texture = newTexture(g, textureDef, true);
+		texture.bindTo(g);
+		if (uploader.sendCompressedData(g, texture, image))
+			return texture;
+		texture.destroy(g);
+		return null;
 	}
-	
+
 	/**
-	 * Ends the render target rendering for a particular target.
+	 * Checks if {@link #createCompressedTexture(OGLGraphics, OGLTextureResource, OGLCompressedImage)}
+	 * can upload compressed data: true if a compressed texture uploader is set.
+	 * If false, textures are never compressed on the CPU.
 	 */
-	public void endRenderTarget(OGLGraphics g)
+	protected boolean isCompressedUploadSupported()
 	{
-		g.unbindFrameBuffer();
-		g.attribPop();
+		return getTextureSettings().compressedUploader != null;
 	}
 	
 	/**
-	 * Loads a texture into OpenGL. 
-	 * Returns an OGLTexture handle of the loaded texture, or null if a problem occurred.
+	 * Creates a texture in OpenGL and sends pixel data that was decoded straight into a
+	 * direct buffer to it, through the uploader set with {@link #setPixelTextureUploader(OGLPixelTextureUploader)}.
+	 * This must be called on the graphics thread. The image's data is given back to its pool 
+	 * by the loader after this returns, so it must not be kept.
+	 * @param g the graphics context.
+	 * @param textureDef the texture resource that the image belongs to.
+	 * @param image the pixel data, RGB8 or RGBA8, rows tightly packed starting from the top.
+	 * @return the new texture, or null if there is no uploader or it could not send the data,
+	 * in which case the loader decodes the texture into a BufferedImage instead.
 	 */
-	public OGLTexture2D loadTexture(OGLGraphics g, OGLTextureResource textureDef)
+	protected OGLTexture2D createPixelTexture(OGLGraphics g, OGLTextureResource textureDef, OGLPixelImage image)
 	{
-		OGLTexture2D texture = null;
-		try{
-			BufferedImage bi = getTextureImage(g, textureDef);
-			if (bi != null)
-			{
-				InternalFormat informat = decideInternalFormat(textureDef);
-				MinFilter min_f = decideMinificationFilter(textureDef);
-				MagFilter mag_f = decideMagnificationFilter(textureDef);
-	
-				texture = new OGLTexture2D(g, informat, min_f, mag_f, textureAnisotropy, 
-						textureDef.getBorder(), 
-						(!textureDef.isNotMipmapped() && min_f != MinFilter.NEAREST && min_f != MinFilter.LINEAR), 
-						textureDef.getWrappingModeS(), textureDef.getWrappingModeT());
-				texture.sendData(g, bi);
-			}
-			else
-				fireTextureCacheLoadErrorEvent(textureDef, 
-						new IOException("Could not open stream for resource '"+textureDef.getPath()+"'."));
-		} catch (IOException e) {
-			if (texture != null)
-			{
-				texture.destroy(g);
-				texture = null;
-			}
-			fireTextureCacheLoadErrorEvent(textureDef, e);
-		} 
+		OGLPixelTextureUploader uploader = getTextureSettings().pixelUploader;
+		if (uploader == null)
+			return null;
 		
-		return texture;
+		OGLTexture2D texture = newTexture(g, textureDef, true);
+		texture.bindTo(g);
+		if (uploader.sendPixelData(g, texture, image))
+			return texture;
+		texture.destroy(g);
+		return null;
 	}
 
 	/**
-	 * Caches a shader into OpenGL.
+	 * Checks if {@link #createPixelTexture(OGLGraphics, OGLTextureResource, OGLPixelImage)}
+	 * can upload pixel data: true if a pixel uploader is set. 
+	 * If false, textures are always decoded into BufferedImages.
 	 */
-	public OGLShaderProgram loadShader(OGLGraphics g, OGLShaderResource shaderDef)
+	protected boolean isPixelUploadSupported()
 	{
-		OGLShaderProgram shader = null;
-		OGLShaderVertexProgram vertShader = null;
-		OGLShaderGeometryProgram geomShader = null;
-		OGLShaderFragmentProgram fragShader = null;
-		
-		try{
-			InputStream vin = null;
-			InputStream gin = null;
-			InputStream fin = null;
-			
-			vin = openStreamForVertexProgramData(shaderDef);
-			gin = openStreamForGeometryProgramData(shaderDef);
-			fin = openStreamForFragmentProgramData(shaderDef);
-			
-			if (vin != null)
-				vertShader = new OGLShaderVertexProgram(g, shaderDef.getVertexPath(), vin);
-			
-			if (gin != null)
-				geomShader = new OGLShaderGeometryProgram(g, shaderDef.getGeometryPath(), gin);
+		return getTextureSettings().pixelUploader != null;
+	}
+	
+	/**
+	 * Checks if a texture's data is decoded straight into a direct buffer instead of a BufferedImage.
+	 * By default, this is true if pixel uploads are supported, the texture is a PNG or TGA read 
+	 * from a path, and nothing else needs a BufferedImage: it is not resized, atlased, 
+	 * disk cached or mipmapped on the CPU.
+	 * @see OGLPixelDecoder
+	 */
+	protected boolean isPixelDecoded(OGLTextureResource textureDef)
+	{
+		TextureSettings settings = getTextureSettings();
+		return isPixelUploadSupported()
+			&& isDecodableOffThread(textureDef)
+			&& OGLPixelDecoder.isSupported(textureDef.getPath())
+			&& textureDef.getDimension() == null
+			&& settings.atlas == null
+			&& settings.diskCache == null
+			&& !isMipmapGenerated(textureDef)
+			&& getTextureReduction(textureDef) == 0;
+	}
+	
+	/**
+	 * Checks if a texture's data is compressed on the CPU before upload.
+	 * By default, this is true if compressed uploads are supported, the texture is read from a path, 
+	 * and {@link #decideInternalFormat(OGLTextureResource)} picks DXT1 or DXT5.
+	 */
+	protected boolean isPrecompressed(OGLTextureResource textureDef)
+	{
+		return isCompressedUploadSupported() 
+			&& isDecodableOffThread(textureDef) 
+			&& getCompressedFormat(decideInternalFormat(textureDef)) != null;
+	}
+	
+	/**
+	 * Returns the block compression format for an internal format, or null if it is not block-compressed.
+	 */
+	private static OGLCompressedImage.Format getCompressedFormat(InternalFormat format)
+	{
+		if (format == InternalFormat.COMPRESSED_RGB_DXT1)
+			return OGLCompressedImage.Format.DXT1;
+		else if (format == InternalFormat.COMPRESSED_RGBA_DXT5)
+			return OGLCompressedImage.Format.DXT5;
+		else
+			return null;
+	}
 
-			if (fin != null)
-				fragShader = new OGLShaderFragmentProgram(g, shaderDef.getFragmentPath(), fin);
+	/**
+	 * Reads, decodes, and block-compresses a texture's data.
+	 * If a disk cache is set, the compressed data is read from it if present,
+	 * and written to it if not (unless the image was reduced).
+	 * This runs on the decoding pool's threads when background decoding is on, 
+	 * and the compressor is shared between them.
+	 * @return the compressed image, or null if the texture is not precompressed or 
+	 * the stream could not be opened.
+	 */
+	protected OGLCompressedImage getCompressedTextureImage(OGLTextureResource textureDef) throws IOException
+	{
+		OGLCompressedImage.Format format = getCompressedFormat(decideInternalFormat(textureDef));
+		if (format == null)
+			return null;
 
-			shader = new OGLShaderProgram(g, vertShader, geomShader, fragShader);
-			
-			Queue<OGLUniform> uniformList = shaderDef.getUniforms();
-			OGLUniform[] uniforms = new OGLUniform[uniformList.size()];
-			uniformList.toArray(uniforms);
-			shader.setUniforms(uniforms);
-			
-		} catch (GraphicsException e) {
-			if (vertShader != null)
-				vertShader.destroy(g);
-			if (geomShader != null)
-				geomShader.destroy(g);
-			if (fragShader != null)
-				fragShader.destroy(g);
-			if (shader != null)
-				shader.destroy(g);
-			fireShaderCacheGraphicErrorEvent(shaderDef, e);
-		} catch (IOException e) {
-			if (vertShader != null)
-				vertShader.destroy(g);
-			if (geomShader != null)
-				geomShader.destroy(g);
-			if (fragShader != null)
-				fragShader.destroy(g);
-			if (shader != null)
-				shader.destroy(g);
-			fireShaderCacheLoadErrorEvent(shaderDef, e);
+		// reduced data is not cached.
+		OGLTextureDiskCache cache = getTextureSettings().diskCache;
+		String key = null;
+		if (cache != null && getTextureReduction(textureDef) == 0 && (key = getTextureDiskCacheKey(cache, textureDef)) != null)
+		{
+			OGLCompressedImage cached = null;
+			try {
+				cached = cache.readCompressed(key);
+			} catch (IOException e) {
+				// bad entry - compress from source.
+			}
+			if (cached != null && cached.getFormat() == format)
+				return cached;
 		}
+
+		BufferedImage fullImage = readTextureImage(textureDef);
+		if (fullImage == null)
+			return null;
 		
-		return shader;
+		BufferedImage image = reduceTextureImage(textureDef, fullImage);
+		OGLCompressedImage out = textureCompressor.compress(image, format);
+		if (key != null && image == fullImage)
+		{
+			try {
+				cache.writeCompressed(key, out);
+			} catch (IOException e) {
+				// the data is compressed again on the next load.
+			}
+		}
+		return out;
 	}
 
 	/**
-	 * Opens a stream using a texture resource's path.
-	 * This assumes that the path is a file path (this should be
-	 * overridden if this is not the case).
-	 * @return	an open stream for reading the resource.
+	 * Checks if this loader can send mipmap levels built on the CPU to OpenGL textures,
+	 * via {@link #createMipmappedTexture(OGLGraphics, OGLTextureResource, BufferedImage[])}:
+	 * true if a mipmap uploader is set. If false, mipmaps are always built by the driver.
 	 */
-	protected InputStream openStreamForTextureData(OGLTextureResource resource) throws IOException
+	protected boolean isMipmapUploadSupported()
 	{
-		return new FileInputStream(new File(resource.getPath()));
+		return getTextureSettings().mipmapUploader != null;
 	}
-	
+
 	/**
-	 * Opens a stream using a shader resource's vertex program path.
-	 * This assumes that the path is a file path (this should be
-	 * overridden if this is not the case).
-	 * @return	an open stream for reading the resource.
+	 * Checks if a texture's mipmap chain is built on the CPU.
+	 * By default, this is true if mipmap uploads are supported, the texture is read from a path,
+	 * it is not precompressed, and {@link #decideMinificationFilter(OGLTextureResource)} picks a mipmapping filter.
 	 */
-	protected InputStream openStreamForVertexProgramData(OGLShaderResource resource) throws IOException
+	protected boolean isMipmapGenerated(OGLTextureResource textureDef)
 	{
-		if (resource.getVertexPath() != null)
-			return new FileInputStream(new File(resource.getVertexPath()));
-		return null;
+		if (!isMipmapUploadSupported() || !isDecodableOffThread(textureDef) || isPrecompressed(textureDef))
+			return false;
+		MinFilter min_f = decideMinificationFilter(textureDef);
+		return min_f != MinFilter.NEAREST && min_f != MinFilter.LINEAR;
 	}
-	
+
 	/**
-	 * Opens a stream using a shader resource's geometry program path.
-	 * This assumes that the path is a file path (this should be
-	 * overridden if this is not the case).
-	 * @return	an open stream for reading the resource.
+	 * Builds the mipmap chain for a texture's decoded image.
+	 * If a disk cache is set, the levels are read from it if present, and written to it if not,
+	 * unless the image was reduced to stay under the texture memory budget: the cache key 
+	 * is for the full-size image.
+	 * This runs on the decoding pool's threads when background decoding is on,
+	 * and the generator is shared between them.
+	 * @param textureDef the texture resource.
+	 * @param image the texture's decoded (and possibly reduced) image.
+	 * @return the mipmap chain, largest to smallest (level 0 is the image), 
+	 * or null if the texture's mipmaps are not built on the CPU.
 	 */
-	protected InputStream openStreamForGeometryProgramData(OGLShaderResource resource) throws IOException
+	protected BufferedImage[] getTextureMipmaps(OGLTextureResource textureDef, BufferedImage image)
 	{
-		if (resource.getGeometryPath() != null)
-			return new FileInputStream(new File(resource.getGeometryPath()));
-		return null;
+		if (!isMipmapGenerated(textureDef) || isAtlasEligible(textureDef, image))
+			return null;
+
+		OGLTextureDiskCache cache = getTextureSettings().diskCache;
+		String key = null;
+		if (cache != null && !isTextureReduced(textureDef) && (key = getTextureDiskCacheKey(cache, textureDef)) != null)
+		{
+			BufferedImage[] cached = null;
+			try {
+				cached = cache.readMipmaps(key, image.getWidth(), image.getHeight());
+			} catch (IOException e) {
+				// bad entry - build from image.
+			}
+			if (cached != null)
+			{
+				cached[0] = image;
+				return cached;
+			}
+		}
+
+		BufferedImage[] out = getTextureSettings().mipmapGenerator.generate(image);
+		if (key != null)
+		{
+			try {
+				cache.writeMipmaps(key, out);
+			} catch (IOException e) {
+				// the levels are built again on the next load.
+			}
+		}
+		return out;
 	}
-	
+
 	/**
-	 * Opens a stream using a shader resource's fragment program path.
-	 * This assumes that the path is a file path (this should be
-	 * overridden if this is not the case).
-	 * @return	an open stream for reading the resource.
+	 * Checks if a texture is shared with other textures that have the same content.
+	 * By default, this is true if deduplication is on, the texture is read from a path,
+	 * and it is not a render target.
 	 */
-	protected InputStream openStreamForFragmentProgramData(OGLShaderResource resource) throws IOException
+	protected boolean isTextureDeduplicated(OGLTextureResource textureDef)
 	{
-		if (resource.getFragmentPath() != null)
-			return new FileInputStream(new File(resource.getFragmentPath()));
-		return null;
+		return getTextureSettings().deduplication && !textureDef.isRenderTarget() && isDecodableOffThread(textureDef);
 	}
-	
+
 	/**
-	 * Reloads all textures cached in this renderer.
+	 * Creates the content hash of a texture's decoded image, for sharing textures
+	 * that have the same content. The hash covers the pixels and everything that changes
+	 * the created texture: its format, filtering, wrapping, border and mipmapping.
+	 * Textures that go on an atlas page are not hashed, since they already share the page.
+	 * @return the hash, or null if the texture is not deduplicated.
 	 */
-	protected void reloadTextures(OGLGraphics g)
+	protected String getTextureContentHash(OGLTextureResource textureDef, BufferedImage image)
 	{
-		OGLTextureResource[] allRes = new OGLTextureResource[textureBank.size()];
-		textureBank.getAllKeys(allRes);
-		destroyTextures(allRes);
-		queueTextures(allRes);
+		// atlased textures already share a page.
+		if (!isTextureDeduplicated(textureDef) || isAtlasEligible(textureDef, image))
+			return null;
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+		ByteBuffer data = ByteBuffer.allocate(argb.length * 4);
+		data.asIntBuffer().put(argb);
+		return createTextureContentHash(textureDef, "ARGB " + width + "x" + height, data);
 	}
 
 	/**
-	 * Reloads all textures cached in this renderer.
+	 * Creates the content hash of a texture's precompressed image, for sharing textures
+	 * that have the same content. The hash covers the compressed blocks, so it only
+	 * matches other textures compressed to the same format.
+	 * @return the hash, or null if the texture is not deduplicated.
+	 * @see #getTextureContentHash(OGLTextureResource, BufferedImage)
 	 */
-	protected void reloadShaders(OGLGraphics g)
+	protected String getTextureContentHash(OGLTextureResource textureDef, OGLCompressedImage image)
 	{
-		OGLShaderResource[] allRes = new OGLShaderResource[shaderBank.size()];
-		shaderBank.getAllKeys(allRes);
-		destroyShaders(allRes);
-		queueShaders(allRes);
+		if (!isTextureDeduplicated(textureDef))
+			return null;
+		return createTextureContentHash(textureDef, 
+			image.getFormat().name() + " " + image.getWidth() + "x" + image.getHeight(), 
+			image.getData().duplicate());
 	}
 
 	/**
-	 * Destroys textures that need to be destroyed and loads textures
-	 * that need to be loaded.
+	 * Creates the content hash of a texture's pixel image, for sharing textures
+	 * that have the same content. The hash covers the buffer's RGB8 or RGBA8 bytes,
+	 * so it does not match the same pixels hashed from a BufferedImage.
+	 * @return the hash, or null if the texture is not deduplicated.
+	 * @see #getTextureContentHash(OGLTextureResource, BufferedImage)
 	 */
-	protected void cycleTextures(OGLGraphics g)
+	protected String getTextureContentHash(OGLTextureResource textureDef, OGLPixelImage image)
 	{
-		while (!textureDestroyQueue.isEmpty())
-			purgeTexture(g, textureDestroyQueue.dequeue());
-	
-		while (!textureCacheQueue.isEmpty())
-			cacheTexture(g, textureCacheQueue.dequeue());
+		if (!isTextureDeduplicated(textureDef))
+			return null;
+		return createTextureContentHash(textureDef, 
+			image.getFormat().name() + " " + image.getWidth() + "x" + image.getHeight(), 
+			image.getData().duplicate());
 	}
 
 	/**
-	 * Destroys shaders that need to be destroyed and loads shaders
-	 * that need to be loaded.
+	 * Creates a SHA-1 hex hash of texture data and the texture parameters.
 	 */
-	protected void cycleShaders(OGLGraphics g)
+	private String createTextureContentHash(OGLTextureResource textureDef, String header, ByteBuffer data)
 	{
-		while (!shaderDestroyQueue.isEmpty())
-			purgeShader(g, shaderDestroyQueue.dequeue());
-	
-		while (!shaderCacheQueue.isEmpty())
-			cacheShader(g,shaderCacheQueue.dequeue());
+		StringBuilder sb = new StringBuilder(header);
+		sb.append('|').append(decideInternalFormat(textureDef));
+		sb.append('|').append(decideMinificationFilter(textureDef));
+		sb.append('|').append(decideMagnificationFilter(textureDef));
+		sb.append('|').append(textureDef.getWrappingModeS());
+		sb.append('|').append(textureDef.getWrappingModeT());
+		sb.append('|').append(textureDef.getBorder());
+		sb.append('|').append(textureDef.isNotMipmapped());
+		sb.append('|').append(isMipmapGenerated(textureDef));
+		sb.append('|').append(getTextureSettings().anisotropy);
+
+		byte[] digest;
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			md.update(sb.toString().getBytes(Charset.forName("UTF-8")));
+			md.update(data);
+			digest = md.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-1 is not available.", e);
+		}
+		
+		StringBuilder out = new StringBuilder(digest.length * 2);
+		for (byte b : digest)
+			out.append(Character.forDigit((b >> 4) & 0x0f, 16)).append(Character.forDigit(b & 0x0f, 16));
+		return out.toString();
 	}
 
 	/**
-	 * Deletes a texture resource from OpenGL's memory and from the loader banks.
+	 * Checks if a texture's data can be read and decoded outside of the graphics thread.
+	 * By default, this is true for all textures that have a path - textures
+	 * without a path may need the graphics context to figure out their size.
 	 */
-	protected void purgeTexture(OGLGraphics g, OGLTextureResource res)
+	protected boolean isDecodableOffThread(OGLTextureResource textureDef)
 	{
-		if (res.isRenderTarget())
+		String tpath = textureDef.getPath();
+		return tpath != null && tpath.trim().length() > 0;
+	}
+	
+	/**
+	 * Reads and decodes the texture's data from its path, resizing it if it 
+	 * has a specified dimension. Calls openStreamForTextureData() to get the 
+	 * necessary data. If a disk cache is set, the decoded image is read from
+	 * it if present, and written to it if not. The image is then reduced if the 
+	 * texture memory budget calls for it (see {@link #setTextureMaxReduction(int)}).
+	 * With background decoding on (see {@link #setTextureDecodeThreads(int)}), this is called
+	 * on the decoding pool's threads, several textures at a time.
+	 * @return the decoded image, or null if the stream could not be opened.
+	 */
+	protected BufferedImage decodeTextureImage(OGLTextureResource textureDef) throws IOException
+	{
+		OGLTextureDiskCache cache = getTextureSettings().diskCache;
+		String key = null;
+		if (cache != null && (key = getTextureDiskCacheKey(cache, textureDef)) != null)
 		{
-			RenderTarget rt = targetBank.removeByKey(res);
-			DepthBuffer db = rt.depthBuffer;
-			db.renderTargetList.remove(rt);
-			if (db.renderTargetList.size() == 0)
-				db.destroy(g);
-			rt.depthBuffer = null;
-			textureBank.removeByKey(res);
-			rt.destroy(g);
-			fireTextureDestroyedEvent(res);
+			BufferedImage cached = null;
+			try {
+				cached = cache.readImage(key);
+			} catch (IOException e) {
+				// bad entry - decode from source.
+			}
+			if (cached != null)
+			{
+				recordCount(Counter.DISK_CACHE_HITS, 1L);
+				return reduceTextureImage(textureDef, cached);
+			}
 		}
-		else
+
+		BufferedImage out = readTextureImage(textureDef);
+		
+		if (out != null && key != null)
 		{
-			OGLTexture2D obj = textureBank.removeByKey(res);
-			if (obj != null)
-			{
-				obj.destroy(g);
-				fireTextureDestroyedEvent(res);
+			try {
+				cache.writeImage(key, out);
+			} catch (IOException e) {
+				// unwritable cache - the image is decoded from source again next time.
 			}
 		}
+		return reduceTextureImage(textureDef, out);
 	}
 	
 	/**
-	 * Deletes a shader resource from OpenGL's memory and from the loader banks.
+	 * Reads and decodes a texture's PNG or TGA data straight into a buffer from the loader's buffer pool.
+	 * This runs on the decoding pool's threads when background decoding is on,
+	 * and the buffer pool is shared between them.
+	 * @return the decoded image, or null if the stream could not be opened or the image
+	 * is a variant that is not supported.
+	 * @see #isPixelDecoded(OGLTextureResource)
 	 */
-	protected void purgeShader(OGLGraphics g, OGLShaderResource res)
+	protected OGLPixelImage readPixelTextureImage(OGLTextureResource textureDef) throws IOException
 	{
-		OGLShaderProgram obj = shaderBank.removeByKey(res);
-		if (obj != null)
+		long start = getMetricsTime();
+		InputStream in = openStreamForTextureData(textureDef);
+		if (in == null)
+			return null;
+		
+		TimedInputStream timedIn = null;
+		long openNanos = 0L;
+		if (start != 0L)
 		{
-			obj.destroy(g);
-			fireShaderDestroyedEvent(res);
+			openNanos = System.nanoTime() - start;
+			in = timedIn = new TimedInputStream(in);
+			start = System.nanoTime();
+		}
+		
+		try {
+			OGLPixelImage out = texturePixelDecoder.decode(in, textureDef.getPath());
+			OGLResourceLoaderMetrics m = metrics;
+			if (m != null && timedIn != null)
+			{
+				m.record(Stage.IO, textureDef, openNanos + timedIn.nanos);
+				m.record(Stage.DECODE, textureDef, System.nanoTime() - start - timedIn.nanos);
+			}
+			return out;
+		} finally {
+			in.close();
 		}
 	}
-	
+
 	/**
-	 * Figures out the texture's internal format.
+	 * Reads and decodes a texture image from its source data, 
+	 * resizing it if the texture has a dimension set.
+	 * @return the image read, or null if there is no data.
+	 * @throws IOException if the image could not be read.
 	 */
-	protected InternalFormat decideInternalFormat(OGLTextureResource textureDef)
+	protected BufferedImage readTextureImage(OGLTextureResource textureDef) throws IOException
 	{
-		if (textureDef.isHeightMap())
+		Dimension dim = textureDef.getDimension();
+		long start = getMetricsTime();
+		InputStream in = openStreamForTextureData(textureDef);
+		if (in == null)
+			return null;
+		
+		// time spent reading the stream is separated from time spent decoding.
+		TimedInputStream timedIn = null;
+		long openNanos = 0L;
+		if (start != 0L)
 		{
-			if (textureDef.isNotAlpha())
-				return InternalFormat.LUMINANCE;
-			else
-				return InternalFormat.INTENSITY;
+			openNanos = System.nanoTime() - start;
+			in = timedIn = new TimedInputStream(in);
+			start = System.nanoTime();
 		}
-		else if (textureDef.isNotCompressable() || textureDef.isRenderTarget() || !compressTextures)
-		{
-			if (force32BitTextures)
-				return InternalFormat.RGBA8;
-			else if (textureDef.isNotAlpha())
-				return InternalFormat.RGB;
-			else
-				return InternalFormat.RGBA;
+		
+		try {
+			BufferedImage inImage = ImageIO.read(in);
+			OGLResourceLoaderMetrics m = metrics;
+			if (m != null && timedIn != null)
+			{
+				m.record(Stage.IO, textureDef, openNanos + timedIn.nanos);
+				m.record(Stage.DECODE, textureDef, System.nanoTime() - start - timedIn.nanos);
+			}
+			
+			if (inImage == null || dim == null)
+				return inImage;
+			
+			start = getMetricsTime();
+			BufferedImage out = resizeTextureImage(textureDef, inImage, dim.width, dim.height);
+			recordTime(Stage.RESIZE, textureDef, start);
+			return out;
+		} finally {
+			in.close();
 		}
+	}
+
+	/**
+	 * Resizes a texture image, filtered the way that the texture would be.
+	 * @return the resized image.
+	 */
+	protected BufferedImage resizeTextureImage(OGLTextureResource textureDef, BufferedImage image, int width, int height)
+	{
+		TextureSettings settings = getTextureSettings();
+		if (textureDef.isForcedNearest() || settings.forceNearest)
+			return textureResizer.resize(image, width, height, OGLImageResizer.Filter.NEAREST);
+		else if (settings.bestFiltering)
+			return textureResizer.resize(image, width, height, OGLImageResizer.Filter.TRILINEAR);
 		else
-		{
-			if (textureDef.isNotAlpha())
-				return InternalFormat.COMPRESSED_RGB_DXT1;
-			else
-				return InternalFormat.COMPRESSED_RGBA_DXT5;
-		}
+			return textureResizer.resize(image, width, height, OGLImageResizer.Filter.BILINEAR);
+	}
+
+	/**
+	 * Gets how many times a texture's image is halved in size if it is loaded now,
+	 * to stay under the texture memory budget: the quality tier less the texture's
+	 * quality priority, up to the maximum reduction. 
+	 * Render targets and textures without a path are never reduced.
+	 * This may be called from the decoding pool's threads.
+	 * @see #setTextureMaxReduction(int)
+	 */
+	protected int getTextureReduction(OGLTextureResource textureDef)
+	{
+		int tier = textureQualityTier;
+		if (tier <= 0 || textureDef.isRenderTarget() || !isDecodableOffThread(textureDef))
+			return 0;
+		return Math.max(Math.min(tier - getTextureQualityPriority(textureDef), textureMaxReduction), 0);
 	}
 
 	/**
-	 * Figures out the texture's minification filter.
+	 * Gets a texture's quality priority: textures with a lower priority are reduced
+	 * sooner and further, and restored later. This is the priority set on textures that
+	 * extend {@link OGLTextureResourceAbstract}, and 0 for any other texture.
+	 * This may be called from the decoding pool's threads.
+	 * @see OGLTextureResourceAbstract#setQualityPriority(int)
 	 */
-	protected MinFilter decideMinificationFilter(OGLTextureResource textureDef)
+	protected int getTextureQualityPriority(OGLTextureResource textureDef)
 	{
-		if (forceNearest || textureDef.isForcedNearest())
-			return MinFilter.NEAREST;
-		else if (forceNoMipmap || textureDef.isNotMipmapped() || textureDef.isRenderTarget())
-			return MinFilter.LINEAR;
-		else if (!textureBestFiltering)
-			return MinFilter.BILINEAR;
-		else 
-			return MinFilter.TRILINEAR;
+		if (textureDef instanceof OGLTextureResourceAbstract)
+			return ((OGLTextureResourceAbstract)textureDef).getQualityPriority();
+		return 0;
 	}
 
 	/**
-	 * Figures out the texture's magnification filter.
+	 * Halves the size of a texture's image as many times as {@link #getTextureReduction(OGLTextureResource)}
+	 * says to, if any, and remembers it for when the texture is cached.
+	 * @return the reduced image, or the same image if it is not reduced.
 	 */
-	protected MagFilter decideMagnificationFilter(OGLTextureResource textureDef)
+	protected BufferedImage reduceTextureImage(OGLTextureResource textureDef, BufferedImage image)
 	{
-		if (forceNearest || textureDef.isForcedNearest())
-			return MagFilter.NEAREST;
+		int reduction = getTextureReduction(textureDef);
+		if (image == null || reduction <= 0)
+			return image;
+		
+		int width = Math.max(image.getWidth() >> reduction, 1);
+		int height = Math.max(image.getHeight() >> reduction, 1);
+		if (width == image.getWidth() && height == image.getHeight())
+			return image;
+		
+		long start = getMetricsTime();
+		BufferedImage out = resizeTextureImage(textureDef, image, width, height);
+		recordTime(Stage.RESIZE, textureDef, start);
+		TextureDecodeState state = textureDecodeStates.get();
+		if (state != null)
+			state.reduction = reduction;
 		else
-			return MagFilter.LINEAR;
+			textureReductions.put(textureDef, reduction);
+		recordCount(Counter.REDUCTIONS, 1L);
+		return out;
 	}
 
 	/**
-	 * Reads the texture's data. Calls openStreamForTextureData()
-	 * to get the necessary data.
+	 * Checks if the image of a texture being loaded was reduced by {@link #reduceTextureImage(OGLTextureResource, BufferedImage)}.
 	 */
-	protected BufferedImage getTextureImage(OGLGraphics g, OGLTextureResource textureDef) throws IOException
+	private boolean isTextureReduced(OGLTextureResource textureDef)
 	{
-		String tpath = textureDef.getPath();
-		Dimension dim = textureDef.getDimension();
-		if (tpath == null || tpath.trim().length() == 0)
-		{
-			if (dim != null)
-				return new BufferedImage(dim.width, dim.height, BufferedImage.TYPE_INT_ARGB);
-			else if (textureDef.isRenderTarget()) // render target and no size specified.
-			{
-				int p2width = RMath.closestPowerOfTwo((int)g.getCanvasWidth());
-				int p2height = RMath.closestPowerOfTwo((int)g.getCanvasHeight());
-				return new BufferedImage(p2width, p2height, BufferedImage.TYPE_INT_ARGB);
-			}
-			else
-				return new BufferedImage(0, 0, BufferedImage.TYPE_INT_ARGB);
-		}
-		
-		InputStream in = openStreamForTextureData(textureDef);
-		if (in == null)
-			return null;
-		try {
-			BufferedImage inImage = ImageIO.read(in);
-			
-			if (textureDef.getDimension() == null)
-				return inImage;
-			
-			if (textureDef.isForcedNearest() || forceNearest)
-				return OGLGraphicUtils.performResize(inImage, dim.width, dim.height);
-			else if (textureBestFiltering)
-				return OGLGraphicUtils.performResizeTrilinear(inImage, dim.width, dim.height);
-			else
-				return OGLGraphicUtils.performResizeBilinear(inImage, dim.width, dim.height);
-		} catch (IOException e) {
-			throw e;
-		} finally {
-			in.close();
-		}
+		TextureDecodeState state = textureDecodeStates.get();
+		return state != null ? state.reduction > 0 : textureReductions.containsKey(textureDef);
+	}
+
+	/**
+	 * Gets the texture settings to load a texture with: the ones that the texture 
+	 * was queued with, on a decoding job's thread, or the current ones anywhere else.
+	 */
+	private TextureSettings getTextureSettings()
+	{
+		TextureDecodeState state = textureDecodeStates.get();
+		return state != null ? state.settings : textureSettings;
 	}
 
 	/**
@@ -846,6 +4046,7 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 	 */
 	protected void fireTextureCacheLoadErrorEvent(OGLTextureResource resource, IOException exception)
 	{
+		recordCount(Counter.LOAD_ERRORS, 1L);
 		for (int i = 0; i < resourceListeners.size(); i++)
 			resourceListeners.getByIndex(i).textureCacheLoadError(resource, exception);
 	}
@@ -858,6 +4059,7 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 	 */
 	protected void fireTextureCacheGraphicErrorEvent(OGLTextureResource resource, GraphicsException exception)
 	{
+		recordCount(Counter.LOAD_ERRORS, 1L);
 		for (int i = 0; i < resourceListeners.size(); i++)
 			resourceListeners.getByIndex(i).textureCacheGraphicError(resource, exception);
 	}
@@ -916,6 +4118,7 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 	 */
 	protected void fireShaderCacheLoadErrorEvent(OGLShaderResource resource, IOException exception)
 	{
+		recordCount(Counter.LOAD_ERRORS, 1L);
 		for (int i = 0; i < resourceListeners.size(); i++)
 			resourceListeners.getByIndex(i).shaderCacheLoadError(resource, exception);
 	}
@@ -928,6 +4131,7 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 	 */
 	protected void fireShaderCacheGraphicErrorEvent(OGLShaderResource resource, GraphicsException exception)
 	{
+		recordCount(Counter.LOAD_ERRORS, 1L);
 		for (int i = 0; i < resourceListeners.size(); i++)
 			resourceListeners.getByIndex(i).shaderCacheGraphicError(resource, exception);
 	}
@@ -979,6 +4183,8 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 		OGLTexture2D colorBufferTexture;
 		/** The depth buffer attached to this. */
 		DepthBuffer depthBuffer;
+		/** The key for pooling this when it is not used. */
+		String poolKey;
 		
 		/**
 		 * Creates a new render target using an OGLGraphics context. 
@@ -1022,6 +4228,15 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 			return colorBufferTexture;
 		}
 
+		/**
+		 * Detaches the depth buffer from this RenderTarget, so that it can be pooled.
+		 */
+		public void detachDepthBuffer(OGLGraphics g)
+		{
+			g.unbindFrameBuffer();
+			frameBufferObject.detachFromRenderBuffer(g, AttachPoint.DEPTH);
+		}
+
 		/**
 		 * Frees the memory used by this RenderTarget.
 		 * THIS WILL NOT UNBIND THE CURRENT FRAMEBUFFER, 
@@ -1047,10 +4262,18 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 		Queue<RenderTarget> renderTargetList;
 		/** Frame buffer objects for depth buffer effects. */
 		OGLFrameRenderBuffer depthBuffer;
+		/** The depth id of the render targets that use this. */
+		int depthId;
+		/** Buffer width. */
+		int width;
+		/** Buffer height. */
+		int height;
 
 		DepthBuffer(OGLGraphics g, int width, int height)
 		{
 			try {
+				this.width = width;
+				this.height = height;
 				renderTargetList = new Queue<RenderTarget>();
 				depthBuffer = new OGLFrameRenderBuffer(g, Format.DEPTH, width, height);
 				g.unbindFrameBuffer();
@@ -1085,4 +4308,529 @@ public class OGLResourceLoader extends OGLCanvasNodeAdapter
 
 	}
 	
+	/**
+	 * Usage information for a cached resource.
+	 */
+	protected static class ResourceRecord
+	{
+		/** The last frame that this resource was touched (or swept, for sweep history). */
+		volatile long lastTouchedFrame;
+		/** Sweep generation - the sweep period multiplier. */
+		int generation;
+		
+		ResourceRecord(long lastTouchedFrame)
+		{
+			this(lastTouchedFrame, 1);
+		}
+		
+		ResourceRecord(long lastTouchedFrame, int generation)
+		{
+			this.lastTouchedFrame = lastTouchedFrame;
+			this.generation = generation;
+		}
+		
+	}
+	
+	/**
+	 * Memory and usage information for a cached texture.
+	 */
+	protected static class TextureRecord extends ResourceRecord
+	{
+		/** Estimated size of the texture in bytes. */
+		long size;
+		/** Amount of times the texture's image was halved to stay under the memory budget. */
+		int reduction;
+		
+		TextureRecord(long size, long lastTouchedFrame)
+		{
+			super(lastTouchedFrame);
+			this.size = size;
+		}
+		
+	}
+	
+	/**
+	 * Preprocessed shader program sources.
+	 */
+	protected static class ShaderSources
+	{
+		/** Vertex program source, or null for none. */
+		String vertex;
+		/** Geometry program source, or null for none. */
+		String geometry;
+		/** Fragment program source, or null for none. */
+		String fragment;
+		/** Hash of all of the sources. */
+		String hash;
+		
+		ShaderSources(String vertex, String geometry, String fragment)
+		{
+			this.vertex = vertex;
+			this.geometry = geometry;
+			this.fragment = fragment;
+			this.hash = OGLShaderPreprocessor.createHash(vertex, geometry, fragment);
+		}
+		
+	}
+	
+	/**
+	 * A shader program shared by all resources that resolve to the same sources.
+	 */
+	private static class SharedShaderProgram
+	{
+		/** Hash of the program's sources. */
+		String hash;
+		/** The program. */
+		OGLShaderProgram program;
+		/** The uniforms set on the program. */
+		OGLUniform[] uniforms;
+		/** Amount of resources using the program. */
+		int references;
+		
+		SharedShaderProgram(String hash, OGLShaderProgram program, OGLUniform[] uniforms)
+		{
+			this.hash = hash;
+			this.program = program;
+			this.uniforms = uniforms;
+			this.references = 1;
+		}
+		
+	}
+	
+	/**
+	 * Opens a shader resource's program sources and their includes
+	 * through the loader's stream methods.
+	 */
+	private class ShaderSourceResolver implements OGLShaderPreprocessor.SourceResolver
+	{
+		private OGLShaderResource resource;
+		
+		ShaderSourceResolver(OGLShaderResource resource)
+		{
+			this.resource = resource;
+		}
+		
+		@Override
+		public String resolveInclude(String parentPath, String includePath)
+		{
+			// archived programs include files from the same archive.
+			if (resource instanceof OGLShaderArchiveEntry)
+				return ((OGLShaderArchiveEntry)resource).getArchive().resolveEntryPath(parentPath, includePath);
+			return resolveShaderIncludePath(parentPath, includePath);
+		}
+		
+		@Override
+		public InputStream openStream(String path) throws IOException
+		{
+			if (path.equals(resource.getVertexPath()))
+				return openStreamForVertexProgramData(resource);
+			else if (path.equals(resource.getGeometryPath()))
+				return openStreamForGeometryProgramData(resource);
+			else if (path.equals(resource.getFragmentPath()))
+				return openStreamForFragmentProgramData(resource);
+			else if (resource instanceof OGLShaderArchiveEntry)
+				return ((OGLShaderArchiveEntry)resource).getArchive().openStreamForPath(path);
+			else
+				return openStreamForShaderInclude(path);
+		}
+		
+	}
+	
+	/**
+	 * A texture request made off of the graphics thread.
+	 */
+	private static class TextureRequest
+	{
+		/** The handle returned to the requester. */
+		OGLTextureHandle handle;
+		/** The requested loading priority. */
+		float priority;
+		
+		TextureRequest(OGLTextureHandle handle, float priority)
+		{
+			this.handle = handle;
+			this.priority = priority;
+		}
+		
+	}
+	
+	/**
+	 * Completes a handle with the result of another, once that one completes.
+	 */
+	private static class HandleRelay<R, O> implements OGLResourceHandleListener<R, O>
+	{
+		/** The handle to complete. */
+		private OGLResourceHandle<R, O> target;
+		
+		HandleRelay(OGLResourceHandle<R, O> target)
+		{
+			this.target = target;
+		}
+		
+		@Override
+		public void resourceDone(OGLResourceHandle<R, O> handle)
+		{
+			target.complete(handle.get());
+		}
+		
+	}
+	
+	/**
+	 * Loading state of a queued texture.
+	 */
+	private static class TextureTicket
+	{
+		/** The texture resource. */
+		OGLTextureResource resource;
+		/** Highest priority that the texture was queued with. */
+		volatile float priority;
+		/** Set once an entry for the texture is taken off of a queue for loading. */
+		AtomicBoolean claimed;
+		/** Time that the texture was queued, in nanoseconds. */
+		long queuedNanos;
+		/** Does this replace a stale texture that is still cached? */
+		boolean replacement;
+		/** The texture settings when the texture was queued. Decoding jobs only read these. */
+		TextureSettings settings;
+		
+		TextureTicket(OGLTextureResource resource, float priority, TextureSettings settings)
+		{
+			this.resource = resource;
+			this.priority = priority;
+			this.claimed = new AtomicBoolean(false);
+			this.queuedNanos = System.nanoTime();
+			this.replacement = false;
+			this.settings = settings;
+		}
+		
+	}
+	
+	/**
+	 * Settings that change how textures are loaded.
+	 * A new copy is made for each change, so that textures that are decoding
+	 * keep the settings that they were queued with.
+	 */
+	private static class TextureSettings
+	{
+		/** Are we forcing no mipmapping? */
+		boolean forceNoMipmap;
+		/** Are we forcing 32 bit textures? */
+		boolean force32BitTextures;
+		/** Are we forcing nearest filtering? */
+		boolean forceNearest;
+		/** Are we compressing textures? */
+		boolean compressTextures;
+		/** What is the texture anisotropy level? */
+		float anisotropy;
+		/** Are we using the best filtering possible for texture minification? */
+		boolean bestFiltering;
+		/** Disk cache for decoded texture data. Null if not used. */
+		OGLTextureDiskCache diskCache;
+		/** Sends precompressed texture data to OpenGL. Null if textures are not precompressed. */
+		OGLCompressedTextureUploader compressedUploader;
+		/** Mipmap chain generator for textures mipmapped on the CPU. */
+		OGLMipmapGenerator mipmapGenerator;
+		/** Sends mipmap chains built on the CPU to OpenGL. Null if mipmaps are built by the driver. */
+		OGLMipmapTextureUploader mipmapUploader;
+		/** Sends texture data decoded without a BufferedImage to OpenGL. Null if textures are always decoded into BufferedImages. */
+		OGLPixelTextureUploader pixelUploader;
+		/** Atlas for packing small textures. Null if not used. */
+		OGLTextureAtlas atlas;
+		/** Maximum width or height of a texture packed into the atlas. */
+		int atlasMaxSize;
+		/** Are textures with the same content shared? */
+		boolean deduplication;
+		
+		TextureSettings()
+		{
+			this.forceNoMipmap = false;
+			this.force32BitTextures = false;
+			this.forceNearest = false;
+			this.compressTextures = false;
+			this.anisotropy = 0f;
+			this.bestFiltering = false;
+			this.diskCache = null;
+			this.compressedUploader = null;
+			this.mipmapGenerator = new OGLMipmapGenerator(OGLMipmapGenerator.Filter.BOX);
+			this.mipmapUploader = null;
+			this.pixelUploader = null;
+			this.atlas = null;
+			this.atlasMaxSize = 0;
+			this.deduplication = false;
+		}
+		
+		TextureSettings(TextureSettings settings)
+		{
+			this.forceNoMipmap = settings.forceNoMipmap;
+			this.force32BitTextures = settings.force32BitTextures;
+			this.forceNearest = settings.forceNearest;
+			this.compressTextures = settings.compressTextures;
+			this.anisotropy = settings.anisotropy;
+			this.bestFiltering = settings.bestFiltering;
+			this.diskCache = settings.diskCache;
+			this.compressedUploader = settings.compressedUploader;
+			this.mipmapGenerator = settings.mipmapGenerator;
+			this.mipmapUploader = settings.mipmapUploader;
+			this.pixelUploader = settings.pixelUploader;
+			this.atlas = settings.atlas;
+			this.atlasMaxSize = settings.atlasMaxSize;
+			this.deduplication = settings.deduplication;
+		}
+		
+	}
+	
+	/**
+	 * State of the texture that a decoding job is decoding, kept per thread
+	 * so that the decoding hooks read the job's settings instead of the loader's.
+	 */
+	private static class TextureDecodeState
+	{
+		/** The settings that the texture was queued with. */
+		TextureSettings settings;
+		/** Amount of times the image was halved, if it was. Handed to the graphics thread with the decoded data. */
+		int reduction;
+		
+		TextureDecodeState(TextureSettings settings)
+		{
+			this.settings = settings;
+			this.reduction = 0;
+		}
+		
+	}
+	
+	/**
+	 * An entry in a texture loading queue. 
+	 * Orders by highest priority first, then by queue order.
+	 */
+	private static class QueuedTexture implements Comparable<QueuedTexture>
+	{
+		/** The queued texture's ticket. */
+		TextureTicket ticket;
+		/** Priority of this entry. */
+		float priority;
+		/** Queue order of this entry. */
+		long sequence;
+		
+		QueuedTexture(TextureTicket ticket, float priority, long sequence)
+		{
+			this.ticket = ticket;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+		
+		@Override
+		public int compareTo(QueuedTexture entry)
+		{
+			int c = Float.compare(entry.priority, priority);
+			return c != 0 ? c : Long.compare(sequence, entry.sequence);
+		}
+		
+	}
+	
+	/**
+	 * Texture image data decoded by the decoding pool, waiting for upload.
+	 */
+	protected static class DecodedTexture
+	{
+		/** The texture resource. */
+		OGLTextureResource resource;
+		/** The decoded image. Null if the resource's stream could not be opened or it was compressed. */
+		BufferedImage image;
+		/** The compressed image, if the texture is precompressed. */
+		OGLCompressedImage compressed;
+		/** The pixel image, if the texture is decoded without a BufferedImage. */
+		OGLPixelImage pixels;
+		/** The mipmap chain, if the texture's mipmaps are built on the CPU. */
+		BufferedImage[] mipmaps;
+		/** The content hash, if the texture is deduplicated. */
+		String contentHash;
+		/** The exception that occurred on read, if any. */
+		IOException exception;
+		/** The ticket of the replacement for a stale texture, or null if this is not a replacement. */
+		TextureTicket replacement;
+		/** Amount of times the image was halved to stay under the texture memory budget. */
+		int reduction;
+		
+		DecodedTexture(OGLTextureResource resource, BufferedImage image, IOException exception)
+		{
+			this.resource = resource;
+			this.image = image;
+			this.compressed = null;
+			this.pixels = null;
+			this.mipmaps = null;
+			this.contentHash = null;
+			this.exception = exception;
+			this.reduction = 0;
+		}
+
+		DecodedTexture(OGLTextureResource resource, OGLCompressedImage compressed)
+		{
+			this.resource = resource;
+			this.image = null;
+			this.compressed = compressed;
+			this.pixels = null;
+			this.mipmaps = null;
+			this.contentHash = null;
+			this.exception = null;
+			this.reduction = 0;
+		}
+
+		DecodedTexture(OGLTextureResource resource, OGLPixelImage pixels)
+		{
+			this.resource = resource;
+			this.image = null;
+			this.compressed = null;
+			this.pixels = pixels;
+			this.mipmaps = null;
+			this.contentHash = null;
+			this.exception = null;
+			this.reduction = 0;
+		}
+		
+	}
+	
+	/**
+	 * Decodes a single texture and adds the result to the decoded queue.
+	 */
+	private class TextureDecodeJob implements Runnable, Comparable<TextureDecodeJob>
+	{
+		private QueuedTexture entry;
+		
+		TextureDecodeJob(QueuedTexture entry)
+		{
+			this.entry = entry;
+		}
+		
+		@Override
+		public int compareTo(TextureDecodeJob job)
+		{
+			return entry.compareTo(job.entry);
+		}
+		
+		@Override
+		public void run()
+		{
+			// skip jobs superseded by a higher priority. replacements are claimed before they are handed over.
+			if (!entry.ticket.replacement)
+			{
+				if (!entry.ticket.claimed.compareAndSet(false, true))
+					return;
+				recordQueueWait(entry.ticket);
+			}
+			
+			OGLTextureResource resource = entry.ticket.resource;
+			TextureDecodeState state = new TextureDecodeState(entry.ticket.settings);
+			DecodedTexture out;
+			textureDecodeStates.set(state);
+			try {
+				OGLCompressedImage compressed = isPrecompressed(resource) ? getCompressedTextureImage(resource) : null;
+				OGLPixelImage pixels = compressed == null && isPixelDecoded(resource) ? readPixelTextureImage(resource) : null;
+				if (compressed != null)
+				{
+					out = new DecodedTexture(resource, compressed);
+					out.contentHash = getTextureContentHash(resource, compressed);
+				}
+				else if (pixels != null)
+				{
+					out = new DecodedTexture(resource, pixels);
+					out.contentHash = getTextureContentHash(resource, pixels);
+				}
+				else
+				{
+					out = new DecodedTexture(resource, decodeTextureImage(resource), null);
+					if (out.image != null)
+					{
+						out.contentHash = getTextureContentHash(resource, out.image);
+						out.mipmaps = getTextureMipmaps(resource, out.image);
+					}
+				}
+			} catch (IOException e) {
+				out = new DecodedTexture(resource, null, e);
+			} catch (RuntimeException e) {
+				out = new DecodedTexture(resource, null, new IOException("Could not decode resource '"+resource.getPath()+"'.", e));
+			} finally {
+				textureDecodeStates.remove();
+			}
+			out.reduction = state.reduction;
+			out.replacement = entry.ticket.replacement ? entry.ticket : null;
+			textureDecodedQueue.add(out);
+		}
+		
+	}
+	
+	/**
+	 * Input stream that adds up the time spent reading from the stream that it wraps.
+	 */
+	private static class TimedInputStream extends FilterInputStream
+	{
+		/** Time spent reading, in nanoseconds. */
+		long nanos;
+		
+		TimedInputStream(InputStream in)
+		{
+			super(in);
+			this.nanos = 0L;
+		}
+		
+		@Override
+		public int read() throws IOException
+		{
+			long start = System.nanoTime();
+			try {
+				return super.read();
+			} finally {
+				nanos += System.nanoTime() - start;
+			}
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			long start = System.nanoTime();
+			try {
+				return super.read(b, off, len);
+			} finally {
+				nanos += System.nanoTime() - start;
+			}
+		}
+		
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long start = System.nanoTime();
+			try {
+				return super.skip(n);
+			} finally {
+				nanos += System.nanoTime() - start;
+			}
+		}
+		
+	}
+	
+	/**
+	 * Thread factory for the decoding pool threads.
+	 */
+	private static class DecoderThreadFactory implements ThreadFactory
+	{
+		private static final AtomicInteger POOL_ID = new AtomicInteger(0);
+		
+		private int poolId;
+		private AtomicInteger threadId;
+		
+		DecoderThreadFactory()
+		{
+			poolId = POOL_ID.incrementAndGet();
+			threadId = new AtomicInteger(0);
+		}
+		
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread out = new Thread(r, "OGLResourceLoader-Decoder-" + poolId + "-" + threadId.incrementAndGet());
+			out.setDaemon(true);
+			return out;
+		}
+		
+	}
+	
 }
@@ -0,0 +1,444 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.blackrook.ogl.exception.GraphicsException;
+import com.blackrook.ogl.object.shader.OGLShaderProgram;
+import com.blackrook.ogl.object.texture.OGLTexture;
+import com.blackrook.ogl.util.resource.OGLShaderResource;
+import com.blackrook.ogl.util.resource.OGLTextureResource;
+
+/**
+ * A resource loader listener that passes the events it receives to other
+ * listeners on a separate thread, so that slow listeners (like
+ * {@link OGLResourceLoaderDebugListener}) do not slow down the thread that
+ * fires them, usually the graphics thread. Add this to a loader in place
+ * of the listeners that it wraps.
+ * <p>
+ * Events are put in a bounded, lock-free ring buffer and delivered in order, in batches.
+ * A touched event for a resource is dropped if one for the same resource
+ * is still waiting to be delivered. Firing an event never blocks: if the
+ * buffer is full, the event is dropped and counted (see {@link #getDroppedEventCount()}).
+ * @author Matthew Tropiano
+ */
+public class OGLResourceLoaderEventDispatcher implements OGLResourceLoaderListener
+{
+	/** Default buffer capacity. */
+	public static final int DEFAULT_CAPACITY = 4096;
+	/** Maximum amount of events delivered per batch. */
+	private static final int BATCH_SIZE = 256;
+	/** Longest time that the dispatch thread waits before checking for events, in nanoseconds. */
+	private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static final int EVENT_TEXTURE_ADDED = 0;
+	private static final int EVENT_TEXTURE_CACHED = 1;
+	private static final int EVENT_TEXTURE_TOUCHED = 2;
+	private static final int EVENT_TEXTURE_LOAD_ERROR = 3;
+	private static final int EVENT_TEXTURE_GRAPHIC_ERROR = 4;
+	private static final int EVENT_TEXTURE_DESTROYED = 5;
+	private static final int EVENT_SHADER_ADDED = 6;
+	private static final int EVENT_SHADER_CACHED = 7;
+	private static final int EVENT_SHADER_TOUCHED = 8;
+	private static final int EVENT_SHADER_LOAD_ERROR = 9;
+	private static final int EVENT_SHADER_GRAPHIC_ERROR = 10;
+	private static final int EVENT_SHADER_DESTROYED = 11;
+	private static final int EVENT_OTHER_IO_ERROR = 12;
+	private static final int EVENT_OTHER_GRAPHIC_ERROR = 13;
+
+	/** Dispatcher id counter for thread names. */
+	private static final AtomicInteger DISPATCHER_ID = new AtomicInteger(0);
+
+	/** Listeners to deliver events to. */
+	private volatile OGLResourceLoaderListener[] listeners;
+
+	/** Buffer capacity, a power of two. */
+	private int capacity;
+	/** Slot sequence numbers. A slot is writable when its sequence equals the write position, readable when it is one past it. */
+	private AtomicLongArray slotSequence;
+	/** Slot event types. */
+	private int[] slotType;
+	/** Slot event resources. */
+	private Object[] slotResource;
+	/** Slot event objects (textures, shaders, exceptions). */
+	private Object[] slotObject;
+	/** Next write position. */
+	private AtomicLong writePosition;
+	/** Next read position. Only used by the dispatch thread. */
+	private long readPosition;
+
+	/** Resources with a touched event waiting for delivery. */
+	private Set<Object> pendingTouches;
+	/** Amount of events dropped because the buffer was full. */
+	private AtomicLong droppedEvents;
+
+	/** The dispatch thread. */
+	private Thread dispatchThread;
+	/** Is this shut down? */
+	private volatile boolean shutDown;
+
+	/**
+	 * Creates a new dispatcher with the default capacity.
+	 * @param listeners the listeners to deliver events to.
+	 */
+	public OGLResourceLoaderEventDispatcher(OGLResourceLoaderListener ... listeners)
+	{
+		this(DEFAULT_CAPACITY, listeners);
+	}
+
+	/**
+	 * Creates a new dispatcher.
+	 * @param capacity the maximum amount of events waiting for delivery. Rounded up to a power of two.
+	 * @param listeners the listeners to deliver events to.
+	 */
+	public OGLResourceLoaderEventDispatcher(int capacity, OGLResourceLoaderListener ... listeners)
+	{
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be 1 or greater.");
+
+		this.capacity = Integer.highestOneBit(capacity);
+		if (this.capacity < capacity)
+			this.capacity <<= 1;
+
+		this.listeners = listeners.clone();
+		this.slotSequence = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++)
+			slotSequence.set(i, i);
+		this.slotType = new int[this.capacity];
+		this.slotResource = new Object[this.capacity];
+		this.slotObject = new Object[this.capacity];
+		this.writePosition = new AtomicLong(0L);
+		this.readPosition = 0L;
+		this.pendingTouches = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+		this.droppedEvents = new AtomicLong(0L);
+		this.shutDown = false;
+
+		this.dispatchThread = new DispatchThread();
+		this.dispatchThread.start();
+	}
+
+	/**
+	 * Adds a listener to deliver events to.
+	 */
+	public synchronized void addListener(OGLResourceLoaderListener listener)
+	{
+		OGLResourceLoaderListener[] out = new OGLResourceLoaderListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, out, 0, listeners.length);
+		out[listeners.length] = listener;
+		listeners = out;
+	}
+
+	/**
+	 * Removes a listener.
+	 * @return true if it was removed, false if it was not added.
+	 */
+	public synchronized boolean removeListener(OGLResourceLoaderListener listener)
+	{
+		for (int i = 0; i < listeners.length; i++)
+		{
+			if (listeners[i] == listener)
+			{
+				OGLResourceLoaderListener[] out = new OGLResourceLoaderListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, out, 0, i);
+				System.arraycopy(listeners, i + 1, out, i, listeners.length - i - 1);
+				listeners = out;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the amount of events that were dropped because the buffer was full.
+	 */
+	public long getDroppedEventCount()
+	{
+		return droppedEvents.get();
+	}
+
+	/**
+	 * Stops the dispatch thread after the events waiting for delivery are delivered.
+	 * Events received after this are dropped.
+	 */
+	public void shutDown()
+	{
+		shutDown = true;
+		LockSupport.unpark(dispatchThread);
+	}
+
+	/**
+	 * Adds an event to the buffer and wakes the dispatch thread.
+	 * Never blocks: if the buffer is full, the event is dropped.
+	 */
+	private void post(int type, Object resource, Object object)
+	{
+		if (shutDown)
+		{
+			droppedEvents.incrementAndGet();
+			return;
+		}
+
+		int mask = capacity - 1;
+		long position = writePosition.get();
+		int index;
+		while (true)
+		{
+			index = (int)(position & mask);
+			long difference = slotSequence.get(index) - position;
+			if (difference == 0L)
+			{
+				if (writePosition.compareAndSet(position, position + 1))
+					break;
+				position = writePosition.get();
+			}
+			else if (difference < 0L)
+			{
+				// full.
+				droppedEvents.incrementAndGet();
+				if (type == EVENT_TEXTURE_TOUCHED || type == EVENT_SHADER_TOUCHED)
+					pendingTouches.remove(resource);
+				return;
+			}
+			else
+				position = writePosition.get();
+		}
+
+		slotType[index] = type;
+		slotResource[index] = resource;
+		slotObject[index] = object;
+		slotSequence.set(index, position + 1);
+		LockSupport.unpark(dispatchThread);
+	}
+
+	/**
+	 * Adds a touched event to the buffer, if one for the same resource is not waiting already.
+	 */
+	private void postTouch(int type, Object resource)
+	{
+		if (pendingTouches.add(resource))
+			post(type, resource, null);
+	}
+
+	/**
+	 * Takes up to a batch of events from the buffer and delivers them.
+	 * @return the amount of events delivered.
+	 */
+	private int dispatchBatch(int[] types, Object[] resources, Object[] objects)
+	{
+		int mask = capacity - 1;
+		int count = 0;
+		while (count < BATCH_SIZE)
+		{
+			int index = (int)(readPosition & mask);
+			if (slotSequence.get(index) != readPosition + 1)
+				break;
+			types[count] = slotType[index];
+			resources[count] = slotResource[index];
+			objects[count] = slotObject[index];
+			slotResource[index] = null;
+			slotObject[index] = null;
+			slotSequence.set(index, readPosition + capacity);
+			readPosition++;
+			count++;
+		}
+
+		OGLResourceLoaderListener[] currentListeners = listeners;
+		for (int i = 0; i < count; i++)
+		{
+			if (types[i] == EVENT_TEXTURE_TOUCHED || types[i] == EVENT_SHADER_TOUCHED)
+				pendingTouches.remove(resources[i]);
+			for (OGLResourceLoaderListener listener : currentListeners)
+			{
+				try {
+					deliver(listener, types[i], resources[i], objects[i]);
+				} catch (RuntimeException e) {
+					// a broken listener should not stop delivery to the others.
+					Thread thread = Thread.currentThread();
+					thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+				}
+			}
+			resources[i] = null;
+			objects[i] = null;
+		}
+		return count;
+	}
+
+	/**
+	 * Delivers an event to a listener.
+	 */
+	private static void deliver(OGLResourceLoaderListener listener, int type, Object resource, Object object)
+	{
+		switch (type)
+		{
+			case EVENT_TEXTURE_ADDED:
+				listener.textureAdded((OGLTextureResource)resource);
+				break;
+			case EVENT_TEXTURE_CACHED:
+				listener.textureCached((OGLTextureResource)resource, (OGLTexture)object);
+				break;
+			case EVENT_TEXTURE_TOUCHED:
+				listener.textureTouched((OGLTextureResource)resource);
+				break;
+			case EVENT_TEXTURE_LOAD_ERROR:
+				listener.textureCacheLoadError((OGLTextureResource)resource, (IOException)object);
+				break;
+			case EVENT_TEXTURE_GRAPHIC_ERROR:
+				listener.textureCacheGraphicError((OGLTextureResource)resource, (GraphicsException)object);
+				break;
+			case EVENT_TEXTURE_DESTROYED:
+				listener.textureDestroyed((OGLTextureResource)resource);
+				break;
+			case EVENT_SHADER_ADDED:
+				listener.shaderAdded((OGLShaderResource)resource);
+				break;
+			case EVENT_SHADER_CACHED:
+				listener.shaderCached((OGLShaderResource)resource, (OGLShaderProgram)object);
+				break;
+			case EVENT_SHADER_TOUCHED:
+				listener.shaderTouched((OGLShaderResource)resource);
+				break;
+			case EVENT_SHADER_LOAD_ERROR:
+				listener.shaderCacheLoadError((OGLShaderResource)resource, (IOException)object);
+				break;
+			case EVENT_SHADER_GRAPHIC_ERROR:
+				listener.shaderCacheGraphicError((OGLShaderResource)resource, (GraphicsException)object);
+				break;
+			case EVENT_SHADER_DESTROYED:
+				listener.shaderDestroyed((OGLShaderResource)resource);
+				break;
+			case EVENT_OTHER_IO_ERROR:
+				listener.otherLoaderIOError((IOException)object);
+				break;
+			case EVENT_OTHER_GRAPHIC_ERROR:
+				listener.otherLoaderGraphicError((GraphicsException)object);
+				break;
+		}
+	}
+
+	@Override
+	public void textureAdded(OGLTextureResource handle)
+	{
+		post(EVENT_TEXTURE_ADDED, handle, null);
+	}
+
+	@Override
+	public void textureCached(OGLTextureResource handle, OGLTexture texture)
+	{
+		post(EVENT_TEXTURE_CACHED, handle, texture);
+	}
+
+	@Override
+	public void textureTouched(OGLTextureResource handle)
+	{
+		postTouch(EVENT_TEXTURE_TOUCHED, handle);
+	}
+
+	@Override
+	public void textureCacheLoadError(OGLTextureResource handle, IOException exception)
+	{
+		post(EVENT_TEXTURE_LOAD_ERROR, handle, exception);
+	}
+
+	@Override
+	public void textureCacheGraphicError(OGLTextureResource handle, GraphicsException exception)
+	{
+		post(EVENT_TEXTURE_GRAPHIC_ERROR, handle, exception);
+	}
+
+	@Override
+	public void textureDestroyed(OGLTextureResource handle)
+	{
+		post(EVENT_TEXTURE_DESTROYED, handle, null);
+	}
+
+	@Override
+	public void shaderAdded(OGLShaderResource handle)
+	{
+		post(EVENT_SHADER_ADDED, handle, null);
+	}
+
+	@Override
+	public void shaderCached(OGLShaderResource handle, OGLShaderProgram shader)
+	{
+		post(EVENT_SHADER_CACHED, handle, shader);
+	}
+
+	@Override
+	public void shaderTouched(OGLShaderResource handle)
+	{
+		postTouch(EVENT_SHADER_TOUCHED, handle);
+	}
+
+	@Override
+	public void shaderCacheLoadError(OGLShaderResource handle, IOException exception)
+	{
+		post(EVENT_SHADER_LOAD_ERROR, handle, exception);
+	}
+
+	@Override
+	public void shaderCacheGraphicError(OGLShaderResource handle, GraphicsException exception)
+	{
+		post(EVENT_SHADER_GRAPHIC_ERROR, handle, exception);
+	}
+
+	@Override
+	public void shaderDestroyed(OGLShaderResource handle)
+	{
+		post(EVENT_SHADER_DESTROYED, handle, null);
+	}
+
+	@Override
+	public void otherLoaderIOError(IOException exception)
+	{
+		post(EVENT_OTHER_IO_ERROR, null, exception);
+	}
+
+	@Override
+	public void otherLoaderGraphicError(GraphicsException exception)
+	{
+		post(EVENT_OTHER_GRAPHIC_ERROR, null, exception);
+	}
+
+	/**
+	 * The thread that delivers events.
+	 */
+	private class DispatchThread extends Thread
+	{
+		DispatchThread()
+		{
+			super("OGLResourceLoader-Dispatcher-" + DISPATCHER_ID.incrementAndGet());
+			setDaemon(true);
+		}
+
+		@Override
+		public void run()
+		{
+			int[] types = new int[BATCH_SIZE];
+			Object[] resources = new Object[BATCH_SIZE];
+			Object[] objects = new Object[BATCH_SIZE];
+			while (true)
+			{
+				if (dispatchBatch(types, resources, objects) > 0)
+					continue;
+				if (shutDown)
+					break;
+				LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,653 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Loading metrics for an {@link OGLResourceLoader}: counters, a histogram of
+ * the time spent in each loading stage, and the time that each resource spent in each stage.
+ * A resource's times are kept until the loader destroys, sweeps or evicts it
+ * (see {@link #removeResource(Object)}).
+ * Set on a loader with {@link OGLResourceLoader#setMetrics(OGLResourceLoaderMetrics)}.
+ * <p>
+ * Recording is lock-free and safe to do from any thread. Histograms are
+ * log-linear, with 8 buckets per power of two, so percentiles are within 12.5% of the real value.
+ * Metrics can be read with {@link #getSnapshot()}, or published through JMX
+ * with {@link #registerMBean(String)}.
+ * @author Matthew Tropiano
+ */
+public class OGLResourceLoaderMetrics implements OGLResourceLoaderMetricsMBean
+{
+	/** Amount of resources listed by {@link #getSlowestResources()}. */
+	private static final int SLOWEST_RESOURCE_COUNT = 20;
+	/** Nanoseconds per millisecond. */
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	/**
+	 * Resource loading stages.
+	 */
+	public static enum Stage
+	{
+		/** Time between a texture being queued and being taken off of the queue for loading. */
+		QUEUE_WAIT,
+		/** Time spent opening and reading resource streams. */
+		IO,
+		/** Time spent decoding images, not counting I/O. */
+		DECODE,
+		/** Time spent resizing images. */
+		RESIZE,
+		/** Time spent creating textures and sending their data to OpenGL. */
+		UPLOAD,
+		/** Time spent reading, compiling and linking shader programs. */
+		SHADER_BUILD;
+	}
+
+	/**
+	 * Event counters.
+	 */
+	public static enum Counter
+	{
+		/** Bytes uploaded to textures. */
+		BYTES_UPLOADED,
+		/** Textures cached. */
+		TEXTURES_CACHED,
+		/** Shaders cached. */
+		SHADERS_CACHED,
+		/** Requests for resources that were already cached. */
+		CACHE_HITS,
+		/** Requests for resources that had to be loaded. */
+		CACHE_MISSES,
+		/** Times that resources were touched. */
+		TOUCHES,
+		/** Textures evicted due to the memory budget. */
+		EVICTIONS,
+		/** Texture images reduced in size due to the memory budget. */
+		REDUCTIONS,
+		/** Reduced textures reloaded at a larger size. */
+		RESTORES,
+		/** Resources swept for not being used. */
+		SWEEPS,
+		/** Texture images read from the disk cache. */
+		DISK_CACHE_HITS,
+		/** Resources that failed to load. */
+		LOAD_ERRORS;
+	}
+
+	/** Stages. */
+	private static final Stage[] STAGES = Stage.values();
+	/** Counters. */
+	private static final Counter[] COUNTERS = Counter.values();
+
+	/** Counter values, by counter ordinal. */
+	private AtomicLongArray counters;
+	/** Histograms, by stage ordinal. */
+	private Histogram[] histograms;
+	/** Nanoseconds spent per stage (and bytes uploaded, at the end) per resource. */
+	private ConcurrentHashMap<Object, AtomicLongArray> resourceTimings;
+	/** The name that this is registered with, if registered. */
+	private ObjectName objectName;
+
+	/**
+	 * Creates a new, empty set of metrics.
+	 */
+	public OGLResourceLoaderMetrics()
+	{
+		counters = new AtomicLongArray(COUNTERS.length);
+		histograms = new Histogram[STAGES.length];
+		for (int i = 0; i < histograms.length; i++)
+			histograms[i] = new Histogram();
+		resourceTimings = new ConcurrentHashMap<Object, AtomicLongArray>();
+		objectName = null;
+	}
+
+	/**
+	 * Records time spent in a stage.
+	 * @param stage the stage.
+	 * @param resource the resource that the time was spent on. Can be null.
+	 * @param nanos the time spent in nanoseconds.
+	 */
+	public void record(Stage stage, Object resource, long nanos)
+	{
+		if (nanos < 0L)
+			nanos = 0L;
+		histograms[stage.ordinal()].record(nanos);
+		if (resource != null)
+			getResourceTiming(resource).addAndGet(stage.ordinal(), nanos);
+	}
+
+	/**
+	 * Adds to a counter.
+	 * @param counter the counter.
+	 * @param amount the amount to add.
+	 */
+	public void count(Counter counter, long amount)
+	{
+		counters.addAndGet(counter.ordinal(), amount);
+	}
+
+	/**
+	 * Adds to the bytes uploaded, in aggregate and for a resource.
+	 * @param resource the resource that the bytes were uploaded for.
+	 * @param bytes the amount of bytes.
+	 */
+	public void countUpload(Object resource, long bytes)
+	{
+		counters.addAndGet(Counter.BYTES_UPLOADED.ordinal(), bytes);
+		if (resource != null)
+			getResourceTiming(resource).addAndGet(STAGES.length, bytes);
+	}
+
+	/**
+	 * Removes the stage times and bytes uploaded recorded for a resource.
+	 * The loader calls this when it destroys, sweeps or evicts a resource, 
+	 * so that resources that are no longer cached are not kept.
+	 * The counters and histograms are not changed.
+	 * @param resource the resource.
+	 */
+	public void removeResource(Object resource)
+	{
+		resourceTimings.remove(resource);
+	}
+
+	/**
+	 * Gets the value of a counter.
+	 */
+	public long getCount(Counter counter)
+	{
+		return counters.get(counter.ordinal());
+	}
+
+	/**
+	 * Takes a snapshot of all metrics.
+	 * Values recorded while the snapshot is taken may or may not be included in it.
+	 */
+	public Snapshot getSnapshot()
+	{
+		long[] counts = new long[COUNTERS.length];
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = counters.get(i);
+
+		HistogramSnapshot[] stages = new HistogramSnapshot[STAGES.length];
+		for (int i = 0; i < stages.length; i++)
+			stages[i] = histograms[i].getSnapshot();
+
+		ResourceTiming[] timings = new ResourceTiming[resourceTimings.size()];
+		int n = 0;
+		for (Map.Entry<Object, AtomicLongArray> entry : resourceTimings.entrySet())
+		{
+			if (n == timings.length)
+				break;
+			AtomicLongArray array = entry.getValue();
+			long[] nanos = new long[STAGES.length];
+			for (int i = 0; i < nanos.length; i++)
+				nanos[i] = array.get(i);
+			timings[n++] = new ResourceTiming(entry.getKey(), nanos, array.get(STAGES.length));
+		}
+		if (n < timings.length)
+			timings = Arrays.copyOf(timings, n);
+		Arrays.sort(timings, new Comparator<ResourceTiming>()
+		{
+			@Override
+			public int compare(ResourceTiming t1, ResourceTiming t2)
+			{
+				return Long.compare(t2.getTotalNanos(), t1.getTotalNanos());
+			}
+		});
+
+		return new Snapshot(System.currentTimeMillis(), counts, stages, timings);
+	}
+
+	/**
+	 * Registers this with the platform MBean server.
+	 * @param name the name to tell this apart from other loaders' metrics.
+	 * @throws JMException if this could not be registered.
+	 */
+	public synchronized void registerMBean(String name) throws JMException
+	{
+		unregisterMBean();
+		ObjectName out = new ObjectName("com.blackrook.ogl:type=OGLResourceLoaderMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, out);
+		objectName = out;
+	}
+
+	/**
+	 * Unregisters this from the platform MBean server, if it is registered.
+	 * @throws JMException if this could not be unregistered.
+	 */
+	public synchronized void unregisterMBean() throws JMException
+	{
+		if (objectName == null)
+			return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(objectName))
+			server.unregisterMBean(objectName);
+		objectName = null;
+	}
+
+	@Override
+	public long getBytesUploaded()
+	{
+		return getCount(Counter.BYTES_UPLOADED);
+	}
+
+	@Override
+	public long getTexturesCached()
+	{
+		return getCount(Counter.TEXTURES_CACHED);
+	}
+
+	@Override
+	public long getShadersCached()
+	{
+		return getCount(Counter.SHADERS_CACHED);
+	}
+
+	@Override
+	public long getCacheHits()
+	{
+		return getCount(Counter.CACHE_HITS);
+	}
+
+	@Override
+	public long getCacheMisses()
+	{
+		return getCount(Counter.CACHE_MISSES);
+	}
+
+	@Override
+	public long getTouches()
+	{
+		return getCount(Counter.TOUCHES);
+	}
+
+	@Override
+	public long getEvictions()
+	{
+		return getCount(Counter.EVICTIONS);
+	}
+
+	@Override
+	public long getReductions()
+	{
+		return getCount(Counter.REDUCTIONS);
+	}
+
+	@Override
+	public long getRestores()
+	{
+		return getCount(Counter.RESTORES);
+	}
+
+	@Override
+	public long getSweeps()
+	{
+		return getCount(Counter.SWEEPS);
+	}
+
+	@Override
+	public long getDiskCacheHits()
+	{
+		return getCount(Counter.DISK_CACHE_HITS);
+	}
+
+	@Override
+	public long getLoadErrors()
+	{
+		return getCount(Counter.LOAD_ERRORS);
+	}
+
+	@Override
+	public String[] getStageSummaries()
+	{
+		String[] out = new String[STAGES.length];
+		for (int i = 0; i < out.length; i++)
+			out[i] = STAGES[i].name() + ": " + histograms[i].getSnapshot();
+		return out;
+	}
+
+	@Override
+	public String[] getSlowestResources()
+	{
+		ResourceTiming[] timings = getSnapshot().getResourceTimings();
+		String[] out = new String[Math.min(timings.length, SLOWEST_RESOURCE_COUNT)];
+		for (int i = 0; i < out.length; i++)
+			out[i] = timings[i].toString();
+		return out;
+	}
+
+	@Override
+	public double getStagePercentileMillis(String stage, double percentile)
+	{
+		return histograms[Stage.valueOf(stage).ordinal()].getSnapshot().getPercentileNanos(percentile) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public void reset()
+	{
+		for (int i = 0; i < COUNTERS.length; i++)
+			counters.set(i, 0L);
+		for (Histogram h : histograms)
+			h.reset();
+		resourceTimings.clear();
+	}
+
+	/**
+	 * Gets (or creates) the timing array for a resource.
+	 */
+	private AtomicLongArray getResourceTiming(Object resource)
+	{
+		AtomicLongArray out = resourceTimings.get(resource);
+		if (out == null)
+		{
+			AtomicLongArray created = new AtomicLongArray(STAGES.length + 1);
+			if ((out = resourceTimings.putIfAbsent(resource, created)) == null)
+				out = created;
+		}
+		return out;
+	}
+
+	private static String formatMillis(long nanos)
+	{
+		return String.format("%.3fms", nanos / NANOS_PER_MILLI);
+	}
+
+	/**
+	 * A lock-free log-linear histogram of nanosecond values.
+	 */
+	private static class Histogram
+	{
+		/** Bits of the value used for buckets within a power of two. */
+		private static final int SUB_BUCKET_BITS = 3;
+		/** Buckets per power of two. */
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		/** Total buckets. */
+		private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+		private AtomicLongArray buckets;
+		private AtomicLong count;
+		private AtomicLong total;
+		private AtomicLong min;
+		private AtomicLong max;
+
+		Histogram()
+		{
+			buckets = new AtomicLongArray(BUCKETS);
+			count = new AtomicLong(0L);
+			total = new AtomicLong(0L);
+			min = new AtomicLong(Long.MAX_VALUE);
+			max = new AtomicLong(0L);
+		}
+
+		void record(long value)
+		{
+			buckets.incrementAndGet(getBucket(value));
+			count.incrementAndGet();
+			total.addAndGet(value);
+			long m;
+			while (value < (m = min.get()) && !min.compareAndSet(m, value)) ;
+			while (value > (m = max.get()) && !max.compareAndSet(m, value)) ;
+		}
+
+		void reset()
+		{
+			for (int i = 0; i < BUCKETS; i++)
+				buckets.set(i, 0L);
+			count.set(0L);
+			total.set(0L);
+			min.set(Long.MAX_VALUE);
+			max.set(0L);
+		}
+
+		HistogramSnapshot getSnapshot()
+		{
+			long[] out = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++)
+				out[i] = buckets.get(i);
+			long c = count.get();
+			return new HistogramSnapshot(out, c, total.get(), c > 0 ? min.get() : 0L, max.get());
+		}
+
+		/**
+		 * Gets the bucket for a value. Values under {@link #SUB_BUCKETS} get their own bucket.
+		 */
+		static int getBucket(long value)
+		{
+			if (value < SUB_BUCKETS)
+				return (int)value;
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int)((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+			return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) | sub;
+		}
+
+		/**
+		 * Gets the highest value that goes in a bucket.
+		 */
+		static long getBucketHighestValue(int bucket)
+		{
+			if (bucket < SUB_BUCKETS)
+				return bucket;
+			int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+			long lowest = (long)(SUB_BUCKETS | (bucket & (SUB_BUCKETS - 1))) << shift;
+			return lowest + (1L << shift) - 1L;
+		}
+
+	}
+
+	/**
+	 * A snapshot of the time spent in a stage.
+	 */
+	public static class HistogramSnapshot
+	{
+		private long[] buckets;
+		private long count;
+		private long totalNanos;
+		private long minNanos;
+		private long maxNanos;
+
+		private HistogramSnapshot(long[] buckets, long count, long totalNanos, long minNanos, long maxNanos)
+		{
+			this.buckets = buckets;
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.minNanos = minNanos;
+			this.maxNanos = maxNanos;
+		}
+
+		/** Returns the amount of times recorded. */
+		public long getCount()
+		{
+			return count;
+		}
+
+		/** Returns the total time recorded in nanoseconds. */
+		public long getTotalNanos()
+		{
+			return totalNanos;
+		}
+
+		/** Returns the shortest time recorded in nanoseconds, or 0 if none. */
+		public long getMinNanos()
+		{
+			return minNanos;
+		}
+
+		/** Returns the longest time recorded in nanoseconds, or 0 if none. */
+		public long getMaxNanos()
+		{
+			return maxNanos;
+		}
+
+		/** Returns the mean time recorded in nanoseconds, or 0 if none. */
+		public long getMeanNanos()
+		{
+			return count > 0 ? totalNanos / count : 0L;
+		}
+
+		/**
+		 * Returns a percentile of the times recorded in nanoseconds, or 0 if none.
+		 * @param percentile the percentile, from 0 to 100.
+		 */
+		public long getPercentileNanos(double percentile)
+		{
+			long total = 0L;
+			for (long b : buckets)
+				total += b;
+			if (total == 0L)
+				return 0L;
+
+			long rank = (long)Math.ceil(Math.max(0.0, Math.min(percentile, 100.0)) / 100.0 * total);
+			if (rank < 1L)
+				rank = 1L;
+			long seen = 0L;
+			for (int i = 0; i < buckets.length; i++)
+			{
+				seen += buckets[i];
+				if (seen >= rank)
+					return Math.min(Histogram.getBucketHighestValue(i), maxNanos);
+			}
+			return maxNanos;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "count=" + count + " mean=" + formatMillis(getMeanNanos())
+				+ " p50=" + formatMillis(getPercentileNanos(50.0))
+				+ " p95=" + formatMillis(getPercentileNanos(95.0))
+				+ " p99=" + formatMillis(getPercentileNanos(99.0))
+				+ " max=" + formatMillis(maxNanos)
+				+ " total=" + formatMillis(totalNanos);
+		}
+
+	}
+
+	/**
+	 * The time that one resource spent in each stage.
+	 */
+	public static class ResourceTiming
+	{
+		private Object resource;
+		private long[] nanos;
+		private long bytesUploaded;
+
+		private ResourceTiming(Object resource, long[] nanos, long bytesUploaded)
+		{
+			this.resource = resource;
+			this.nanos = nanos;
+			this.bytesUploaded = bytesUploaded;
+		}
+
+		/** Returns the resource. */
+		public Object getResource()
+		{
+			return resource;
+		}
+
+		/** Returns the time spent in a stage, in nanoseconds. */
+		public long getNanos(Stage stage)
+		{
+			return nanos[stage.ordinal()];
+		}
+
+		/** Returns the time spent in all stages, in nanoseconds. */
+		public long getTotalNanos()
+		{
+			long out = 0L;
+			for (long n : nanos)
+				out += n;
+			return out;
+		}
+
+		/** Returns the amount of bytes uploaded for the resource. */
+		public long getBytesUploaded()
+		{
+			return bytesUploaded;
+		}
+
+		@Override
+		public String toString()
+		{
+			StringBuilder sb = new StringBuilder();
+			sb.append(resource).append(": total=").append(formatMillis(getTotalNanos()));
+			for (int i = 0; i < nanos.length; i++)
+				if (nanos[i] > 0L)
+					sb.append(' ').append(STAGES[i].name()).append('=').append(formatMillis(nanos[i]));
+			if (bytesUploaded > 0L)
+				sb.append(" bytes=").append(bytesUploaded);
+			return sb.toString();
+		}
+
+	}
+
+	/**
+	 * A snapshot of all metrics.
+	 */
+	public static class Snapshot
+	{
+		private long timeMillis;
+		private long[] counts;
+		private HistogramSnapshot[] stages;
+		private ResourceTiming[] resourceTimings;
+
+		private Snapshot(long timeMillis, long[] counts, HistogramSnapshot[] stages, ResourceTiming[] resourceTimings)
+		{
+			this.timeMillis = timeMillis;
+			this.counts = counts;
+			this.stages = stages;
+			this.resourceTimings = resourceTimings;
+		}
+
+		/** Returns the time that this was taken, in milliseconds since the epoch. */
+		public long getTimeMillis()
+		{
+			return timeMillis;
+		}
+
+		/** Returns the value of a counter. */
+		public long getCount(Counter counter)
+		{
+			return counts[counter.ordinal()];
+		}
+
+		/** Returns the histogram for a stage. */
+		public HistogramSnapshot getHistogram(Stage stage)
+		{
+			return stages[stage.ordinal()];
+		}
+
+		/** Returns the timing of each resource, longest total time first. */
+		public ResourceTiming[] getResourceTimings()
+		{
+			return resourceTimings;
+		}
+
+		@Override
+		public String toString()
+		{
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < counts.length; i++)
+				sb.append(COUNTERS[i].name()).append('=').append(counts[i]).append('\n');
+			for (int i = 0; i < stages.length; i++)
+				sb.append(STAGES[i].name()).append(": ").append(stages[i]).append('\n');
+			return sb.toString();
+		}
+
+	}
+
+}
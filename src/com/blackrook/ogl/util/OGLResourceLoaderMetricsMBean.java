@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+/**
+ * Management interface for {@link OGLResourceLoaderMetrics}, for publishing through JMX.
+ * @author Matthew Tropiano
+ */
+public interface OGLResourceLoaderMetricsMBean
+{
+	/** Returns the amount of bytes uploaded to textures. */
+	public long getBytesUploaded();
+
+	/** Returns the amount of textures cached. */
+	public long getTexturesCached();
+
+	/** Returns the amount of shaders cached. */
+	public long getShadersCached();
+
+	/** Returns the amount of requests for resources that were already cached. */
+	public long getCacheHits();
+
+	/** Returns the amount of requests for resources that had to be loaded. */
+	public long getCacheMisses();
+
+	/** Returns the amount of times that resources were touched. */
+	public long getTouches();
+
+	/** Returns the amount of textures evicted due to the memory budget. */
+	public long getEvictions();
+
+	/** Returns the amount of texture images reduced in size due to the memory budget. */
+	public long getReductions();
+
+	/** Returns the amount of reduced textures reloaded at a larger size. */
+	public long getRestores();
+
+	/** Returns the amount of resources swept for not being used. */
+	public long getSweeps();
+
+	/** Returns the amount of texture images read from the disk cache. */
+	public long getDiskCacheHits();
+
+	/** Returns the amount of resources that failed to load. */
+	public long getLoadErrors();
+
+	/**
+	 * Returns a summary line for each loading stage: count, mean, percentiles and maximum.
+	 */
+	public String[] getStageSummaries();
+
+	/**
+	 * Returns a summary line for each of the resources that took the longest to load, slowest first.
+	 */
+	public String[] getSlowestResources();
+
+	/**
+	 * Returns a percentile of the time spent in a loading stage, in milliseconds.
+	 * @param stage the stage name (see {@link OGLResourceLoaderMetrics.Stage}).
+	 * @param percentile the percentile, from 0 to 100.
+	 */
+	public double getStagePercentileMillis(String stage, double percentile);
+
+	/**
+	 * Resets all counters, histograms and resource timings.
+	 */
+	public void reset();
+
+}
@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.blackrook.ogl.object.shader.OGLShaderProgram;
+import com.blackrook.ogl.object.texture.OGLTexture;
+import com.blackrook.ogl.util.resource.OGLShaderFile;
+import com.blackrook.ogl.util.resource.OGLShaderResource;
+import com.blackrook.ogl.util.resource.OGLTextureFile;
+import com.blackrook.ogl.util.resource.OGLTextureResource;
+
+/**
+ * Watches the files of a loader's file-backed resources ({@link OGLTextureFile}s
+ * and {@link OGLShaderFile}s, including the files that shader sources include)
+ * and reloads only the resources whose files change, through
+ * {@link OGLResourceLoader#reloadFiles(String...)}.
+ * <p>
+ * This listens to the loader, and starts watching the directory of each file as
+ * its resource is cached. Changes are debounced: a file is reloaded once it has
+ * not changed for a while, so that a file being written does not get reloaded several times.
+ * Watching is done on a separate daemon thread until {@link #close()} is called.
+ * @author Matthew Tropiano
+ */
+public class OGLResourceWatcher extends OGLResourceLoaderAdapter
+{
+	/** Default debounce time in milliseconds. */
+	public static final long DEFAULT_DEBOUNCE_MILLIS = 250L;
+
+	/** The loader to reload resources on. */
+	private OGLResourceLoader loader;
+	/** The watch service. */
+	private WatchService watchService;
+	/** Directories being watched. */
+	private Set<Path> watchedDirectories;
+	/** Time that a file has to go unchanged before it is reloaded, in milliseconds. */
+	private volatile long debounceMillis;
+	/** The watching thread. */
+	private Thread watchThread;
+	/** Is this closed? */
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new watcher for a loader's resources, adds it as a listener
+	 * to the loader, and starts watching.
+	 * Resources that were cached before this was created are not watched
+	 * unless their directories are added with {@link #watchDirectory(File)}.
+	 * @param loader the loader.
+	 * @throws IOException if the file system cannot be watched.
+	 */
+	public OGLResourceWatcher(OGLResourceLoader loader) throws IOException
+	{
+		this.loader = loader;
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.watchedDirectories = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+		this.debounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+		this.closed = false;
+
+		this.watchThread = new WatchThread();
+		this.watchThread.start();
+		loader.addLoaderListener(this);
+	}
+
+	/**
+	 * Gets the time that a file has to go unchanged before it is reloaded, in milliseconds.
+	 */
+	public long getDebounceMillis()
+	{
+		return debounceMillis;
+	}
+
+	/**
+	 * Sets the time that a file has to go unchanged before it is reloaded, in milliseconds.
+	 * Default is {@link #DEFAULT_DEBOUNCE_MILLIS}.
+	 */
+	public void setDebounceMillis(long debounceMillis)
+	{
+		this.debounceMillis = Math.max(debounceMillis, 0L);
+	}
+
+	/**
+	 * Starts watching a directory for changed files.
+	 * Does nothing if the directory is already watched.
+	 * @param directory the directory.
+	 * @throws IOException if the directory could not be watched.
+	 */
+	public void watchDirectory(File directory) throws IOException
+	{
+		watchDirectory(directory.toPath().toAbsolutePath().normalize());
+	}
+
+	/**
+	 * Stops watching, and removes this from the loader's listeners.
+	 * @throws IOException if the watch service could not be closed.
+	 */
+	public void close() throws IOException
+	{
+		closed = true;
+		loader.removeLoaderListener(this);
+		watchService.close();
+	}
+
+	@Override
+	public void textureCached(OGLTextureResource handle, OGLTexture texture)
+	{
+		if (handle instanceof OGLTextureFile)
+			watchFileDirectory(handle.getPath());
+	}
+
+	@Override
+	public void shaderCached(OGLShaderResource handle, OGLShaderProgram shader)
+	{
+		if (!(handle instanceof OGLShaderFile))
+			return;
+
+		OGLShaderPreprocessor preprocessor = loader.getShaderPreprocessor();
+		for (String stagePath : new String[]{handle.getVertexPath(), handle.getGeometryPath(), handle.getFragmentPath()})
+		{
+			if (stagePath == null)
+				continue;
+			watchFileDirectory(stagePath);
+			for (String file : preprocessor.getSourceFiles(stagePath))
+				watchFileDirectory(file);
+		}
+	}
+
+	/**
+	 * Starts watching the directory that contains a file, if it is not watched already.
+	 * Files that cannot be watched are ignored.
+	 */
+	private void watchFileDirectory(String path)
+	{
+		if (path == null || closed)
+			return;
+		try {
+			Path directory = Paths.get(path).toAbsolutePath().normalize().getParent();
+			if (directory != null)
+				watchDirectory(directory);
+		} catch (InvalidPathException e) {
+			// not a file.
+		} catch (IOException e) {
+			// can't be watched - it won't be reloaded.
+		} catch (ClosedWatchServiceException e) {
+			// closed in the meantime.
+		}
+	}
+
+	/**
+	 * Starts watching a directory, if it is not watched already.
+	 */
+	private void watchDirectory(Path directory) throws IOException
+	{
+		if (watchedDirectories.contains(directory))
+			return;
+		directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		watchedDirectories.add(directory);
+	}
+
+	/**
+	 * The thread that collects changes and reloads files once they settle.
+	 */
+	private class WatchThread extends Thread
+	{
+		WatchThread()
+		{
+			super("OGLResourceWatcher");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run()
+		{
+			// last change time of each changed file.
+			Map<String, Long> pending = new HashMap<String, Long>();
+			try {
+				while (!closed)
+				{
+					WatchKey key;
+					if (pending.isEmpty())
+						key = watchService.take();
+					else
+						key = watchService.poll(Math.max(debounceMillis, 1L), TimeUnit.MILLISECONDS);
+
+					long now = System.currentTimeMillis();
+					while (key != null)
+					{
+						Path directory = (Path)key.watchable();
+						for (WatchEvent<?> event : key.pollEvents())
+						{
+							if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+								continue;
+							Path file = directory.resolve((Path)event.context());
+							pending.put(file.normalize().toString(), now);
+						}
+						if (!key.reset())
+							watchedDirectories.remove(directory);
+						key = watchService.poll();
+					}
+
+					reloadSettled(pending, System.currentTimeMillis());
+				}
+			} catch (InterruptedException e) {
+				// stop.
+			} catch (ClosedWatchServiceException e) {
+				// stop.
+			}
+		}
+
+		/**
+		 * Reloads the files that have not changed for the debounce time.
+		 */
+		private void reloadSettled(Map<String, Long> pending, long now)
+		{
+			long debounce = debounceMillis;
+			String[] settled = new String[pending.size()];
+			int count = 0;
+			Iterator<Map.Entry<String, Long>> it = pending.entrySet().iterator();
+			while (it.hasNext())
+			{
+				Map.Entry<String, Long> entry = it.next();
+				if (now - entry.getValue() >= debounce)
+				{
+					settled[count++] = entry.getKey();
+					it.remove();
+				}
+			}
+			if (count > 0)
+			{
+				String[] out = new String[count];
+				System.arraycopy(settled, 0, out, 0, count);
+				loader.reloadFiles(out);
+			}
+		}
+	}
+
+}
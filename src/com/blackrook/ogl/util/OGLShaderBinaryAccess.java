@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import com.blackrook.ogl.OGLGraphics;
+import com.blackrook.ogl.object.shader.OGLShaderProgram;
+
+/**
+ * Gets and sets linked shader program binaries, for an {@link OGLResourceLoader}
+ * that keeps them in an {@link OGLShaderBinaryCache}. {@link OGLGraphics} and
+ * {@link OGLShaderProgram} do not expose the driver strings or program binaries,
+ * so this is the part that does (<code>glGetString</code>, <code>glGetProgramBinary</code>
+ * and <code>glProgramBinary</code>).
+ * <p>
+ * All of these are called on the graphics thread.
+ * @author Matthew Tropiano
+ * @see OGLResourceLoader#setShaderBinaryCache(OGLShaderBinaryCache, OGLShaderBinaryAccess)
+ */
+public interface OGLShaderBinaryAccess
+{
+	/**
+	 * Gets a string that identifies the current graphics driver, like its vendor,
+	 * renderer and version strings put together. Binaries are keyed by this, 
+	 * so that binaries from another driver are never given to this one.
+	 * @param g the graphics context.
+	 * @return the driver string, or null if binaries should not be cached.
+	 */
+	public String getDriverString(OGLGraphics g);
+
+	/**
+	 * Gets the linked binary of a shader program.
+	 * @param g the graphics context.
+	 * @param program the linked program.
+	 * @return the program binary, or null if it could not be gotten.
+	 */
+	public OGLShaderBinaryCache.Binary getProgramBinary(OGLGraphics g, OGLShaderProgram program);
+
+	/**
+	 * Creates a shader program from a program binary. The loader sets its uniforms afterward.
+	 * If the driver rejects the binary (for example, after a driver update), this should
+	 * clean up and return null, and the loader removes the entry and builds
+	 * the program from its sources.
+	 * @param g the graphics context.
+	 * @param binary the program binary.
+	 * @return the program, or null if the binary was rejected.
+	 */
+	public OGLShaderProgram createProgram(OGLGraphics g, OGLShaderBinaryCache.Binary binary);
+
+}
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * An on-disk cache of linked shader program binaries, so that programs
+ * do not need to be compiled and linked from source on subsequent runs.
+ * <p>
+ * Program binaries are only valid for the driver that produced them, so
+ * keys are made from both the program sources' hash and a string that identifies
+ * the driver (like its vendor, renderer and version). Drivers may still reject
+ * a binary, in which case the entry should be removed and the program built from source.
+ * <p>
+ * This class is thread-safe: entries are written to a temporary file
+ * and renamed into place.
+ * @author Matthew Tropiano
+ */
+public class OGLShaderBinaryCache
+{
+	/** Cache file magic number. */
+	private static final int MAGIC = 0x42525342; // "BRSB"
+	/** Cache file version. Increment if the format changes. */
+	private static final int VERSION = 1;
+	/** Cache file header length in bytes. */
+	private static final int HEADER_LENGTH = 16;
+	/** Cache file extension. */
+	private static final String EXTENSION = ".bsb";
+
+	/** The cache directory. */
+	private File directory;
+
+	/**
+	 * Creates a new binary cache that stores its entries in a directory.
+	 * The directory is created if it does not exist.
+	 * @param directory the cache directory.
+	 * @throws IOException if the directory could not be created.
+	 */
+	public OGLShaderBinaryCache(File directory) throws IOException
+	{
+		if (!directory.exists() && !directory.mkdirs())
+			throw new IOException("Could not create cache directory " + directory.getPath());
+		if (!directory.isDirectory())
+			throw new IOException(directory.getPath() + " is not a directory.");
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the cache directory.
+	 */
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	/**
+	 * Creates a cache key for a program.
+	 * @param sourceHash the hash of the program's preprocessed sources.
+	 * @param driver the string that identifies the driver.
+	 * @return the key.
+	 */
+	public String createKey(String sourceHash, String driver)
+	{
+		return OGLShaderPreprocessor.createHash(sourceHash, driver);
+	}
+
+	/**
+	 * Returns true if this cache has an entry for a key.
+	 */
+	public boolean contains(String key)
+	{
+		return getFile(key).exists();
+	}
+
+	/**
+	 * Reads a program binary.
+	 * @param key the entry key.
+	 * @return the binary, or null if there is no valid entry for the key.
+	 * @throws IOException if the entry could not be read.
+	 */
+	public Binary read(String key) throws IOException
+	{
+		File file = getFile(key);
+		if (!file.exists())
+			return null;
+
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long length = channel.size();
+			if (length < HEADER_LENGTH)
+				return null;
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining())
+				if (channel.read(header) < 0)
+					return null;
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				return null;
+
+			int format = header.getInt();
+			int dataLength = header.getInt();
+			if (dataLength <= 0 || length != HEADER_LENGTH + (long)dataLength)
+				return null;
+
+			// binaries are handed to the driver, so read into a direct buffer.
+			ByteBuffer data = ByteBuffer.allocateDirect(dataLength);
+			while (data.hasRemaining())
+				if (channel.read(data) < 0)
+					return null;
+			data.flip();
+			return new Binary(format, data);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes a program binary to this cache, replacing the entry for the key, if any.
+	 * @param key the entry key.
+	 * @param binary the binary to store.
+	 * @throws IOException if the entry could not be written.
+	 */
+	public void write(String key, Binary binary) throws IOException
+	{
+		ByteBuffer data = binary.getData().duplicate();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(binary.getFormat());
+		header.putInt(data.remaining());
+		header.flip();
+
+		OGLCacheFiles.write(directory, getFile(key), key, header, data);
+	}
+
+	/**
+	 * Removes an entry from this cache.
+	 * @return true if an entry was removed.
+	 */
+	public boolean remove(String key)
+	{
+		return getFile(key).delete();
+	}
+
+	/**
+	 * Removes all entries from this cache.
+	 */
+	public void clear()
+	{
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		for (File f : files)
+			if (f.getName().endsWith(EXTENSION))
+				f.delete();
+	}
+
+	/**
+	 * Returns the file for an entry key.
+	 */
+	private File getFile(String key)
+	{
+		return new File(directory, key + EXTENSION);
+	}
+
+	/**
+	 * A linked program binary.
+	 */
+	public static class Binary
+	{
+		/** Driver-specific binary format. */
+		private int format;
+		/** Binary data. */
+		private ByteBuffer data;
+
+		/**
+		 * Creates a new program binary.
+		 * @param format the driver-specific binary format.
+		 * @param data the binary data, from its position to its limit.
+		 */
+		public Binary(int format, ByteBuffer data)
+		{
+			this.format = format;
+			this.data = data;
+		}
+
+		/**
+		 * Returns the driver-specific binary format.
+		 */
+		public int getFormat()
+		{
+			return format;
+		}
+
+		/**
+		 * Returns the binary data, from its position to its limit.
+		 */
+		public ByteBuffer getData()
+		{
+			return data;
+		}
+
+	}
+
+}
@@ -0,0 +1,28 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import com.blackrook.ogl.object.shader.OGLShaderProgram;
+import com.blackrook.ogl.util.resource.OGLShaderResource;
+
+/**
+ * A handle to a shader program that an {@link OGLResourceLoader} is caching.
+ * @author Matthew Tropiano
+ */
+public class OGLShaderHandle extends OGLResourceHandle<OGLShaderResource, OGLShaderProgram>
+{
+	/**
+	 * Creates a new, incomplete shader handle.
+	 * @param resource the shader resource.
+	 */
+	public OGLShaderHandle(OGLShaderResource resource)
+	{
+		super(resource);
+	}
+
+}
@@ -0,0 +1,320 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.blackrook.commons.hash.Hash;
+import com.blackrook.commons.list.List;
+
+/**
+ * A GLSL source preprocessor that expands <code>#include</code> directives and
+ * injects <code>#define</code> lines, so that one source file can be compiled
+ * into several permutations.
+ * <p>
+ * Included files are resolved relative to the file that includes them by a {@link SourceResolver}.
+ * A file that contains <code>#pragma once</code> is only included once per resolved source.
+ * Defines are inserted after the <code>#version</code> line, if any, or else at the top.
+ * <p>
+ * Source text and resolved sources are cached, keyed by path (and defines), until
+ * they are invalidated. This class is thread-safe.
+ * @author Matthew Tropiano
+ */
+public class OGLShaderPreprocessor
+{
+	/** Source text charset. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** Include directive. */
+	private static final Pattern INCLUDE_PATTERN = Pattern.compile("^\\s*#\\s*include\\s+[\"<]([^\">]+)[\">]\\s*$");
+	/** Once pragma. */
+	private static final Pattern ONCE_PATTERN = Pattern.compile("^\\s*#\\s*pragma\\s+once\\s*$");
+	/** Version directive. */
+	private static final Pattern VERSION_PATTERN = Pattern.compile("^\\s*#\\s*version\\b.*$");
+
+	/** Source text by path. */
+	private ConcurrentHashMap<String, String> sourceCache;
+	/** Resolved source by path and defines. */
+	private ConcurrentHashMap<String, Resolved> resolvedCache;
+
+	/**
+	 * Resolves and opens source files.
+	 */
+	public static interface SourceResolver
+	{
+		/**
+		 * Resolves the path of an included file.
+		 * @param parentPath the path of the file that contains the include directive.
+		 * @param includePath the path in the include directive.
+		 * @return the resolved path.
+		 */
+		public String resolveInclude(String parentPath, String includePath);
+
+		/**
+		 * Opens a source file.
+		 * @param path the path of the file.
+		 * @return an open stream, or null if the file does not exist.
+		 * @throws IOException if the file could not be opened.
+		 */
+		public InputStream openStream(String path) throws IOException;
+	}
+
+	/**
+	 * Creates a new preprocessor.
+	 */
+	public OGLShaderPreprocessor()
+	{
+		sourceCache = new ConcurrentHashMap<String, String>();
+		resolvedCache = new ConcurrentHashMap<String, Resolved>();
+	}
+
+	/**
+	 * Resolves a source file's includes and injects defines.
+	 * @param path the path of the source file.
+	 * @param defines the define lines to inject, as the text after <code>#define</code>
+	 * (for example, <code>"USE_FOG"</code> or <code>"LIGHT_COUNT 4"</code>). Can be null.
+	 * @param resolver the resolver for opening the file and its includes.
+	 * @return the resolved source, or null if the resolver could not find the file.
+	 * @throws IOException if the file or an included file could not be read,
+	 * an included file could not be found, or the includes are circular.
+	 */
+	public String process(String path, Iterable<String> defines, SourceResolver resolver) throws IOException
+	{
+		StringBuilder key = new StringBuilder(path);
+		if (defines != null) for (String define : defines)
+			key.append('\n').append(define);
+		String cacheKey = key.toString();
+
+		Resolved resolved = resolvedCache.get(cacheKey);
+		if (resolved != null)
+			return resolved.source;
+
+		String text = readSource(path, resolver);
+		if (text == null)
+			return null;
+
+		StringBuilder out = new StringBuilder(text.length() + 256);
+		List<String> files = new List<String>();
+		Hash<String> onceFiles = new Hash<String>();
+		Hash<String> stack = new Hash<String>();
+
+		String[] lines = splitLines(text);
+		int start = 0;
+		if (lines.length > 0 && VERSION_PATTERN.matcher(lines[0]).matches())
+		{
+			out.append(lines[0]).append('\n');
+			start = 1;
+		}
+		if (defines != null) for (String define : defines)
+			out.append("#define ").append(define).append('\n');
+
+		files.add(path);
+		stack.put(path);
+		if (isOnce(lines))
+			onceFiles.put(path);
+		expand(path, lines, start, out, files, onceFiles, stack, resolver);
+
+		String source = out.toString();
+		String[] fileArray = new String[files.size()];
+		for (int i = 0; i < fileArray.length; i++)
+			fileArray[i] = files.getByIndex(i);
+		resolvedCache.put(cacheKey, new Resolved(source, fileArray));
+		return source;
+	}
+
+	/**
+	 * Removes a file from the cache, and every resolved source that includes it.
+	 * @param path the file path.
+	 */
+	public void invalidate(String path)
+	{
+		sourceCache.remove(path);
+		for (String key : resolvedCache.keySet())
+		{
+			Resolved resolved = resolvedCache.get(key);
+			if (resolved != null && resolved.includes(path))
+				resolvedCache.remove(key);
+		}
+	}
+
+	/**
+	 * Gets the files that a source file was resolved from: the file itself and 
+	 * every file that it includes, for all of the defines that it was processed with.
+	 * @param path the path of the source file.
+	 * @return the paths of the files, or an empty array if the file was not processed (or was invalidated).
+	 */
+	public String[] getSourceFiles(String path)
+	{
+		List<String> out = new List<String>();
+		for (Resolved resolved : resolvedCache.values())
+		{
+			if (!resolved.files[0].equals(path))
+				continue;
+			for (String f : resolved.files)
+			{
+				boolean found = false;
+				for (int i = 0; i < out.size() && !found; i++)
+					found = out.getByIndex(i).equals(f);
+				if (!found)
+					out.add(f);
+			}
+		}
+		String[] array = new String[out.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = out.getByIndex(i);
+		return array;
+	}
+
+	/**
+	 * Clears all cached sources.
+	 */
+	public void clearCache()
+	{
+		sourceCache.clear();
+		resolvedCache.clear();
+	}
+
+	/**
+	 * Creates a SHA-1 hex hash of several sources. Null sources are hashed as distinct from empty ones.
+	 */
+	public static String createHash(String ... sources)
+	{
+		MessageDigest digest = OGLCacheFiles.createSHA1();
+		for (String source : sources)
+		{
+			if (source == null)
+				digest.update((byte)0);
+			else
+			{
+				digest.update((byte)1);
+				digest.update(source.getBytes(UTF8));
+			}
+			digest.update((byte)0xff);
+		}
+
+		return OGLCacheFiles.toHex(digest.digest());
+	}
+
+	/**
+	 * Expands the lines of a file into the output.
+	 */
+	private void expand(String path, String[] lines, int start, StringBuilder out, List<String> files,
+			Hash<String> onceFiles, Hash<String> stack, SourceResolver resolver) throws IOException
+	{
+		for (int i = start; i < lines.length; i++)
+		{
+			String line = lines[i];
+			Matcher m = INCLUDE_PATTERN.matcher(line);
+			if (!m.matches())
+			{
+				if (!ONCE_PATTERN.matcher(line).matches())
+					out.append(line).append('\n');
+				continue;
+			}
+
+			String includePath = resolver.resolveInclude(path, m.group(1));
+			if (onceFiles.contains(includePath))
+				continue;
+			if (stack.contains(includePath))
+				throw new IOException("Circular include of \"" + includePath + "\" in \"" + path + "\".");
+
+			String text = readSource(includePath, resolver);
+			if (text == null)
+				throw new IOException("Could not find include \"" + m.group(1) + "\" in \"" + path + "\".");
+
+			String[] includeLines = splitLines(text);
+			files.add(includePath);
+			if (isOnce(includeLines))
+				onceFiles.put(includePath);
+			stack.put(includePath);
+			expand(includePath, includeLines, 0, out, files, onceFiles, stack, resolver);
+			stack.remove(includePath);
+		}
+	}
+
+	/**
+	 * Reads a file's source text, using the cache if present.
+	 */
+	private String readSource(String path, SourceResolver resolver) throws IOException
+	{
+		String out = sourceCache.get(path);
+		if (out != null)
+			return out;
+
+		InputStream in = resolver.openStream(path);
+		if (in == null)
+			return null;
+
+		StringBuilder sb = new StringBuilder();
+		Reader reader = new InputStreamReader(in, UTF8);
+		try {
+			char[] buffer = new char[4096];
+			int n;
+			while ((n = reader.read(buffer)) > 0)
+				sb.append(buffer, 0, n);
+		} finally {
+			reader.close();
+		}
+
+		out = sb.toString();
+		sourceCache.put(path, out);
+		return out;
+	}
+
+	/**
+	 * Checks if a file's lines contain a once pragma.
+	 */
+	private static boolean isOnce(String[] lines)
+	{
+		for (String line : lines)
+			if (ONCE_PATTERN.matcher(line).matches())
+				return true;
+		return false;
+	}
+
+	/**
+	 * Splits text into lines.
+	 */
+	private static String[] splitLines(String text)
+	{
+		return text.split("\\r?\\n");
+	}
+
+	/**
+	 * A cached resolved source.
+	 */
+	private static class Resolved
+	{
+		/** The resolved source. */
+		String source;
+		/** The files included in it, including the main file. */
+		String[] files;
+
+		Resolved(String source, String[] files)
+		{
+			this.source = source;
+			this.files = files;
+		}
+
+		boolean includes(String path)
+		{
+			for (String f : files)
+				if (f.equals(path))
+					return true;
+			return false;
+		}
+	}
+
+}
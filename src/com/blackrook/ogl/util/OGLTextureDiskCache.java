@@ -0,0 +1,458 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import com.blackrook.ogl.util.image.OGLCompressedImage;
+import com.blackrook.ogl.util.image.OGLMipmapGenerator;
+
+/**
+ * An on-disk cache of decoded (and resized) texture pixel data, so that
+ * images do not need to be decoded again on subsequent runs.
+ * <p>
+ * Each entry is one file in the cache directory, named after its key.
+ * A file is a small header followed by the pixels as 32-bit ARGB values in
+ * little-endian order, which is BGRA byte order in memory. 
+ * {@link #readImage(String)} reads an entry with plain reads, a chunk at a time,
+ * straight into the new image's pixel array. {@link #readPixels(String)} maps 
+ * the file instead, for callers that can use the pixel data where it is.
+ * <p>
+ * Block-compressed data is stored separately under the same keys, 
+ * so a texture can have both a decoded and a compressed entry.
+ * <p>
+ * This class is thread-safe: entries are written to a temporary file
+ * and renamed into place.
+ * @author Matthew Tropiano
+ */
+public class OGLTextureDiskCache
+{
+	/** Cache file magic number. */
+	private static final int MAGIC = 0x42525443; // "BRTC"
+	/** Cache file version. Increment if the format changes. */
+	private static final int VERSION = 1;
+	/** Cache file header length in bytes. */
+	private static final int HEADER_LENGTH = 16;
+	/** Cache file extension. */
+	private static final String EXTENSION = ".btc";
+	/** Compressed cache file magic number. */
+	private static final int COMPRESSED_MAGIC = 0x42525458; // "BRTX"
+	/** Compressed cache file header length in bytes. */
+	private static final int COMPRESSED_HEADER_LENGTH = 20;
+	/** Compressed cache file extension. */
+	private static final String COMPRESSED_EXTENSION = ".btx";
+
+	/** Size of the chunks that entries are read in, in bytes. */
+	private static final int READ_CHUNK_LENGTH = 65536;
+
+	/** The cache directory. */
+	private File directory;
+
+	/**
+	 * Creates a new disk cache that stores its entries in a directory.
+	 * The directory is created if it does not exist.
+	 * @param directory the cache directory.
+	 * @throws IOException if the directory could not be created.
+	 */
+	public OGLTextureDiskCache(File directory) throws IOException
+	{
+		if (!directory.exists() && !directory.mkdirs())
+			throw new IOException("Could not create cache directory " + directory.getPath());
+		if (!directory.isDirectory())
+			throw new IOException(directory.getPath() + " is not a directory.");
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the cache directory.
+	 */
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	/**
+	 * Creates a cache key for a set of decoding parameters.
+	 * Changing any of the parameters results in a different key.
+	 * @param path the resource path.
+	 * @param modifiedTime the modified time of the resource data.
+	 * @param dimension the target dimension of the image, or null if not resized.
+	 * @param filterFlags any flags that affect the resulting pixels, like resize filtering.
+	 * @return the key.
+	 */
+	public String createKey(String path, long modifiedTime, Dimension dimension, int filterFlags)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(path).append('|').append(modifiedTime).append('|');
+		if (dimension != null)
+			sb.append(dimension.width).append('x').append(dimension.height);
+		sb.append('|').append(filterFlags);
+
+		byte[] digest;
+		try {
+			digest = OGLCacheFiles.createSHA1().digest(sb.toString().getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException("UTF-8 is not available.", e);
+		}
+		return OGLCacheFiles.toHex(digest);
+	}
+
+	/**
+	 * Returns true if this cache has an entry for a key.
+	 */
+	public boolean contains(String key)
+	{
+		return getFile(key).exists();
+	}
+
+	/**
+	 * Reads the pixel data for an entry.
+	 * The returned buffer is a read-only, memory-mapped direct buffer in little-endian order
+	 * positioned at the first pixel, containing width * height * 4 bytes.
+	 * @param key the entry key.
+	 * @return the entry's pixel data, or null if there is no valid entry for the key.
+	 * @throws IOException if the entry could not be read.
+	 */
+	public Pixels readPixels(String key) throws IOException
+	{
+		File file = getFile(key);
+		if (!file.exists())
+			return null;
+
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long length = channel.size();
+			if (length < HEADER_LENGTH)
+				return null;
+
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				return null;
+
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			if (width <= 0 || height <= 0 || length != HEADER_LENGTH + 4L * width * height)
+				return null;
+
+			ByteBuffer data = buffer.slice();
+			data.order(ByteOrder.LITTLE_ENDIAN);
+			return new Pixels(width, height, data);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads an entry into a new image.
+	 * @param key the entry key.
+	 * @return the image, or null if there is no valid entry for the key.
+	 * @throws IOException if the entry could not be read.
+	 */
+	public BufferedImage readImage(String key) throws IOException
+	{
+		File file = getFile(key);
+		if (!file.exists())
+			return null;
+
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long length = channel.size();
+			if (length < HEADER_LENGTH)
+				return null;
+
+			ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(length, READ_CHUNK_LENGTH));
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.limit(HEADER_LENGTH);
+			if (!readFully(channel, buffer))
+				return null;
+			buffer.flip();
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				return null;
+
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			if (width <= 0 || height <= 0 || length != HEADER_LENGTH + 4L * width * height)
+				return null;
+
+			BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			int[] argb = ((DataBufferInt)out.getRaster().getDataBuffer()).getData();
+			int offset = 0;
+			while (offset < argb.length)
+			{
+				buffer.clear();
+				buffer.limit(Math.min(buffer.capacity() / 4, argb.length - offset) * 4);
+				if (!readFully(channel, buffer))
+					return null;
+				buffer.flip();
+				int count = buffer.remaining() / 4;
+				buffer.asIntBuffer().get(argb, offset, count);
+				offset += count;
+			}
+			return out;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads from a channel until a buffer is full.
+	 * @return true if the buffer was filled, false if the channel ended first.
+	 */
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+			if (channel.read(buffer) < 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Writes an image to this cache, replacing the entry for the key, if any.
+	 * @param key the entry key.
+	 * @param image the image to store.
+	 * @throws IOException if the entry could not be written.
+	 */
+	public void writeImage(String key, BufferedImage image) throws IOException
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + 4 * argb.length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(width);
+		buffer.putInt(height);
+		buffer.asIntBuffer().put(argb);
+		buffer.rewind();
+		OGLCacheFiles.write(directory, getFile(key), key, buffer);
+	}
+
+	/**
+	 * Returns true if this cache has a compressed entry for a key.
+	 */
+	public boolean containsCompressed(String key)
+	{
+		return getCompressedFile(key).exists();
+	}
+
+	/**
+	 * Reads a compressed entry.
+	 * The returned image's data is a read-only, memory-mapped direct buffer.
+	 * @param key the entry key.
+	 * @return the compressed image, or null if there is no valid compressed entry for the key.
+	 * @throws IOException if the entry could not be read.
+	 */
+	public OGLCompressedImage readCompressed(String key) throws IOException
+	{
+		File file = getCompressedFile(key);
+		if (!file.exists())
+			return null;
+
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long length = channel.size();
+			if (length < COMPRESSED_HEADER_LENGTH)
+				return null;
+
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != COMPRESSED_MAGIC || buffer.getInt() != VERSION)
+				return null;
+
+			int formatIndex = buffer.getInt();
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			OGLCompressedImage.Format[] formats = OGLCompressedImage.Format.values();
+			if (formatIndex < 0 || formatIndex >= formats.length || width <= 0 || height <= 0)
+				return null;
+			OGLCompressedImage.Format format = formats[formatIndex];
+			if (length != COMPRESSED_HEADER_LENGTH + (long)format.getDataSize(width, height))
+				return null;
+
+			return new OGLCompressedImage(format, width, height, buffer.slice());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes a compressed image to this cache, replacing the compressed entry for the key, if any.
+	 * @param key the entry key.
+	 * @param image the compressed image to store.
+	 * @throws IOException if the entry could not be written.
+	 */
+	public void writeCompressed(String key, OGLCompressedImage image) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(COMPRESSED_HEADER_LENGTH);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(COMPRESSED_MAGIC);
+		header.putInt(VERSION);
+		header.putInt(image.getFormat().ordinal());
+		header.putInt(image.getWidth());
+		header.putInt(image.getHeight());
+		header.flip();
+		OGLCacheFiles.write(directory, getCompressedFile(key), key, header, image.getData().duplicate());
+	}
+
+	/**
+	 * Reads the mipmap levels stored for an entry.
+	 * Each level must be half the size of the one before it (rounded down, to a minimum of 1),
+	 * down to 1x1, starting from the size of the base level.
+	 * @param key the entry key.
+	 * @param width the width of the base level.
+	 * @param height the height of the base level.
+	 * @return the images for levels 1 and down (index 0 is null),
+	 * 		or null if any of the levels are missing, invalid, or the wrong size.
+	 * @throws IOException if a level could not be read.
+	 */
+	public BufferedImage[] readMipmaps(String key, int width, int height) throws IOException
+	{
+		BufferedImage[] out = new BufferedImage[OGLMipmapGenerator.getLevelCount(width, height)];
+		for (int i = 1; i < out.length; i++)
+		{
+			if ((out[i] = readImage(getMipmapKey(key, i))) == null)
+				return null;
+			if (out[i].getWidth() != Math.max(1, width >> i) || out[i].getHeight() != Math.max(1, height >> i))
+				return null;
+		}
+		return out;
+	}
+
+	/**
+	 * Writes mipmap levels to this cache, replacing the levels stored for the key, if any.
+	 * The base level (index 0) is not written - use {@link #writeImage(String, BufferedImage)} for that.
+	 * @param key the entry key.
+	 * @param levels the mipmap chain.
+	 * @throws IOException if a level could not be written.
+	 */
+	public void writeMipmaps(String key, BufferedImage[] levels) throws IOException
+	{
+		for (int i = 1; i < levels.length; i++)
+			writeImage(getMipmapKey(key, i), levels[i]);
+	}
+
+	/**
+	 * Removes an entry (and its compressed entry and mipmap levels) from this cache.
+	 * @return true if an entry was removed.
+	 */
+	public boolean remove(String key)
+	{
+		boolean out = getFile(key).delete();
+		out = getCompressedFile(key).delete() || out;
+		for (int i = 1; getFile(getMipmapKey(key, i)).delete(); i++)
+			out = true;
+		return out;
+	}
+
+	/**
+	 * Removes all entries from this cache.
+	 */
+	public void clear()
+	{
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		for (File f : files)
+			if (f.getName().endsWith(EXTENSION) || f.getName().endsWith(COMPRESSED_EXTENSION))
+				f.delete();
+	}
+
+	/**
+	 * Returns the file for an entry key.
+	 */
+	private File getFile(String key)
+	{
+		return new File(directory, key + EXTENSION);
+	}
+
+	/**
+	 * Returns the key for a mipmap level of an entry.
+	 */
+	private static String getMipmapKey(String key, int level)
+	{
+		return key + ".m" + level;
+	}
+
+	/**
+	 * Returns the compressed file for an entry key.
+	 */
+	private File getCompressedFile(String key)
+	{
+		return new File(directory, key + COMPRESSED_EXTENSION);
+	}
+
+	/**
+	 * Pixel data read from the cache.
+	 */
+	public static class Pixels
+	{
+		/** Width in pixels. */
+		private int width;
+		/** Height in pixels. */
+		private int height;
+		/** Pixel data, ARGB little-endian. */
+		private ByteBuffer data;
+
+		private Pixels(int width, int height, ByteBuffer data)
+		{
+			this.width = width;
+			this.height = height;
+			this.data = data;
+		}
+
+		/** Returns the width in pixels. */
+		public int getWidth()
+		{
+			return width;
+		}
+
+		/** Returns the height in pixels. */
+		public int getHeight()
+		{
+			return height;
+		}
+
+		/**
+		 * Returns the pixel data: a direct buffer of width * height
+		 * 32-bit ARGB values in little-endian (BGRA byte) order.
+		 */
+		public ByteBuffer getData()
+		{
+			return data;
+		}
+
+		/**
+		 * Unpacks the pixel data into a new ARGB image.
+		 */
+		public BufferedImage toImage()
+		{
+			BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			int[] argb = ((DataBufferInt)out.getRaster().getDataBuffer()).getData();
+			ByteBuffer buf = data.duplicate();
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			buf.asIntBuffer().get(argb);
+			return out;
+		}
+	}
+
+}
@@ -0,0 +1,28 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import com.blackrook.ogl.object.texture.OGLTexture2D;
+import com.blackrook.ogl.util.resource.OGLTextureResource;
+
+/**
+ * A handle to a texture that an {@link OGLResourceLoader} is caching.
+ * @author Matthew Tropiano
+ */
+public class OGLTextureHandle extends OGLResourceHandle<OGLTextureResource, OGLTexture2D>
+{
+	/**
+	 * Creates a new, incomplete texture handle.
+	 * @param resource the texture resource.
+	 */
+	public OGLTextureHandle(OGLTextureResource resource)
+	{
+		super(resource);
+	}
+
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.blackrook.ogl.OGLGraphics;
+import com.blackrook.ogl.object.texture.OGLTexture2D;
+import com.blackrook.ogl.object.texture.OGLTexture.InternalFormat;
+import com.blackrook.ogl.object.texture.OGLTexture.MagFilter;
+import com.blackrook.ogl.object.texture.OGLTexture.MinFilter;
+import com.blackrook.ogl.util.resource.OGLTextureAtlas;
+import com.blackrook.ogl.util.resource.OGLTextureAtlasRegion;
+import com.blackrook.ogl.util.resource.OGLTextureResource;
+
+/**
+ * Keeps track of which textures an {@link OGLResourceLoader} packed into its texture atlas,
+ * and creates, updates and destroys the atlas page textures.
+ * Only used on the graphics thread, like the loader's texture bank,
+ * except for {@link #getRegion(OGLTextureResource)}.
+ * @author Matthew Tropiano
+ */
+class OGLTexturePacking
+{
+	/** Atlas regions of textures that were packed. */
+	private ConcurrentHashMap<OGLTextureResource, OGLTextureAtlasRegion> regions;
+
+	OGLTexturePacking()
+	{
+		regions = new ConcurrentHashMap<OGLTextureResource, OGLTextureAtlasRegion>();
+	}
+
+	/**
+	 * Gets the atlas region that a texture was packed into, or null if it was not packed.
+	 * This can be called from any thread.
+	 */
+	OGLTextureAtlasRegion getRegion(OGLTextureResource textureDef)
+	{
+		return regions.get(textureDef);
+	}
+
+	/**
+	 * Returns true if a texture was packed into the atlas.
+	 */
+	boolean isPacked(OGLTextureResource textureDef)
+	{
+		return regions.containsKey(textureDef);
+	}
+
+	/**
+	 * Packs a texture's image into an atlas, and returns the texture of the page that it was packed on.
+	 * The page texture is created if it does not exist yet, but its data is sent later, in {@link #update(OGLGraphics, OGLTextureAtlas)}.
+	 * Pages are grouped by filtering and wrapping, so that each page can have one set of them.
+	 * @param minFilter the minification filter. Pages are not mipmapped, since neighboring regions would bleed together,
+	 * so filters that use mipmaps are replaced with {@link MinFilter#LINEAR}.
+	 * @return the page texture, or null if the image could not be packed.
+	 */
+	OGLTexture2D pack(OGLGraphics g, OGLTextureAtlas atlas, OGLTextureResource textureDef, BufferedImage image,
+		MinFilter minFilter, MagFilter magFilter, float anisotropy)
+	{
+		if (minFilter != MinFilter.NEAREST)
+			minFilter = MinFilter.LINEAR;
+
+		String group = minFilter + "/" + magFilter + "/" + textureDef.getWrappingModeS() + "/" + textureDef.getWrappingModeT();
+		OGLTextureAtlasRegion region = atlas.add(image, group);
+		if (region == null)
+			return null;
+
+		OGLTextureAtlas.Page page = region.getPage();
+		if (page.getTexture() == null)
+		{
+			page.setTexture(new OGLTexture2D(g, InternalFormat.RGBA, minFilter, magFilter, anisotropy, 0, false,
+				textureDef.getWrappingModeS(), textureDef.getWrappingModeT()));
+		}
+		regions.put(textureDef, region);
+		return page.getTexture();
+	}
+
+	/**
+	 * Sends the data of an atlas's changed pages to OpenGL.
+	 * @param atlas the atlas, or null if atlasing is off.
+	 */
+	void update(OGLGraphics g, OGLTextureAtlas atlas)
+	{
+		if (atlas == null)
+			return;
+		for (int i = 0; i < atlas.getPageCount(); i++)
+		{
+			OGLTextureAtlas.Page page = atlas.getPage(i);
+			if (page.isDirty() && page.getTexture() != null)
+			{
+				page.clearDirty();
+				page.getTexture().sendData(g, page.getImage());
+			}
+		}
+	}
+
+	/**
+	 * Removes a texture from its atlas page. The page texture is destroyed once all of its regions are gone.
+	 * @return true if the texture was packed, false if it was not.
+	 */
+	boolean release(OGLGraphics g, OGLTextureResource textureDef)
+	{
+		OGLTextureAtlasRegion region = regions.remove(textureDef);
+		if (region == null)
+			return false;
+		OGLTextureAtlas.Page page = region.getPage();
+		if (page.getAtlas().release(region) && page.getTexture() != null)
+		{
+			page.getTexture().destroy(g);
+			page.setTexture(null);
+		}
+		return true;
+	}
+
+}
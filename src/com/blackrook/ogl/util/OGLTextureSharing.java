@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import com.blackrook.commons.bank.Bank;
+import com.blackrook.ogl.object.texture.OGLTexture2D;
+import com.blackrook.ogl.util.resource.OGLTextureResource;
+
+/**
+ * Keeps track of the textures that an {@link OGLResourceLoader} shares between
+ * resources with the same content hash, and of how many resources use each,
+ * so that a shared texture is counted once and destroyed with its last user.
+ * Only used on the graphics thread, like the loader's texture bank.
+ * @author Matthew Tropiano
+ */
+class OGLTextureSharing
+{
+	/** Textures shared by resources, by content hash. */
+	private Bank<String, SharedTexture> sharedByHash;
+	/** The shared texture used by each resource that uses one. */
+	private Bank<OGLTextureResource, SharedTexture> sharedResources;
+
+	OGLTextureSharing()
+	{
+		sharedByHash = new Bank<String, SharedTexture>();
+		sharedResources = new Bank<OGLTextureResource, SharedTexture>();
+	}
+
+	/**
+	 * Gets a shared texture with a content hash and adds a resource to its users.
+	 * @return the texture, or null if the hash is null or there is no texture with the hash.
+	 */
+	OGLTexture2D find(OGLTextureResource textureDef, String hash)
+	{
+		if (hash == null)
+			return null;
+		SharedTexture shared = sharedByHash.getByKey(hash);
+		if (shared == null)
+			return null;
+		shared.references++;
+		sharedResources.add(textureDef, shared);
+		return shared.texture;
+	}
+
+	/**
+	 * Makes a freshly-created texture shareable by other resources with the same content hash,
+	 * with a resource as its first user. Does nothing if the hash or texture is null.
+	 */
+	void share(OGLTextureResource textureDef, String hash, OGLTexture2D texture)
+	{
+		if (hash == null || texture == null)
+			return;
+		SharedTexture shared = new SharedTexture(hash, texture);
+		sharedByHash.add(hash, shared);
+		sharedResources.add(textureDef, shared);
+	}
+
+	/**
+	 * Stops offering a resource's shared texture to new users, so that
+	 * resources loaded with other settings do not get it. Its current users keep it.
+	 */
+	void unshare(OGLTextureResource textureDef)
+	{
+		SharedTexture shared = sharedResources.getByKey(textureDef);
+		if (shared != null && sharedByHash.getByKey(shared.hash) == shared)
+			sharedByHash.removeByKey(shared.hash);
+	}
+
+	/**
+	 * Returns true if a resource uses a shared texture.
+	 */
+	boolean isShared(OGLTextureResource textureDef)
+	{
+		return sharedResources.containsKey(textureDef);
+	}
+
+	/**
+	 * Records the estimated size of a resource's shared texture, if the resource is its only user.
+	 * @return true if it was recorded, and the texture's memory is counted with this resource,
+	 * or false if another resource already counts it.
+	 */
+	boolean setSize(OGLTextureResource textureDef, long size)
+	{
+		SharedTexture shared = sharedResources.getByKey(textureDef);
+		if (shared == null || shared.references != 1)
+			return false;
+		shared.size = size;
+		return true;
+	}
+
+	/**
+	 * Removes a resource from the users of its shared texture.
+	 * @return the texture's recorded size if that was its last user, and the texture
+	 * should be destroyed, or -1 if other resources still use it or the resource did not use one.
+	 */
+	long release(OGLTextureResource textureDef)
+	{
+		SharedTexture shared = sharedResources.removeByKey(textureDef);
+		if (shared == null || --shared.references > 0)
+			return -1L;
+		if (sharedByHash.getByKey(shared.hash) == shared)
+			sharedByHash.removeByKey(shared.hash);
+		return shared.size;
+	}
+
+	/**
+	 * A texture shared by all resources that have the same content hash.
+	 */
+	private static class SharedTexture
+	{
+		/** Content hash of the texture. */
+		String hash;
+		/** The texture. */
+		OGLTexture2D texture;
+		/** Estimated size of the texture in bytes. */
+		long size;
+		/** Amount of resources using the texture. */
+		int references;
+
+		SharedTexture(String hash, OGLTexture2D texture)
+		{
+			this.hash = hash;
+			this.texture = texture;
+			this.size = 0L;
+			this.references = 1;
+		}
+
+	}
+
+}
@@ -0,0 +1,662 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.blackrook.ogl.OGLGraphics;
+import com.blackrook.ogl.enums.GeometryType;
+import com.blackrook.ogl.mesh.PolygonMesh;
+import com.blackrook.ogl.object.texture.OGLTexture2D;
+import com.blackrook.ogl.object.texture.OGLTexture.InternalFormat;
+import com.blackrook.ogl.object.texture.OGLTexture.MagFilter;
+import com.blackrook.ogl.object.texture.OGLTexture.MinFilter;
+import com.blackrook.ogl.object.texture.OGLTexture.WrapType;
+import com.blackrook.ogl.util.resource.OGLVirtualTextureResource;
+
+/**
+ * A virtual texture: a very large paged image, of which only the pages
+ * that are in view, at the level of detail they are seen at, are kept in
+ * video memory. Video memory used is bounded by the size of the page cache,
+ * no matter how big the image is.
+ * <p>
+ * Every frame, {@link #update(OGLGraphics, float, float, float, float, float, float)} is
+ * called with the region of the image that is visible and how many pixels it covers on screen.
+ * This picks the mip level, uploads pages decoded since the last frame into the page cache,
+ * and queues the visible pages that are missing, nearest to the center of the view and coarsest first,
+ * on background decoding threads. Then {@link #draw(OGLGraphics, float, float, float, float)} draws
+ * the visible region. Pages that are not resident yet are drawn from the nearest coarser level that is,
+ * so the image is always drawn, sharpening as pages arrive.
+ * <p>
+ * The page cache is a fixed number of page-sized texture slots. The indirection table maps each
+ * page of each level to the slot that holds it, and slots are reused least-recently-drawn first.
+ * The last level (the whole image in one page) is never evicted. If the visible pages at the chosen
+ * level would not fit in the cache, a coarser level is used instead.
+ * <p>
+ * All methods except {@link #getResource()} and the statistics must be called on the graphics thread.
+ * @author Matthew Tropiano
+ */
+public class OGLVirtualTexture
+{
+	/** Default number of pages in the page cache. */
+	public static final int DEFAULT_CACHE_PAGES = 64;
+	/** Default number of pages uploaded per frame. */
+	public static final int DEFAULT_UPLOAD_LIMIT = 4;
+	/** Default number of page decoding threads. */
+	public static final int DEFAULT_DECODE_THREADS = 2;
+	/** Page requests not renewed for this many frames are dropped. */
+	private static final int STALE_FRAMES = 2;
+
+	/** The paged image. */
+	private OGLVirtualTextureResource resource;
+	/** Page size in texels. */
+	private int pageSize;
+	/** Page border in texels. */
+	private int border;
+	/** Page content size in texels. */
+	private int contentSize;
+	/** Image width per level. */
+	private int[] levelWidth;
+	/** Image height per level. */
+	private int[] levelHeight;
+	/** Pages across per level. */
+	private int[] levelPagesX;
+	/** Pages down per level. */
+	private int[] levelPagesY;
+
+	/** Page cache textures per slot, created when first needed. */
+	private OGLTexture2D[] slotTexture;
+	/** Key of the page held by each slot, or -1 if empty. */
+	private long[] slotPage;
+	/** Frame that each slot was last used on. */
+	private long[] slotFrame;
+	/** Indirection table: for each level, the slot that holds each page, or -1 if not resident. */
+	private int[][] pageTable;
+	/** Number of resident pages. */
+	private volatile int residentPages;
+
+	/** Current frame. */
+	private volatile long frame;
+	/** Pages queued or decoding, by key. */
+	private ConcurrentHashMap<Long, PageJob> pendingPages;
+	/** Pages that could not be read, by key. They are not requested again. */
+	private Set<Long> failedPages;
+	/** Decoded pages waiting for upload. */
+	private ConcurrentLinkedQueue<PageJob> decodedPages;
+	/** Page decoding pool. */
+	private ExecutorService decodeExecutor;
+	/** Pages uploaded per frame, at most. */
+	private int uploadLimit;
+	/** Minification filter for the page textures. */
+	private MinFilter minFilter;
+	/** Magnification filter for the page textures. */
+	private MagFilter magFilter;
+
+	/** Level picked in the last update. */
+	private int level;
+	/** Visible region from the last update. */
+	private float regionS0, regionT0, regionS1, regionT1;
+	/** Is any of the image visible? */
+	private boolean regionVisible;
+	/** Quad for drawing pages. */
+	private PolygonMesh quad;
+
+	/**
+	 * Creates a new virtual texture with the default cache size and decoding threads.
+	 * @param resource the paged image.
+	 */
+	public OGLVirtualTexture(OGLVirtualTextureResource resource)
+	{
+		this(resource, DEFAULT_CACHE_PAGES, DEFAULT_DECODE_THREADS);
+	}
+
+	/**
+	 * Creates a new virtual texture.
+	 * Video memory used is about <code>cachePages * pageSize * pageSize * 4</code> bytes, at most.
+	 * @param resource the paged image.
+	 * @param cachePages the number of pages in the page cache. Should be enough to cover
+	 * the screen at least twice over, or coarser levels are drawn.
+	 * @param decodeThreads the number of page decoding threads.
+	 * @throws IllegalArgumentException if cachePages is less than 2 or decodeThreads is less than 1.
+	 */
+	public OGLVirtualTexture(OGLVirtualTextureResource resource, int cachePages, int decodeThreads)
+	{
+		if (cachePages < 2)
+			throw new IllegalArgumentException("Page cache must have at least 2 pages.");
+		if (decodeThreads < 1)
+			throw new IllegalArgumentException("Thread count cannot be less than 1.");
+
+		this.resource = resource;
+		this.pageSize = resource.getPageSize();
+		this.border = resource.getBorder();
+		this.contentSize = resource.getContentSize();
+
+		int levels = resource.getLevelCount();
+		this.levelWidth = new int[levels];
+		this.levelHeight = new int[levels];
+		this.levelPagesX = new int[levels];
+		this.levelPagesY = new int[levels];
+		this.pageTable = new int[levels][];
+		for (int l = 0; l < levels; l++)
+		{
+			levelWidth[l] = resource.getLevelWidth(l);
+			levelHeight[l] = resource.getLevelHeight(l);
+			levelPagesX[l] = resource.getPagesX(l);
+			levelPagesY[l] = resource.getPagesY(l);
+			pageTable[l] = new int[levelPagesX[l] * levelPagesY[l]];
+			Arrays.fill(pageTable[l], -1);
+		}
+
+		this.slotTexture = new OGLTexture2D[cachePages];
+		this.slotPage = new long[cachePages];
+		this.slotFrame = new long[cachePages];
+		Arrays.fill(slotPage, -1L);
+		this.residentPages = 0;
+
+		this.frame = 0L;
+		this.pendingPages = new ConcurrentHashMap<Long, PageJob>();
+		this.failedPages = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+		this.decodedPages = new ConcurrentLinkedQueue<PageJob>();
+		// jobs are run highest priority first.
+		this.decodeExecutor = new ThreadPoolExecutor(decodeThreads, decodeThreads, 0L, TimeUnit.MILLISECONDS,
+			new PriorityBlockingQueue<Runnable>(), new DecoderThreadFactory());
+		this.uploadLimit = DEFAULT_UPLOAD_LIMIT;
+		this.minFilter = MinFilter.LINEAR;
+		this.magFilter = MagFilter.LINEAR;
+
+		this.level = levels - 1;
+		this.regionVisible = false;
+		this.quad = new PolygonMesh(GeometryType.QUADS, 4, 1);
+	}
+
+	/**
+	 * Gets the paged image.
+	 */
+	public OGLVirtualTextureResource getResource()
+	{
+		return resource;
+	}
+
+	/**
+	 * Gets the number of pages in the page cache.
+	 */
+	public int getCachePages()
+	{
+		return slotTexture.length;
+	}
+
+	/**
+	 * Gets the maximum number of pages uploaded per frame.
+	 */
+	public int getUploadLimit()
+	{
+		return uploadLimit;
+	}
+
+	/**
+	 * Sets the maximum number of pages uploaded per frame.
+	 * Default is {@link #DEFAULT_UPLOAD_LIMIT}.
+	 * @throws IllegalArgumentException if limit is less than 1.
+	 */
+	public void setUploadLimit(int limit)
+	{
+		if (limit < 1)
+			throw new IllegalArgumentException("Upload limit cannot be less than 1.");
+		this.uploadLimit = limit;
+	}
+
+	/**
+	 * Sets if the pages are NEAREST filtered instead of LINEAR.
+	 * This only affects pages uploaded after this is set.
+	 */
+	public void setForcedNearest(boolean nearest)
+	{
+		this.minFilter = nearest ? MinFilter.NEAREST : MinFilter.LINEAR;
+		this.magFilter = nearest ? MagFilter.NEAREST : MagFilter.LINEAR;
+	}
+
+	/**
+	 * Gets the mip level picked in the last update. 0 is full size.
+	 */
+	public int getLevel()
+	{
+		return level;
+	}
+
+	/**
+	 * Gets the number of pages in the page cache.
+	 */
+	public int getResidentPageCount()
+	{
+		return residentPages;
+	}
+
+	/**
+	 * Gets the number of pages queued, decoding, or waiting for upload.
+	 */
+	public int getPendingPageCount()
+	{
+		return pendingPages.size();
+	}
+
+	/**
+	 * Gets the estimated size in bytes of the page cache's textures.
+	 */
+	public long getEstimatedSize()
+	{
+		return (long)residentPages * pageSize * pageSize * 4;
+	}
+
+	/**
+	 * Updates the page cache for the visible region of the image.
+	 * Uploads pages that were decoded since the last update, picks the mip level, and requests the pages
+	 * that are missing. Must be called once per frame, before {@link #draw(OGLGraphics, float, float, float, float)}.
+	 * @param g the graphics context.
+	 * @param s0 the left edge of the visible region, 0 to 1 across the image.
+	 * @param t0 the top edge of the visible region, 0 to 1 down the image.
+	 * @param s1 the right edge of the visible region, 0 to 1 across the image.
+	 * @param t1 the bottom edge of the visible region, 0 to 1 down the image.
+	 * @param pixelWidth the width of the visible region on screen, in pixels.
+	 * @param pixelHeight the height of the visible region on screen, in pixels.
+	 */
+	public void update(OGLGraphics g, float s0, float t0, float s1, float t1, float pixelWidth, float pixelHeight)
+	{
+		frame++;
+		uploadDecodedPages(g);
+
+		int top = levelWidth.length - 1;
+		// the last level is always resident, for drawing what is not loaded yet.
+		touchOrRequest(top, 0, 0, Float.MAX_VALUE);
+
+		regionS0 = Math.max(s0, 0f);
+		regionT0 = Math.max(t0, 0f);
+		regionS1 = Math.min(s1, 1f);
+		regionT1 = Math.min(t1, 1f);
+		regionVisible = regionS1 > regionS0 && regionT1 > regionT0;
+		if (!regionVisible)
+			return;
+
+		// one texel per pixel, or as close as possible.
+		float texelsPerPixel = Math.max(
+			(regionS1 - regionS0) * levelWidth[0] / Math.max(pixelWidth, 1f),
+			(regionT1 - regionT0) * levelHeight[0] / Math.max(pixelHeight, 1f)
+		);
+		int l = texelsPerPixel > 1f ? (int)(Math.log(texelsPerPixel) / Math.log(2.0)) : 0;
+		l = Math.min(l, top);
+		// coarser if the visible pages do not fit beside the last level.
+		while (l < top && getVisiblePageCount(l) > slotTexture.length - 1)
+			l++;
+		level = l;
+
+		int px0 = getPageX0(l), px1 = getPageX1(l);
+		int py0 = getPageY0(l), py1 = getPageY1(l);
+		float centerX = (px0 + px1) / 2f;
+		float centerY = (py0 + py1) / 2f;
+		float radius = Math.max(px1 - px0, py1 - py0) + 1f;
+		for (int py = py0; py <= py1; py++)
+			for (int px = px0; px <= px1; px++)
+			{
+				float dx = px - centerX;
+				float dy = py - centerY;
+				// coarser levels first, then nearest to the center.
+				touchOrRequest(l, px, py, l - (float)Math.sqrt(dx * dx + dy * dy) / radius);
+			}
+	}
+
+	/**
+	 * Draws the visible region of the image given in the last update.
+	 * The corner at (s0, t0) is drawn at (x0, y0), and the corner at (s1, t1) at (x1, y1),
+	 * in the current modelview space. The quads are wound counter-clockwise in that space.
+	 * Texture unit 0 is left unbound.
+	 * @param g the graphics context.
+	 * @param x0 the x-coordinate of the (s0, t0) corner.
+	 * @param y0 the y-coordinate of the (s0, t0) corner.
+	 * @param x1 the x-coordinate of the (s1, t1) corner.
+	 * @param y1 the y-coordinate of the (s1, t1) corner.
+	 * @return the number of quads drawn.
+	 */
+	public int draw(OGLGraphics g, float x0, float y0, float x1, float y1)
+	{
+		if (!regionVisible)
+			return 0;
+
+		int l = level;
+		float tx0 = regionS0 * levelWidth[l];
+		float tx1 = regionS1 * levelWidth[l];
+		float ty0 = regionT0 * levelHeight[l];
+		float ty1 = regionT1 * levelHeight[l];
+		float scaleX = (x1 - x0) / (tx1 - tx0);
+		float scaleY = (y1 - y0) / (ty1 - ty0);
+		boolean reversed = (x1 - x0) * (y0 - y1) < 0f;
+
+		int out = 0;
+		g.setTextureUnit(0);
+		for (int py = getPageY0(l); py <= getPageY1(l); py++)
+			for (int px = getPageX0(l); px <= getPageX1(l); px++)
+			{
+				// the part of this page that is visible, in level texels.
+				float ax0 = Math.max(px * contentSize, tx0);
+				float ax1 = Math.min((px + 1) * contentSize, tx1);
+				float ay0 = Math.max(py * contentSize, ty0);
+				float ay1 = Math.min((py + 1) * contentSize, ty1);
+				if (ax1 <= ax0 || ay1 <= ay0)
+					continue;
+
+				// find the page, or the nearest coarser page that covers it.
+				int slot = -1;
+				int factor = 1;
+				int apx = px, apy = py;
+				for (int al = l; al < levelWidth.length; al++, factor *= 2)
+				{
+					apx = px / factor;
+					apy = py / factor;
+					slot = pageTable[al][apy * levelPagesX[al] + apx];
+					if (slot >= 0)
+						break;
+				}
+				if (slot < 0)
+					continue;
+				slotFrame[slot] = frame;
+
+				float s0 = (border + ax0 / factor - apx * contentSize) / pageSize;
+				float s1 = (border + ax1 / factor - apx * contentSize) / pageSize;
+				float t0 = (border + ay0 / factor - apy * contentSize) / pageSize;
+				float t1 = (border + ay1 / factor - apy * contentSize) / pageSize;
+				float vx0 = x0 + (ax0 - tx0) * scaleX;
+				float vx1 = x0 + (ax1 - tx0) * scaleX;
+				float vy0 = y0 + (ay0 - ty0) * scaleY;
+				float vy1 = y0 + (ay1 - ty0) * scaleY;
+
+				if (!reversed)
+				{
+					setQuadVertex(0, vx0, vy0, s0, t0);
+					setQuadVertex(1, vx0, vy1, s0, t1);
+					setQuadVertex(2, vx1, vy1, s1, t1);
+					setQuadVertex(3, vx1, vy0, s1, t0);
+				}
+				else
+				{
+					setQuadVertex(0, vx0, vy0, s0, t0);
+					setQuadVertex(1, vx1, vy0, s1, t0);
+					setQuadVertex(2, vx1, vy1, s1, t1);
+					setQuadVertex(3, vx0, vy1, s0, t1);
+				}
+
+				slotTexture[slot].bindTo(g);
+				quad.getView().drawUsing(g);
+				out++;
+			}
+
+		g.unbindTexture2D();
+		return out;
+	}
+
+	/**
+	 * Destroys the page cache's textures and stops the decoding threads.
+	 * This virtual texture cannot be used afterward.
+	 * @param g the graphics context.
+	 */
+	public void destroy(OGLGraphics g)
+	{
+		decodeExecutor.shutdownNow();
+		for (int i = 0; i < slotTexture.length; i++)
+		{
+			if (slotTexture[i] != null)
+				slotTexture[i].destroy(g);
+			slotTexture[i] = null;
+			slotPage[i] = -1L;
+		}
+		for (int[] table : pageTable)
+			Arrays.fill(table, -1);
+		residentPages = 0;
+		pendingPages.clear();
+		decodedPages.clear();
+		regionVisible = false;
+	}
+
+	/**
+	 * Marks a page as used this frame if it is resident, or requests it if it is not.
+	 */
+	private void touchOrRequest(int l, int px, int py, float priority)
+	{
+		int slot = pageTable[l][py * levelPagesX[l] + px];
+		if (slot >= 0)
+		{
+			slotFrame[slot] = frame;
+			return;
+		}
+
+		Long key = getPageKey(l, px, py);
+		PageJob job = pendingPages.get(key);
+		if (job != null)
+		{
+			job.frame = frame;
+			return;
+		}
+		if (failedPages.contains(key))
+			return;
+
+		job = new PageJob(key, l, px, py, priority, frame);
+		pendingPages.put(key, job);
+		decodeExecutor.execute(job);
+	}
+
+	/**
+	 * Uploads decoded pages that are still wanted, up to the upload limit.
+	 */
+	private void uploadDecodedPages(OGLGraphics g)
+	{
+		int uploaded = 0;
+		PageJob job;
+		while (uploaded < uploadLimit && (job = decodedPages.poll()) != null)
+		{
+			pendingPages.remove(job.key);
+			if (frame - job.frame > STALE_FRAMES)
+				continue;
+			int index = job.y * levelPagesX[job.level] + job.x;
+			if (pageTable[job.level][index] >= 0)
+				continue;
+			int slot = getFreeSlot();
+			if (slot < 0)
+				continue;
+
+			if (slotPage[slot] >= 0L)
+			{
+				long old = slotPage[slot];
+				pageTable[getKeyLevel(old)][getKeyY(old) * levelPagesX[getKeyLevel(old)] + getKeyX(old)] = -1;
+				residentPages--;
+			}
+			if (slotTexture[slot] == null || slotTexture[slot].getMinFilteringMode() != minFilter || slotTexture[slot].getMagFilteringMode() != magFilter)
+			{
+				if (slotTexture[slot] != null)
+					slotTexture[slot].destroy(g);
+				slotTexture[slot] = new OGLTexture2D(g, InternalFormat.RGBA, minFilter, magFilter, 0f, 0, false, WrapType.CLAMP, WrapType.CLAMP);
+			}
+			slotTexture[slot].sendData(g, job.image);
+			job.image = null;
+
+			slotPage[slot] = job.key;
+			slotFrame[slot] = frame;
+			pageTable[job.level][index] = slot;
+			residentPages++;
+			uploaded++;
+		}
+	}
+
+	/**
+	 * Gets an empty slot, or the least-recently-used slot that does not hold the last level
+	 * or a page drawn at the current level in the last frame.
+	 * @return the slot index, or -1 if none can be used.
+	 */
+	private int getFreeSlot()
+	{
+		int top = levelWidth.length - 1;
+		int out = -1;
+		long oldest = Long.MAX_VALUE;
+		for (int i = 0; i < slotPage.length; i++)
+		{
+			if (slotPage[i] < 0L)
+				return i;
+			int l = getKeyLevel(slotPage[i]);
+			if (l == top)
+				continue;
+			// coarser pages drawn in place of missing ones can go - what replaces them is on its way.
+			if (slotFrame[i] >= frame - 1 && l <= level)
+				continue;
+			if (slotFrame[i] < oldest)
+			{
+				oldest = slotFrame[i];
+				out = i;
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Counts the pages in the visible region at a level.
+	 */
+	private int getVisiblePageCount(int l)
+	{
+		return (getPageX1(l) - getPageX0(l) + 1) * (getPageY1(l) - getPageY0(l) + 1);
+	}
+
+	private int getPageX0(int l)
+	{
+		return Math.min((int)(regionS0 * levelWidth[l]) / contentSize, levelPagesX[l] - 1);
+	}
+
+	private int getPageX1(int l)
+	{
+		return Math.min(Math.max((int)Math.ceil(regionS1 * levelWidth[l]) - 1, 0) / contentSize, levelPagesX[l] - 1);
+	}
+
+	private int getPageY0(int l)
+	{
+		return Math.min((int)(regionT0 * levelHeight[l]) / contentSize, levelPagesY[l] - 1);
+	}
+
+	private int getPageY1(int l)
+	{
+		return Math.min(Math.max((int)Math.ceil(regionT1 * levelHeight[l]) - 1, 0) / contentSize, levelPagesY[l] - 1);
+	}
+
+	private void setQuadVertex(int index, float x, float y, float s, float t)
+	{
+		quad.setVertex(index, x, y, 0);
+		quad.setTextureCoordinate(index, s, t);
+	}
+
+	private static long getPageKey(int level, int x, int y)
+	{
+		return ((long)level << 48) | ((long)y << 24) | x;
+	}
+
+	private static int getKeyLevel(long key)
+	{
+		return (int)(key >>> 48);
+	}
+
+	private static int getKeyY(long key)
+	{
+		return (int)((key >>> 24) & 0x0ffffff);
+	}
+
+	private static int getKeyX(long key)
+	{
+		return (int)(key & 0x0ffffff);
+	}
+
+	/**
+	 * A page to decode.
+	 */
+	private class PageJob implements Runnable, Comparable<PageJob>
+	{
+		final long key;
+		final int level;
+		final int x;
+		final int y;
+		final float priority;
+		/** Last frame this page was requested on. */
+		volatile long frame;
+		/** Decoded image. */
+		BufferedImage image;
+
+		PageJob(long key, int level, int x, int y, float priority, long frame)
+		{
+			this.key = key;
+			this.level = level;
+			this.x = x;
+			this.y = y;
+			this.priority = priority;
+			this.frame = frame;
+		}
+
+		@Override
+		public void run()
+		{
+			// the view moved on before this came up.
+			if (OGLVirtualTexture.this.frame - frame > STALE_FRAMES)
+			{
+				pendingPages.remove(key);
+				return;
+			}
+			try {
+				image = resource.readPage(level, x, y);
+				decodedPages.add(this);
+			} catch (IOException e) {
+				failedPages.add(key);
+				pendingPages.remove(key);
+			}
+		}
+
+		@Override
+		public int compareTo(PageJob o)
+		{
+			return Float.compare(o.priority, priority);
+		}
+	}
+
+	/**
+	 * Thread factory for the decoding pool threads.
+	 */
+	private static class DecoderThreadFactory implements ThreadFactory
+	{
+		private static final AtomicInteger POOL_ID = new AtomicInteger(0);
+
+		private int poolId;
+		private AtomicInteger threadId;
+
+		DecoderThreadFactory()
+		{
+			poolId = POOL_ID.incrementAndGet();
+			threadId = new AtomicInteger(0);
+		}
+
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread out = new Thread(r, "OGLVirtualTexture-Decoder-" + poolId + "-" + threadId.incrementAndGet());
+			out.setDaemon(true);
+			return out;
+		}
+
+	}
+
+}
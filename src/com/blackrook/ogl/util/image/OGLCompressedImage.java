@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Block-compressed image data, ready for a compressed texture upload.
+ * @author Matthew Tropiano
+ */
+public class OGLCompressedImage
+{
+	/**
+	 * Block compression formats.
+	 */
+	public static enum Format
+	{
+		/** BC1/DXT1: 4x4 RGB blocks, 8 bytes each. */
+		DXT1(8),
+		/** BC3/DXT5: 4x4 RGBA blocks, 16 bytes each (alpha block, then color block). */
+		DXT5(16);
+		
+		private final int blockSize;
+		private Format(int blockSize)
+		{
+			this.blockSize = blockSize;
+		}
+		
+		/** Returns the size of a single 4x4 block in bytes. */
+		public int getBlockSize()
+		{
+			return blockSize;
+		}
+		
+		/** Returns the size in bytes of an image of a particular size in this format. */
+		public int getDataSize(int width, int height)
+		{
+			return ((width + 3) / 4) * ((height + 3) / 4) * blockSize;
+		}
+	}
+	
+	/** Compression format. */
+	private Format format;
+	/** Width in pixels. */
+	private int width;
+	/** Height in pixels. */
+	private int height;
+	/** Block data. */
+	private ByteBuffer data;
+	
+	/**
+	 * Creates a new compressed image.
+	 * @param format the compression format.
+	 * @param width the width in pixels.
+	 * @param height the height in pixels.
+	 * @param data the block data, in block row order, starting at the top-left.
+	 * @throws IllegalArgumentException if the data is not the correct size.
+	 */
+	public OGLCompressedImage(Format format, int width, int height, ByteBuffer data)
+	{
+		if (data.remaining() != format.getDataSize(width, height))
+			throw new IllegalArgumentException("Data size does not match format and dimensions.");
+		this.format = format;
+		this.width = width;
+		this.height = height;
+		this.data = data;
+	}
+
+	/** Returns the compression format. */
+	public Format getFormat()
+	{
+		return format;
+	}
+
+	/** Returns the width in pixels. */
+	public int getWidth()
+	{
+		return width;
+	}
+
+	/** Returns the height in pixels. */
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * Returns the block data. 
+	 * Callers should use a duplicate of it if they change its position. 
+	 */
+	public ByteBuffer getData()
+	{
+		return data;
+	}
+	
+}
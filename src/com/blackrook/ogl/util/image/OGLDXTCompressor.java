@@ -0,0 +1,445 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.image;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.blackrook.ogl.util.image.OGLCompressedImage.Format;
+
+/**
+ * A CPU-side BC1/BC3 (DXT1/DXT5) block compressor.
+ * <p>
+ * Colors are fit along the principal axis of each block's color
+ * distribution, and the endpoints are then refined with a least-squares
+ * pass over the chosen indices. Alpha (DXT5 only) uses the 8-value
+ * interpolated mode between the block's minimum and maximum alpha.
+ * <p>
+ * Rows of blocks are compressed in parallel on a fork-join pool.
+ * This class is thread-safe.
+ * @author Matthew Tropiano
+ */
+public class OGLDXTCompressor
+{
+	/** Rows of blocks compressed by a single task before splitting. */
+	private static final int BLOCK_ROWS_PER_TASK = 4;
+	/** Number of power iterations for finding a block's principal axis. */
+	private static final int POWER_ITERATIONS = 4;
+	/** Number of least-squares refinement passes. */
+	private static final int REFINE_PASSES = 2;
+
+	/** The pool to compress on. */
+	private ForkJoinPool pool;
+
+	/**
+	 * Creates a new compressor that uses its own pool with
+	 * as many threads as there are available processors.
+	 */
+	public OGLDXTCompressor()
+	{
+		this(new ForkJoinPool());
+	}
+
+	/**
+	 * Creates a new compressor that uses an existing pool.
+	 * @param pool the pool to use.
+	 */
+	public OGLDXTCompressor(ForkJoinPool pool)
+	{
+		this.pool = pool;
+	}
+
+	/**
+	 * Compresses an image.
+	 * @param image the source image.
+	 * @param format the output format. DXT1 ignores alpha.
+	 * @return the compressed image.
+	 */
+	public OGLCompressedImage compress(BufferedImage image, Format format)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		return compress(image.getRGB(0, 0, width, height, null, 0, width), width, height, format);
+	}
+
+	/**
+	 * Compresses a set of pixels.
+	 * @param argb the source pixels, in 32-bit ARGB, row-major order.
+	 * @param width the width of the source in pixels.
+	 * @param height the height of the source in pixels.
+	 * @param format the output format. DXT1 ignores alpha.
+	 * @return the compressed image.
+	 * @throws IllegalArgumentException if the pixel array is smaller than width * height.
+	 */
+	public OGLCompressedImage compress(int[] argb, int width, int height, Format format)
+	{
+		if (argb.length < width * height)
+			throw new IllegalArgumentException("Pixel array is smaller than the dimensions provided.");
+
+		byte[] out = new byte[format.getDataSize(width, height)];
+		if (out.length > 0)
+			pool.invoke(new CompressTask(argb, width, height, format, out, 0, (height + 3) / 4));
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(out.length);
+		buffer.put(out);
+		buffer.flip();
+		return new OGLCompressedImage(format, width, height, buffer);
+	}
+
+	/**
+	 * Compresses a range of block rows.
+	 */
+	private static void compressRows(int[] argb, int width, int height, Format format, byte[] out, int startRow, int endRow)
+	{
+		int blocksX = (width + 3) / 4;
+		int[] block = new int[16];
+		int[] indices = new int[16];
+		int[] scratch = new int[16];
+		for (int by = startRow; by < endRow; by++)
+			for (int bx = 0; bx < blocksX; bx++)
+			{
+				// edge blocks repeat the last row/column.
+				for (int py = 0; py < 4; py++)
+				{
+					int y = Math.min(by * 4 + py, height - 1);
+					for (int px = 0; px < 4; px++)
+					{
+						int x = Math.min(bx * 4 + px, width - 1);
+						block[py * 4 + px] = argb[y * width + x];
+					}
+				}
+
+				int offset = (by * blocksX + bx) * format.getBlockSize();
+				if (format == Format.DXT5)
+				{
+					encodeAlphaBlock(block, out, offset);
+					offset += 8;
+				}
+				encodeColorBlock(block, indices, scratch, out, offset);
+			}
+	}
+
+	/**
+	 * Encodes the color part of a block (8 bytes).
+	 */
+	private static void encodeColorBlock(int[] block, int[] indices, int[] scratch, byte[] out, int offset)
+	{
+		// mean and bounds
+		float mr = 0f, mg = 0f, mb = 0f;
+		int minr = 255, ming = 255, minb = 255, maxr = 0, maxg = 0, maxb = 0;
+		for (int i = 0; i < 16; i++)
+		{
+			int r = (block[i] >> 16) & 0x0ff, g = (block[i] >> 8) & 0x0ff, b = block[i] & 0x0ff;
+			mr += r; mg += g; mb += b;
+			minr = Math.min(minr, r); ming = Math.min(ming, g); minb = Math.min(minb, b);
+			maxr = Math.max(maxr, r); maxg = Math.max(maxg, g); maxb = Math.max(maxb, b);
+		}
+		mr /= 16f; mg /= 16f; mb /= 16f;
+
+		int c0, c1;
+		if (minr == maxr && ming == maxg && minb == maxb)
+		{
+			c0 = c1 = to565(minr, ming, minb);
+		}
+		else
+		{
+			// covariance
+			float crr = 0f, crg = 0f, crb = 0f, cgg = 0f, cgb = 0f, cbb = 0f;
+			for (int i = 0; i < 16; i++)
+			{
+				float r = ((block[i] >> 16) & 0x0ff) - mr;
+				float g = ((block[i] >> 8) & 0x0ff) - mg;
+				float b = (block[i] & 0x0ff) - mb;
+				crr += r * r; crg += r * g; crb += r * b;
+				cgg += g * g; cgb += g * b; cbb += b * b;
+			}
+
+			// principal axis by power iteration, starting from the covariance column with the largest norm.
+			// (the bounding box diagonal is a poor start: it is orthogonal to the axis when channels are anti-correlated.)
+			float vr = crr, vg = crg, vb = crb;
+			float nrr = crr * crr + crg * crg + crb * crb;
+			float ngg = crg * crg + cgg * cgg + cgb * cgb;
+			float nbb = crb * crb + cgb * cgb + cbb * cbb;
+			if (ngg > nrr && ngg >= nbb)
+			{
+				vr = crg; vg = cgg; vb = cgb;
+			}
+			else if (nbb > nrr && nbb > ngg)
+			{
+				vr = crb; vg = cgb; vb = cbb;
+			}
+			for (int n = 0; n < POWER_ITERATIONS; n++)
+			{
+				float nr = crr * vr + crg * vg + crb * vb;
+				float ng = crg * vr + cgg * vg + cgb * vb;
+				float nb = crb * vr + cgb * vg + cbb * vb;
+				float m = Math.max(Math.abs(nr), Math.max(Math.abs(ng), Math.abs(nb)));
+				if (m < 1e-6f)
+					break;
+				vr = nr / m; vg = ng / m; vb = nb / m;
+			}
+
+			// extremes along the axis
+			float mind = Float.MAX_VALUE, maxd = -Float.MAX_VALUE;
+			int minp = block[0], maxp = block[0];
+			for (int i = 0; i < 16; i++)
+			{
+				float d = ((block[i] >> 16) & 0x0ff) * vr + ((block[i] >> 8) & 0x0ff) * vg + (block[i] & 0x0ff) * vb;
+				if (d < mind)
+				{
+					mind = d;
+					minp = block[i];
+				}
+				if (d > maxd)
+				{
+					maxd = d;
+					maxp = block[i];
+				}
+			}
+
+			// inset the endpoints slightly to reduce error at the extremes.
+			int ar = (maxp >> 16) & 0x0ff, ag = (maxp >> 8) & 0x0ff, ab = maxp & 0x0ff;
+			int br = (minp >> 16) & 0x0ff, bg = (minp >> 8) & 0x0ff, bb = minp & 0x0ff;
+			int ir = (ar - br) >> 4, ig = (ag - bg) >> 4, ib = (ab - bb) >> 4;
+			c0 = to565(clamp(ar - ir), clamp(ag - ig), clamp(ab - ib));
+			c1 = to565(clamp(br + ir), clamp(bg + ig), clamp(bb + ib));
+
+			int error = matchColors(block, c0, c1, indices);
+			for (int n = 0; n < REFINE_PASSES && error > 0; n++)
+			{
+				int[] refined = refineEndpoints(block, indices);
+				if (refined == null)
+					break;
+				int e = matchColors(block, refined[0], refined[1], scratch);
+				if (e >= error)
+					break;
+				error = e;
+				c0 = refined[0];
+				c1 = refined[1];
+				System.arraycopy(scratch, 0, indices, 0, 16);
+			}
+		}
+
+		// four-color mode requires c0 > c1.
+		if (c0 == c1)
+		{
+			for (int i = 0; i < 16; i++)
+				indices[i] = 0;
+		}
+		else if (c0 < c1)
+		{
+			int t = c0; c0 = c1; c1 = t;
+			for (int i = 0; i < 16; i++)
+				indices[i] ^= 1;
+		}
+
+		int bits = 0;
+		for (int i = 0; i < 16; i++)
+			bits |= indices[i] << (i * 2);
+
+		out[offset] = (byte)(c0 & 0x0ff);
+		out[offset + 1] = (byte)((c0 >> 8) & 0x0ff);
+		out[offset + 2] = (byte)(c1 & 0x0ff);
+		out[offset + 3] = (byte)((c1 >> 8) & 0x0ff);
+		out[offset + 4] = (byte)(bits & 0x0ff);
+		out[offset + 5] = (byte)((bits >> 8) & 0x0ff);
+		out[offset + 6] = (byte)((bits >> 16) & 0x0ff);
+		out[offset + 7] = (byte)((bits >> 24) & 0x0ff);
+	}
+
+	/**
+	 * Finds the closest four-color palette index for each pixel.
+	 * @return the total squared error.
+	 */
+	private static int matchColors(int[] block, int c0, int c1, int[] indices)
+	{
+		int r0 = expand5(c0 >> 11), g0 = expand6(c0 >> 5), b0 = expand5(c0);
+		int r1 = expand5(c1 >> 11), g1 = expand6(c1 >> 5), b1 = expand5(c1);
+		int[] pr = {r0, r1, (2 * r0 + r1) / 3, (r0 + 2 * r1) / 3};
+		int[] pg = {g0, g1, (2 * g0 + g1) / 3, (g0 + 2 * g1) / 3};
+		int[] pb = {b0, b1, (2 * b0 + b1) / 3, (b0 + 2 * b1) / 3};
+
+		int total = 0;
+		for (int i = 0; i < 16; i++)
+		{
+			int r = (block[i] >> 16) & 0x0ff, g = (block[i] >> 8) & 0x0ff, b = block[i] & 0x0ff;
+			int best = 0;
+			int bestError = Integer.MAX_VALUE;
+			for (int p = 0; p < 4; p++)
+			{
+				int dr = r - pr[p], dg = g - pg[p], db = b - pb[p];
+				int e = dr * dr + dg * dg + db * db;
+				if (e < bestError)
+				{
+					bestError = e;
+					best = p;
+				}
+			}
+			indices[i] = best;
+			total += bestError;
+		}
+		return total;
+	}
+
+	/**
+	 * Solves for the endpoints that best fit the current indices by least squares.
+	 * @return the new 565 endpoints, or null if the system is degenerate.
+	 */
+	private static int[] refineEndpoints(int[] block, int[] indices)
+	{
+		float aa = 0f, bb = 0f, ab = 0f;
+		float axr = 0f, axg = 0f, axb = 0f, bxr = 0f, bxg = 0f, bxb = 0f;
+		for (int i = 0; i < 16; i++)
+		{
+			float a;
+			switch (indices[i])
+			{
+				case 0: a = 1f; break;
+				case 1: a = 0f; break;
+				case 2: a = 2f / 3f; break;
+				default: a = 1f / 3f; break;
+			}
+			float b = 1f - a;
+			int r = (block[i] >> 16) & 0x0ff, g = (block[i] >> 8) & 0x0ff, bl = block[i] & 0x0ff;
+			aa += a * a; bb += b * b; ab += a * b;
+			axr += a * r; axg += a * g; axb += a * bl;
+			bxr += b * r; bxg += b * g; bxb += b * bl;
+		}
+
+		float det = aa * bb - ab * ab;
+		if (Math.abs(det) < 1e-6f)
+			return null;
+		float inv = 1f / det;
+
+		int r0 = clamp(Math.round((axr * bb - bxr * ab) * inv));
+		int g0 = clamp(Math.round((axg * bb - bxg * ab) * inv));
+		int b0 = clamp(Math.round((axb * bb - bxb * ab) * inv));
+		int r1 = clamp(Math.round((bxr * aa - axr * ab) * inv));
+		int g1 = clamp(Math.round((bxg * aa - axg * ab) * inv));
+		int b1 = clamp(Math.round((bxb * aa - axb * ab) * inv));
+		return new int[]{to565(r0, g0, b0), to565(r1, g1, b1)};
+	}
+
+	/**
+	 * Encodes the alpha part of a DXT5 block (8 bytes).
+	 */
+	private static void encodeAlphaBlock(int[] block, byte[] out, int offset)
+	{
+		int min = 255, max = 0;
+		for (int i = 0; i < 16; i++)
+		{
+			int a = (block[i] >>> 24) & 0x0ff;
+			min = Math.min(min, a);
+			max = Math.max(max, a);
+		}
+
+		long bits = 0L;
+		if (max != min)
+		{
+			// eight-value mode requires a0 > a1.
+			int[] palette = new int[8];
+			palette[0] = max;
+			palette[1] = min;
+			for (int p = 2; p < 8; p++)
+				palette[p] = ((8 - p) * max + (p - 1) * min + 3) / 7;
+
+			for (int i = 0; i < 16; i++)
+			{
+				int a = (block[i] >>> 24) & 0x0ff;
+				int best = 0;
+				int bestError = Integer.MAX_VALUE;
+				for (int p = 0; p < 8; p++)
+				{
+					int e = Math.abs(a - palette[p]);
+					if (e < bestError)
+					{
+						bestError = e;
+						best = p;
+					}
+				}
+				bits |= ((long)best) << (i * 3);
+			}
+		}
+
+		out[offset] = (byte)max;
+		out[offset + 1] = (byte)min;
+		for (int i = 0; i < 6; i++)
+			out[offset + 2 + i] = (byte)((bits >> (i * 8)) & 0x0ffL);
+	}
+
+	/** Packs 8-bit color components into 565. */
+	private static int to565(int r, int g, int b)
+	{
+		return (((r * 31 + 127) / 255) << 11) | (((g * 63 + 127) / 255) << 5) | ((b * 31 + 127) / 255);
+	}
+
+	/** Expands a 5-bit component to 8 bits. */
+	private static int expand5(int c)
+	{
+		c &= 0x1f;
+		return (c << 3) | (c >> 2);
+	}
+
+	/** Expands a 6-bit component to 8 bits. */
+	private static int expand6(int c)
+	{
+		c &= 0x3f;
+		return (c << 2) | (c >> 4);
+	}
+
+	/** Clamps a component to [0, 255]. */
+	private static int clamp(int c)
+	{
+		return c < 0 ? 0 : (c > 255 ? 255 : c);
+	}
+
+	/**
+	 * Compresses a range of block rows, splitting it if it is too large.
+	 */
+	private static class CompressTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 7311204520460164529L;
+
+		private int[] argb;
+		private int width;
+		private int height;
+		private Format format;
+		private byte[] out;
+		private int startRow;
+		private int endRow;
+
+		CompressTask(int[] argb, int width, int height, Format format, byte[] out, int startRow, int endRow)
+		{
+			this.argb = argb;
+			this.width = width;
+			this.height = height;
+			this.format = format;
+			this.out = out;
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (endRow - startRow <= BLOCK_ROWS_PER_TASK)
+				compressRows(argb, width, height, format, out, startRow, endRow);
+			else
+			{
+				int mid = (startRow + endRow) >>> 1;
+				invokeAll(
+					new CompressTask(argb, width, height, format, out, startRow, mid),
+					new CompressTask(argb, width, height, format, out, mid, endRow)
+				);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.image;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct byte buffers for image data, so that decoding
+ * textures does not allocate a new direct buffer for every image.
+ * <p>
+ * Buffers are pooled by capacity, rounded up to a power of two, and 
+ * the pool only keeps buffers up to a total capacity. 
+ * This is safe to use from several threads at once.
+ * @author Matthew Tropiano
+ */
+public class OGLImageBufferPool
+{
+	/** Default maximum total capacity of the pooled buffers, in bytes. */
+	public static final long DEFAULT_MAX_POOLED_BYTES = 32L * 1024L * 1024L;
+	/** Largest capacity that is rounded up to a power of two. */
+	private static final int MAX_POOLED_CAPACITY = 1 << 30;
+	
+	/** Pooled buffers by capacity. */
+	private ConcurrentHashMap<Integer, ConcurrentLinkedQueue<ByteBuffer>> buffers;
+	/** Total capacity of pooled buffers. */
+	private AtomicLong pooledBytes;
+	/** Maximum total capacity of pooled buffers. */
+	private volatile long maxPooledBytes;
+	
+	/**
+	 * Creates a new pool with the default maximum capacity.
+	 */
+	public OGLImageBufferPool()
+	{
+		this(DEFAULT_MAX_POOLED_BYTES);
+	}
+	
+	/**
+	 * Creates a new pool.
+	 * @param maxPooledBytes the maximum total capacity of pooled buffers, in bytes.
+	 */
+	public OGLImageBufferPool(long maxPooledBytes)
+	{
+		this.buffers = new ConcurrentHashMap<Integer, ConcurrentLinkedQueue<ByteBuffer>>();
+		this.pooledBytes = new AtomicLong(0L);
+		this.maxPooledBytes = maxPooledBytes;
+	}
+	
+	/**
+	 * Gets a buffer from the pool, or allocates a new one if none fit.
+	 * @param size the amount of bytes needed.
+	 * @return a direct buffer in native order, positioned at 0, with its limit at the size.
+	 */
+	public ByteBuffer acquire(int size)
+	{
+		int capacity = getCapacity(size);
+		ByteBuffer out = null;
+		ConcurrentLinkedQueue<ByteBuffer> queue = buffers.get(capacity);
+		if (queue != null && (out = queue.poll()) != null)
+			pooledBytes.addAndGet(-capacity);
+		else
+			out = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+		out.clear();
+		out.limit(size);
+		return out;
+	}
+	
+	/**
+	 * Gives a buffer back to the pool. Buffers that were not 
+	 * acquired from a pool, or that do not fit, are dropped.
+	 * The buffer must not be used after this.
+	 * @param buffer the buffer.
+	 */
+	public void release(ByteBuffer buffer)
+	{
+		int capacity = buffer.capacity();
+		if (!buffer.isDirect() || capacity != getCapacity(capacity))
+			return;
+		if (pooledBytes.addAndGet(capacity) > maxPooledBytes)
+		{
+			pooledBytes.addAndGet(-capacity);
+			return;
+		}
+		
+		ConcurrentLinkedQueue<ByteBuffer> queue = buffers.get(capacity);
+		if (queue == null)
+		{
+			ConcurrentLinkedQueue<ByteBuffer> q = new ConcurrentLinkedQueue<ByteBuffer>();
+			if ((queue = buffers.putIfAbsent(capacity, q)) == null)
+				queue = q;
+		}
+		queue.add(buffer);
+	}
+	
+	/**
+	 * Gets the total capacity of the buffers in the pool, in bytes.
+	 */
+	public long getPooledBytes()
+	{
+		return pooledBytes.get();
+	}
+	
+	/**
+	 * Gets the maximum total capacity of pooled buffers, in bytes.
+	 */
+	public long getMaxPooledBytes()
+	{
+		return maxPooledBytes;
+	}
+	
+	/**
+	 * Sets the maximum total capacity of pooled buffers, in bytes.
+	 * Buffers already pooled are not dropped until {@link #clear()} is called.
+	 */
+	public void setMaxPooledBytes(long maxPooledBytes)
+	{
+		this.maxPooledBytes = maxPooledBytes;
+	}
+	
+	/**
+	 * Drops all pooled buffers.
+	 */
+	public void clear()
+	{
+		for (ConcurrentLinkedQueue<ByteBuffer> queue : buffers.values())
+		{
+			ByteBuffer buffer;
+			while ((buffer = queue.poll()) != null)
+				pooledBytes.addAndGet(-buffer.capacity());
+		}
+	}
+	
+	/**
+	 * Returns the capacity of the pooled buffer used for a size: the
+	 * next power of two, or the size itself if it is too big to round up.
+	 */
+	private static int getCapacity(int size)
+	{
+		if (size <= 1)
+			return 1;
+		if (size > MAX_POOLED_CAPACITY)
+			return size;
+		return Integer.highestOneBit(size - 1) << 1;
+	}
+	
+}
@@ -0,0 +1,407 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An image resizer that works directly on ARGB integer data.
+ * <p>
+ * Filtered resizes are separable: rows are filtered horizontally into
+ * an intermediate buffer, and then columns are filtered vertically into the
+ * output. Filter taps are computed once per axis, and both passes are split into
+ * bands of rows that are filtered in parallel on a fork-join pool.
+ * Colors are filtered with premultiplied alpha.
+ * <p>
+ * This class is thread-safe.
+ * @author Matthew Tropiano
+ */
+public class OGLImageResizer
+{
+	/** Rows filtered by a single task before splitting. */
+	private static final int ROWS_PER_TASK = 32;
+
+	/**
+	 * Resize filters.
+	 */
+	public static enum Filter
+	{
+		/** Nearest-neighbor sampling. */
+		NEAREST,
+		/** Bilinear sampling. Aliases when shrinking by more than half. */
+		BILINEAR,
+		/**
+		 * Linear (tent) filter that widens with the shrink amount,
+		 * so that every source pixel contributes when shrinking.
+		 * Same as BILINEAR when enlarging.
+		 */
+		TRILINEAR;
+	}
+
+	/** The pool to filter on. */
+	private ForkJoinPool pool;
+
+	/**
+	 * Creates a new resizer that uses its own pool with
+	 * as many threads as there are available processors.
+	 */
+	public OGLImageResizer()
+	{
+		this(new ForkJoinPool());
+	}
+
+	/**
+	 * Creates a new resizer.
+	 * @param pool the pool to use.
+	 */
+	public OGLImageResizer(ForkJoinPool pool)
+	{
+		this.pool = pool;
+	}
+
+	/**
+	 * Resizes an image.
+	 * @param image the source image.
+	 * @param width the new width.
+	 * @param height the new height.
+	 * @param filter the filter to use.
+	 * @return a new image of type {@link BufferedImage#TYPE_INT_ARGB}.
+	 * @throws IllegalArgumentException if the new width or height is not positive.
+	 */
+	public BufferedImage resize(BufferedImage image, int width, int height, Filter filter)
+	{
+		int sw = image.getWidth();
+		int sh = image.getHeight();
+		BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		int[] dest = ((DataBufferInt)out.getRaster().getDataBuffer()).getData();
+		resize(getPixels(image), sw, sh, dest, width, height, filter);
+		return out;
+	}
+
+	/**
+	 * Resizes ARGB pixel data.
+	 * @param source the source pixels, row-major, sw * sh in length.
+	 * @param sw the source width.
+	 * @param sh the source height.
+	 * @param dest the destination pixels, row-major, dw * dh in length. If null, a new array is created.
+	 * @param dw the new width.
+	 * @param dh the new height.
+	 * @param filter the filter to use.
+	 * @return the destination pixels.
+	 * @throws IllegalArgumentException if a size is not positive or an array is too small.
+	 */
+	public int[] resize(int[] source, int sw, int sh, int[] dest, int dw, int dh, Filter filter)
+	{
+		if (sw <= 0 || sh <= 0 || dw <= 0 || dh <= 0)
+			throw new IllegalArgumentException("Image sizes must be greater than 0.");
+		if (source.length < sw * sh)
+			throw new IllegalArgumentException("Source array is too small.");
+		if (dest == null)
+			dest = new int[dw * dh];
+		else if (dest.length < dw * dh)
+			throw new IllegalArgumentException("Destination array is too small.");
+
+		if (filter == Filter.NEAREST)
+		{
+			pool.invoke(new NearestTask(source, sw, sh, dest, dw, dh, 0, dh));
+			return dest;
+		}
+
+		Taps horizontal = new Taps(sw, dw, filter);
+		Taps vertical = new Taps(sh, dh, filter);
+		float[] temp = new float[dw * sh * 4];
+		pool.invoke(new HorizontalTask(source, sw, temp, dw, horizontal, 0, sh));
+		pool.invoke(new VerticalTask(temp, dest, dw, vertical, 0, dh));
+		return dest;
+	}
+
+	/**
+	 * Returns an image's pixels as ARGB integers, without copying if the image's
+	 * data is already stored that way.
+	 */
+	private static int[] getPixels(BufferedImage image)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if (image.getType() == BufferedImage.TYPE_INT_ARGB
+			&& image.getRaster().getParent() == null
+			&& image.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel
+			&& ((SinglePixelPackedSampleModel)image.getRaster().getSampleModel()).getScanlineStride() == width)
+		{
+			DataBufferInt buffer = (DataBufferInt)image.getRaster().getDataBuffer();
+			if (buffer.getOffset() == 0)
+				return buffer.getData();
+		}
+		return image.getRGB(0, 0, width, height, null, 0, width);
+	}
+
+	/**
+	 * Filter taps for resizing along one axis.
+	 * Taps for a destination pixel are stored in a fixed-size slot.
+	 */
+	private static class Taps
+	{
+		/** Taps per destination pixel. */
+		int stride;
+		/** First tap (source index) for each destination pixel. */
+		int[] start;
+		/** Amount of taps for each destination pixel. */
+		int[] count;
+		/** Normalized weights, stride per destination pixel. */
+		float[] weights;
+
+		Taps(int sourceLength, int destLength, Filter filter)
+		{
+			double scale = (double)sourceLength / destLength;
+			double radius = filter == Filter.TRILINEAR ? Math.max(1.0, scale) : 1.0;
+
+			stride = (int)Math.ceil(radius * 2.0) + 1;
+			start = new int[destLength];
+			count = new int[destLength];
+			weights = new float[destLength * stride];
+
+			for (int i = 0; i < destLength; i++)
+			{
+				double center = (i + 0.5) * scale - 0.5;
+				int first = (int)Math.ceil(center - radius);
+				int last = (int)Math.floor(center + radius);
+
+				// clamp the range at the edges, folding the weights of outside taps into the edge pixels.
+				int lo = Math.max(first, 0);
+				int hi = Math.min(last, sourceLength - 1);
+				if (hi < lo)
+					lo = hi = Math.min(Math.max((int)Math.round(center), 0), sourceLength - 1);
+
+				start[i] = lo;
+				count[i] = hi - lo + 1;
+				int slot = i * stride;
+				double sum = 0.0;
+				for (int j = first; j <= last; j++)
+				{
+					double w = 1.0 - Math.abs(j - center) / radius;
+					if (w <= 0.0)
+						continue;
+					int k = Math.min(Math.max(j, lo), hi) - lo;
+					weights[slot + k] += (float)w;
+					sum += w;
+				}
+				if (sum <= 0.0)
+					weights[slot] = 1f;
+				else for (int k = 0; k < count[i]; k++)
+					weights[slot + k] /= sum;
+			}
+		}
+	}
+
+	/**
+	 * Base task for filtering a band of rows, splitting it if it is too large.
+	 */
+	private abstract static class BandTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 2594212049858924713L;
+
+		int startRow;
+		int endRow;
+
+		BandTask(int startRow, int endRow)
+		{
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (endRow - startRow <= ROWS_PER_TASK)
+				filterRows(startRow, endRow);
+			else
+			{
+				int mid = (startRow + endRow) >>> 1;
+				invokeAll(split(startRow, mid), split(mid, endRow));
+			}
+		}
+
+		/** Filters a range of rows. */
+		abstract void filterRows(int start, int end);
+
+		/** Creates a task for a range of rows. */
+		abstract BandTask split(int start, int end);
+	}
+
+	/**
+	 * Nearest-neighbor sampling.
+	 */
+	private static class NearestTask extends BandTask
+	{
+		private static final long serialVersionUID = -4925431708264719025L;
+
+		private int[] source;
+		private int sw;
+		private int sh;
+		private int[] dest;
+		private int dw;
+		private int dh;
+
+		NearestTask(int[] source, int sw, int sh, int[] dest, int dw, int dh, int startRow, int endRow)
+		{
+			super(startRow, endRow);
+			this.source = source;
+			this.sw = sw;
+			this.sh = sh;
+			this.dest = dest;
+			this.dw = dw;
+			this.dh = dh;
+		}
+
+		@Override
+		void filterRows(int start, int end)
+		{
+			for (int y = start; y < end; y++)
+			{
+				int sy = (int)((y + 0.5) * sh / dh);
+				int srow = Math.min(sy, sh - 1) * sw;
+				int drow = y * dw;
+				for (int x = 0; x < dw; x++)
+					dest[drow + x] = source[srow + Math.min((int)((x + 0.5) * sw / dw), sw - 1)];
+			}
+		}
+
+		@Override
+		BandTask split(int start, int end)
+		{
+			return new NearestTask(source, sw, sh, dest, dw, dh, start, end);
+		}
+	}
+
+	/**
+	 * Filters source rows horizontally into premultiplied floats.
+	 */
+	private static class HorizontalTask extends BandTask
+	{
+		private static final long serialVersionUID = 6001887372514036052L;
+
+		private int[] source;
+		private int sw;
+		private float[] temp;
+		private int dw;
+		private Taps taps;
+
+		HorizontalTask(int[] source, int sw, float[] temp, int dw, Taps taps, int startRow, int endRow)
+		{
+			super(startRow, endRow);
+			this.source = source;
+			this.sw = sw;
+			this.temp = temp;
+			this.dw = dw;
+			this.taps = taps;
+		}
+
+		@Override
+		void filterRows(int start, int end)
+		{
+			for (int y = start; y < end; y++)
+			{
+				int srow = y * sw;
+				int o = y * dw * 4;
+				for (int x = 0; x < dw; x++, o += 4)
+				{
+					float a = 0f, r = 0f, g = 0f, b = 0f;
+					int s = srow + taps.start[x];
+					int slot = x * taps.stride;
+					for (int k = 0; k < taps.count[x]; k++)
+					{
+						int p = source[s + k];
+						float pa = (p >>> 24) * taps.weights[slot + k];
+						a += pa;
+						r += ((p >> 16) & 0x0ff) * pa;
+						g += ((p >> 8) & 0x0ff) * pa;
+						b += (p & 0x0ff) * pa;
+					}
+					temp[o] = a;
+					temp[o + 1] = r;
+					temp[o + 2] = g;
+					temp[o + 3] = b;
+				}
+			}
+		}
+
+		@Override
+		BandTask split(int start, int end)
+		{
+			return new HorizontalTask(source, sw, temp, dw, taps, start, end);
+		}
+	}
+
+	/**
+	 * Filters intermediate rows vertically into ARGB pixels.
+	 */
+	private static class VerticalTask extends BandTask
+	{
+		private static final long serialVersionUID = -1254480364931390457L;
+
+		private float[] temp;
+		private int[] dest;
+		private int dw;
+		private Taps taps;
+
+		VerticalTask(float[] temp, int[] dest, int dw, Taps taps, int startRow, int endRow)
+		{
+			super(startRow, endRow);
+			this.temp = temp;
+			this.dest = dest;
+			this.dw = dw;
+			this.taps = taps;
+		}
+
+		@Override
+		void filterRows(int start, int end)
+		{
+			int rowLength = dw * 4;
+			float[] accum = new float[rowLength];
+			for (int y = start; y < end; y++)
+			{
+				Arrays.fill(accum, 0f);
+				int slot = y * taps.stride;
+				for (int k = 0; k < taps.count[y]; k++)
+				{
+					float w = taps.weights[slot + k];
+					int t = (taps.start[y] + k) * rowLength;
+					for (int i = 0; i < rowLength; i++)
+						accum[i] += temp[t + i] * w;
+				}
+
+				int drow = y * dw;
+				for (int x = 0, i = 0; x < dw; x++, i += 4)
+				{
+					float a = accum[i];
+					if (a <= 0.5f)
+					{
+						dest[drow + x] = 0;
+						continue;
+					}
+					int r = Math.min((int)(accum[i + 1] / a + 0.5f), 255);
+					int g = Math.min((int)(accum[i + 2] / a + 0.5f), 255);
+					int b = Math.min((int)(accum[i + 3] / a + 0.5f), 255);
+					dest[drow + x] = (Math.min((int)(a + 0.5f), 255) << 24) | (r << 16) | (g << 8) | b;
+				}
+			}
+		}
+
+		@Override
+		BandTask split(int start, int end)
+		{
+			return new VerticalTask(temp, dest, dw, taps, start, end);
+		}
+	}
+
+}
@@ -0,0 +1,397 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A CPU-side mipmap chain generator.
+ * <p>
+ * Each level is half the size of the previous one (to a minimum of 1), down to 1x1.
+ * Levels are filtered from the previous level in linear light (if gamma-correct)
+ * with premultiplied alpha, so that transparent texels do not darken their
+ * neighbors. Rows of each level are filtered in parallel on a fork-join pool.
+ * <p>
+ * This class is thread-safe.
+ * @author Matthew Tropiano
+ */
+public class OGLMipmapGenerator
+{
+	/** Rows filtered by a single task before splitting. */
+	private static final int ROWS_PER_TASK = 16;
+	/** Kaiser window alpha (beta = alpha * pi). */
+	private static final double KAISER_ALPHA = 4.0;
+	/** Kaiser filter radius in destination pixels. */
+	private static final int KAISER_RADIUS = 2;
+	/** Size of the linear-to-sRGB table. */
+	private static final int LINEAR_TABLE_SIZE = 4096;
+
+	/** sRGB byte to linear value. */
+	private static final float[] SRGB_TO_LINEAR = new float[256];
+	/** Linear value (quantized) to sRGB byte. */
+	private static final int[] LINEAR_TO_SRGB = new int[LINEAR_TABLE_SIZE + 1];
+	/** Kaiser filter taps, for a 2:1 reduction. Offsets are relative to the first source pixel (2 * x). */
+	private static final float[] KAISER_WEIGHTS;
+	/** Offset of the first Kaiser tap relative to the first source pixel. */
+	private static final int KAISER_FIRST_TAP = 1 - 2 * KAISER_RADIUS;
+
+	static
+	{
+		for (int i = 0; i < 256; i++)
+		{
+			double c = i / 255.0;
+			SRGB_TO_LINEAR[i] = (float)(c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4));
+		}
+		for (int i = 0; i <= LINEAR_TABLE_SIZE; i++)
+		{
+			double l = (double)i / LINEAR_TABLE_SIZE;
+			double c = l <= 0.0031308 ? l * 12.92 : 1.055 * Math.pow(l, 1.0 / 2.4) - 0.055;
+			LINEAR_TO_SRGB[i] = (int)Math.round(c * 255.0);
+		}
+
+		// taps cover source pixels whose centers are within the radius (in destination pixels).
+		int taps = 4 * KAISER_RADIUS;
+		KAISER_WEIGHTS = new float[taps];
+		double sum = 0.0;
+		for (int i = 0; i < taps; i++)
+		{
+			// source pixel center relative to the destination center, in destination pixels.
+			double d = ((KAISER_FIRST_TAP + i) + 0.5 - 1.0) / 2.0;
+			double w = sinc(d) * kaiser(d / KAISER_RADIUS);
+			KAISER_WEIGHTS[i] = (float)w;
+			sum += w;
+		}
+		for (int i = 0; i < taps; i++)
+			KAISER_WEIGHTS[i] /= sum;
+	}
+
+	/**
+	 * Mipmap filters.
+	 */
+	public static enum Filter
+	{
+		/** 2x2 box filter. Fast, slightly blurry. */
+		BOX,
+		/** Kaiser-windowed sinc filter. Sharper, slower. */
+		KAISER;
+	}
+
+	/** The pool to filter on. */
+	private ForkJoinPool pool;
+	/** The filter to use. */
+	private Filter filter;
+	/** Filter in linear light? */
+	private boolean gammaCorrect;
+
+	/**
+	 * Creates a new gamma-correct generator that uses its own pool with
+	 * as many threads as there are available processors.
+	 * @param filter the filter to use.
+	 */
+	public OGLMipmapGenerator(Filter filter)
+	{
+		this(new ForkJoinPool(), filter, true);
+	}
+
+	/**
+	 * Creates a new generator.
+	 * @param pool the pool to use.
+	 * @param filter the filter to use.
+	 * @param gammaCorrect if true, the image is treated as sRGB and filtered in linear light.
+	 */
+	public OGLMipmapGenerator(ForkJoinPool pool, Filter filter, boolean gammaCorrect)
+	{
+		this.pool = pool;
+		this.filter = filter;
+		this.gammaCorrect = gammaCorrect;
+	}
+
+	/**
+	 * Returns the filter used by this generator.
+	 */
+	public Filter getFilter()
+	{
+		return filter;
+	}
+
+	/**
+	 * Returns true if this generator filters in linear light.
+	 */
+	public boolean isGammaCorrect()
+	{
+		return gammaCorrect;
+	}
+
+	/**
+	 * Returns the amount of levels in a full mipmap chain for an image size, including the base level.
+	 */
+	public static int getLevelCount(int width, int height)
+	{
+		int out = 1;
+		while (width > 1 || height > 1)
+		{
+			width = Math.max(1, width / 2);
+			height = Math.max(1, height / 2);
+			out++;
+		}
+		return out;
+	}
+
+	/**
+	 * Generates a full mipmap chain for an image.
+	 * @param image the source image.
+	 * @return the levels, largest to smallest. Level 0 is the source image itself.
+	 */
+	public BufferedImage[] generate(BufferedImage image)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		BufferedImage[] out = new BufferedImage[getLevelCount(width, height)];
+		out[0] = image;
+		if (out.length == 1)
+			return out;
+
+		float[] level = toLinear(image.getRGB(0, 0, width, height, null, 0, width));
+		for (int i = 1; i < out.length; i++)
+		{
+			int nw = Math.max(1, width / 2);
+			int nh = Math.max(1, height / 2);
+			level = reduce(level, width, height, nw, nh);
+			width = nw;
+			height = nh;
+			out[i] = toImage(level, width, height);
+		}
+		return out;
+	}
+
+	/**
+	 * Reduces a premultiplied, linear level to the next size.
+	 */
+	private float[] reduce(float[] source, int sw, int sh, int dw, int dh)
+	{
+		if (filter == Filter.KAISER)
+		{
+			float[] temp = new float[dw * sh * 4];
+			pool.invoke(new ReduceTask(source, temp, sw, sh, dw, sh, true, 0, sh));
+			float[] out = new float[dw * dh * 4];
+			pool.invoke(new ReduceTask(temp, out, dw, sh, dw, dh, false, 0, dh));
+			return out;
+		}
+		else
+		{
+			float[] out = new float[dw * dh * 4];
+			pool.invoke(new ReduceTask(source, out, sw, sh, dw, dh, false, 0, dh));
+			return out;
+		}
+	}
+
+	/**
+	 * Box-filters a set of destination rows.
+	 */
+	private static void boxRows(float[] src, float[] dst, int sw, int sh, int dw, int startRow, int endRow)
+	{
+		for (int y = startRow; y < endRow; y++)
+		{
+			int sy0 = Math.min(y * 2, sh - 1);
+			int sy1 = Math.min(y * 2 + 1, sh - 1);
+			for (int x = 0; x < dw; x++)
+			{
+				int sx0 = Math.min(x * 2, sw - 1);
+				int sx1 = Math.min(x * 2 + 1, sw - 1);
+				int a = (sy0 * sw + sx0) * 4, b = (sy0 * sw + sx1) * 4;
+				int c = (sy1 * sw + sx0) * 4, d = (sy1 * sw + sx1) * 4;
+				int o = (y * dw + x) * 4;
+				for (int k = 0; k < 4; k++)
+					dst[o + k] = (src[a + k] + src[b + k] + src[c + k] + src[d + k]) * 0.25f;
+			}
+		}
+	}
+
+	/**
+	 * Kaiser-filters a set of destination rows along one axis.
+	 * If horizontal, the source has the same height as the destination;
+	 * otherwise, it has the same width.
+	 */
+	private static void kaiserRows(float[] src, float[] dst, int sw, int sh, int dw, boolean horizontal, int startRow, int endRow)
+	{
+		int sourceLength = horizontal ? sw : sh;
+		boolean reduce = sourceLength > 1;
+		for (int y = startRow; y < endRow; y++)
+			for (int x = 0; x < dw; x++)
+			{
+				int o = (y * dw + x) * 4;
+				if (!reduce)
+				{
+					int s = (horizontal ? (y * sw) : x) * 4;
+					for (int k = 0; k < 4; k++)
+						dst[o + k] = src[s + k];
+					continue;
+				}
+
+				float r = 0f, g = 0f, b = 0f, a = 0f;
+				int center = (horizontal ? x : y) * 2;
+				for (int t = 0; t < KAISER_WEIGHTS.length; t++)
+				{
+					int p = Math.min(Math.max(center + KAISER_FIRST_TAP + t, 0), sourceLength - 1);
+					int s = (horizontal ? (y * sw + p) : (p * sw + x)) * 4;
+					float w = KAISER_WEIGHTS[t];
+					r += src[s] * w;
+					g += src[s + 1] * w;
+					b += src[s + 2] * w;
+					a += src[s + 3] * w;
+				}
+
+				// negative lobes can overshoot.
+				a = Math.min(Math.max(a, 0f), 1f);
+				dst[o] = Math.min(Math.max(r, 0f), a);
+				dst[o + 1] = Math.min(Math.max(g, 0f), a);
+				dst[o + 2] = Math.min(Math.max(b, 0f), a);
+				dst[o + 3] = a;
+			}
+	}
+
+	/**
+	 * Converts ARGB pixels to premultiplied RGBA floats.
+	 */
+	private float[] toLinear(int[] argb)
+	{
+		float[] out = new float[argb.length * 4];
+		for (int i = 0; i < argb.length; i++)
+		{
+			int p = argb[i];
+			float a = ((p >>> 24) & 0x0ff) / 255f;
+			int o = i * 4;
+			out[o] = toLinear((p >> 16) & 0x0ff) * a;
+			out[o + 1] = toLinear((p >> 8) & 0x0ff) * a;
+			out[o + 2] = toLinear(p & 0x0ff) * a;
+			out[o + 3] = a;
+		}
+		return out;
+	}
+
+	/**
+	 * Converts premultiplied RGBA floats to a new ARGB image.
+	 */
+	private BufferedImage toImage(float[] level, int width, int height)
+	{
+		BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		int[] argb = ((DataBufferInt)out.getRaster().getDataBuffer()).getData();
+		for (int i = 0; i < argb.length; i++)
+		{
+			int o = i * 4;
+			float a = level[o + 3];
+			int r = 0, g = 0, b = 0;
+			if (a > 0f)
+			{
+				r = fromLinear(level[o] / a);
+				g = fromLinear(level[o + 1] / a);
+				b = fromLinear(level[o + 2] / a);
+			}
+			argb[i] = (Math.round(a * 255f) << 24) | (r << 16) | (g << 8) | b;
+		}
+		return out;
+	}
+
+	/** Converts a color byte to a linear value. */
+	private float toLinear(int c)
+	{
+		return gammaCorrect ? SRGB_TO_LINEAR[c] : c / 255f;
+	}
+
+	/** Converts a linear value to a color byte. */
+	private int fromLinear(float l)
+	{
+		l = Math.min(Math.max(l, 0f), 1f);
+		return gammaCorrect ? LINEAR_TO_SRGB[Math.round(l * LINEAR_TABLE_SIZE)] : Math.round(l * 255f);
+	}
+
+	/** Normalized sinc function. */
+	private static double sinc(double x)
+	{
+		if (Math.abs(x) < 1e-9)
+			return 1.0;
+		double px = Math.PI * x;
+		return Math.sin(px) / px;
+	}
+
+	/** Kaiser window, x in [-1, 1]. */
+	private static double kaiser(double x)
+	{
+		if (Math.abs(x) >= 1.0)
+			return 0.0;
+		double beta = Math.PI * KAISER_ALPHA;
+		return besselI0(beta * Math.sqrt(1.0 - x * x)) / besselI0(beta);
+	}
+
+	/** Zeroth-order modified Bessel function of the first kind (series). */
+	private static double besselI0(double x)
+	{
+		double sum = 1.0, term = 1.0, q = x * x / 4.0;
+		for (int k = 1; k < 50 && term > sum * 1e-12; k++)
+		{
+			term *= q / (k * k);
+			sum += term;
+		}
+		return sum;
+	}
+
+	/**
+	 * Reduces a range of destination rows, splitting it if it is too large.
+	 */
+	private class ReduceTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = -3183004657452380917L;
+
+		private float[] src;
+		private float[] dst;
+		private int sw;
+		private int sh;
+		private int dw;
+		private int dh;
+		private boolean horizontal;
+		private int startRow;
+		private int endRow;
+
+		ReduceTask(float[] src, float[] dst, int sw, int sh, int dw, int dh, boolean horizontal, int startRow, int endRow)
+		{
+			this.src = src;
+			this.dst = dst;
+			this.sw = sw;
+			this.sh = sh;
+			this.dw = dw;
+			this.dh = dh;
+			this.horizontal = horizontal;
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (endRow - startRow <= ROWS_PER_TASK)
+			{
+				if (filter == Filter.KAISER)
+					kaiserRows(src, dst, sw, sh, dw, horizontal, startRow, endRow);
+				else
+					boxRows(src, dst, sw, sh, dw, startRow, endRow);
+			}
+			else
+			{
+				int mid = (startRow + endRow) >>> 1;
+				invokeAll(
+					new ReduceTask(src, dst, sw, sh, dw, dh, horizontal, startRow, mid),
+					new ReduceTask(src, dst, sw, sh, dw, dh, horizontal, mid, endRow)
+				);
+			}
+		}
+	}
+
+}
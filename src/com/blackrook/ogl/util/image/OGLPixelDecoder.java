@@ -0,0 +1,622 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.image;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes PNG and TGA images straight into {@link OGLPixelImage}s, without
+ * going through a <code>BufferedImage</code>: rows are decoded one at a time
+ * and written into a pooled direct buffer, so the only full-size copy of the
+ * image is the one that is uploaded.
+ * <p>
+ * Images with an alpha channel (or transparency) are decoded as RGBA8, and
+ * the rest as RGB8. Variants that are not supported (interlaced PNGs,
+ * right-to-left TGAs) make the decoder return null, so that callers can
+ * fall back to another decoder.
+ * This is safe to use from several threads at once.
+ * @author Matthew Tropiano
+ */
+public class OGLPixelDecoder
+{
+	/** PNG file signature. */
+	private static final byte[] PNG_SIGNATURE = {(byte)137, 80, 78, 71, 13, 10, 26, 10};
+
+	private static final int PNG_IHDR = 0x49484452;
+	private static final int PNG_PLTE = 0x504c5445;
+	private static final int PNG_TRNS = 0x74524e53;
+	private static final int PNG_IDAT = 0x49444154;
+	private static final int PNG_IEND = 0x49454e44;
+
+	private static final int PNG_GRAY = 0;
+	private static final int PNG_RGB = 2;
+	private static final int PNG_PALETTE = 3;
+	private static final int PNG_GRAY_ALPHA = 4;
+	private static final int PNG_RGBA = 6;
+
+	private static final int TGA_COLORMAPPED = 1;
+	private static final int TGA_TRUECOLOR = 2;
+	private static final int TGA_GRAY = 3;
+	private static final int TGA_RLE = 8;
+
+	/** Pool that output buffers come from. */
+	private OGLImageBufferPool pool;
+
+	/**
+	 * Creates a new decoder.
+	 * @param pool the pool to get output buffers from.
+	 */
+	public OGLPixelDecoder(OGLImageBufferPool pool)
+	{
+		this.pool = pool;
+	}
+
+	/**
+	 * Gets the pool that output buffers come from.
+	 */
+	public OGLImageBufferPool getPool()
+	{
+		return pool;
+	}
+
+	/**
+	 * Checks if an image can be decoded by this, by the extension of its path
+	 * (<code>.png</code> or <code>.tga</code>).
+	 */
+	public static boolean isSupported(String path)
+	{
+		if (path == null)
+			return false;
+		String lower = path.toLowerCase();
+		return lower.endsWith(".png") || lower.endsWith(".tga");
+	}
+
+	/**
+	 * Decodes an image, picking the decoder by the extension of its path.
+	 * @param in the stream to read. It is not closed.
+	 * @param path the image's path.
+	 * @return the decoded image, or null if its format or variant is not supported.
+	 * @throws IOException if the stream could not be read or the image is malformed.
+	 */
+	public OGLPixelImage decode(InputStream in, String path) throws IOException
+	{
+		if (path == null)
+			return null;
+		String lower = path.toLowerCase();
+		if (lower.endsWith(".png"))
+			return decodePNG(in);
+		else if (lower.endsWith(".tga"))
+			return decodeTGA(in);
+		return null;
+	}
+
+	/**
+	 * Decodes a PNG image.
+	 * All color types and bit depths are supported, but not interlacing.
+	 * 16-bit samples are reduced to 8 bits.
+	 * @param in the stream to read. It is not closed.
+	 * @return the decoded image, or null if it is interlaced.
+	 * @throws IOException if the stream could not be read or the image is malformed.
+	 */
+	public OGLPixelImage decodePNG(InputStream in) throws IOException
+	{
+		DataInputStream din = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 16384));
+		byte[] signature = new byte[PNG_SIGNATURE.length];
+		din.readFully(signature);
+		for (int i = 0; i < signature.length; i++)
+			if (signature[i] != PNG_SIGNATURE[i])
+				throw new IOException("Not a PNG image.");
+
+		int width = 0, height = 0, depth = 0, colorType = -1;
+		byte[] palette = null;
+		byte[] paletteAlpha = null;
+		int[] transparent = null;
+
+		// read chunks until the image data.
+		int length, type;
+		while (true)
+		{
+			length = din.readInt();
+			type = din.readInt();
+			if (type == PNG_IDAT)
+				break;
+			if (type == PNG_IEND)
+				throw new IOException("PNG image has no image data.");
+
+			byte[] chunk = new byte[length];
+			din.readFully(chunk);
+			din.readInt(); // CRC
+
+			if (type == PNG_IHDR)
+			{
+				ByteBuffer b = ByteBuffer.wrap(chunk);
+				width = b.getInt();
+				height = b.getInt();
+				depth = b.get() & 0x0ff;
+				colorType = b.get() & 0x0ff;
+				b.get(); // compression
+				b.get(); // filter
+				if (b.get() != 0)
+					return null; // interlaced.
+			}
+			else if (type == PNG_PLTE)
+				palette = chunk;
+			else if (type == PNG_TRNS)
+			{
+				if (colorType == PNG_PALETTE)
+					paletteAlpha = chunk;
+				else if (colorType == PNG_GRAY && chunk.length >= 2)
+					transparent = new int[]{((chunk[0] & 0x0ff) << 8) | (chunk[1] & 0x0ff)};
+				else if (colorType == PNG_RGB && chunk.length >= 6)
+					transparent = new int[]{
+						((chunk[0] & 0x0ff) << 8) | (chunk[1] & 0x0ff),
+						((chunk[2] & 0x0ff) << 8) | (chunk[3] & 0x0ff),
+						((chunk[4] & 0x0ff) << 8) | (chunk[5] & 0x0ff)
+					};
+			}
+		}
+
+		if (width <= 0 || height <= 0 || colorType < 0)
+			throw new IOException("PNG image has a bad header.");
+		if (colorType == PNG_PALETTE && palette == null)
+			throw new IOException("PNG image has no palette.");
+
+		int channels;
+		switch (colorType)
+		{
+			case PNG_GRAY: channels = 1; break;
+			case PNG_RGB: channels = 3; break;
+			case PNG_PALETTE: channels = 1; break;
+			case PNG_GRAY_ALPHA: channels = 2; break;
+			case PNG_RGBA: channels = 4; break;
+			default: throw new IOException("PNG image has a bad color type.");
+		}
+
+		boolean alpha = colorType == PNG_GRAY_ALPHA || colorType == PNG_RGBA || paletteAlpha != null || transparent != null;
+		OGLPixelImage.Format format = alpha ? OGLPixelImage.Format.RGBA8 : OGLPixelImage.Format.RGB8;
+		int bitsPerPixel = channels * depth;
+		int stride = (width * bitsPerPixel + 7) / 8;
+		int filterStep = Math.max(1, bitsPerPixel / 8);
+
+		ByteBuffer out = pool.acquire(format.getDataSize(width, height));
+		Inflater inflater = new Inflater();
+		try {
+			DataInputStream idat = new DataInputStream(new InflaterInputStream(new ChunkDataInputStream(din, length), inflater, 16384));
+			byte[] previous = new byte[stride];
+			byte[] current = new byte[stride];
+			byte[] row = new byte[width * format.getPixelSize()];
+			for (int y = 0; y < height; y++)
+			{
+				int filter = idat.readUnsignedByte();
+				idat.readFully(current);
+				unfilter(filter, current, previous, filterStep);
+				convertPNGRow(current, row, width, colorType, depth, palette, paletteAlpha, transparent, alpha);
+				out.put(row);
+				byte[] swap = previous;
+				previous = current;
+				current = swap;
+			}
+		} catch (EOFException e) {
+			pool.release(out);
+			throw new IOException("PNG image data ends early.", e);
+		} catch (IOException e) {
+			pool.release(out);
+			throw e;
+		} catch (RuntimeException e) {
+			pool.release(out);
+			throw new IOException("PNG image is malformed.", e);
+		} finally {
+			inflater.end();
+		}
+
+		out.flip();
+		return new OGLPixelImage(format, width, height, out, pool);
+	}
+
+	/**
+	 * Reverses a PNG scanline filter in place.
+	 */
+	private static void unfilter(int filter, byte[] current, byte[] previous, int step) throws IOException
+	{
+		int n = current.length;
+		switch (filter)
+		{
+			case 0:
+				break;
+			case 1:
+				for (int i = step; i < n; i++)
+					current[i] += current[i - step];
+				break;
+			case 2:
+				for (int i = 0; i < n; i++)
+					current[i] += previous[i];
+				break;
+			case 3:
+				for (int i = 0; i < n; i++)
+				{
+					int left = i >= step ? current[i - step] & 0x0ff : 0;
+					current[i] += (left + (previous[i] & 0x0ff)) >> 1;
+				}
+				break;
+			case 4:
+				for (int i = 0; i < n; i++)
+				{
+					int a = i >= step ? current[i - step] & 0x0ff : 0;
+					int b = previous[i] & 0x0ff;
+					int c = i >= step ? previous[i - step] & 0x0ff : 0;
+					int p = a + b - c;
+					int pa = Math.abs(p - a);
+					int pb = Math.abs(p - b);
+					int pc = Math.abs(p - c);
+					current[i] += (pa <= pb && pa <= pc) ? a : (pb <= pc ? b : c);
+				}
+				break;
+			default:
+				throw new IOException("PNG image has a bad filter type.");
+		}
+	}
+
+	/**
+	 * Converts an unfiltered PNG scanline to RGB8 or RGBA8.
+	 */
+	private static void convertPNGRow(byte[] line, byte[] row, int width, int colorType, int depth,
+		byte[] palette, byte[] paletteAlpha, int[] transparent, boolean alpha)
+	{
+		int o = 0;
+		for (int x = 0; x < width; x++)
+		{
+			int r, g, b, a = 255;
+			switch (colorType)
+			{
+				case PNG_GRAY:
+				{
+					int v = getSample(line, x, depth);
+					if (transparent != null && v == transparent[0])
+						a = 0;
+					r = g = b = scaleSample(v, depth);
+					break;
+				}
+				case PNG_PALETTE:
+				{
+					int i = getSample(line, x, depth);
+					r = palette[i * 3] & 0x0ff;
+					g = palette[i * 3 + 1] & 0x0ff;
+					b = palette[i * 3 + 2] & 0x0ff;
+					if (paletteAlpha != null && i < paletteAlpha.length)
+						a = paletteAlpha[i] & 0x0ff;
+					break;
+				}
+				case PNG_GRAY_ALPHA:
+					r = g = b = scaleSample(getSample(line, x * 2, depth), depth);
+					a = scaleSample(getSample(line, x * 2 + 1, depth), depth);
+					break;
+				case PNG_RGB:
+				{
+					int vr = getSample(line, x * 3, depth);
+					int vg = getSample(line, x * 3 + 1, depth);
+					int vb = getSample(line, x * 3 + 2, depth);
+					if (transparent != null && vr == transparent[0] && vg == transparent[1] && vb == transparent[2])
+						a = 0;
+					r = scaleSample(vr, depth);
+					g = scaleSample(vg, depth);
+					b = scaleSample(vb, depth);
+					break;
+				}
+				default: // PNG_RGBA
+					r = scaleSample(getSample(line, x * 4, depth), depth);
+					g = scaleSample(getSample(line, x * 4 + 1, depth), depth);
+					b = scaleSample(getSample(line, x * 4 + 2, depth), depth);
+					a = scaleSample(getSample(line, x * 4 + 3, depth), depth);
+					break;
+			}
+			row[o++] = (byte)r;
+			row[o++] = (byte)g;
+			row[o++] = (byte)b;
+			if (alpha)
+				row[o++] = (byte)a;
+		}
+	}
+
+	/**
+	 * Gets a sample from an unfiltered scanline.
+	 * @param line the scanline.
+	 * @param index the sample index.
+	 * @param depth the sample bit depth.
+	 */
+	private static int getSample(byte[] line, int index, int depth)
+	{
+		switch (depth)
+		{
+			case 8:
+				return line[index] & 0x0ff;
+			case 16:
+				return ((line[index * 2] & 0x0ff) << 8) | (line[index * 2 + 1] & 0x0ff);
+			default:
+			{
+				int bit = index * depth;
+				int shift = 8 - depth - (bit & 7);
+				return ((line[bit >> 3] & 0x0ff) >> shift) & ((1 << depth) - 1);
+			}
+		}
+	}
+
+	/**
+	 * Scales a sample of a bit depth to 8 bits.
+	 */
+	private static int scaleSample(int value, int depth)
+	{
+		switch (depth)
+		{
+			case 1: return value * 255;
+			case 2: return value * 85;
+			case 4: return value * 17;
+			case 16: return value >> 8;
+			default: return value;
+		}
+	}
+
+	/**
+	 * Decodes a TGA image.
+	 * Uncompressed and RLE-compressed true-color, grayscale and color-mapped images are supported,
+	 * with 8, 15/16, 24 or 32 bits per pixel, but not right-to-left images.
+	 * @param in the stream to read. It is not closed.
+	 * @return the decoded image, or null if it is not supported.
+	 * @throws IOException if the stream could not be read or the image is malformed.
+	 */
+	public OGLPixelImage decodeTGA(InputStream in) throws IOException
+	{
+		DataInputStream din = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 16384));
+		byte[] header = new byte[18];
+		din.readFully(header);
+		ByteBuffer h = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+
+		int idLength = h.get(0) & 0x0ff;
+		int colorMapType = h.get(1) & 0x0ff;
+		int imageType = h.get(2) & 0x0ff;
+		int mapFirst = h.getShort(3) & 0x0ffff;
+		int mapLength = h.getShort(5) & 0x0ffff;
+		int mapDepth = h.get(7) & 0x0ff;
+		int width = h.getShort(12) & 0x0ffff;
+		int height = h.getShort(14) & 0x0ffff;
+		int depth = h.get(16) & 0x0ff;
+		int descriptor = h.get(17) & 0x0ff;
+
+		boolean rle = (imageType & TGA_RLE) != 0;
+		int baseType = imageType & ~TGA_RLE;
+		if (baseType != TGA_COLORMAPPED && baseType != TGA_TRUECOLOR && baseType != TGA_GRAY)
+			return null;
+		if ((descriptor & 0x10) != 0)
+			return null; // right-to-left.
+		if (width == 0 || height == 0)
+			throw new IOException("TGA image has a bad header.");
+		boolean topFirst = (descriptor & 0x20) != 0;
+
+		skipFully(din, idLength);
+
+		// color map entries are stored like true-color pixels.
+		int[] colorMap = null;
+		int mapEntrySize = (mapDepth + 7) / 8;
+		if (colorMapType == 1)
+		{
+			if (baseType == TGA_COLORMAPPED)
+			{
+				colorMap = new int[mapFirst + mapLength];
+				byte[] entry = new byte[mapEntrySize];
+				for (int i = 0; i < mapLength; i++)
+				{
+					din.readFully(entry);
+					colorMap[mapFirst + i] = getTGAColor(entry, 0, mapDepth);
+				}
+			}
+			else
+				skipFully(din, mapLength * mapEntrySize);
+		}
+		else if (baseType == TGA_COLORMAPPED)
+			throw new IOException("TGA image has no color map.");
+
+		int pixelDepth = baseType == TGA_COLORMAPPED ? mapDepth : depth;
+		if (baseType == TGA_GRAY ? depth != 8 : (pixelDepth != 15 && pixelDepth != 16 && pixelDepth != 24 && pixelDepth != 32))
+			return null;
+		if (baseType == TGA_COLORMAPPED && depth != 8 && depth != 16)
+			return null;
+
+		boolean alpha = pixelDepth == 32 || (pixelDepth == 16 && (descriptor & 0x0f) != 0);
+		OGLPixelImage.Format format = alpha ? OGLPixelImage.Format.RGBA8 : OGLPixelImage.Format.RGB8;
+		int pixelSize = format.getPixelSize();
+		int rowSize = width * pixelSize;
+		int sourceSize = (depth + 7) / 8;
+
+		ByteBuffer out = pool.acquire(format.getDataSize(width, height));
+		try {
+			byte[] source = new byte[sourceSize];
+			byte[] row = new byte[rowSize];
+			int packetLeft = 0;
+			boolean packetRun = false;
+			int color = 0;
+			for (int y = 0; y < height; y++)
+			{
+				for (int x = 0, o = 0; x < width; x++)
+				{
+					if (!rle)
+						color = readTGAPixel(din, source, baseType, depth, colorMap);
+					else
+					{
+						if (packetLeft == 0)
+						{
+							int packet = din.readUnsignedByte();
+							packetRun = (packet & 0x80) != 0;
+							packetLeft = (packet & 0x7f) + 1;
+							if (packetRun)
+								color = readTGAPixel(din, source, baseType, depth, colorMap);
+						}
+						if (!packetRun)
+							color = readTGAPixel(din, source, baseType, depth, colorMap);
+						packetLeft--;
+					}
+
+					row[o++] = (byte)(color >> 16);
+					row[o++] = (byte)(color >> 8);
+					row[o++] = (byte)color;
+					if (alpha)
+						row[o++] = (byte)(color >>> 24);
+				}
+				out.position((topFirst ? y : height - 1 - y) * rowSize);
+				out.put(row);
+			}
+		} catch (EOFException e) {
+			pool.release(out);
+			throw new IOException("TGA image data ends early.", e);
+		} catch (IOException e) {
+			pool.release(out);
+			throw e;
+		} catch (RuntimeException e) {
+			pool.release(out);
+			throw new IOException("TGA image is malformed.", e);
+		}
+
+		out.position(0);
+		out.limit(format.getDataSize(width, height));
+		return new OGLPixelImage(format, width, height, out, pool);
+	}
+
+	/**
+	 * Reads one TGA pixel and returns it as ARGB.
+	 */
+	private static int readTGAPixel(DataInputStream in, byte[] source, int baseType, int depth, int[] colorMap) throws IOException
+	{
+		in.readFully(source);
+		switch (baseType)
+		{
+			case TGA_GRAY:
+			{
+				int v = source[0] & 0x0ff;
+				return 0xff000000 | (v << 16) | (v << 8) | v;
+			}
+			case TGA_COLORMAPPED:
+			{
+				int index = depth == 8 ? source[0] & 0x0ff : (source[0] & 0x0ff) | ((source[1] & 0x0ff) << 8);
+				return colorMap[index];
+			}
+			default:
+				return getTGAColor(source, 0, depth);
+		}
+	}
+
+	/**
+	 * Converts a little-endian TGA color (BGR, BGRA, or 5-5-5) to ARGB.
+	 */
+	private static int getTGAColor(byte[] b, int offset, int depth)
+	{
+		switch (depth)
+		{
+			case 15:
+			case 16:
+			{
+				int v = (b[offset] & 0x0ff) | ((b[offset + 1] & 0x0ff) << 8);
+				int r = (v >> 10) & 0x1f;
+				int g = (v >> 5) & 0x1f;
+				int bl = v & 0x1f;
+				int a = depth == 16 && (v & 0x8000) == 0 ? 0 : 255;
+				return (a << 24) | (((r << 3) | (r >> 2)) << 16) | (((g << 3) | (g >> 2)) << 8) | ((bl << 3) | (bl >> 2));
+			}
+			case 24:
+				return 0xff000000 | ((b[offset + 2] & 0x0ff) << 16) | ((b[offset + 1] & 0x0ff) << 8) | (b[offset] & 0x0ff);
+			case 32:
+				return ((b[offset + 3] & 0x0ff) << 24) | ((b[offset + 2] & 0x0ff) << 16) | ((b[offset + 1] & 0x0ff) << 8) | (b[offset] & 0x0ff);
+			default:
+				return 0xff000000;
+		}
+	}
+
+	/**
+	 * Skips an exact amount of bytes.
+	 */
+	private static void skipFully(DataInputStream in, int n) throws IOException
+	{
+		while (n > 0)
+		{
+			int s = in.skipBytes(n);
+			if (s <= 0)
+			{
+				in.readByte();
+				s = 1;
+			}
+			n -= s;
+		}
+	}
+
+	/**
+	 * Stream of the data of consecutive PNG IDAT chunks.
+	 * Ends at the first chunk that is not IDAT.
+	 */
+	private static class ChunkDataInputStream extends InputStream
+	{
+		private DataInputStream in;
+		/** Bytes left in the current chunk, -1 once the data has ended. */
+		private int left;
+
+		ChunkDataInputStream(DataInputStream in, int firstLength)
+		{
+			this.in = in;
+			this.left = firstLength;
+		}
+
+		/**
+		 * Moves to the next IDAT chunk if the current one is done.
+		 * @return false if the data has ended.
+		 */
+		private boolean nextChunk() throws IOException
+		{
+			while (left == 0)
+			{
+				in.readInt(); // CRC
+				int length = in.readInt();
+				if (in.readInt() != PNG_IDAT)
+				{
+					left = -1;
+					return false;
+				}
+				left = length;
+			}
+			return left > 0;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			if (!nextChunk())
+				return -1;
+			left--;
+			return in.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0)
+				return 0;
+			if (!nextChunk())
+				return -1;
+			int n = in.read(b, off, Math.min(len, left));
+			if (n < 0)
+				throw new EOFException();
+			left -= n;
+			return n;
+		}
+
+	}
+
+}
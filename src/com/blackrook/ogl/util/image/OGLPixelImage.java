@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Uncompressed 8-bit-per-channel image data in a direct buffer, ready for a texture upload.
+ * <p>
+ * Rows are tightly packed (an unpack alignment of 1), starting with the top row,
+ * in the same order that a <code>BufferedImage</code>'s rows are sent.
+ * The buffer may belong to an {@link OGLImageBufferPool}, and should be
+ * given back with {@link #release()} once the data is uploaded.
+ * @author Matthew Tropiano
+ */
+public class OGLPixelImage
+{
+	/**
+	 * Pixel formats.
+	 */
+	public static enum Format
+	{
+		/** Red, green, blue: 3 bytes per pixel. */
+		RGB8(3),
+		/** Red, green, blue, alpha: 4 bytes per pixel. */
+		RGBA8(4);
+		
+		private final int pixelSize;
+		private Format(int pixelSize)
+		{
+			this.pixelSize = pixelSize;
+		}
+		
+		/** Returns the size of a single pixel in bytes. */
+		public int getPixelSize()
+		{
+			return pixelSize;
+		}
+		
+		/** Returns the size in bytes of an image of a particular size in this format. */
+		public int getDataSize(int width, int height)
+		{
+			return width * height * pixelSize;
+		}
+	}
+	
+	/** Pixel format. */
+	private Format format;
+	/** Width in pixels. */
+	private int width;
+	/** Height in pixels. */
+	private int height;
+	/** Pixel data. */
+	private ByteBuffer data;
+	/** Pool that the data is given back to. Null if none. */
+	private OGLImageBufferPool pool;
+	/** Was the data given back? */
+	private volatile boolean released;
+	
+	/**
+	 * Creates a new pixel image.
+	 * @param format the pixel format.
+	 * @param width the width in pixels.
+	 * @param height the height in pixels.
+	 * @param data the pixel data, in row order, starting at the top-left.
+	 * @param pool the pool that the data is given back to on {@link #release()}, or null for none.
+	 * @throws IllegalArgumentException if the data is not the correct size.
+	 */
+	public OGLPixelImage(Format format, int width, int height, ByteBuffer data, OGLImageBufferPool pool)
+	{
+		if (data.remaining() != format.getDataSize(width, height))
+			throw new IllegalArgumentException("Data size does not match format and dimensions.");
+		this.format = format;
+		this.width = width;
+		this.height = height;
+		this.data = data;
+		this.pool = pool;
+		this.released = false;
+	}
+
+	/** Returns the pixel format. */
+	public Format getFormat()
+	{
+		return format;
+	}
+
+	/** Returns the width in pixels. */
+	public int getWidth()
+	{
+		return width;
+	}
+
+	/** Returns the height in pixels. */
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * Returns the pixel data. 
+	 * Callers should use a duplicate of it if they change its position. 
+	 * @throws IllegalStateException if the data was released.
+	 */
+	public ByteBuffer getData()
+	{
+		if (released)
+			throw new IllegalStateException("Image data was released.");
+		return data;
+	}
+	
+	/**
+	 * Gives the pixel data back to its pool, if any.
+	 * The data must not be used after this. Does nothing if it was already released.
+	 */
+	public synchronized void release()
+	{
+		if (released)
+			return;
+		released = true;
+		if (pool != null)
+			pool.release(data);
+		data = null;
+	}
+	
+}
@@ -0,0 +1,12 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+/** 
+ * Contains CPU-side image processing classes for preparing
+ * texture data before it is sent to OpenGL. 
+ */
+package com.blackrook.ogl.util.image;
@@ -22,13 +22,14 @@ import com.blackrook.ogl.object.texture.OGLTexture2D;
 import com.blackrook.ogl.util.OGLSkin;
 import com.blackrook.ogl.util.OGLResourceLoader;
 import com.blackrook.ogl.util.OGLResourceLoaderUser;
+import com.blackrook.ogl.util.OGLVirtualTexture;
 import com.blackrook.ogl.util.OGLSkin.Step;
 import com.blackrook.ogl.util.resource.OGLShaderResource;
 import com.blackrook.ogl.util.resource.OGLTextureResource;
 
 /**
- * An overlay node that paints the entire canvas with a solid color
- * or with a skin. It can be blended in diferent ways with
+ * An overlay node that paints the entire canvas with a solid color,
+ * a skin, or a region of a virtual texture. It can be blended in diferent ways with
  * the color buffer's contents, and does NOT do any depth testing.
  * It can absorb all input at this node, if you wish.
  * @author Matthew Tropiano
@@ -66,6 +67,16 @@ public class OGLOverlayNode implements OGLResourceLoaderUser
 	protected BlendFunc blendingFunction;
 	/** The OGLSkin used for the overlay. */
 	protected OGLSkin renderGroup;
+	/** The virtual texture used for the overlay. */
+	protected OGLVirtualTexture virtualTexture;
+	/** Virtual texture region, left. */
+	protected float virtualS0;
+	/** Virtual texture region, top. */
+	protected float virtualT0;
+	/** Virtual texture region, right. */
+	protected float virtualS1;
+	/** Virtual texture region, bottom. */
+	protected float virtualT1;
 	
 	/** Render time in nanos. */
 	protected long renderTimeNanos;
@@ -86,6 +97,7 @@ public class OGLOverlayNode implements OGLResourceLoaderUser
 		setBlendingFunction(BlendFunc.ALPHA);
 		setAcceptingInput(false);
 		setEnabled(true);
+		setVirtualTextureRegion(0f, 0f, 1f, 1f);
 	}
 	
 	@Override
@@ -201,6 +213,39 @@ public class OGLOverlayNode implements OGLResourceLoaderUser
 		this.renderGroup = renderGroup;
 	}
 
+	/**
+	 * Gets the virtual texture used with this overlay node.
+	 */
+	public OGLVirtualTexture getVirtualTexture()
+	{
+		return virtualTexture;
+	}
+
+	/**
+	 * Sets the virtual texture used with this overlay node, for images too big
+	 * to fit in one texture. If set, this is drawn instead of the skin, 
+	 * tinted by the overlay color and blended using the blending function.
+	 * Its pages are streamed in for the region shown.
+	 * @see #setVirtualTextureRegion(float, float, float, float)
+	 */
+	public void setVirtualTexture(OGLVirtualTexture virtualTexture)
+	{
+		this.virtualTexture = virtualTexture;
+	}
+
+	/**
+	 * Sets the region of the virtual texture that is stretched across the overlay,
+	 * from 0 to 1 across and down the image. Default is the whole image.
+	 * Parts of the region outside of the image are not drawn.
+	 */
+	public void setVirtualTextureRegion(float s0, float t0, float s1, float t1)
+	{
+		virtualS0 = s0;
+		virtualT0 = t0;
+		virtualS1 = s1;
+		virtualT1 = t1;
+	}
+
 	@Override
 	public void onCanvasResize(int newWidth, int newHeight)
 	{
@@ -226,7 +271,14 @@ public class OGLOverlayNode implements OGLResourceLoaderUser
 		g.setFaceCullingEnabled(true);
 		g.setFaceCullingSide(FaceSide.BACK);
 		
-		if (renderGroup != null)
+		if (virtualTexture != null)
+		{
+			g.setBlendingFunc(blendingFunction);
+			g.setTexture2DEnabled(true);
+			g.setColor(colorRed, colorGreen, colorBlue, colorAlpha);
+			drawVirtualTexture(g);
+		}
+		else if (renderGroup != null)
 		{
 			g.setTexture2DEnabled(true);
 			long currentTime = g.currentTimeMillis();
@@ -241,9 +293,7 @@ public class OGLOverlayNode implements OGLResourceLoaderUser
 				OGLShaderResource oglsr = step.getShaderProgram();
 				if (oglsr != null)
 				{
-					if (!loader.containsShader(oglsr))
-						loader.cacheShader(g, oglsr);
-					shader = loader.getShader(oglsr);
+					shader = loader.fetchShader(g, oglsr);
 				}
 				else
 					shader = null;
@@ -259,9 +309,7 @@ public class OGLOverlayNode implements OGLResourceLoaderUser
 					if (ti >= 0)
 					{
 						OGLTextureResource ogltr = step.getTextureList()[ti];
-						if (!loader.containsTexture(ogltr))
-							loader.cacheTexture(g, ogltr);
-						texture = loader.getTexture(ogltr);
+						texture = loader.fetchTexture(g, ogltr);
 					}
 					else
 						texture = null;
@@ -278,9 +326,7 @@ public class OGLOverlayNode implements OGLResourceLoaderUser
 					int i = 0;
 					for (OGLTextureResource ogltr : step.getTextureList())
 					{
-						if (!loader.containsTexture(ogltr))
-							loader.cacheTexture(g, ogltr);
-						multitexture[i] = loader.getTexture(ogltr);
+						multitexture[i] = loader.fetchTexture(g, ogltr);
 						g.setTextureUnit(i);
 						if (multitexture[i] != null)
 							multitexture[i].bindTo(g);
@@ -393,6 +439,48 @@ public class OGLOverlayNode implements OGLResourceLoaderUser
 		g.matrixPop();
 	}
 
+	/**
+	 * Draws the visible part of the virtual texture across the overlay.
+	 * @param g the graphics context to use.
+	 */
+	protected void drawVirtualTexture(OGLGraphics g)
+	{
+		float sw = virtualS1 - virtualS0;
+		float th = virtualT1 - virtualT0;
+		if (sw <= 0f || th <= 0f)
+			return;
+		
+		// only the part of the region that is on the image.
+		float s0 = Math.max(virtualS0, 0f);
+		float t0 = Math.max(virtualT0, 0f);
+		float s1 = Math.min(virtualS1, 1f);
+		float t1 = Math.min(virtualT1, 1f);
+		float cWidth = g.getCanvasWidth();
+		float cHeight = g.getCanvasHeight();
+		virtualTexture.update(g, s0, t0, s1, t1, cWidth * (s1 - s0) / sw, cHeight * (t1 - t0) / th);
+		
+		g.matrixMode(MatrixType.MODELVIEW);
+		g.matrixPush();
+		g.matrixReset();
+		
+		g.matrixMode(MatrixType.PROJECTION);
+		g.matrixPush();
+		g.matrixReset();
+
+		g.matrixOrtho(-1, 1, -1, 1, -1, 1);
+		polygonsRendered += virtualTexture.draw(g, 
+			(s0 - virtualS0) / sw * 2f - 1f, 
+			1f - (t0 - virtualT0) / th * 2f, 
+			(s1 - virtualS0) / sw * 2f - 1f, 
+			1f - (t1 - virtualT0) / th * 2f);
+		
+		g.matrixMode(MatrixType.PROJECTION);
+		g.matrixPop();
+		
+		g.matrixMode(MatrixType.MODELVIEW);
+		g.matrixPop();
+	}
+
 	@Override
 	public int getPolygonsRendered()
 	{
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * A pak archive: a simple indexed archive of resource data, written by {@link OGLPakWriter}.
+ * <p>
+ * The format (all numbers big-endian) is a 16-byte header - the magic bytes <code>OPAK</code>,
+ * an int version (1), and the long offset of the index - followed by the entries' data,
+ * followed by the index: an int entry count, and for each entry, a short name length,
+ * the UTF-8 name, the long data offset, the int stored size, the int uncompressed size,
+ * a byte compression method (0 stored, 1 zlib Deflate), and the long modified time.
+ * @author Matthew Tropiano
+ */
+public class OGLPakArchive extends OGLResourceArchive
+{
+	/** Magic bytes at the start of a pak archive. */
+	static final byte[] MAGIC = {'O', 'P', 'A', 'K'};
+	/** Format version. */
+	static final int VERSION = 1;
+	/** Size of the header in bytes. */
+	static final int HEADER_SIZE = 16;
+	/** Charset for entry names. */
+	static final Charset NAME_CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * Opens and maps a pak archive, and reads its index.
+	 * @param file the archive file.
+	 * @throws IOException if the file could not be read or is not a pak archive.
+	 */
+	public OGLPakArchive(File file) throws IOException
+	{
+		super(file);
+	}
+
+	/**
+	 * Opens and maps a pak archive, and reads its index.
+	 * @param path the path to the archive file.
+	 * @throws IOException if the file could not be read or is not a pak archive.
+	 */
+	public OGLPakArchive(String path) throws IOException
+	{
+		this(new File(path));
+	}
+
+	/**
+	 * Returns true if a file's first four bytes are the magic bytes of a pak archive.
+	 */
+	static boolean isPakHeader(byte[] magic)
+	{
+		for (int i = 0; i < MAGIC.length; i++)
+			if (magic[i] != MAGIC[i])
+				return false;
+		return true;
+	}
+
+	@Override
+	protected void readIndex(ByteBuffer data, Map<String, Entry> entries) throws IOException
+	{
+		if (data.remaining() < HEADER_SIZE)
+			throw new IOException("Archive '"+getPath()+"' is not a pak archive.");
+		byte[] magic = new byte[MAGIC.length];
+		data.get(magic);
+		if (!isPakHeader(magic))
+			throw new IOException("Archive '"+getPath()+"' is not a pak archive.");
+		int version = data.getInt();
+		if (version != VERSION)
+			throw new IOException("Archive '"+getPath()+"' has unsupported version "+version+".");
+
+		long indexOffset = data.getLong();
+		if (indexOffset < HEADER_SIZE || indexOffset > data.limit())
+			throw new IOException("Archive '"+getPath()+"' has a bad index offset.");
+		data.position((int)indexOffset);
+
+		int count = data.getInt();
+		for (int i = 0; i < count; i++)
+		{
+			byte[] nameBytes = new byte[data.getShort() & 0x0ffff];
+			data.get(nameBytes);
+			String name = new String(nameBytes, NAME_CHARSET);
+			long offset = data.getLong();
+			long storedSize = data.getInt() & 0x0ffffffffL;
+			long size = data.getInt() & 0x0ffffffffL;
+			int method = data.get();
+			long modified = data.getLong();
+
+			if (offset < HEADER_SIZE || offset + storedSize > indexOffset)
+				throw new IOException("Entry '"+name+"' in archive '"+getPath()+"' is out of bounds.");
+			if (method != METHOD_STORED && method != METHOD_DEFLATE)
+				throw new IOException("Entry '"+name+"' in archive '"+getPath()+"' uses an unsupported compression method.");
+			entries.put(name, new Entry(offset, storedSize, size, method, true, modified));
+		}
+	}
+
+}
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.resource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import com.blackrook.commons.list.List;
+
+/**
+ * Writes pak archives for {@link OGLPakArchive}.
+ * <p>
+ * Entries are written in the order they are added, and the index is written
+ * when the writer is closed. Entries that are compressed, but do not get any
+ * smaller, are stored instead.
+ * @author Matthew Tropiano
+ */
+public class OGLPakWriter
+{
+	/** The file being written. */
+	private RandomAccessFile out;
+	/** Entries written so far. */
+	private List<IndexEntry> index;
+	/** Names written so far. */
+	private Set<String> names;
+	/** Compressor. */
+	private Deflater deflater;
+
+	/**
+	 * Creates a new pak archive, replacing the file if it exists.
+	 * @param file the archive file.
+	 * @throws IOException if the file could not be written.
+	 */
+	public OGLPakWriter(File file) throws IOException
+	{
+		this.out = new RandomAccessFile(file, "rw");
+		this.out.setLength(0L);
+		this.index = new List<IndexEntry>();
+		this.names = new HashSet<String>();
+		this.deflater = new Deflater(Deflater.BEST_COMPRESSION);
+
+		out.write(OGLPakArchive.MAGIC);
+		out.writeInt(OGLPakArchive.VERSION);
+		out.writeLong(0L);
+	}
+
+	/**
+	 * Adds a file as an entry, using its modified time.
+	 * @param name the entry name (a slash-separated path).
+	 * @param file the file to add.
+	 * @param compress if true, the entry's data is compressed.
+	 * @throws IOException if the file could not be read or the archive written.
+	 */
+	public void addFile(String name, File file, boolean compress) throws IOException
+	{
+		InputStream in = new FileInputStream(file);
+		try {
+			addEntry(name, in, file.lastModified(), compress);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Adds all of the files in a directory and its subdirectories as entries,
+	 * named by their paths relative to the directory.
+	 * @param directory the directory.
+	 * @param compress if true, the entries' data is compressed.
+	 * @throws IOException if a file could not be read or the archive written.
+	 */
+	public void addDirectory(File directory, boolean compress) throws IOException
+	{
+		addDirectory(directory, "", compress);
+	}
+
+	private void addDirectory(File directory, String prefix, boolean compress) throws IOException
+	{
+		File[] files = directory.listFiles();
+		if (files == null)
+			throw new IOException("Could not list directory '"+directory.getPath()+"'.");
+		for (File f : files)
+		{
+			if (f.isDirectory())
+				addDirectory(f, prefix + f.getName() + "/", compress);
+			else
+				addFile(prefix + f.getName(), f, compress);
+		}
+	}
+
+	/**
+	 * Adds an entry, reading its data from a stream.
+	 * @param name the entry name (a slash-separated path).
+	 * @param in the stream to read the data from. It is not closed.
+	 * @param modifiedTime the entry's modified time in milliseconds since the epoch, or 0 if unknown.
+	 * @param compress if true, the entry's data is compressed.
+	 * @throws IOException if the data could not be read or the archive written.
+	 * @throws IllegalArgumentException if the name is already in the archive, or is too long.
+	 */
+	public void addEntry(String name, InputStream in, long modifiedTime, boolean compress) throws IOException
+	{
+		byte[] nameBytes = name.getBytes(OGLPakArchive.NAME_CHARSET);
+		if (nameBytes.length > 0x0ffff)
+			throw new IllegalArgumentException("Entry name is too long: "+name);
+		if (!names.add(name))
+			throw new IllegalArgumentException("Entry already added: "+name);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) > 0)
+			bos.write(buffer, 0, n);
+		byte[] data = bos.toByteArray();
+
+		int method = OGLResourceArchive.METHOD_STORED;
+		byte[] stored = data;
+		if (compress)
+		{
+			byte[] compressed = deflate(data);
+			if (compressed.length < data.length)
+			{
+				method = OGLResourceArchive.METHOD_DEFLATE;
+				stored = compressed;
+			}
+		}
+
+		IndexEntry entry = new IndexEntry();
+		entry.nameBytes = nameBytes;
+		entry.offset = out.getFilePointer();
+		entry.storedSize = stored.length;
+		entry.size = data.length;
+		entry.method = method;
+		entry.modifiedTime = modifiedTime;
+		out.write(stored);
+		index.add(entry);
+	}
+
+	/**
+	 * Writes the index and closes the archive.
+	 * @throws IOException if the archive could not be written.
+	 */
+	public void close() throws IOException
+	{
+		try {
+			long indexOffset = out.getFilePointer();
+			out.writeInt(index.size());
+			for (int i = 0; i < index.size(); i++)
+			{
+				IndexEntry entry = index.getByIndex(i);
+				out.writeShort(entry.nameBytes.length);
+				out.write(entry.nameBytes);
+				out.writeLong(entry.offset);
+				out.writeInt(entry.storedSize);
+				out.writeInt(entry.size);
+				out.writeByte(entry.method);
+				out.writeLong(entry.modifiedTime);
+			}
+			out.seek(OGLPakArchive.HEADER_SIZE - 8);
+			out.writeLong(indexOffset);
+		} finally {
+			deflater.end();
+			out.close();
+		}
+	}
+
+	/**
+	 * Compresses data with zlib Deflate.
+	 */
+	private byte[] deflate(byte[] data)
+	{
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 2 + 16);
+		byte[] buffer = new byte[8192];
+		while (!deflater.finished())
+		{
+			int n = deflater.deflate(buffer);
+			bos.write(buffer, 0, n);
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * An entry to write to the index.
+	 */
+	private static class IndexEntry
+	{
+		byte[] nameBytes;
+		long offset;
+		int storedSize;
+		int size;
+		int method;
+		long modifiedTime;
+	}
+
+}
@@ -0,0 +1,467 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A read-only archive of resource data, read from one memory-mapped file.
+ * <p>
+ * The archive's index is read once when it is opened, and entries are read
+ * straight out of the mapping: stored entries are read from zero-copy slices
+ * of it (see {@link #getEntryData(String)}), and compressed ones are inflated
+ * from them. This saves opening a file for every resource.
+ * <p>
+ * Entries are addressed by name (a slash-separated path inside the archive), and
+ * have a full path made of the archive's path, {@link #ENTRY_SEPARATOR}, and the name,
+ * which is what resources in archives return as their paths.
+ * Archives are safe to read from several threads at once.
+ * <p>
+ * Because mapped files cannot be unmapped explicitly, the mapping is released
+ * when the archive is garbage-collected, not when it is closed.
+ * @author Matthew Tropiano
+ */
+public abstract class OGLResourceArchive
+{
+	/** Separates an archive's path from an entry name in an entry's full path. */
+	public static final String ENTRY_SEPARATOR = "!/";
+
+	/** Entry compression method: stored as-is. */
+	protected static final int METHOD_STORED = 0;
+	/** Entry compression method: Deflate. */
+	protected static final int METHOD_DEFLATE = 1;
+
+	/** The archive file. */
+	private File file;
+	/** The archive's file channel. */
+	private FileChannel channel;
+	/** The mapping of the whole archive. */
+	private ByteBuffer data;
+	/** Entries by name. */
+	private Map<String, Entry> entries;
+
+	/**
+	 * Opens and maps an archive file, and reads its index.
+	 * @param file the archive file.
+	 * @throws IOException if the file could not be read, is bigger than 2GB, or its index is bad.
+	 */
+	protected OGLResourceArchive(File file) throws IOException
+	{
+		this.file = file.getAbsoluteFile();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			this.channel = raf.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Archive '"+file.getPath()+"' is too large to be mapped.");
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+			this.data = mapped.asReadOnlyBuffer();
+			Map<String, Entry> map = new HashMap<String, Entry>();
+			readIndex(data.duplicate(), map);
+			this.entries = Collections.unmodifiableMap(map);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		} catch (RuntimeException e) {
+			raf.close();
+			throw new IOException("Archive '"+file.getPath()+"' is malformed.", e);
+		}
+	}
+
+	/**
+	 * Opens an archive file: a pak archive (see {@link OGLPakArchive})
+	 * or a zip archive (see {@link OGLZipArchive}), judging by its first bytes.
+	 * @param file the archive file.
+	 * @return the opened archive.
+	 * @throws IOException if the file could not be read or is not an archive.
+	 */
+	public static OGLResourceArchive open(File file) throws IOException
+	{
+		byte[] magic = new byte[4];
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.read(magic) < 4)
+				throw new IOException("File '"+file.getPath()+"' is not an archive.");
+		} finally {
+			raf.close();
+		}
+
+		if (OGLPakArchive.isPakHeader(magic))
+			return new OGLPakArchive(file);
+		else if (OGLZipArchive.isZipHeader(magic))
+			return new OGLZipArchive(file);
+		else
+			throw new IOException("File '"+file.getPath()+"' is not an archive.");
+	}
+
+	/**
+	 * Reads the archive's index from its mapped data into a map of entries by name.
+	 * @param data the archive data, positioned at 0.
+	 * @param entries the map to add entries to.
+	 * @throws IOException if the index is bad.
+	 */
+	protected abstract void readIndex(ByteBuffer data, Map<String, Entry> entries) throws IOException;
+
+	/**
+	 * Gets the archive file.
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * Gets the absolute path of the archive file.
+	 */
+	public String getPath()
+	{
+		return file.getPath();
+	}
+
+	/**
+	 * Gets the full path of an entry: the archive's path, {@link #ENTRY_SEPARATOR}, and the entry name.
+	 * @param name the entry name.
+	 */
+	public String getEntryPath(String name)
+	{
+		return getPath() + ENTRY_SEPARATOR + name;
+	}
+
+	/**
+	 * Gets the name of an entry from its full path.
+	 * @param path the full path.
+	 * @return the entry name, or null if the path is not in this archive.
+	 */
+	public String getEntryName(String path)
+	{
+		String prefix = getPath() + ENTRY_SEPARATOR;
+		return path.startsWith(prefix) ? path.substring(prefix.length()) : null;
+	}
+
+	/**
+	 * Resolves the full path of an entry referenced by another entry (for example, a shader include).
+	 * Relative names are resolved against the referencing entry's directory, and
+	 * names starting with a slash are resolved against the root of the archive.
+	 * @param parentPath the full path of the referencing entry.
+	 * @param name the referenced name.
+	 * @return the resolved full path.
+	 */
+	public String resolveEntryPath(String parentPath, String name)
+	{
+		String parent = getEntryName(parentPath);
+		String base;
+		if (name.startsWith("/") || parent == null)
+			base = "";
+		else
+			base = parent.substring(0, parent.lastIndexOf('/') + 1);
+
+		StringBuilder sb = new StringBuilder();
+		for (String part : (base + name).split("/"))
+		{
+			if (part.length() == 0 || part.equals("."))
+				continue;
+			if (part.equals(".."))
+			{
+				int slash = sb.lastIndexOf("/");
+				sb.setLength(slash < 0 ? 0 : slash);
+				continue;
+			}
+			if (sb.length() > 0)
+				sb.append('/');
+			sb.append(part);
+		}
+		return getEntryPath(sb.toString());
+	}
+
+	/**
+	 * Returns true if this archive contains an entry.
+	 * @param name the entry name.
+	 */
+	public boolean contains(String name)
+	{
+		return entries.containsKey(name);
+	}
+
+	/**
+	 * Gets the names of all of the entries in this archive.
+	 */
+	public String[] getEntryNames()
+	{
+		String[] out = new String[entries.size()];
+		entries.keySet().toArray(out);
+		return out;
+	}
+
+	/**
+	 * Gets the amount of entries in this archive.
+	 */
+	public int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Gets the uncompressed size of an entry in bytes.
+	 * @param name the entry name.
+	 * @return the size, or -1 if there is no such entry.
+	 */
+	public long getEntrySize(String name)
+	{
+		Entry entry = entries.get(name);
+		return entry != null ? entry.size : -1L;
+	}
+
+	/**
+	 * Gets the time that an entry was last modified, in milliseconds since the epoch.
+	 * If the archive does not record it, this is the archive file's modified time.
+	 * @param name the entry name.
+	 * @return the time, or 0 if there is no such entry.
+	 */
+	public long getEntryModifiedTime(String name)
+	{
+		Entry entry = entries.get(name);
+		if (entry == null)
+			return 0L;
+		return entry.modifiedTime != 0L ? entry.modifiedTime : file.lastModified();
+	}
+
+	/**
+	 * Returns true if an entry is compressed.
+	 * @param name the entry name.
+	 */
+	public boolean isCompressed(String name)
+	{
+		Entry entry = entries.get(name);
+		return entry != null && entry.method != METHOD_STORED;
+	}
+
+	/**
+	 * Gets the data of a stored entry, without copying it.
+	 * @param name the entry name.
+	 * @return a read-only buffer of the entry's data, positioned at 0, or null
+	 * if there is no such entry or it is compressed.
+	 */
+	public ByteBuffer getEntryData(String name)
+	{
+		Entry entry = entries.get(name);
+		if (entry == null || entry.method != METHOD_STORED)
+			return null;
+		return slice(entry);
+	}
+
+	/**
+	 * Opens a stream for reading an entry.
+	 * Stored entries are read from the mapping without copying, and compressed ones are inflated.
+	 * @param name the entry name.
+	 * @return an open stream, or null if there is no such entry.
+	 * @throws IOException if the entry could not be read.
+	 */
+	public InputStream openStream(String name) throws IOException
+	{
+		Entry entry = entries.get(name);
+		if (entry == null)
+			return null;
+
+		switch (entry.method)
+		{
+			case METHOD_STORED:
+				return new BufferInputStream(slice(entry), false);
+			case METHOD_DEFLATE:
+				// raw deflate data needs a dummy byte at the end for the inflater.
+				InputStream in = new BufferInputStream(slice(entry), !entry.zlibHeader);
+				return new InflaterInputStream(in, new Inflater(!entry.zlibHeader), 8192)
+				{
+					private boolean closed = false;
+					@Override
+					public void close() throws IOException
+					{
+						if (!closed)
+						{
+							closed = true;
+							inf.end();
+						}
+						super.close();
+					}
+				};
+			default:
+				throw new IOException("Entry '"+name+"' in archive '"+getPath()+"' uses an unsupported compression method.");
+		}
+	}
+
+	/**
+	 * Opens a stream for reading an entry by its full path.
+	 * @param path the full path of the entry.
+	 * @return an open stream, or null if the path is not an entry in this archive.
+	 * @throws IOException if the entry could not be read.
+	 * @see #getEntryPath(String)
+	 */
+	public InputStream openStreamForPath(String path) throws IOException
+	{
+		String name = getEntryName(path);
+		return name != null ? openStream(name) : null;
+	}
+
+	/**
+	 * Closes the archive's file.
+	 * Streams and buffers that are already open stay readable until they are garbage-collected.
+	 */
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+
+	/**
+	 * Returns a read-only slice of the mapping with an entry's stored data.
+	 */
+	private ByteBuffer slice(Entry entry)
+	{
+		ByteBuffer out = data.duplicate();
+		out.limit((int)(entry.offset + entry.storedSize));
+		out.position((int)entry.offset);
+		return out.slice();
+	}
+
+	@Override
+	public String toString()
+	{
+		return getPath();
+	}
+
+	/**
+	 * An archive index entry.
+	 */
+	protected static class Entry
+	{
+		/** Offset of the entry's stored data in the archive. */
+		long offset;
+		/** Size of the entry's stored data. */
+		long storedSize;
+		/** Uncompressed size of the entry's data. */
+		long size;
+		/** Compression method. */
+		int method;
+		/** Does compressed data have a zlib header? */
+		boolean zlibHeader;
+		/** Modified time in milliseconds since the epoch, 0 if unknown. */
+		long modifiedTime;
+
+		/**
+		 * Creates a new entry.
+		 * @param offset the offset of the entry's stored data in the archive.
+		 * @param storedSize the size of the entry's stored data.
+		 * @param size the uncompressed size of the entry's data.
+		 * @param method the compression method.
+		 * @param zlibHeader if the compressed data has a zlib header.
+		 * @param modifiedTime the modified time in milliseconds since the epoch, 0 if unknown.
+		 */
+		protected Entry(long offset, long storedSize, long size, int method, boolean zlibHeader, long modifiedTime)
+		{
+			this.offset = offset;
+			this.storedSize = storedSize;
+			this.size = size;
+			this.method = method;
+			this.zlibHeader = zlibHeader;
+			this.modifiedTime = modifiedTime;
+		}
+
+	}
+
+	/**
+	 * Input stream that reads from a buffer.
+	 */
+	private static class BufferInputStream extends InputStream
+	{
+		private ByteBuffer buffer;
+		private int mark;
+		/** Is a dummy byte still to be read after the buffer's end? */
+		private boolean pad;
+
+		BufferInputStream(ByteBuffer buffer, boolean pad)
+		{
+			this.buffer = buffer;
+			this.mark = 0;
+			this.pad = pad;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			if (buffer.hasRemaining())
+				return buffer.get() & 0x0ff;
+			if (pad)
+			{
+				pad = false;
+				return 0;
+			}
+			return -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+			{
+				if (!pad)
+					return -1;
+				pad = false;
+				b[off] = 0;
+				return 1;
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			int s = (int)Math.max(0L, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + s);
+			return s;
+		}
+
+		@Override
+		public int available() throws IOException
+		{
+			return buffer.remaining();
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return true;
+		}
+
+		@Override
+		public synchronized void mark(int readlimit)
+		{
+			mark = buffer.position();
+		}
+
+		@Override
+		public synchronized void reset() throws IOException
+		{
+			buffer.position(mark);
+		}
+
+	}
+
+}
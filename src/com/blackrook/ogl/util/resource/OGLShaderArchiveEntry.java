@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.resource;
+
+/**
+ * A shader whose program sources are stored in a resource archive, to use as a shader resource.
+ * Files included by the sources are read from the same archive.
+ * @author Matthew Tropiano
+ */
+public class OGLShaderArchiveEntry extends OGLShaderResourceAbstract
+{
+	private OGLResourceArchive archive;
+	private String vertexEntry;
+	private String geometryEntry;
+	private String fragmentEntry;
+
+	/**
+	 * Creates a new shader using a vertex program. 
+	 * @param archive the archive.
+	 * @param vertexEntry the entry name of the vertex program.  
+	 */
+	public OGLShaderArchiveEntry(OGLResourceArchive archive, String vertexEntry)
+	{
+		this(archive, vertexEntry, null, null);
+	}
+
+	/**
+	 * Creates a new shader using a vertex and fragment program. 
+	 * @param archive the archive.
+	 * @param vertexEntry the entry name of the vertex program.  
+	 * @param fragmentEntry the entry name of the fragment program.
+	 */
+	public OGLShaderArchiveEntry(OGLResourceArchive archive, String vertexEntry, String fragmentEntry)
+	{
+		this(archive, vertexEntry, null, fragmentEntry);
+	}
+
+	/**
+	 * Creates a new shader using a vertex, geometry, and fragment program. 
+	 * @param archive the archive.
+	 * @param vertexEntry the entry name of the vertex program.  
+	 * @param geometryEntry the entry name of the geometry program.
+	 * @param fragmentEntry the entry name of the fragment program.
+	 */
+	public OGLShaderArchiveEntry(OGLResourceArchive archive, String vertexEntry, String geometryEntry, String fragmentEntry)
+	{
+		this.archive = archive;
+		this.vertexEntry = vertexEntry;
+		this.geometryEntry = geometryEntry;
+		this.fragmentEntry = fragmentEntry;
+	}
+
+	/**
+	 * Gets the archive that this shader's programs are in.
+	 */
+	public OGLResourceArchive getArchive()
+	{
+		return archive;
+	}
+
+	@Override
+	public String getName()
+	{
+		int dot = vertexEntry.lastIndexOf('.');
+		return dot > vertexEntry.lastIndexOf('/') ? vertexEntry.substring(0, dot) : vertexEntry;
+	}
+
+	@Override
+	public String getVertexPath()
+	{
+		return vertexEntry != null ? archive.getEntryPath(vertexEntry) : null;
+	}
+
+	@Override
+	public String getGeometryPath()
+	{
+		return geometryEntry != null ? archive.getEntryPath(geometryEntry) : null;
+	}
+
+	@Override
+	public String getFragmentPath()
+	{
+		return fragmentEntry != null ? archive.getEntryPath(fragmentEntry) : null;
+	}
+
+}
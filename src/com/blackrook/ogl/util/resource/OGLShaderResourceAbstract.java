@@ -19,11 +19,14 @@ public abstract class OGLShaderResourceAbstract implements OGLShaderResource
 {
 	/** The list of uniforms. */
 	private Queue<OGLUniform> uniformList;
+	/** The list of defines. */
+	private Queue<String> defineList;
 	
 	/** Default constructor. */
 	protected OGLShaderResourceAbstract()
 	{
 		uniformList = new Queue<OGLUniform>();
+		defineList = new Queue<String>();
 	}
 	
 	/**
@@ -44,4 +47,34 @@ public abstract class OGLShaderResourceAbstract implements OGLShaderResource
 		return uniformList;
 	}
 	
+	/**
+	 * Adds a define to this resource's programs.
+	 * @param name the name of the defined macro.
+	 */
+	public void addDefine(String name)
+	{
+		defineList.add(name);
+	}
+	
+	/**
+	 * Adds a define with a value to this resource's programs.
+	 * @param name the name of the defined macro.
+	 * @param value the macro's value.
+	 */
+	public void addDefine(String name, String value)
+	{
+		defineList.add(name + " " + value);
+	}
+	
+	/**
+	 * Gets the list of defines injected into this resource's programs, 
+	 * as the text after <code>#define</code> (for example, <code>"USE_FOG"</code> 
+	 * or <code>"LIGHT_COUNT 4"</code>). Resources that use the same programs
+	 * with different defines are different permutations of a shader.
+	 */
+	public Queue<String> getDefines()
+	{
+		return defineList;
+	}
+	
 }
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A texture stored in a resource archive, to use as a texture resource handle.
+ * @author Matthew Tropiano
+ */
+public class OGLTextureArchiveEntry extends OGLTextureResourceAbstract
+{
+	private OGLResourceArchive archive;
+	private String entryName;
+
+	/**
+	 * Creates a new texture resource for an archive entry.
+	 * @param archive the archive.
+	 * @param entryName the name of the entry in the archive.
+	 */
+	public OGLTextureArchiveEntry(OGLResourceArchive archive, String entryName)
+	{
+		super();
+		this.archive = archive;
+		this.entryName = entryName;
+	}
+
+	/**
+	 * Gets the archive that this texture is in.
+	 */
+	public OGLResourceArchive getArchive()
+	{
+		return archive;
+	}
+
+	/**
+	 * Gets the name of this texture's entry in the archive.
+	 */
+	public String getEntryName()
+	{
+		return entryName;
+	}
+
+	/**
+	 * Opens a stream for reading this texture's data.
+	 * @return an open stream, or null if the archive does not contain the entry.
+	 */
+	public InputStream openStream() throws IOException
+	{
+		return archive.openStream(entryName);
+	}
+
+	@Override
+	public String getName()
+	{
+		int dot = entryName.lastIndexOf('.');
+		return dot > entryName.lastIndexOf('/') ? entryName.substring(0, dot) : entryName;
+	}
+
+	@Override
+	public String getPath()
+	{
+		return archive.getEntryPath(entryName);
+	}
+
+}
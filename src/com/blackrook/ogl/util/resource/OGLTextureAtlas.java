@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.resource;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import com.blackrook.commons.list.List;
+import com.blackrook.ogl.object.texture.OGLTexture2D;
+
+/**
+ * A texture atlas builder that packs small images into shared pages.
+ * <p>
+ * Each image is surrounded by a padding border that repeats its edge pixels,
+ * so that filtering at the edges of a region does not sample its neighbors.
+ * Images are only packed with other images of the same group (for example,
+ * images that need the same filtering), and a page is dropped once all
+ * of its regions are released.
+ * <p>
+ * This class is not thread-safe, and is meant to be used from the
+ * thread that uploads the pages.
+ * @author Matthew Tropiano
+ */
+public class OGLTextureAtlas
+{
+	/** Page width. */
+	private int pageWidth;
+	/** Page height. */
+	private int pageHeight;
+	/** Padding around each region in pixels. */
+	private int padding;
+	/** The list of pages. */
+	private List<Page> pages;
+
+	/**
+	 * Creates a new atlas with square pages and a padding of 2 pixels.
+	 * @param pageSize the width and height of each page in pixels.
+	 */
+	public OGLTextureAtlas(int pageSize)
+	{
+		this(pageSize, pageSize, 2);
+	}
+
+	/**
+	 * Creates a new atlas.
+	 * @param pageWidth the width of each page in pixels.
+	 * @param pageHeight the height of each page in pixels.
+	 * @param padding the padding around each region in pixels.
+	 * @throws IllegalArgumentException if the page size is not positive or the padding is negative.
+	 */
+	public OGLTextureAtlas(int pageWidth, int pageHeight, int padding)
+	{
+		if (pageWidth <= 0 || pageHeight <= 0)
+			throw new IllegalArgumentException("Page size must be greater than 0.");
+		if (padding < 0)
+			throw new IllegalArgumentException("Padding cannot be less than 0.");
+		this.pageWidth = pageWidth;
+		this.pageHeight = pageHeight;
+		this.padding = padding;
+		this.pages = new List<Page>(4);
+	}
+
+	/**
+	 * Returns the width of each page in pixels.
+	 */
+	public int getPageWidth()
+	{
+		return pageWidth;
+	}
+
+	/**
+	 * Returns the height of each page in pixels.
+	 */
+	public int getPageHeight()
+	{
+		return pageHeight;
+	}
+
+	/**
+	 * Returns the padding around each region in pixels.
+	 */
+	public int getPadding()
+	{
+		return padding;
+	}
+
+	/**
+	 * Returns the amount of pages in this atlas.
+	 */
+	public int getPageCount()
+	{
+		return pages.size();
+	}
+
+	/**
+	 * Returns a page in this atlas.
+	 */
+	public Page getPage(int index)
+	{
+		return pages.getByIndex(index);
+	}
+
+	/**
+	 * Checks if an image of a particular size can fit on a page.
+	 */
+	public boolean fits(int width, int height)
+	{
+		return width + padding * 2 <= pageWidth && height + padding * 2 <= pageHeight;
+	}
+
+	/**
+	 * Packs an image into a page of the same group, creating a new page if necessary.
+	 * The page's changed area is marked dirty.
+	 * @param image the image to add.
+	 * @param group the packing group. Images are only packed onto pages with an equal group.
+	 * @return the region that the image was packed into, or null if it does not fit on a page.
+	 */
+	public OGLTextureAtlasRegion add(BufferedImage image, Object group)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if (width <= 0 || height <= 0 || !fits(width, height))
+			return null;
+
+		Rectangle rect = null;
+		Page page = null;
+		for (int i = 0; i < pages.size() && rect == null; i++)
+		{
+			page = pages.getByIndex(i);
+			if (page.group.equals(group))
+				rect = page.packer.pack(width + padding * 2, height + padding * 2);
+		}
+
+		if (rect == null)
+		{
+			page = new Page(this, group, pageWidth, pageHeight);
+			pages.add(page);
+			rect = page.packer.pack(width + padding * 2, height + padding * 2);
+		}
+
+		page.draw(image, rect, padding);
+		page.regionCount++;
+		return new OGLTextureAtlasRegion(page, rect.x + padding, rect.y + padding, width, height);
+	}
+
+	/**
+	 * Releases a region from its page.
+	 * The space is not reused, but if this was the page's last region, the page is removed.
+	 * @param region the region to release.
+	 * @return true if the region's page is now empty and was removed, false otherwise.
+	 */
+	public boolean release(OGLTextureAtlasRegion region)
+	{
+		Page page = region.getPage();
+		if (page.atlas != this || page.regionCount <= 0)
+			return false;
+		if (--page.regionCount > 0)
+			return false;
+		pages.remove(page);
+		return true;
+	}
+
+	/**
+	 * A single atlas page.
+	 */
+	public static class Page
+	{
+		/** The atlas that this belongs to. */
+		private OGLTextureAtlas atlas;
+		/** The page's group. */
+		private Object group;
+		/** Page image. */
+		private BufferedImage image;
+		/** Page packer. */
+		private OGLTextureAtlasPacker packer;
+		/** Amount of regions not released. */
+		private int regionCount;
+		/** Area changed since it was last cleared. */
+		private Rectangle dirty;
+		/** Texture for this page, if any. */
+		private OGLTexture2D texture;
+
+		private Page(OGLTextureAtlas atlas, Object group, int width, int height)
+		{
+			this.atlas = atlas;
+			this.group = group;
+			this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			this.packer = new OGLTextureAtlasPacker(width, height);
+			this.regionCount = 0;
+			this.dirty = null;
+			this.texture = null;
+		}
+
+		/**
+		 * Draws an image and its padding into a packed rectangle, and marks it dirty.
+		 */
+		private void draw(BufferedImage source, Rectangle rect, int padding)
+		{
+			int sw = source.getWidth();
+			int sh = source.getHeight();
+			int[] src = source.getRGB(0, 0, sw, sh, null, 0, sw);
+			int[] out = new int[rect.width * rect.height];
+			for (int y = 0; y < rect.height; y++)
+			{
+				int sy = Math.min(Math.max(y - padding, 0), sh - 1);
+				for (int x = 0; x < rect.width; x++)
+				{
+					int sx = Math.min(Math.max(x - padding, 0), sw - 1);
+					out[y * rect.width + x] = src[sy * sw + sx];
+				}
+			}
+			image.setRGB(rect.x, rect.y, rect.width, rect.height, out, 0, rect.width);
+			dirty = dirty == null ? new Rectangle(rect) : dirty.union(rect);
+		}
+
+		/** Returns the atlas that this page belongs to. */
+		public OGLTextureAtlas getAtlas()
+		{
+			return atlas;
+		}
+
+		/** Returns the packing group of this page. */
+		public Object getGroup()
+		{
+			return group;
+		}
+
+		/** Returns the page width in pixels. */
+		public int getWidth()
+		{
+			return image.getWidth();
+		}
+
+		/** Returns the page height in pixels. */
+		public int getHeight()
+		{
+			return image.getHeight();
+		}
+
+		/** Returns the page image. */
+		public BufferedImage getImage()
+		{
+			return image;
+		}
+
+		/** Returns the amount of regions on this page that were not released. */
+		public int getRegionCount()
+		{
+			return regionCount;
+		}
+
+		/** Returns the fraction of this page's area that was packed. */
+		public float getUsage()
+		{
+			return (float)((double)packer.getUsedArea() / ((long)getWidth() * getHeight()));
+		}
+
+		/** Returns true if part of this page changed since the dirty area was last cleared. */
+		public boolean isDirty()
+		{
+			return dirty != null;
+		}
+
+		/**
+		 * Returns the changed area of this page and clears it.
+		 * @return the area, or null if nothing changed.
+		 */
+		public Rectangle clearDirty()
+		{
+			Rectangle out = dirty;
+			dirty = null;
+			return out;
+		}
+
+		/** Returns the texture for this page, or null if not set. */
+		public OGLTexture2D getTexture()
+		{
+			return texture;
+		}
+
+		/** Sets the texture for this page. */
+		public void setTexture(OGLTexture2D texture)
+		{
+			this.texture = texture;
+		}
+
+	}
+
+}
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.resource;
+
+import java.awt.Rectangle;
+
+/**
+ * A skyline rectangle packer for texture atlas pages.
+ * Rectangles are placed at the lowest (then left-most) position
+ * along the top edge of the rectangles already packed.
+ * Space is not reclaimed until the packer is cleared.
+ * @author Matthew Tropiano
+ */
+public class OGLTextureAtlasPacker
+{
+	/** Area width. */
+	private int width;
+	/** Area height. */
+	private int height;
+	
+	/** Skyline segment starting x-coordinates, left to right. */
+	private int[] segmentX;
+	/** Skyline segment heights. */
+	private int[] segmentY;
+	/** Skyline segment widths. */
+	private int[] segmentWidth;
+	/** Amount of skyline segments. */
+	private int segmentCount;
+	/** Packed area. */
+	private long usedArea;
+	
+	/**
+	 * Creates a new packer for an area.
+	 * @param width the area width.
+	 * @param height the area height.
+	 */
+	public OGLTextureAtlasPacker(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		this.segmentX = new int[16];
+		this.segmentY = new int[16];
+		this.segmentWidth = new int[16];
+		clear();
+	}
+	
+	/**
+	 * Returns the area width.
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+	
+	/**
+	 * Returns the area height.
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+	
+	/**
+	 * Returns the total area of all rectangles packed since the last clear.
+	 */
+	public long getUsedArea()
+	{
+		return usedArea;
+	}
+	
+	/**
+	 * Clears this packer.
+	 */
+	public void clear()
+	{
+		segmentCount = 1;
+		segmentX[0] = 0;
+		segmentY[0] = 0;
+		segmentWidth[0] = width;
+		usedArea = 0L;
+	}
+	
+	/**
+	 * Packs a rectangle.
+	 * @param rectWidth the rectangle width.
+	 * @param rectHeight the rectangle height.
+	 * @return the packed rectangle, or null if it does not fit.
+	 */
+	public Rectangle pack(int rectWidth, int rectHeight)
+	{
+		if (rectWidth <= 0 || rectHeight <= 0 || rectWidth > width || rectHeight > height)
+			return null;
+
+		int bestIndex = -1;
+		int bestTop = Integer.MAX_VALUE;
+		int bestWidth = Integer.MAX_VALUE;
+		for (int i = 0; i < segmentCount; i++)
+		{
+			int y = fit(i, rectWidth, rectHeight);
+			if (y < 0)
+				continue;
+			int top = y + rectHeight;
+			if (top < bestTop || (top == bestTop && segmentWidth[i] < bestWidth))
+			{
+				bestIndex = i;
+				bestTop = top;
+				bestWidth = segmentWidth[i];
+			}
+		}
+		
+		if (bestIndex < 0)
+			return null;
+		
+		Rectangle out = new Rectangle(segmentX[bestIndex], bestTop - rectHeight, rectWidth, rectHeight);
+		addSegment(bestIndex, out.x, bestTop, rectWidth);
+		usedArea += (long)rectWidth * rectHeight;
+		return out;
+	}
+	
+	/**
+	 * Returns the y-coordinate that a rectangle would be placed at 
+	 * if its left edge is at a segment, or -1 if it does not fit.
+	 */
+	private int fit(int index, int rectWidth, int rectHeight)
+	{
+		int x = segmentX[index];
+		if (x + rectWidth > width)
+			return -1;
+		
+		int y = 0;
+		int remaining = rectWidth;
+		for (int i = index; remaining > 0; i++)
+		{
+			y = Math.max(y, segmentY[i]);
+			if (y + rectHeight > height)
+				return -1;
+			remaining -= segmentWidth[i];
+		}
+		return y;
+	}
+	
+	/**
+	 * Inserts a new segment, trimming or removing the ones it covers, 
+	 * and merging neighbors of the same height.
+	 */
+	private void addSegment(int index, int x, int y, int segWidth)
+	{
+		ensureCapacity(segmentCount + 1);
+		System.arraycopy(segmentX, index, segmentX, index + 1, segmentCount - index);
+		System.arraycopy(segmentY, index, segmentY, index + 1, segmentCount - index);
+		System.arraycopy(segmentWidth, index, segmentWidth, index + 1, segmentCount - index);
+		segmentX[index] = x;
+		segmentY[index] = y;
+		segmentWidth[index] = segWidth;
+		segmentCount++;
+		
+		int right = x + segWidth;
+		int i = index + 1;
+		while (i < segmentCount && segmentX[i] < right)
+		{
+			int segRight = segmentX[i] + segmentWidth[i];
+			if (segRight <= right)
+				removeSegment(i);
+			else
+			{
+				segmentWidth[i] = segRight - right;
+				segmentX[i] = right;
+				break;
+			}
+		}
+		
+		for (i = 0; i < segmentCount - 1; )
+		{
+			if (segmentY[i] == segmentY[i + 1])
+			{
+				segmentWidth[i] += segmentWidth[i + 1];
+				removeSegment(i + 1);
+			}
+			else
+				i++;
+		}
+	}
+
+	/**
+	 * Removes a segment.
+	 */
+	private void removeSegment(int index)
+	{
+		System.arraycopy(segmentX, index + 1, segmentX, index, segmentCount - index - 1);
+		System.arraycopy(segmentY, index + 1, segmentY, index, segmentCount - index - 1);
+		System.arraycopy(segmentWidth, index + 1, segmentWidth, index, segmentCount - index - 1);
+		segmentCount--;
+	}
+	
+	/**
+	 * Grows the segment arrays if needed.
+	 */
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity <= segmentX.length)
+			return;
+		int newLength = Math.max(capacity, segmentX.length * 2);
+		int[] nx = new int[newLength];
+		int[] ny = new int[newLength];
+		int[] nw = new int[newLength];
+		System.arraycopy(segmentX, 0, nx, 0, segmentCount);
+		System.arraycopy(segmentY, 0, ny, 0, segmentCount);
+		System.arraycopy(segmentWidth, 0, nw, 0, segmentCount);
+		segmentX = nx;
+		segmentY = ny;
+		segmentWidth = nw;
+	}
+	
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.resource;
+
+/**
+ * A region of an atlas page that holds a single packed image.
+ * Texture coordinates in the range [0, 1] for the original image
+ * are mapped into this region by {@link #mapS(float)} and {@link #mapT(float)}.
+ * @author Matthew Tropiano
+ */
+public class OGLTextureAtlasRegion
+{
+	/** The page that this region is on. */
+	private OGLTextureAtlas.Page page;
+	/** Pixel x-coordinate on the page (not including padding). */
+	private int x;
+	/** Pixel y-coordinate on the page (not including padding). */
+	private int y;
+	/** Width in pixels. */
+	private int width;
+	/** Height in pixels. */
+	private int height;
+	
+	/** Page texture coordinates. */
+	private float s0, t0, s1, t1;
+	
+	OGLTextureAtlasRegion(OGLTextureAtlas.Page page, int x, int y, int width, int height)
+	{
+		this.page = page;
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+		this.s0 = (float)x / page.getWidth();
+		this.t0 = (float)y / page.getHeight();
+		this.s1 = (float)(x + width) / page.getWidth();
+		this.t1 = (float)(y + height) / page.getHeight();
+	}
+
+	/** Returns the page that this region is on. */
+	public OGLTextureAtlas.Page getPage()
+	{
+		return page;
+	}
+
+	/** Returns the pixel x-coordinate of this region on its page. */
+	public int getX()
+	{
+		return x;
+	}
+
+	/** Returns the pixel y-coordinate of this region on its page. */
+	public int getY()
+	{
+		return y;
+	}
+
+	/** Returns the width of this region in pixels. */
+	public int getWidth()
+	{
+		return width;
+	}
+
+	/** Returns the height of this region in pixels. */
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/** Returns the page S-coordinate of the left edge of this region. */
+	public float getS0()
+	{
+		return s0;
+	}
+
+	/** Returns the page T-coordinate of the top edge of this region. */
+	public float getT0()
+	{
+		return t0;
+	}
+
+	/** Returns the page S-coordinate of the right edge of this region. */
+	public float getS1()
+	{
+		return s1;
+	}
+
+	/** Returns the page T-coordinate of the bottom edge of this region. */
+	public float getT1()
+	{
+		return t1;
+	}
+	
+	/**
+	 * Maps an S-coordinate of the original image to a page S-coordinate.
+	 */
+	public float mapS(float s)
+	{
+		return s0 + s * (s1 - s0);
+	}
+	
+	/**
+	 * Maps a T-coordinate of the original image to a page T-coordinate.
+	 */
+	public float mapT(float t)
+	{
+		return t0 + t * (t1 - t0);
+	}
+	
+}
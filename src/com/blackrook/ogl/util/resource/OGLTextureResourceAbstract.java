@@ -27,6 +27,7 @@ public abstract class OGLTextureResourceAbstract implements OGLTextureResource
 	private boolean renderTarget;
 	private int depthId;
 	private int border;
+	private int qualityPriority;
 	private WrapType wrappingTypeS;
 	private WrapType wrappingTypeT;
 	
@@ -41,6 +42,7 @@ public abstract class OGLTextureResourceAbstract implements OGLTextureResource
 		setForcedNearest(false);
 		setDepthId(0);
 		setBorder(0);
+		setQualityPriority(0);
 		setWrappingModeS(WrapType.TILE);
 		setWrappingModeT(WrapType.TILE);
 	}
@@ -133,6 +135,15 @@ public abstract class OGLTextureResourceAbstract implements OGLTextureResource
 		this.border = border;
 	}
 
+	/**
+	 * Sets the texture's quality priority. Textures with a lower priority are reduced
+	 * sooner and further when the loader is low on texture memory, and restored later.
+	 */
+	public void setQualityPriority(int priority)
+	{
+		this.qualityPriority = priority;
+	}
+
 	/**
 	 * Sets the initial wrapping mode for this texture's S-axis.
 	 */
@@ -209,6 +220,16 @@ public abstract class OGLTextureResourceAbstract implements OGLTextureResource
 		return border;
 	}
 
+	/**
+	 * Gets this texture's quality priority, for when the loader reduces textures
+	 * to stay under its memory budget. Textures with a lower priority are reduced
+	 * sooner and further, and restored later. 0 is normal.
+	 */
+	public int getQualityPriority()
+	{
+		return qualityPriority;
+	}
+
 	@Override
 	public WrapType getWrappingModeS()
 	{
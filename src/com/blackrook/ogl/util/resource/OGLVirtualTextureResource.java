@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.resource;
+
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A virtual texture resource handle: a very large image, cut into fixed-size pages
+ * at every mip level, stored in a resource archive written by {@link OGLVirtualTextureWriter}.
+ * <p>
+ * The archive holds a header entry, {@link #HEADER_ENTRY} (all numbers big-endian:
+ * an int version (1), the int image width and height, the int page size, the int page border,
+ * and the int level count), and one PNG image per page, named <code>level/x_y.png</code>.
+ * <p>
+ * Every page is <code>pageSize</code> texels square. The center of each page,
+ * <code>pageSize - 2*border</code> texels square, is its content, and the border around it
+ * is copied from the neighboring pages (or the image's edge) so that filtering is seamless.
+ * Level 0 is the full-size image, and each level after it is half the size of the last,
+ * down to the first level that fits in one page.
+ * @author Matthew Tropiano
+ */
+public class OGLVirtualTextureResource
+{
+	/** Name of the header entry. */
+	public static final String HEADER_ENTRY = "vtex";
+	/** Format version. */
+	static final int VERSION = 1;
+
+	/** The archive that contains the pages. */
+	private OGLResourceArchive archive;
+	/** Full-size image width in texels. */
+	private int width;
+	/** Full-size image height in texels. */
+	private int height;
+	/** Page size in texels, including border. */
+	private int pageSize;
+	/** Page border in texels. */
+	private int border;
+	/** Number of mip levels. */
+	private int levelCount;
+
+	/**
+	 * Creates a virtual texture resource from an archive, and reads its header.
+	 * @param archive the archive that contains the pages.
+	 * @throws IOException if the header could not be read or is bad.
+	 */
+	public OGLVirtualTextureResource(OGLResourceArchive archive) throws IOException
+	{
+		this.archive = archive;
+		InputStream in = archive.openStream(HEADER_ENTRY);
+		if (in == null)
+			throw new IOException("Archive '"+archive.getPath()+"' is not a virtual texture.");
+		try {
+			DataInputStream din = new DataInputStream(in);
+			int version = din.readInt();
+			if (version != VERSION)
+				throw new IOException("Virtual texture '"+archive.getPath()+"' has unsupported version "+version+".");
+			width = din.readInt();
+			height = din.readInt();
+			pageSize = din.readInt();
+			border = din.readInt();
+			levelCount = din.readInt();
+		} finally {
+			in.close();
+		}
+
+		if (width <= 0 || height <= 0 || border < 0 || pageSize <= border * 2 || levelCount != getLevelCount(width, height, pageSize - border * 2))
+			throw new IOException("Virtual texture '"+archive.getPath()+"' has a bad header.");
+	}
+
+	/**
+	 * Opens and maps a virtual texture archive, and reads its header.
+	 * @param file the archive file.
+	 * @throws IOException if the file could not be read or is not a virtual texture.
+	 */
+	public OGLVirtualTextureResource(File file) throws IOException
+	{
+		this(OGLResourceArchive.open(file));
+	}
+
+	/**
+	 * Gets the number of levels needed for an image, down to the first that fits in one page.
+	 */
+	static int getLevelCount(int width, int height, int contentSize)
+	{
+		int out = 1;
+		while (width > contentSize || height > contentSize)
+		{
+			width = (width + 1) / 2;
+			height = (height + 1) / 2;
+			out++;
+		}
+		return out;
+	}
+
+	/**
+	 * Gets the name of a page's entry in the archive.
+	 */
+	static String getPageEntryName(int level, int x, int y)
+	{
+		return level + "/" + x + "_" + y + ".png";
+	}
+
+	/**
+	 * Gets the archive that contains the pages.
+	 */
+	public OGLResourceArchive getArchive()
+	{
+		return archive;
+	}
+
+	/**
+	 * Gets the locator path of this handle (the archive's path).
+	 */
+	public String getPath()
+	{
+		return archive.getPath();
+	}
+
+	/**
+	 * Gets the full-size image width in texels.
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+
+	/**
+	 * Gets the full-size image height in texels.
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * Gets the page size in texels, including the border.
+	 */
+	public int getPageSize()
+	{
+		return pageSize;
+	}
+
+	/**
+	 * Gets the page border in texels.
+	 */
+	public int getBorder()
+	{
+		return border;
+	}
+
+	/**
+	 * Gets the size of a page's content in texels (the page size, minus the border on both sides).
+	 */
+	public int getContentSize()
+	{
+		return pageSize - border * 2;
+	}
+
+	/**
+	 * Gets the number of mip levels. The last level fits in one page.
+	 */
+	public int getLevelCount()
+	{
+		return levelCount;
+	}
+
+	/**
+	 * Gets the width of the image at a mip level, in texels.
+	 */
+	public int getLevelWidth(int level)
+	{
+		int out = width;
+		for (int i = 0; i < level; i++)
+			out = (out + 1) / 2;
+		return out;
+	}
+
+	/**
+	 * Gets the height of the image at a mip level, in texels.
+	 */
+	public int getLevelHeight(int level)
+	{
+		int out = height;
+		for (int i = 0; i < level; i++)
+			out = (out + 1) / 2;
+		return out;
+	}
+
+	/**
+	 * Gets the number of pages across at a mip level.
+	 */
+	public int getPagesX(int level)
+	{
+		return (getLevelWidth(level) + getContentSize() - 1) / getContentSize();
+	}
+
+	/**
+	 * Gets the number of pages down at a mip level.
+	 */
+	public int getPagesY(int level)
+	{
+		return (getLevelHeight(level) + getContentSize() - 1) / getContentSize();
+	}
+
+	/**
+	 * Opens a stream for reading a page's PNG data.
+	 * @return an open stream, or null if the archive does not contain the page.
+	 */
+	public InputStream openPageStream(int level, int x, int y) throws IOException
+	{
+		return archive.openStream(getPageEntryName(level, x, y));
+	}
+
+	/**
+	 * Reads and decodes a page.
+	 * @param level the mip level.
+	 * @param x the page column.
+	 * @param y the page row.
+	 * @return the page image.
+	 * @throws IOException if the page is missing or could not be decoded.
+	 */
+	public BufferedImage readPage(int level, int x, int y) throws IOException
+	{
+		InputStream in = openPageStream(level, x, y);
+		if (in == null)
+			throw new IOException("Virtual texture '"+getPath()+"' is missing page "+getPageEntryName(level, x, y)+".");
+		try {
+			BufferedImage out = ImageIO.read(in);
+			if (out == null)
+				throw new IOException("Virtual texture '"+getPath()+"' has an unreadable page "+getPageEntryName(level, x, y)+".");
+			return out;
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "OGLVirtualTextureResource ["+getPath()+", "+width+"x"+height+", page "+pageSize+"]";
+	}
+
+}
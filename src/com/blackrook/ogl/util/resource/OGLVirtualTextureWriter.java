@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.resource;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Cuts a large image into the paged format read by {@link OGLVirtualTextureResource},
+ * and writes it as a pak archive.
+ * <p>
+ * This is a preprocessing step: the source image is held in memory whole,
+ * along with the next level down while it is built, but the pages are
+ * the only thing that needs to be read when the texture is used.
+ * Each level is a box-filtered half of the level before it.
+ * @author Matthew Tropiano
+ */
+public final class OGLVirtualTextureWriter
+{
+	/** Default page size in texels, including the border. */
+	public static final int DEFAULT_PAGE_SIZE = 256;
+	/** Default page border in texels. */
+	public static final int DEFAULT_BORDER = 1;
+
+	private OGLVirtualTextureWriter() {}
+
+	/**
+	 * Reads an image file and writes it as a virtual texture, using the default page size and border.
+	 * @param source the image file.
+	 * @param target the archive file to write. It is replaced if it exists.
+	 * @throws IOException if the image could not be read or the archive written.
+	 */
+	public static void write(File source, File target) throws IOException
+	{
+		write(source, target, DEFAULT_PAGE_SIZE, DEFAULT_BORDER);
+	}
+
+	/**
+	 * Reads an image file and writes it as a virtual texture.
+	 * @param source the image file.
+	 * @param target the archive file to write. It is replaced if it exists.
+	 * @param pageSize the page size in texels, including the border. Should be a power of two.
+	 * @param border the page border in texels.
+	 * @throws IOException if the image could not be read or the archive written.
+	 * @throws IllegalArgumentException if the border leaves no room in the page.
+	 */
+	public static void write(File source, File target, int pageSize, int border) throws IOException
+	{
+		BufferedImage image = ImageIO.read(source);
+		if (image == null)
+			throw new IOException("Could not read image '"+source.getPath()+"'.");
+		write(image, target, pageSize, border, source.lastModified());
+	}
+
+	/**
+	 * Writes an image as a virtual texture.
+	 * @param image the image.
+	 * @param target the archive file to write. It is replaced if it exists.
+	 * @param pageSize the page size in texels, including the border. Should be a power of two.
+	 * @param border the page border in texels.
+	 * @throws IOException if the archive could not be written.
+	 * @throws IllegalArgumentException if the border leaves no room in the page.
+	 */
+	public static void write(BufferedImage image, File target, int pageSize, int border) throws IOException
+	{
+		write(image, target, pageSize, border, System.currentTimeMillis());
+	}
+
+	private static void write(BufferedImage image, File target, int pageSize, int border, long modifiedTime) throws IOException
+	{
+		if (border < 0 || pageSize <= border * 2)
+			throw new IllegalArgumentException("Border leaves no room in a "+pageSize+" texel page.");
+
+		int contentSize = pageSize - border * 2;
+		int levelCount = OGLVirtualTextureResource.getLevelCount(image.getWidth(), image.getHeight(), contentSize);
+
+		OGLPakWriter out = new OGLPakWriter(target);
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			DataOutputStream dos = new DataOutputStream(bos);
+			dos.writeInt(OGLVirtualTextureResource.VERSION);
+			dos.writeInt(image.getWidth());
+			dos.writeInt(image.getHeight());
+			dos.writeInt(pageSize);
+			dos.writeInt(border);
+			dos.writeInt(levelCount);
+			dos.flush();
+			out.addEntry(OGLVirtualTextureResource.HEADER_ENTRY, new ByteArrayInputStream(bos.toByteArray()), modifiedTime, false);
+
+			BufferedImage page = new BufferedImage(pageSize, pageSize, BufferedImage.TYPE_INT_ARGB);
+			Pixels level = new ImagePixels(image);
+			for (int l = 0; l < levelCount; l++)
+			{
+				writeLevel(out, l, level, page, contentSize, border, modifiedTime);
+				if (l + 1 < levelCount)
+					level = downsample(level);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Cuts one level into pages and adds them to the archive.
+	 */
+	private static void writeLevel(OGLPakWriter out, int level, Pixels pixels, BufferedImage page, int contentSize, int border, long modifiedTime) throws IOException
+	{
+		int width = pixels.getWidth();
+		int height = pixels.getHeight();
+		int pageSize = page.getWidth();
+		int[] region = new int[pageSize * pageSize];
+		int[] pageData = new int[pageSize * pageSize];
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(pageSize * pageSize);
+
+		int pagesX = (width + contentSize - 1) / contentSize;
+		int pagesY = (height + contentSize - 1) / contentSize;
+		for (int py = 0; py < pagesY; py++)
+			for (int px = 0; px < pagesX; px++)
+			{
+				// page texels outside of the image are clamped to its edge.
+				int sx = px * contentSize - border;
+				int sy = py * contentSize - border;
+				int rx0 = Math.max(sx, 0);
+				int ry0 = Math.max(sy, 0);
+				int rw = Math.min(sx + pageSize, width) - rx0;
+				int rh = Math.min(sy + pageSize, height) - ry0;
+				pixels.getRGB(rx0, ry0, rw, rh, region);
+
+				for (int y = 0; y < pageSize; y++)
+				{
+					int ry = Math.min(Math.max(sy + y - ry0, 0), rh - 1);
+					for (int x = 0; x < pageSize; x++)
+					{
+						int rx = Math.min(Math.max(sx + x - rx0, 0), rw - 1);
+						pageData[y * pageSize + x] = region[ry * rw + rx];
+					}
+				}
+				page.setRGB(0, 0, pageSize, pageSize, pageData, 0, pageSize);
+
+				bos.reset();
+				ImageIO.write(page, "png", bos);
+				// PNG data is already compressed.
+				out.addEntry(OGLVirtualTextureResource.getPageEntryName(level, px, py), new ByteArrayInputStream(bos.toByteArray()), modifiedTime, false);
+			}
+	}
+
+	/**
+	 * Makes the next level down: half the size (rounded up), box filtered.
+	 * Colors are weighted by alpha, so transparent texels do not darken their neighbors.
+	 */
+	private static Pixels downsample(Pixels pixels)
+	{
+		int width = pixels.getWidth();
+		int height = pixels.getHeight();
+		int outWidth = (width + 1) / 2;
+		int outHeight = (height + 1) / 2;
+		int[] out = new int[outWidth * outHeight];
+		int[] rows = new int[width * 2];
+
+		for (int y = 0; y < outHeight; y++)
+		{
+			int rowCount = Math.min(2, height - y * 2);
+			pixels.getRGB(0, y * 2, width, rowCount, rows);
+			int row1 = (rowCount - 1) * width;
+			for (int x = 0; x < outWidth; x++)
+			{
+				int x0 = x * 2;
+				int x1 = Math.min(x0 + 1, width - 1);
+				out[y * outWidth + x] = average(rows[x0], rows[x1], rows[row1 + x0], rows[row1 + x1]);
+			}
+		}
+		return new ArrayPixels(out, outWidth, outHeight);
+	}
+
+	/**
+	 * Averages four ARGB colors, weighting color by alpha.
+	 */
+	private static int average(int c0, int c1, int c2, int c3)
+	{
+		int a0 = c0 >>> 24, a1 = c1 >>> 24, a2 = c2 >>> 24, a3 = c3 >>> 24;
+		int alpha = a0 + a1 + a2 + a3;
+		if (alpha == 0)
+			return 0;
+		int r = ((c0 >> 16) & 0x0ff) * a0 + ((c1 >> 16) & 0x0ff) * a1 + ((c2 >> 16) & 0x0ff) * a2 + ((c3 >> 16) & 0x0ff) * a3;
+		int g = ((c0 >> 8) & 0x0ff) * a0 + ((c1 >> 8) & 0x0ff) * a1 + ((c2 >> 8) & 0x0ff) * a2 + ((c3 >> 8) & 0x0ff) * a3;
+		int b = (c0 & 0x0ff) * a0 + (c1 & 0x0ff) * a1 + (c2 & 0x0ff) * a2 + (c3 & 0x0ff) * a3;
+		return ((alpha + 2) / 4) << 24
+			| ((r + alpha / 2) / alpha) << 16
+			| ((g + alpha / 2) / alpha) << 8
+			| ((b + alpha / 2) / alpha);
+	}
+
+	/**
+	 * A source of ARGB pixels for one level.
+	 */
+	private interface Pixels
+	{
+		int getWidth();
+
+		int getHeight();
+
+		/** Copies a region, tightly packed, into an array. */
+		void getRGB(int x, int y, int width, int height, int[] out);
+	}
+
+	/**
+	 * Pixels from a BufferedImage.
+	 */
+	private static class ImagePixels implements Pixels
+	{
+		private BufferedImage image;
+
+		ImagePixels(BufferedImage image)
+		{
+			this.image = image;
+		}
+
+		@Override
+		public int getWidth()
+		{
+			return image.getWidth();
+		}
+
+		@Override
+		public int getHeight()
+		{
+			return image.getHeight();
+		}
+
+		@Override
+		public void getRGB(int x, int y, int width, int height, int[] out)
+		{
+			image.getRGB(x, y, width, height, out, 0, width);
+		}
+	}
+
+	/**
+	 * Pixels in an array.
+	 */
+	private static class ArrayPixels implements Pixels
+	{
+		private int[] data;
+		private int width;
+		private int height;
+
+		ArrayPixels(int[] data, int width, int height)
+		{
+			this.data = data;
+			this.width = width;
+			this.height = height;
+		}
+
+		@Override
+		public int getWidth()
+		{
+			return width;
+		}
+
+		@Override
+		public int getHeight()
+		{
+			return height;
+		}
+
+		@Override
+		public void getRGB(int x, int y, int width, int height, int[] out)
+		{
+			for (int i = 0; i < height; i++)
+				System.arraycopy(data, (y + i) * this.width + x, out, i * width, width);
+		}
+	}
+
+}
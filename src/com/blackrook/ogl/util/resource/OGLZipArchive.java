@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.Map;
+
+/**
+ * A read-only zip archive, read through its central directory.
+ * <p>
+ * Only stored and Deflated entries are supported. Zip64, encrypted
+ * and multi-disk archives are not. Directory entries are skipped.
+ * @author Matthew Tropiano
+ */
+public class OGLZipArchive extends OGLResourceArchive
+{
+	/** Local file header signature. */
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	/** Central directory header signature. */
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	/** End of central directory signature. */
+	private static final int END_SIGNATURE = 0x06054b50;
+	/** Size of the end of central directory record, without its comment. */
+	private static final int END_SIZE = 22;
+	/** Size of a central directory header, without its variable-length fields. */
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	/** Size of a local file header, without its variable-length fields. */
+	private static final int LOCAL_HEADER_SIZE = 30;
+	/** Zip compression method for Deflate. */
+	private static final int ZIP_METHOD_DEFLATE = 8;
+	/** Flag bit for encrypted entries. */
+	private static final int FLAG_ENCRYPTED = 0x0001;
+	/** Flag bit for UTF-8 names. */
+	private static final int FLAG_UTF8 = 0x0800;
+
+	/** Charset for names with the UTF-8 flag. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** Charset for other names. */
+	private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+	/**
+	 * Opens and maps a zip archive, and reads its central directory.
+	 * @param file the archive file.
+	 * @throws IOException if the file could not be read or is not a supported zip archive.
+	 */
+	public OGLZipArchive(File file) throws IOException
+	{
+		super(file);
+	}
+
+	/**
+	 * Opens and maps a zip archive, and reads its central directory.
+	 * @param path the path to the archive file.
+	 * @throws IOException if the file could not be read or is not a supported zip archive.
+	 */
+	public OGLZipArchive(String path) throws IOException
+	{
+		this(new File(path));
+	}
+
+	/**
+	 * Returns true if a file's first four bytes look like the start of a zip archive.
+	 */
+	static boolean isZipHeader(byte[] magic)
+	{
+		// a local file header, or the end record of an empty archive.
+		return magic[0] == 'P' && magic[1] == 'K'
+			&& ((magic[2] == 3 && magic[3] == 4) || (magic[2] == 5 && magic[3] == 6));
+	}
+
+	@Override
+	protected void readIndex(ByteBuffer data, Map<String, Entry> entries) throws IOException
+	{
+		data.order(ByteOrder.LITTLE_ENDIAN);
+
+		int end = findEndRecord(data);
+		if (end < 0)
+			throw new IOException("Archive '"+getPath()+"' is not a zip archive.");
+		if ((data.getShort(end + 4) & 0x0ffff) != 0 || (data.getShort(end + 6) & 0x0ffff) != 0)
+			throw new IOException("Archive '"+getPath()+"' spans several disks.");
+
+		int count = data.getShort(end + 10) & 0x0ffff;
+		long directorySize = data.getInt(end + 12) & 0x0ffffffffL;
+		long directoryOffset = data.getInt(end + 16) & 0x0ffffffffL;
+		if (count == 0x0ffff || directorySize == 0x0ffffffffL || directoryOffset == 0x0ffffffffL)
+			throw new IOException("Archive '"+getPath()+"' is a Zip64 archive.");
+		if (directoryOffset + directorySize > end)
+			throw new IOException("Archive '"+getPath()+"' has a bad central directory.");
+
+		int pos = (int)directoryOffset;
+		for (int i = 0; i < count; i++)
+		{
+			if (data.getInt(pos) != CENTRAL_HEADER_SIGNATURE)
+				throw new IOException("Archive '"+getPath()+"' has a bad central directory.");
+			int flags = data.getShort(pos + 8) & 0x0ffff;
+			int zipMethod = data.getShort(pos + 10) & 0x0ffff;
+			int dosTime = data.getShort(pos + 12) & 0x0ffff;
+			int dosDate = data.getShort(pos + 14) & 0x0ffff;
+			long storedSize = data.getInt(pos + 20) & 0x0ffffffffL;
+			long size = data.getInt(pos + 24) & 0x0ffffffffL;
+			int nameLength = data.getShort(pos + 28) & 0x0ffff;
+			int extraLength = data.getShort(pos + 30) & 0x0ffff;
+			int commentLength = data.getShort(pos + 32) & 0x0ffff;
+			long localOffset = data.getInt(pos + 42) & 0x0ffffffffL;
+
+			byte[] nameBytes = new byte[nameLength];
+			data.position(pos + CENTRAL_HEADER_SIZE);
+			data.get(nameBytes);
+			String name = new String(nameBytes, (flags & FLAG_UTF8) != 0 ? UTF8 : LATIN1);
+			pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+
+			if (name.endsWith("/"))
+				continue;
+			if ((flags & FLAG_ENCRYPTED) != 0)
+				continue;
+
+			int method;
+			if (zipMethod == 0)
+				method = METHOD_STORED;
+			else if (zipMethod == ZIP_METHOD_DEFLATE)
+				method = METHOD_DEFLATE;
+			else
+				continue;
+
+			// the local header's variable-length fields can differ from the central directory's.
+			int local = (int)localOffset;
+			if (data.getInt(local) != LOCAL_HEADER_SIGNATURE)
+				throw new IOException("Entry '"+name+"' in archive '"+getPath()+"' has a bad local header.");
+			long offset = local + LOCAL_HEADER_SIZE
+				+ (data.getShort(local + 26) & 0x0ffff)
+				+ (data.getShort(local + 28) & 0x0ffff);
+			if (offset + storedSize > directoryOffset)
+				throw new IOException("Entry '"+name+"' in archive '"+getPath()+"' is out of bounds.");
+
+			entries.put(name, new Entry(offset, storedSize, size, method, false, getDosTime(dosDate, dosTime)));
+		}
+	}
+
+	/**
+	 * Finds the end of central directory record, searching back from the end of the data.
+	 * @return the record's offset, or -1 if not found.
+	 */
+	private static int findEndRecord(ByteBuffer data)
+	{
+		int limit = data.limit();
+		// the record is followed by a comment of up to 65535 bytes.
+		int lowest = Math.max(0, limit - END_SIZE - 0x0ffff);
+		for (int pos = limit - END_SIZE; pos >= lowest; pos--)
+			if (data.getInt(pos) == END_SIGNATURE && pos + END_SIZE + (data.getShort(pos + 20) & 0x0ffff) == limit)
+				return pos;
+		return -1;
+	}
+
+	/**
+	 * Converts an MS-DOS date and time to milliseconds since the epoch, in local time.
+	 */
+	private static long getDosTime(int date, int time)
+	{
+		if (date == 0)
+			return 0L;
+		Calendar c = Calendar.getInstance();
+		c.clear();
+		c.set(((date >> 9) & 0x7f) + 1980, ((date >> 5) & 0x0f) - 1, date & 0x1f,
+			(time >> 11) & 0x1f, (time >> 5) & 0x3f, (time & 0x1f) * 2);
+		return c.getTimeInMillis();
+	}
+
+}
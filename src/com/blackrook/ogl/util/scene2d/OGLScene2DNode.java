@@ -35,12 +35,15 @@ import com.blackrook.ogl.object.shader.OGLShaderProgram;
 import com.blackrook.ogl.object.texture.OGLTexture2D;
 import com.blackrook.ogl.util.OGL2DCamera;
 import com.blackrook.ogl.util.OGL2DCameraListener;
+import com.blackrook.ogl.util.OGL2DCameraPrefetcher;
 import com.blackrook.ogl.util.OGLSkin;
 import com.blackrook.ogl.util.OGLSkin.BlendType;
 import com.blackrook.ogl.util.OGLSkin.Step;
 import com.blackrook.ogl.util.OGLResourceLoader;
 import com.blackrook.ogl.util.OGLResourceLoaderUser;
+import com.blackrook.ogl.util.OGLVirtualTexture;
 import com.blackrook.ogl.util.resource.OGLShaderResource;
+import com.blackrook.ogl.util.resource.OGLTextureAtlasRegion;
 import com.blackrook.ogl.util.resource.OGLTextureResource;
 
 /**
@@ -85,14 +88,61 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 			cameraChangeHeight = changeHeight;
 		}
 	};
+	/** Texture prefetcher for objects that the camera is moving towards. */
+	protected OGL2DCameraPrefetcher prefetcher = new OGL2DCameraPrefetcher()
+	{
+		@Override
+		protected void prefetch(float x0, float y0, float x1, float y1)
+		{
+			if (loader == null || sceneObjects == null)
+				return;
+			
+			synchronized (sceneObjects)
+			{
+				if (prefetchObjectIterator == null) 
+					prefetchObjectIterator = sceneObjects.iterator();
+				ResettableIterator<T> rit = prefetchObjectIterator;
+				rit.reset();
+				while (rit.hasNext())
+				{
+					T obj = rit.next();
+					
+					// objects on camera are fetched when the render list is built.
+					if (!obj.isVisible() || objectIsOnCamera(obj))
+						continue;
+					
+					float x = obj.getRenderPositionX();
+					float y = obj.getRenderPositionY();
+					if (x + obj.getRenderHalfWidth() < x0 || x - obj.getRenderHalfWidth() > x1 ||
+						y + obj.getRenderHalfHeight() < y0 || y - obj.getRenderHalfHeight() > y1)
+						continue;
+					
+					prefetchSkin(loader, obj.getSkin(), x, y);
+				}
+			}
+		}
+	};
 
 	/** Flip Y? */
 	protected boolean flipY;
 	
+	/** Virtual texture drawn under the scene objects. */
+	protected OGLVirtualTexture virtualTexture;
+	/** Virtual texture position, X (left). */
+	protected float virtualX;
+	/** Virtual texture position, Y (bottom, or top if Y is flipped). */
+	protected float virtualY;
+	/** Virtual texture width. */
+	protected float virtualWidth;
+	/** Virtual texture height. */
+	protected float virtualHeight;
+
 	/** Scene objects. */
 	protected Hash<T> sceneObjects;
 	/** Scene object iterator. */
 	protected ResettableIterator<T> sceneObjectIterator;
+	/** Scene object iterator for the prefetcher. */
+	protected ResettableIterator<T> prefetchObjectIterator;
 	/** Count on screen. */
 	protected int countOnCamera;
 	/** Count off screen. */
@@ -176,6 +226,7 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 			camera.removeListener(cameraListener);
 		camera = newCamera;
 		camera.addListener(cameraListener);
+		prefetcher.setCamera(newCamera);
 	}
 
 	/**
@@ -185,6 +236,7 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 	{
 		sceneObjects = hash;
 		sceneObjectIterator = sceneObjects.iterator();
+		prefetchObjectIterator = sceneObjects.iterator();
 	}
 	
 	@Override
@@ -243,6 +295,15 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 	{
 		return camera;
 	}
+
+	/**
+	 * Gets the texture prefetcher that queues the textures of objects 
+	 * that the camera is moving towards. It can be disabled or adjusted.
+	 */
+	public OGL2DCameraPrefetcher getPrefetcher()
+	{
+		return prefetcher;
+	}
 	
 	/**
 	 * Gets if the Y-coordinates are flipped vertically (0 is top, not bottom).
@@ -262,6 +323,34 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 		this.flipY = flipY;
 	}
 
+	/**
+	 * Gets the virtual texture drawn under the scene objects.
+	 */
+	public OGLVirtualTexture getVirtualTexture()
+	{
+		return virtualTexture;
+	}
+
+	/**
+	 * Sets a virtual texture to draw under the scene objects, for images 
+	 * too big to fit in one texture, like world maps. Only its pages in view 
+	 * of the camera, at the detail they are seen at, are streamed in.
+	 * It is tinted by the camera color and alpha blended.
+	 * @param virtualTexture the virtual texture. Can be null, for none.
+	 * @param x the left edge of the image, in scene units.
+	 * @param y the bottom edge of the image (or the top, if Y is flipped), in scene units.
+	 * @param width the width of the image, in scene units.
+	 * @param height the height of the image, in scene units.
+	 */
+	public void setVirtualTexture(OGLVirtualTexture virtualTexture, float x, float y, float width, float height)
+	{
+		this.virtualTexture = virtualTexture;
+		this.virtualX = x;
+		this.virtualY = y;
+		this.virtualWidth = width;
+		this.virtualHeight = height;
+	}
+
 	@Override
 	public void onCanvasResize(int new_width, int new_height)
 	{
@@ -428,12 +517,15 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 			OGLScene2DElement element, int id, Step step, int pass, float zOrder)
 	{
 		Node n = null;
+		// closer to the center of the view loads first.
+		float priority = OGLResourceLoader.TEXTURE_PRIORITY_DEMAND 
+			+ OGLResourceLoader.getCameraPriority(camera, element.getRenderPositionX(), element.getRenderPositionY());
 		if (renderListSize == renderList.size())
-			renderList.add(n = new Node(g, loader, element, id, step, pass, zOrder));
+			renderList.add(n = new Node(g, loader, element, id, step, pass, zOrder, priority));
 		else
 		{
 			n = renderList.getByIndex(renderListSize);
-			n.set(g, loader, element, id, step, pass, zOrder);
+			n.set(g, loader, element, id, step, pass, zOrder, priority);
 		}
 		renderListSize++;
 	}
@@ -552,6 +644,9 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 					-1);
 		}
 
+		if (virtualTexture != null)
+			displayVirtualTexture(g);
+
 		for (int i = 0; i < renderListSize; i++)
 		{
 			Node n = renderList.getByIndex(i);
@@ -576,6 +671,56 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 		g.matrixPop();
 	}
 
+	/**
+	 * Draws the part of the virtual texture that is in view of the camera.
+	 * This is done before the render list is drawn, with nothing bound.
+	 */
+	protected void displayVirtualTexture(OGLGraphics g)
+	{
+		if (virtualWidth <= 0f || virtualHeight <= 0f)
+			return;
+		
+		float camX0 = (float)(camera.getObjectCenterX() - camera.getObjectHalfWidth());
+		float camY0 = (float)(camera.getObjectCenterY() - camera.getObjectHalfHeight());
+		float camX1 = (float)(camera.getObjectCenterX() + camera.getObjectHalfWidth());
+		float camY1 = (float)(camera.getObjectCenterY() + camera.getObjectHalfHeight());
+		float x0 = Math.max(virtualX, camX0);
+		float y0 = Math.max(virtualY, camY0);
+		float x1 = Math.min(virtualX + virtualWidth, camX1);
+		float y1 = Math.min(virtualY + virtualHeight, camY1);
+		if (x1 <= x0 || y1 <= y0)
+			return;
+		
+		// t is down the image: from the top edge, which is the highest Y unless Y is flipped.
+		float s0 = (x0 - virtualX) / virtualWidth;
+		float s1 = (x1 - virtualX) / virtualWidth;
+		float t0, t1, top, bottom;
+		if (getFlipY())
+		{
+			t0 = (y0 - virtualY) / virtualHeight;
+			t1 = (y1 - virtualY) / virtualHeight;
+			top = y0;
+			bottom = y1;
+		}
+		else
+		{
+			t0 = (virtualY + virtualHeight - y1) / virtualHeight;
+			t1 = (virtualY + virtualHeight - y0) / virtualHeight;
+			top = y1;
+			bottom = y0;
+		}
+		
+		virtualTexture.update(g, s0, t0, s1, t1, 
+			g.getCanvasWidth() * (x1 - x0) / (camX1 - camX0), 
+			g.getCanvasHeight() * (y1 - y0) / (camY1 - camY0));
+		
+		g.setBlendingFunc(BlendFunc.ALPHA);
+		g.setColor(camera.getRed(), camera.getGreen(), camera.getBlue(), camera.getAlpha());
+		polygonsRendered += virtualTexture.draw(g, x0 - camX0, top - camY0, x1 - camX0, bottom - camY0);
+		// the first node sets its own blending.
+		context.blendMode = null;
+	}
+
 	/**
 	 * Render list finish context.
 	 */
@@ -747,7 +892,9 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 			return;
 
 		long currentMillis = g.currentTimeMillis();
-		vertexBuffer.flush(g, context);
+		// step texture transforms are baked into atlased batches, so they can span steps.
+		if (!vertexBuffer.baked || n.nodeRegion == null)
+			vertexBuffer.flush(g, context);
 		context.step = n.nodeStepRef;
 		context.stepInst.texture_rot = context.step.getTextureRotation(currentMillis);
 		context.stepInst.texture_s0 = context.step.getTextureS0(currentMillis);
@@ -821,6 +968,11 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 		
 		g.setTextureUnit(0);
 		g.matrixMode(MatrixType.TEXTURE); g.matrixPush();
+		if (n.nodeRegion != null)
+		{
+			g.matrixTranslate(n.nodeRegion.getS0(), n.nodeRegion.getT0(), 0);
+			g.matrixScale(n.nodeRegion.getS1() - n.nodeRegion.getS0(), n.nodeRegion.getT1() - n.nodeRegion.getT0(), 1);
+		}
 		g.matrixTranslate(-context.stepInst.pivot_s, -context.stepInst.pivot_t, 0);
 		g.matrixRotateZ(context.stepInst.texture_rot);
 		g.matrixTranslate(context.stepInst.texture_s0-context.stepInst.pivot_s, 
@@ -1047,6 +1199,8 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 		protected OGLFloatBuffer geometryBuffer;
 		/** Has this already been flushed? */
 		protected boolean flushed;
+		/** Are the texture coordinates in this batch baked (remapped to atlas regions)? */
+		protected boolean baked;
 		/** Number of VBO Elements to draw. */
 		protected int elements;
 	
@@ -1084,11 +1238,14 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 			g.matrixPush();
 			g.matrixReset();
 
-			g.matrixTranslate(inst.pivot_s, inst.pivot_t, 0);
-			g.matrixRotateZ(inst.texture_rot);
-			g.matrixTranslate(-inst.pivot_s, -inst.pivot_t, 0);
-			g.matrixTranslate(inst.texture_s0, inst.texture_t0, 0);
-			g.matrixScale(inst.texture_s1-inst.texture_s0, inst.texture_t1-inst.texture_t0, 1);
+			if (!baked)
+			{
+				g.matrixTranslate(inst.pivot_s, inst.pivot_t, 0);
+				g.matrixRotateZ(inst.texture_rot);
+				g.matrixTranslate(-inst.pivot_s, -inst.pivot_t, 0);
+				g.matrixTranslate(inst.texture_s0, inst.texture_t0, 0);
+				g.matrixScale(inst.texture_s1-inst.texture_s0, inst.texture_t1-inst.texture_t0, 1);
+			}
 		
 			geometryBuffer.setCapacity(g, CachingHint.STREAM_DRAW, geometryListIndex);
 			geometryBuffer.sendSubData(g, geometryFloatBuffer, geometryListIndex, 0);
@@ -1100,6 +1257,7 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 			geometryFloatBuffer.rewind();
 			geometryListIndex = 0;
 			elements = 0;
+			baked = false;
 	
 			g.matrixMode(MatrixType.MODELVIEW); 
 			g.matrixPop();
@@ -1132,6 +1290,18 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 			float sy = e.getRenderHalfHeight()*2f;
 			float r = e.getRenderRotationZ();
 			MeshView m = e.getMeshView();
+			OGLTextureAtlasRegion region = node.nodeRegion;
+			if (flushed)
+				baked = region != null;
+			
+			// rotation for baked texture coordinates
+			double texCos = 1.0, texSin = 0.0;
+			if (region != null && (inst.texture_rot % 360.0f) != 0.0f)
+			{
+				double trads = RMath.degToRad(inst.texture_rot);
+				texCos = Math.cos(trads);
+				texSin = Math.sin(trads);
+			}
 
 			int components = m.getElementCount()*9;
 			
@@ -1170,8 +1340,18 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 				geometryFloatBuffer.put(n+idx+1, y + py);
 				geometryFloatBuffer.put(n+idx+2, 0);
 
-				geometryFloatBuffer.put(n+idx+3, m.getTextureCoordinate(i, 0, 0) * node.objRef.getSkinScaleS());
-				geometryFloatBuffer.put(n+idx+4, m.getTextureCoordinate(i, 0, 1) * node.objRef.getSkinScaleT());
+				float ts = m.getTextureCoordinate(i, 0, 0) * node.objRef.getSkinScaleS();
+				float tt = m.getTextureCoordinate(i, 0, 1) * node.objRef.getSkinScaleT();
+				if (region != null)
+				{
+					// apply the step's texture transform here instead of the texture matrix, then remap.
+					double bs = inst.texture_s0 + ts * (inst.texture_s1 - inst.texture_s0) - inst.pivot_s;
+					double bt = inst.texture_t0 + tt * (inst.texture_t1 - inst.texture_t0) - inst.pivot_t;
+					ts = region.mapS((float)(bs * texCos - bt * texSin) + inst.pivot_s);
+					tt = region.mapT((float)(bt * texCos + bs * texSin) + inst.pivot_t);
+				}
+				geometryFloatBuffer.put(n+idx+3, ts);
+				geometryFloatBuffer.put(n+idx+4, tt);
 
 				geometryFloatBuffer.put(n+idx+5, red * e.getRed());
 				geometryFloatBuffer.put(n+idx+6, green * e.getGreen());
@@ -1204,6 +1384,8 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 		public OGLTexture2D[] nodeTexture;
 		/** Texture hash. */
 		public int nodeTextureHash;
+		/** Atlas region of the single texture, if it is on an atlas page. */
+		public OGLTextureAtlasRegion nodeRegion;
 
 		/** The shader program object to use. */
 		public OGLShaderProgram nodeShader;
@@ -1226,16 +1408,17 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 		 * Creates a new render node.
 		 */
 		public Node(OGLGraphics g, OGLResourceLoader loader, OGLScene2DElement element, 
-				int id, Step step, int pass, float zOrder)
+				int id, Step step, int pass, float zOrder, float priority)
 		{
-			set(g, loader, element, id, step, pass, zOrder);
+			set(g, loader, element, id, step, pass, zOrder, priority);
 		}
 		
 		/**
 		 * Creates a new render node.
+		 * Textures that are not loaded are queued with the provided loading priority.
 		 */
 		public void set(OGLGraphics g, OGLResourceLoader loader, OGLScene2DElement element, 
-				int id, Step step, int pass, float zOrder)
+				int id, Step step, int pass, float zOrder, float priority)
 		{
 			nodeId = id;
 			objRef = element;
@@ -1249,9 +1432,7 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 			OGLShaderResource oglsr = step.getShaderProgram();
 			if (oglsr != null)
 			{
-				if (!loader.containsShader(oglsr))
-					loader.cacheShader(g, oglsr);
-				nodeShader = loader.getShader(oglsr);
+				nodeShader = loader.fetchShader(g, oglsr);
 			}
 			else
 				nodeShader = null;
@@ -1263,28 +1444,27 @@ public class OGLScene2DNode<T extends OGLScene2DElement> implements OGLResourceL
 				{
 					setTextureLen(1);
 					OGLTextureResource ogltr = step.getTextureList()[ti];
-					if (!loader.containsTexture(ogltr))
-						loader.cacheTexture(g, ogltr);
-					nodeTexture[0] = loader.getTexture(ogltr);
+					nodeTexture[0] = loader.fetchTexture(g, ogltr, priority);
+					nodeRegion = loader.getTextureRegion(ogltr);
 				}
 				else
 				{
 					setTextureLen(1);
 					nodeTexture[0] = null;
 					setTextureLen(0);
+					nodeRegion = null;
 				}
 			}
 			else 
 			{
+				nodeRegion = null;
 				int i = 0;
 				OGLTextureResource[] trlist = step.getTextureList();
 				setTextureLen(trlist.length);
 				for (int x = 0; x < trlist.length; x++)
 				{
 					OGLTextureResource ogltr = trlist[x];
-					if (!loader.containsTexture(ogltr))
-						loader.cacheTexture(g, ogltr);
-					nodeTexture[i++] = loader.getTexture(ogltr);
+					nodeTexture[i++] = loader.fetchTexture(g, ogltr, priority);
 				}
 			}
 			nodeTextureHash = Arrays.hashCode(nodeTexture);
@@ -11,6 +11,7 @@ import java.nio.FloatBuffer;
 
 import com.blackrook.commons.Common;
 import com.blackrook.commons.list.List;
+import com.blackrook.commons.math.RMath;
 import com.blackrook.ogl.OGLGeometryUtils;
 import com.blackrook.ogl.OGLGraphics;
 import com.blackrook.ogl.OGLGeometryUtils.GeometryInfo;
@@ -27,12 +28,14 @@ import com.blackrook.ogl.object.buffer.OGLFloatBuffer;
 import com.blackrook.ogl.object.shader.OGLShaderProgram;
 import com.blackrook.ogl.object.texture.OGLTexture2D;
 import com.blackrook.ogl.util.OGL2DCamera;
+import com.blackrook.ogl.util.OGL2DCameraPrefetcher;
 import com.blackrook.ogl.util.OGLSkin;
 import com.blackrook.ogl.util.OGLResourceLoader;
 import com.blackrook.ogl.util.OGLResourceLoaderUser;
 import com.blackrook.ogl.util.OGLSkin.BlendType;
 import com.blackrook.ogl.util.OGLSkin.Step;
 import com.blackrook.ogl.util.resource.OGLShaderResource;
+import com.blackrook.ogl.util.resource.OGLTextureAtlasRegion;
 import com.blackrook.ogl.util.resource.OGLTextureResource;
 
 /**
@@ -70,6 +73,33 @@ public class OGLTile2DNode implements OGLResourceLoaderUser
 
 	/** Camera instance. */
 	protected OGL2DCamera camera;
+	/** Texture prefetcher for tiles that the camera is moving towards. */
+	protected OGL2DCameraPrefetcher prefetcher = new OGL2DCameraPrefetcher()
+	{
+		@Override
+		protected void prefetch(float x0, float y0, float x1, float y1)
+		{
+			OGL2DCamera camera = getCamera();
+			if (loader == null || defaultTileWidth <= 0f || defaultTileHeight <= 0f)
+				return;
+			
+			// same range as createRenderList(), which fetches these already.
+			int viewStartX = (int)(camera.getX()/defaultTileWidth)-1;
+			int viewStartY = (int)(camera.getY()/defaultTileHeight)-1;
+			float viewEndX = camera.getX() + camera.getWidth() + defaultTileWidth;
+			float viewEndY = camera.getY() + camera.getHeight() + defaultTileHeight;
+
+			int endX = (int)Math.floor(x1/defaultTileWidth);
+			int endY = (int)Math.floor(y1/defaultTileHeight);
+			for (int ix = (int)Math.floor(x0/defaultTileWidth); ix <= endX; ix++)
+				for (int iy = (int)Math.floor(y0/defaultTileHeight); iy <= endY; iy++)
+				{
+					if (ix >= viewStartX && ix*defaultTileWidth < viewEndX && iy >= viewStartY && iy*defaultTileHeight < viewEndY)
+						continue;
+					prefetchSkin(loader, getSkin(ix, iy), (ix + 0.5f) * defaultTileWidth, (iy + 0.5f) * defaultTileHeight);
+				}
+		}
+	};
 	/** Flip Y? */
 	protected boolean flipY;
 	
@@ -331,6 +361,7 @@ public class OGLTile2DNode implements OGLResourceLoaderUser
 	public void setCamera(OGL2DCamera newCamera)
 	{
 		camera = newCamera;
+		prefetcher.setCamera(newCamera);
 	}
 
 	/**
@@ -341,6 +372,15 @@ public class OGLTile2DNode implements OGLResourceLoaderUser
 		return camera;
 	}
 
+	/**
+	 * Gets the texture prefetcher that queues the textures of tiles 
+	 * that the camera is moving towards. It can be disabled or adjusted.
+	 */
+	public OGL2DCameraPrefetcher getPrefetcher()
+	{
+		return prefetcher;
+	}
+
 	/**
 	 * Gets if the Y-coordinates are flipped vertically (0 is top, not bottom).
 	 * @return true if Y is the top, false if bottom.
@@ -695,7 +735,9 @@ public class OGLTile2DNode implements OGLResourceLoaderUser
 	{
 		if (context.step != n.nodeStepRef)
 		{
-			displayVBOBreak(g);
+			// step texture transforms are baked into atlased batches, so they can span steps.
+			if (vboContext == null || !vboContext.baked || n.nodeRegion == null)
+				displayVBOBreak(g);
 			context.step = n.nodeStepRef;
 			setStepInstance(g, context.step); 
 		}
@@ -839,6 +881,11 @@ public class OGLTile2DNode implements OGLResourceLoaderUser
 		{
 			g.setTextureUnit(0);
 			g.matrixMode(MatrixType.TEXTURE); g.matrixPush();
+			if (n.nodeRegion != null)
+			{
+				g.matrixTranslate(n.nodeRegion.getS0(), n.nodeRegion.getT0(), 0);
+				g.matrixScale(n.nodeRegion.getS1() - n.nodeRegion.getS0(), n.nodeRegion.getT1() - n.nodeRegion.getT0(), 1);
+			}
 			g.matrixTranslate(-currentStepInstance.pivot_s, -currentStepInstance.pivot_t, 0);
 			g.matrixRotateZ(currentStepInstance.texture_rot);
 			g.matrixTranslate(currentStepInstance.texture_s0-currentStepInstance.pivot_s, 
@@ -890,10 +937,13 @@ public class OGLTile2DNode implements OGLResourceLoaderUser
 					OGLSkin skin = getSkin(ix, iy);
 					if (skin != null)
 					{
+						// closer to the center of the view loads first.
+						float priority = OGLResourceLoader.TEXTURE_PRIORITY_DEMAND + OGLResourceLoader.getCameraPriority(camera, 
+							(ix + 0.5f) * defaultTileWidth, (iy + 0.5f) * defaultTileHeight);
 						for (int p = 0; p < skin.size(); p++)
 						{
 							Step step = skin.get(p);
-							Node n = getRenderNode(g, currentTime, p, step);
+							Node n = getRenderNode(g, currentTime, p, step, priority);
 							setNodeCoords(n, ix, iy);
 						}
 					}
@@ -992,18 +1042,18 @@ public class OGLTile2DNode implements OGLResourceLoaderUser
 		return tileModel != null ? tileModel.getScaleY(x, y) : null; 
 	}
 
-	private Node getRenderNode(OGLGraphics g, long graphicTime, int skinStepIndex, Step step)
+	private Node getRenderNode(OGLGraphics g, long graphicTime, int skinStepIndex, Step step, float priority)
 	{
 		Node n = null;
 		if (renderList.size() == renderListSize)
 		{
-			n = new Node(g, loader, graphicTime, step, skinStepIndex);
+			n = new Node(g, loader, graphicTime, step, skinStepIndex, priority);
 			renderList.add(n);
 		}
 		else
 		{
 			n = renderList.getByIndex(renderListSize);
-			n.set(g, loader, graphicTime, step, skinStepIndex);
+			n.set(g, loader, graphicTime, step, skinStepIndex, priority);
 		}
 		
 		return n;
@@ -1222,6 +1272,8 @@ public class OGLTile2DNode implements OGLResourceLoaderUser
 		public OGLTexture2D nodeTexture;
 		/** Multiple texture unit combiner. */
 		public OGLTexture2D[] nodeMultiTexture;
+		/** Atlas region of the single texture, if it is on an atlas page. */
+		public OGLTextureAtlasRegion nodeRegion;
 		/** The shader program object to use. */
 		public OGLShaderProgram nodeShader;
 	
@@ -1259,16 +1311,17 @@ public class OGLTile2DNode implements OGLResourceLoaderUser
 		 * Creates a new render node.
 		 */
 		public Node(OGLGraphics g, OGLResourceLoader loader, 
-				long currentTime, Step step, int pass)
+				long currentTime, Step step, int pass, float priority)
 		{
-			set(g, loader, currentTime, step, pass);
+			set(g, loader, currentTime, step, pass, priority);
 		}
 		
 		/**
 		 * Creates a new render node.
+		 * Textures that are not loaded are queued with the provided loading priority.
 		 */
 		public void set(OGLGraphics g, OGLResourceLoader loader, 
-				long currentTime, Step step, int pass)
+				long currentTime, Step step, int pass, float priority)
 		{
 			nodeTarget = 0;
 			nodePass = pass;
@@ -1280,9 +1333,7 @@ public class OGLTile2DNode implements OGLResourceLoaderUser
 			OGLShaderResource oglsr = step.getShaderProgram();
 			if (oglsr != null)
 			{
-				if (!loader.containsShader(oglsr))
-					loader.cacheShader(g, oglsr);
-				nodeShader = loader.getShader(oglsr);
+				nodeShader = loader.fetchShader(g, oglsr);
 			}
 			else
 				nodeShader = null;
@@ -1293,24 +1344,25 @@ public class OGLTile2DNode implements OGLResourceLoaderUser
 				if (ti >= 0)
 				{
 					OGLTextureResource ogltr = step.getTextureList()[ti];
-					if (!loader.containsTexture(ogltr))
-						loader.cacheTexture(g, ogltr);
-					nodeTexture = loader.getTexture(ogltr);
+					nodeTexture = loader.fetchTexture(g, ogltr, priority);
+					nodeRegion = loader.getTextureRegion(ogltr);
 				}
 				else
+				{
 					nodeTexture = null;
+					nodeRegion = null;
+				}
 			}
 			else 
 			{
+				nodeRegion = null;
 				nodeMultiTexture = new OGLTexture2D[step.getTextureList().length];
 				int i = 0;
 				OGLTextureResource[] trlist = step.getTextureList();
 				for (int x = 0; x < trlist.length; x++)
 				{
 					OGLTextureResource ogltr = trlist[x];
-					if (!loader.containsTexture(ogltr))
-						loader.cacheTexture(g, ogltr);
-					nodeMultiTexture[i++] = loader.getTexture(ogltr);
+					nodeMultiTexture[i++] = loader.fetchTexture(g, ogltr, priority);
 				}
 			}
 		}
@@ -1357,6 +1409,8 @@ public class OGLTile2DNode implements OGLResourceLoaderUser
 		
 		/** Has this already been flushed? */
 		protected boolean vboFlush;
+		/** Are the texture coordinates in this batch baked (remapped to atlas regions)? */
+		protected boolean baked;
 		
 		/** Number of VBO Elements to draw. */
 		protected int vboElements;
@@ -1383,12 +1437,15 @@ public class OGLTile2DNode implements OGLResourceLoaderUser
 			g.setTextureUnit(0);
 			g.matrixMode(MatrixType.TEXTURE); 
 			g.matrixPush();
-			g.matrixTranslate(inst.pivot_s, inst.pivot_t, 0);
-			g.matrixRotateZ(inst.texture_rot);
-			g.matrixTranslate(-inst.pivot_s, -inst.pivot_t, 0);
-			g.matrixTranslate(inst.texture_s0, inst.texture_t0, 0);
-			g.matrixScale(inst.texture_s1-inst.texture_s0, 
-					inst.texture_t1-inst.texture_t0, 1);
+			if (!baked)
+			{
+				g.matrixTranslate(inst.pivot_s, inst.pivot_t, 0);
+				g.matrixRotateZ(inst.texture_rot);
+				g.matrixTranslate(-inst.pivot_s, -inst.pivot_t, 0);
+				g.matrixTranslate(inst.texture_s0, inst.texture_t0, 0);
+				g.matrixScale(inst.texture_s1-inst.texture_s0, 
+						inst.texture_t1-inst.texture_t0, 1);
+			}
 		
 			geometryBuffer.setCapacity(g, CachingHint.STREAM_DRAW, geometryListIndex);
 			geometryBuffer.sendSubData(g, geometryFloatBuffer, geometryListIndex, 0);
@@ -1400,6 +1457,7 @@ public class OGLTile2DNode implements OGLResourceLoaderUser
 			geometryFloatBuffer.rewind();
 			geometryListIndex = 0;
 			vboElements = 0;
+			baked = false;
 
 			g.setTextureUnit(0);
 			g.matrixMode(MatrixType.TEXTURE); g.matrixPop();
@@ -1423,6 +1481,9 @@ public class OGLTile2DNode implements OGLResourceLoaderUser
 			float alpha = node.a * inst.color_a;
 			
 			int n = geometryListIndex;
+			
+			if (vboFlush)
+				baked = node.nodeRegion != null;
 
 			geometryFloatBuffer.put(n+0, node.x);
 			geometryFloatBuffer.put(n+1, node.y + node.height);
@@ -1464,12 +1525,42 @@ public class OGLTile2DNode implements OGLResourceLoaderUser
 			geometryFloatBuffer.put(n+34, blue);
 			geometryFloatBuffer.put(n+35, alpha);
 
+			if (node.nodeRegion != null)
+			{
+				putBakedCoord(n+3, inst, node.nodeRegion);
+				putBakedCoord(n+12, inst, node.nodeRegion);
+				putBakedCoord(n+21, inst, node.nodeRegion);
+				putBakedCoord(n+30, inst, node.nodeRegion);
+			}
+
 			geometryListIndex += 36;
 			
 			vboFlush = false;
 			vboElements++;
 		}
 		
+		/**
+		 * Replaces a texture coordinate in the buffer with one that has the 
+		 * step's texture transform applied (instead of the texture matrix), 
+		 * remapped to an atlas region.
+		 */
+		private void putBakedCoord(int index, StepInstance inst, OGLTextureAtlasRegion region)
+		{
+			double s = inst.texture_s0 + geometryFloatBuffer.get(index) * (inst.texture_s1 - inst.texture_s0) - inst.pivot_s;
+			double t = inst.texture_t0 + geometryFloatBuffer.get(index + 1) * (inst.texture_t1 - inst.texture_t0) - inst.pivot_t;
+			if ((inst.texture_rot % 360.0f) != 0.0f)
+			{
+				double trads = RMath.degToRad(inst.texture_rot);
+				double cosr = Math.cos(trads);
+				double sinr = Math.sin(trads);
+				double rs = s * cosr - t * sinr;
+				t = t * cosr + s * sinr;
+				s = rs;
+			}
+			geometryFloatBuffer.put(index, region.mapS((float)s + inst.pivot_s));
+			geometryFloatBuffer.put(index + 1, region.mapT((float)t + inst.pivot_t));
+		}
+		
 	}
 
 	/**
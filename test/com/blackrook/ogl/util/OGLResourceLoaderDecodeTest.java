@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+import com.blackrook.ogl.OGLGraphics;
+import com.blackrook.ogl.object.texture.OGLTexture2D;
+import com.blackrook.ogl.util.resource.OGLTextureFile;
+import com.blackrook.ogl.util.resource.OGLTextureResource;
+
+/**
+ * Checks that queued textures are decoded on the decoding pool's threads
+ * and handed back to the graphics thread for upload.
+ * <p>
+ * Creating textures needs a live OpenGL context, so this runs the loader with
+ * no graphics context and records what reaches 
+ * {@link OGLResourceLoader#createTexture(OGLGraphics, OGLTextureResource, BufferedImage)}
+ * instead of uploading it.
+ * @author Matthew Tropiano
+ */
+public class OGLResourceLoaderDecodeTest
+{
+	/** Amount of textures to load. */
+	private static final int TEXTURE_COUNT = 8;
+	/** How long to wait for the textures, in milliseconds. */
+	private static final long TIMEOUT = 10000L;
+
+	public static void main(String[] args) throws Exception
+	{
+		File dir = createTempDirectory();
+		try {
+			OGLTextureResource[] textures = new OGLTextureResource[TEXTURE_COUNT];
+			for (int i = 0; i < TEXTURE_COUNT; i++)
+			{
+				File file = new File(dir, "texture" + i + ".png");
+				ImageIO.write(new BufferedImage(16 + i, 8 + i, BufferedImage.TYPE_INT_ARGB), "png", file);
+				textures[i] = new OGLTextureFile(file);
+			}
+			
+			RecordingLoader loader = new RecordingLoader();
+			loader.setTextureDecodeThreads(2);
+			// the first frame makes this the graphics thread.
+			loader.display(null);
+			loader.queueTextures(textures);
+			
+			long end = System.currentTimeMillis() + TIMEOUT;
+			while (loader.created.size() < TEXTURE_COUNT && System.currentTimeMillis() < end)
+			{
+				loader.display(null);
+				Thread.sleep(1L);
+			}
+			loader.setTextureDecodeThreads(0);
+			
+			check(loader.created.size() == TEXTURE_COUNT, "Only " + loader.created.size() + " of " + TEXTURE_COUNT + " textures reached upload.");
+			for (int i = 0; i < TEXTURE_COUNT; i++)
+			{
+				Thread decoder = loader.decodedOn.get(textures[i]);
+				check(decoder != null, "Texture " + i + " was not decoded.");
+				check(decoder != Thread.currentThread(), "Texture " + i + " was decoded on the graphics thread.");
+				check(loader.createdOn.get(textures[i]) == Thread.currentThread(), "Texture " + i + " was not uploaded on the graphics thread.");
+				Dimension size = loader.created.get(textures[i]);
+				check(size.width == 16 + i && size.height == 8 + i, "Texture " + i + " was uploaded at " + size.width + "x" + size.height + ".");
+			}
+		} finally {
+			for (File file : dir.listFiles())
+				file.delete();
+			dir.delete();
+		}
+		System.out.println("OGLResourceLoaderDecodeTest: OK");
+	}
+
+	private static File createTempDirectory() throws IOException
+	{
+		File out = File.createTempFile("ogltest", "");
+		if (!out.delete() || !out.mkdir())
+			throw new IOException("Could not create temporary directory.");
+		return out;
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	/**
+	 * Loader that records where textures are decoded and what would be uploaded.
+	 */
+	private static class RecordingLoader extends OGLResourceLoader
+	{
+		Map<OGLTextureResource, Thread> decodedOn = new ConcurrentHashMap<OGLTextureResource, Thread>();
+		Map<OGLTextureResource, Thread> createdOn = new ConcurrentHashMap<OGLTextureResource, Thread>();
+		Map<OGLTextureResource, Dimension> created = new ConcurrentHashMap<OGLTextureResource, Dimension>();
+
+		@Override
+		protected BufferedImage decodeTextureImage(OGLTextureResource textureDef) throws IOException
+		{
+			decodedOn.put(textureDef, Thread.currentThread());
+			return super.decodeTextureImage(textureDef);
+		}
+
+		@Override
+		protected OGLTexture2D createTexture(OGLGraphics g, OGLTextureResource textureDef, BufferedImage image)
+		{
+			createdOn.put(textureDef, Thread.currentThread());
+			created.put(textureDef, new Dimension(image.getWidth(), image.getHeight()));
+			return null;
+		}
+	}
+
+}
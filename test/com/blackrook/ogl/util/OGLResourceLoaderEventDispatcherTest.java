@@ -0,0 +1,529 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.blackrook.ogl.util.resource.OGLShaderFile;
+import com.blackrook.ogl.util.resource.OGLShaderResource;
+import com.blackrook.ogl.util.resource.OGLTextureFile;
+import com.blackrook.ogl.util.resource.OGLTextureResource;
+
+/**
+ * Stress-checks the {@link OGLResourceLoaderEventDispatcher} ring buffer with several
+ * threads firing events at once into a small buffer, delivered to several listeners.
+ * <p>
+ * Every event that is taken must be delivered exactly once to each listener, in the
+ * order that its thread fired it, and every event that is not must be counted as dropped.
+ * Also checks the full-buffer fallback, and that touched events for a resource are
+ * coalesced while one is waiting, and not lost for good when one is dropped.
+ * @author Matthew Tropiano
+ */
+public class OGLResourceLoaderEventDispatcherTest
+{
+	/** Longest wait for delivery, in milliseconds. */
+	private static final long TIMEOUT_MILLIS = 30000L;
+	/** Producer number of the marker that ends a run. */
+	private static final int SENTINEL = -1;
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		testWrapAround(4, 16, 50000);
+		testWrapAround(8, 1, 5000);
+		testOverload(6, 64, 50000);
+		testFullRing(16);
+		System.out.println("OGLResourceLoaderEventDispatcherTest: OK");
+	}
+
+	/**
+	 * Several threads fire events into a small buffer, never having more waiting than it holds,
+	 * so that the buffer wraps around many times and nothing may be dropped.
+	 */
+	private static void testWrapAround(int producers, int capacity, final int events) throws InterruptedException
+	{
+		final Semaphore permits = new Semaphore(capacity);
+		Recorder[] recorders = {new Recorder(producers, permits), new Recorder(producers, null), new Recorder(producers, null)};
+		final OGLResourceLoaderEventDispatcher dispatcher = new OGLResourceLoaderEventDispatcher(capacity, recorders);
+		final OGLTextureResource[] textures = textures(producers);
+		final OGLShaderResource[] shaders = shaders(producers);
+
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++)
+		{
+			final int producer = p;
+			threads[p] = new Thread("Producer-" + p)
+			{
+				@Override
+				public void run()
+				{
+					for (int seq = 0; seq < events; seq++)
+					{
+						permits.acquireUninterruptibly();
+						fire(dispatcher, new Marker(producer, seq), textures[producer], shaders[producer]);
+					}
+				}
+			};
+		}
+		runAll(threads);
+
+		String name = "Wrap-around (" + producers + " threads, capacity " + capacity + ")";
+		long total = (long)producers * events;
+		for (Recorder recorder : recorders)
+			waitForMarkers(recorder, total, name);
+		dispatcher.shutDown();
+
+		check(dispatcher.getDroppedEventCount() == 0L, name + ": " + dispatcher.getDroppedEventCount() + " events were dropped.");
+		for (Recorder recorder : recorders)
+		{
+			recorder.checkFailure(name);
+			for (int p = 0; p < producers; p++)
+				check(recorder.seen[p].cardinality() == events, name + ": not every event from thread " + p + " was delivered.");
+		}
+		checkSameOrder(recorders, name);
+	}
+
+	/**
+	 * Several threads fire events and touches as fast as they can into a small buffer,
+	 * so that events are dropped. Taken events must be delivered once, and the rest counted.
+	 */
+	private static void testOverload(int producers, int capacity, final int events) throws InterruptedException
+	{
+		Recorder[] recorders = {new Recorder(producers, null), new Recorder(producers, null)};
+		final OGLResourceLoaderEventDispatcher dispatcher = new OGLResourceLoaderEventDispatcher(capacity, recorders);
+		final OGLTextureResource[] textures = textures(producers);
+		final OGLShaderResource[] shaders = shaders(producers);
+		// touched by every thread.
+		final OGLTextureResource[] touchedTextures = textures(5);
+		final OGLShaderResource[] touchedShaders = shaders(5);
+
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++)
+		{
+			final int producer = p;
+			threads[p] = new Thread("Producer-" + p)
+			{
+				@Override
+				public void run()
+				{
+					for (int seq = 0; seq < events; seq++)
+					{
+						fire(dispatcher, new Marker(producer, seq), textures[producer], shaders[producer]);
+						if (seq % 3 == 0)
+							dispatcher.textureTouched(touchedTextures[seq % touchedTextures.length]);
+						if (seq % 5 == 0)
+							dispatcher.shaderTouched(touchedShaders[seq % touchedShaders.length]);
+						if (seq % 1000 == 0)
+							Thread.yield();
+					}
+				}
+			};
+		}
+		runAll(threads);
+
+		String name = "Overload (" + producers + " threads, capacity " + capacity + ")";
+		long touchesFired = (long)producers * (events / 3 + (events % 3 > 0 ? 1 : 0) + events / 5 + (events % 5 > 0 ? 1 : 0));
+		postSentinel(dispatcher);
+		for (Recorder recorder : recorders)
+			waitForSentinel(recorder, name);
+
+		long total = (long)producers * events;
+		long dropped = dispatcher.getDroppedEventCount();
+		for (Recorder recorder : recorders)
+		{
+			recorder.checkFailure(name);
+			long lost = total - recorder.markers;
+			check(lost <= dropped, name + ": " + lost + " events were lost, but only " + dropped + " were counted as dropped.");
+			check(dropped - lost <= touchesFired - recorder.touchCount(),
+				name + ": more events were counted as dropped than were fired and not delivered.");
+		}
+		checkSameOrder(recorders, name);
+		check(recorders[0].markers > capacity * 4, name + ": the buffer did not wrap around.");
+
+		// nothing is waiting, so every resource takes exactly one more touch.
+		for (Recorder recorder : recorders)
+			recorder.clearTouches();
+		for (int i = 0; i < touchedTextures.length; i++)
+		{
+			dispatcher.textureTouched(touchedTextures[i]);
+			dispatcher.shaderTouched(touchedShaders[i]);
+		}
+		postSentinel(dispatcher);
+		for (Recorder recorder : recorders)
+		{
+			waitForSentinel(recorder, name);
+			for (int i = 0; i < touchedTextures.length; i++)
+			{
+				check(recorder.touches(touchedTextures[i]) == 1, name + ": a texture touch after the run was not delivered once.");
+				check(recorder.touches(touchedShaders[i]) == 1, name + ": a shader touch after the run was not delivered once.");
+			}
+		}
+		dispatcher.shutDown();
+	}
+
+	/**
+	 * Holds the dispatch thread in a listener, fills the buffer, and checks what is dropped.
+	 */
+	private static void testFullRing(int capacity) throws InterruptedException
+	{
+		String name = "Full buffer";
+		Recorder recorder = new Recorder(1, null);
+		Gate gate = new Gate();
+		OGLResourceLoaderEventDispatcher dispatcher = new OGLResourceLoaderEventDispatcher(capacity, gate, recorder);
+		OGLTextureResource[] textures = textures(2);
+		OGLShaderResource[] shaders = shaders(1);
+		OGLTextureResource touched = textures[1];
+
+		// the dispatch thread takes this event and waits in the gate, with the buffer empty.
+		dispatcher.otherLoaderIOError(gate.hold());
+		gate.awaitEntered();
+
+		// a touch that is waiting takes a slot, and further touches of it are coalesced.
+		dispatcher.textureTouched(touched);
+		dispatcher.textureTouched(touched);
+		dispatcher.textureTouched(touched);
+		for (int seq = 0; seq < capacity - 1; seq++)
+			fire(dispatcher, new Marker(0, seq), textures[0], shaders[0]);
+		check(dispatcher.getDroppedEventCount() == 0L, name + ": events were dropped before the buffer was full.");
+
+		// the buffer is full: events are dropped and counted, and never block.
+		for (int seq = capacity - 1; seq < capacity + 9; seq++)
+			fire(dispatcher, new Marker(0, seq), textures[0], shaders[0]);
+		check(dispatcher.getDroppedEventCount() == 10L, name + ": " + dispatcher.getDroppedEventCount() + " events dropped, not 10.");
+		// still waiting, so coalesced, not dropped.
+		dispatcher.textureTouched(touched);
+		check(dispatcher.getDroppedEventCount() == 10L, name + ": a touch that was waiting was not coalesced.");
+		// a dropped touch is forgotten, so that the next one is tried again.
+		OGLShaderResource touchedShader = shaders(1)[0];
+		dispatcher.shaderTouched(touchedShader);
+		dispatcher.shaderTouched(touchedShader);
+		check(dispatcher.getDroppedEventCount() == 12L, name + ": a dropped touch was left waiting.");
+
+		gate.release();
+		waitForMarkers(recorder, capacity - 1, name);
+		postSentinel(dispatcher);
+		waitForSentinel(recorder, name);
+		recorder.checkFailure(name);
+		check(recorder.markers == capacity - 1, name + ": dropped events were delivered.");
+		check(recorder.seen[0].nextClearBit(0) == capacity - 1, name + ": the events that fit were not the ones delivered.");
+		check(recorder.touches(touched) == 1, name + ": coalesced touches were not delivered once.");
+		check(recorder.touches(touchedShader) == 0, name + ": a dropped touch was delivered.");
+
+		// once delivered, a resource can be touched again.
+		dispatcher.textureTouched(touched);
+		dispatcher.shaderTouched(touchedShader);
+		postSentinel(dispatcher);
+		waitForSentinel(recorder, name);
+		check(recorder.touches(touched) == 2, name + ": a touch after delivery was not delivered.");
+		check(recorder.touches(touchedShader) == 1, name + ": a touch after a dropped touch was not delivered.");
+
+		// events after shutdown are dropped.
+		dispatcher.shutDown();
+		long dropped = dispatcher.getDroppedEventCount();
+		dispatcher.otherLoaderIOError(new Marker(0, capacity + 100));
+		check(dispatcher.getDroppedEventCount() == dropped + 1, name + ": an event after shutdown was not dropped.");
+	}
+
+	/**
+	 * Fires one event, of a kind picked by its sequence number.
+	 */
+	private static void fire(OGLResourceLoaderEventDispatcher dispatcher, Marker marker, OGLTextureResource texture, OGLShaderResource shader)
+	{
+		switch (marker.seq % 3)
+		{
+			case 0:
+				dispatcher.otherLoaderIOError(marker);
+				break;
+			case 1:
+				dispatcher.textureCacheLoadError(texture, marker);
+				break;
+			default:
+				dispatcher.shaderCacheLoadError(shader, marker);
+				break;
+		}
+	}
+
+	/**
+	 * Posts the marker that ends a run until it is taken. Only call with no other threads firing.
+	 */
+	private static void postSentinel(OGLResourceLoaderEventDispatcher dispatcher) throws InterruptedException
+	{
+		long dropped = dispatcher.getDroppedEventCount();
+		while (true)
+		{
+			dispatcher.otherLoaderIOError(new Marker(SENTINEL, 0));
+			if (dispatcher.getDroppedEventCount() == dropped)
+				return;
+			dropped = dispatcher.getDroppedEventCount();
+			Thread.sleep(1L);
+		}
+	}
+
+	/**
+	 * Starts threads together, and waits for them to finish.
+	 */
+	private static void runAll(Thread[] threads) throws InterruptedException
+	{
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+		{
+			thread.join(TIMEOUT_MILLIS);
+			check(!thread.isAlive(), thread.getName() + " did not finish.");
+		}
+	}
+
+	private static void waitForMarkers(Recorder recorder, long count, String name) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (recorder.markers < count && recorder.failure == null && System.currentTimeMillis() < deadline)
+			Thread.sleep(1L);
+		recorder.checkFailure(name);
+		check(recorder.markers >= count, name + ": only " + recorder.markers + " of " + count + " events were delivered.");
+	}
+
+	private static void waitForSentinel(Recorder recorder, String name) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!recorder.sentinel && recorder.failure == null && System.currentTimeMillis() < deadline)
+			Thread.sleep(1L);
+		recorder.checkFailure(name);
+		check(recorder.sentinel, name + ": events were not delivered.");
+		recorder.sentinel = false;
+	}
+
+	/**
+	 * Checks that all listeners got the same events in the same order.
+	 */
+	private static void checkSameOrder(Recorder[] recorders, String name)
+	{
+		for (int i = 1; i < recorders.length; i++)
+			check(recorders[i].markers == recorders[0].markers && recorders[i].orderHash == recorders[0].orderHash,
+				name + ": listeners were not delivered the same events in the same order.");
+	}
+
+	private static OGLTextureResource[] textures(int count)
+	{
+		OGLTextureResource[] out = new OGLTextureResource[count];
+		for (int i = 0; i < count; i++)
+			out[i] = new OGLTextureFile("texture" + i + ".png");
+		return out;
+	}
+
+	private static OGLShaderResource[] shaders(int count)
+	{
+		OGLShaderResource[] out = new OGLShaderResource[count];
+		for (int i = 0; i < count; i++)
+			out[i] = new OGLShaderFile("shader" + i + ".vp");
+		return out;
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	/**
+	 * An event's payload: which thread fired it, and its place in that thread's sequence.
+	 */
+	private static class Marker extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		final int producer;
+		final int seq;
+
+		Marker(int producer, int seq)
+		{
+			this.producer = producer;
+			this.seq = seq;
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace()
+		{
+			// thrown by no one.
+			return this;
+		}
+	}
+
+	/**
+	 * Records and checks delivered events. Only called on the dispatch thread;
+	 * the volatile fields publish the rest to the test thread.
+	 */
+	private static class Recorder extends OGLResourceLoaderAdapter
+	{
+		/** Delivered sequence numbers per thread. */
+		final BitSet[] seen;
+		/** Last delivered sequence number per thread. */
+		final int[] lastSeq;
+		/** Touched events per resource. */
+		final Map<Object, Integer> touches;
+		/** Permits to give back per delivered event, or null. */
+		final Semaphore permits;
+		/** Hash of the delivery order. */
+		long orderHash;
+
+		volatile long markers;
+		volatile boolean sentinel;
+		volatile String failure;
+
+		Recorder(int producers, Semaphore permits)
+		{
+			this.seen = new BitSet[producers];
+			this.lastSeq = new int[producers];
+			for (int p = 0; p < producers; p++)
+			{
+				seen[p] = new BitSet();
+				lastSeq[p] = -1;
+			}
+			this.touches = new IdentityHashMap<Object, Integer>();
+			this.permits = permits;
+			this.orderHash = 0L;
+			this.markers = 0L;
+			this.sentinel = false;
+			this.failure = null;
+		}
+
+		@Override
+		public void otherLoaderIOError(IOException exception)
+		{
+			record(exception, 0);
+		}
+
+		@Override
+		public void textureCacheLoadError(OGLTextureResource handle, IOException exception)
+		{
+			record(exception, 1);
+		}
+
+		@Override
+		public void shaderCacheLoadError(OGLShaderResource handle, IOException exception)
+		{
+			record(exception, 2);
+		}
+
+		@Override
+		public void textureTouched(OGLTextureResource handle)
+		{
+			touch(handle);
+		}
+
+		@Override
+		public void shaderTouched(OGLShaderResource handle)
+		{
+			touch(handle);
+		}
+
+		private synchronized void record(IOException exception, int kind)
+		{
+			Marker marker = (Marker)exception;
+			if (marker.producer < 0)
+			{
+				// the end of a run, or the gate's.
+				if (marker.producer == SENTINEL)
+					sentinel = true;
+				return;
+			}
+			if (marker.seq % 3 != kind)
+				fail("Event " + marker.seq + " from thread " + marker.producer + " was delivered as the wrong kind.");
+			if (seen[marker.producer].get(marker.seq))
+				fail("Event " + marker.seq + " from thread " + marker.producer + " was delivered twice.");
+			if (marker.seq <= lastSeq[marker.producer])
+				fail("Event " + marker.seq + " from thread " + marker.producer + " was delivered after event " + lastSeq[marker.producer] + ".");
+			seen[marker.producer].set(marker.seq);
+			lastSeq[marker.producer] = marker.seq;
+			orderHash = orderHash * 31L + ((long)marker.producer << 32 | marker.seq);
+			if (permits != null)
+				permits.release();
+			markers++;
+		}
+
+		private synchronized void touch(Object handle)
+		{
+			Integer count = touches.get(handle);
+			touches.put(handle, count != null ? count + 1 : 1);
+		}
+
+		synchronized int touches(Object handle)
+		{
+			Integer count = touches.get(handle);
+			return count != null ? count : 0;
+		}
+
+		synchronized long touchCount()
+		{
+			long out = 0L;
+			for (Integer count : touches.values())
+				out += count;
+			return out;
+		}
+
+		synchronized void clearTouches()
+		{
+			touches.clear();
+		}
+
+		private void fail(String message)
+		{
+			if (failure == null)
+				failure = message;
+		}
+
+		void checkFailure(String name)
+		{
+			check(failure == null, name + ": " + failure);
+		}
+	}
+
+	/**
+	 * A listener that holds the dispatch thread on one event until released.
+	 */
+	private static class Gate extends OGLResourceLoaderAdapter
+	{
+		private final CountDownLatch entered = new CountDownLatch(1);
+		private final CountDownLatch released = new CountDownLatch(1);
+		private Marker held;
+
+		Marker hold()
+		{
+			held = new Marker(SENTINEL - 1, 0);
+			return held;
+		}
+
+		void awaitEntered() throws InterruptedException
+		{
+			check(entered.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS), "The dispatch thread did not take the held event.");
+		}
+
+		void release()
+		{
+			released.countDown();
+		}
+
+		@Override
+		public void otherLoaderIOError(IOException exception)
+		{
+			if (exception != held)
+				return;
+			entered.countDown();
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.blackrook.ogl.OGLGraphics;
+import com.blackrook.ogl.object.shader.OGLShaderProgram;
+
+/**
+ * Checks {@link OGLShaderBinaryCache} entries, and that the loader's binary hooks
+ * go through the {@link OGLShaderBinaryAccess} it is given.
+ * <p>
+ * Program binaries need a live OpenGL context, so a stand-in access object
+ * hands out and takes made-up binaries instead.
+ * @author Matthew Tropiano
+ */
+public class OGLShaderBinaryCacheTest
+{
+	public static void main(String[] args) throws IOException
+	{
+		File dir = File.createTempFile("ogltest", "");
+		if (!dir.delete() || !dir.mkdir())
+			throw new IOException("Could not create temporary directory.");
+		try {
+			testCache(new OGLShaderBinaryCache(dir));
+			testLoader(new OGLShaderBinaryCache(dir));
+		} finally {
+			for (File file : dir.listFiles())
+				file.delete();
+			dir.delete();
+		}
+		System.out.println("OGLShaderBinaryCacheTest: OK");
+	}
+
+	private static void testCache(OGLShaderBinaryCache cache) throws IOException
+	{
+		String key = cache.createKey("sourcehash", "Vendor Renderer 1.0");
+		check(key.equals(cache.createKey("sourcehash", "Vendor Renderer 1.0")), "Keys are not stable.");
+		check(!key.equals(cache.createKey("sourcehash", "Vendor Renderer 1.1")), "Keys do not change with the driver.");
+		check(!key.equals(cache.createKey("otherhash", "Vendor Renderer 1.0")), "Keys do not change with the sources.");
+		
+		check(!cache.contains(key), "Empty cache has an entry.");
+		check(cache.read(key) == null, "Empty cache read an entry.");
+		
+		cache.write(key, binary(0x1234, 100, 0));
+		check(cache.contains(key), "Written entry is missing.");
+		OGLShaderBinaryCache.Binary read = cache.read(key);
+		check(read != null && read.getFormat() == 0x1234, "Written entry's format did not come back.");
+		check(read.getData().isDirect(), "Entry was not read into a direct buffer.");
+		check(sameData(read, binary(0x1234, 100, 0)), "Written entry's data did not come back.");
+		
+		cache.write(key, binary(0x5678, 40, 7));
+		read = cache.read(key);
+		check(read.getFormat() == 0x5678 && sameData(read, binary(0x5678, 40, 7)), "Rewritten entry was not replaced.");
+		
+		// damaged entries read as missing.
+		File file = new File(cache.getDirectory(), key + ".bsb");
+		writeFile(file, new byte[10]);
+		check(cache.read(key) == null, "Truncated entry was read.");
+		writeFile(file, new byte[116]);
+		check(cache.read(key) == null, "Entry with a bad header was read.");
+		
+		check(cache.remove(key), "Entry was not removed.");
+		check(!cache.remove(key) && !cache.contains(key), "Removed entry is still there.");
+		
+		String other = cache.createKey("otherhash", "Vendor Renderer 1.0");
+		cache.write(key, binary(1, 8, 0));
+		cache.write(other, binary(2, 8, 0));
+		File unrelated = new File(cache.getDirectory(), "unrelated.txt");
+		writeFile(unrelated, new byte[1]);
+		cache.clear();
+		check(!cache.contains(key) && !cache.contains(other), "Clearing left entries.");
+		check(unrelated.exists(), "Clearing removed a file that was not an entry.");
+	}
+
+	private static void testLoader(OGLShaderBinaryCache cache)
+	{
+		OGLResourceLoader loader = new OGLResourceLoader();
+		check(loader.getShaderDriverString(null) == null, "Driver string without binary access.");
+		check(loader.getShaderProgramBinary(null, null) == null, "Program binary without binary access.");
+		check(loader.createShaderFromBinary(null, null, binary(1, 8, 0), null) == null, "Program created without binary access.");
+		
+		StandInAccess access = new StandInAccess();
+		loader.setShaderBinaryCache(cache, access);
+		check(loader.getShaderBinaryCache() == cache && loader.getShaderBinaryAccess() == access, "Binary cache and access were not set.");
+		check("Stand-In 1.0".equals(loader.getShaderDriverString(null)), "Driver string did not come from the binary access.");
+		check(loader.getShaderProgramBinary(null, null) == access.binary, "Program binary did not come from the binary access.");
+		
+		OGLShaderBinaryCache.Binary cached = binary(3, 16, 0);
+		check(loader.createShaderFromBinary(null, null, cached, null) == null, "Rejected binary made a program.");
+		check(access.given == cached, "Binary was not handed to the binary access.");
+		
+		loader.setShaderBinaryCache(null, null);
+		check(loader.getShaderDriverString(null) == null, "Driver string after the binary access was removed.");
+	}
+
+	/**
+	 * Makes a binary of counting bytes.
+	 */
+	private static OGLShaderBinaryCache.Binary binary(int format, int length, int first)
+	{
+		ByteBuffer data = ByteBuffer.allocate(length);
+		for (int i = 0; i < length; i++)
+			data.put((byte)(first + i));
+		data.flip();
+		return new OGLShaderBinaryCache.Binary(format, data);
+	}
+
+	private static boolean sameData(OGLShaderBinaryCache.Binary a, OGLShaderBinaryCache.Binary b)
+	{
+		return a.getData().duplicate().equals(b.getData().duplicate());
+	}
+
+	private static void writeFile(File file, byte[] data) throws IOException
+	{
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	/**
+	 * Binary access that hands out a made-up binary and rejects every binary it is given.
+	 */
+	private static class StandInAccess implements OGLShaderBinaryAccess
+	{
+		OGLShaderBinaryCache.Binary binary = binary(9, 32, 0);
+		OGLShaderBinaryCache.Binary given;
+
+		@Override
+		public String getDriverString(OGLGraphics g)
+		{
+			return "Stand-In 1.0";
+		}
+
+		@Override
+		public OGLShaderBinaryCache.Binary getProgramBinary(OGLGraphics g, OGLShaderProgram program)
+		{
+			return binary;
+		}
+
+		@Override
+		public OGLShaderProgram createProgram(OGLGraphics g, OGLShaderBinaryCache.Binary binary)
+		{
+			given = binary;
+			return null;
+		}
+	}
+
+}
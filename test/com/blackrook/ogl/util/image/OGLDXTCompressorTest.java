@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.image;
+
+import java.nio.ByteBuffer;
+
+import com.blackrook.ogl.util.image.OGLCompressedImage.Format;
+
+/**
+ * Checks {@link OGLDXTCompressor} output by decoding it with a reference
+ * BC1/BC3 decoder and comparing it to the source pixels.
+ * @author Matthew Tropiano
+ */
+public class OGLDXTCompressorTest
+{
+	/** Lowest acceptable color PSNR on smooth gradients, in decibels. */
+	private static final double MIN_COLOR_PSNR = 30.0;
+	/** Lowest acceptable alpha PSNR on smooth gradients, in decibels. */
+	private static final double MIN_ALPHA_PSNR = 40.0;
+	/** 
+	 * Lowest acceptable color PSNR on a full-range ramp within one block, in decibels. 
+	 * Four palette colors over 16 steps of 0 to 255 cannot do much better than 22.
+	 */
+	private static final double MIN_RAMP_PSNR = 20.0;
+
+	public static void main(String[] args)
+	{
+		OGLDXTCompressor compressor = new OGLDXTCompressor();
+		
+		// a color that 565 can store exactly survives untouched, in both formats,
+		// including sizes that do not fill their edge blocks.
+		int solid = 0xff000000 | (expand5(10) << 16) | (expand6(40) << 8) | expand5(5);
+		int[][] solidSizes = {{8, 8}, {1, 1}, {2, 3}, {5, 7}};
+		for (int[] size : solidSizes)
+			for (Format format : Format.values())
+			{
+				int[] argb = fill(new int[size[0] * size[1]], solid);
+				int[] decoded = decode(compressor.compress(argb, size[0], size[1], format));
+				for (int i = 0; i < argb.length; i++)
+					check(decoded[i] == solid, format + " " + size[0] + "x" + size[1] + " changed a solid color to " + Integer.toHexString(decoded[i]) + ".");
+			}
+		
+		// a solid translucent block keeps its alpha exactly.
+		int[] translucent = fill(new int[4 * 4], 0x80ffffff);
+		int[] decoded = decode(compressor.compress(translucent, 4, 4, Format.DXT5));
+		for (int i = 0; i < translucent.length; i++)
+			check(decoded[i] >>> 24 == 0x80, "DXT5 changed a solid alpha to " + (decoded[i] >>> 24) + ".");
+		
+		// a ramp between two colors fits a block's endpoints, even when the channels go opposite ways.
+		int[] ramp = new int[4 * 4];
+		for (int i = 0; i < ramp.length; i++)
+			ramp[i] = 0xff000000 | ((i * 17) << 16) | ((255 - i * 17) << 8);
+		for (Format format : Format.values())
+		{
+			double colorPSNR = psnr(ramp, decode(compressor.compress(ramp, 4, 4, format)), 0, 3);
+			check(colorPSNR >= MIN_RAMP_PSNR, format + " red to green ramp color PSNR is " + colorPSNR + " dB.");
+		}
+		
+		// smooth gradients, including a size that does not fill its edge blocks.
+		int[][] sizes = {{64, 64}, {37, 23}};
+		for (int[] size : sizes)
+		{
+			int width = size[0], height = size[1];
+			int[] argb = gradient(width, height);
+			for (Format format : Format.values())
+			{
+				OGLCompressedImage image = compressor.compress(argb, width, height, format);
+				check(image.getData().remaining() == format.getDataSize(width, height), format + " " + width + "x" + height + " has the wrong data size.");
+				decoded = decode(image);
+				double colorPSNR = psnr(argb, decoded, 0, 3);
+				check(colorPSNR >= MIN_COLOR_PSNR, format + " " + width + "x" + height + " color PSNR is " + colorPSNR + " dB.");
+				if (format == Format.DXT5)
+				{
+					double alphaPSNR = psnr(argb, decoded, 3, 4);
+					check(alphaPSNR >= MIN_ALPHA_PSNR, format + " " + width + "x" + height + " alpha PSNR is " + alphaPSNR + " dB.");
+				}
+			}
+		}
+		
+		System.out.println("OGLDXTCompressorTest: OK");
+	}
+
+	/**
+	 * Makes an image with red, green and alpha ramps across it, and blue down it.
+	 */
+	private static int[] gradient(int width, int height)
+	{
+		int[] out = new int[width * height];
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+			{
+				int r = x * 255 / Math.max(1, width - 1);
+				int g = 255 - r;
+				int b = y * 255 / Math.max(1, height - 1);
+				int a = (r + b) / 2;
+				out[y * width + x] = (a << 24) | (r << 16) | (g << 8) | b;
+			}
+		return out;
+	}
+
+	/**
+	 * Returns the peak signal-to-noise ratio between two images over a range of components
+	 * (0 is blue, 1 green, 2 red, 3 alpha), in decibels.
+	 */
+	private static double psnr(int[] expected, int[] actual, int firstComponent, int endComponent)
+	{
+		double sum = 0.0;
+		for (int i = 0; i < expected.length; i++)
+			for (int c = firstComponent; c < endComponent; c++)
+			{
+				int d = ((expected[i] >>> (c * 8)) & 0x0ff) - ((actual[i] >>> (c * 8)) & 0x0ff);
+				sum += d * d;
+			}
+		double mse = sum / (expected.length * (endComponent - firstComponent));
+		return mse == 0.0 ? Double.POSITIVE_INFINITY : 10.0 * Math.log10(255.0 * 255.0 / mse);
+	}
+
+	/**
+	 * Decodes a compressed image to 32-bit ARGB pixels, the way that the BC1 and BC3 specifications do.
+	 * DXT1 pixels are opaque, unless they use the transparent index.
+	 */
+	private static int[] decode(OGLCompressedImage image)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		Format format = image.getFormat();
+		ByteBuffer data = image.getData().duplicate();
+		int blocksX = (width + 3) / 4;
+		int blocksY = (height + 3) / 4;
+		int[] out = new int[width * height];
+		int[] colors = new int[4];
+		int[] alphas = new int[8];
+		for (int by = 0; by < blocksY; by++)
+			for (int bx = 0; bx < blocksX; bx++)
+			{
+				int offset = (by * blocksX + bx) * format.getBlockSize();
+				long alphaBits = 0L;
+				if (format == Format.DXT5)
+				{
+					int a0 = data.get(offset) & 0x0ff;
+					int a1 = data.get(offset + 1) & 0x0ff;
+					alphas[0] = a0;
+					alphas[1] = a1;
+					if (a0 > a1)
+					{
+						for (int p = 2; p < 8; p++)
+							alphas[p] = ((8 - p) * a0 + (p - 1) * a1) / 7;
+					}
+					else
+					{
+						for (int p = 2; p < 6; p++)
+							alphas[p] = ((6 - p) * a0 + (p - 1) * a1) / 5;
+						alphas[6] = 0;
+						alphas[7] = 255;
+					}
+					for (int i = 0; i < 6; i++)
+						alphaBits |= ((long)(data.get(offset + 2 + i) & 0x0ff)) << (i * 8);
+					offset += 8;
+				}
+				
+				int c0 = (data.get(offset) & 0x0ff) | ((data.get(offset + 1) & 0x0ff) << 8);
+				int c1 = (data.get(offset + 2) & 0x0ff) | ((data.get(offset + 3) & 0x0ff) << 8);
+				int bits = (data.get(offset + 4) & 0x0ff) | ((data.get(offset + 5) & 0x0ff) << 8) 
+					| ((data.get(offset + 6) & 0x0ff) << 16) | ((data.get(offset + 7) & 0x0ff) << 24);
+				colors[0] = from565(c0);
+				colors[1] = from565(c1);
+				if (c0 > c1 || format == Format.DXT5)
+				{
+					colors[2] = mix(colors[0], colors[1], 2, 1, 3);
+					colors[3] = mix(colors[0], colors[1], 1, 2, 3);
+				}
+				else
+				{
+					colors[2] = mix(colors[0], colors[1], 1, 1, 2);
+					colors[3] = 0x00000000;
+				}
+				
+				for (int py = 0; py < 4; py++)
+					for (int px = 0; px < 4; px++)
+					{
+						int x = bx * 4 + px, y = by * 4 + py;
+						if (x >= width || y >= height)
+							continue;
+						int i = py * 4 + px;
+						int color = colors[(bits >>> (i * 2)) & 0x03];
+						if (format == Format.DXT5)
+							color = (alphas[(int)((alphaBits >>> (i * 3)) & 0x07L)] << 24) | (color & 0x00ffffff);
+						else if (color != 0)
+							color |= 0xff000000;
+						out[y * width + x] = color;
+					}
+			}
+		return out;
+	}
+
+	/** Expands a 565 color to opaque 32-bit ARGB. */
+	private static int from565(int c)
+	{
+		return 0xff000000 | (expand5(c >> 11) << 16) | (expand6(c >> 5) << 8) | expand5(c);
+	}
+
+	/** Mixes the RGB of two colors by weight, opaque. */
+	private static int mix(int a, int b, int wa, int wb, int total)
+	{
+		int out = 0xff000000;
+		for (int shift = 0; shift < 24; shift += 8)
+			out |= ((((a >> shift) & 0x0ff) * wa + ((b >> shift) & 0x0ff) * wb) / total) << shift;
+		return out;
+	}
+
+	private static int expand5(int c)
+	{
+		c &= 0x1f;
+		return (c << 3) | (c >> 2);
+	}
+
+	private static int expand6(int c)
+	{
+		c &= 0x3f;
+		return (c << 2) | (c >> 4);
+	}
+
+	private static int[] fill(int[] array, int value)
+	{
+		for (int i = 0; i < array.length; i++)
+			array[i] = value;
+		return array;
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+}
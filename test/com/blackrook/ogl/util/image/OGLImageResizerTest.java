@@ -0,0 +1,289 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.image;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import com.blackrook.ogl.OGLGraphicUtils;
+import com.blackrook.ogl.util.image.OGLImageResizer.Filter;
+
+/**
+ * Checks {@link OGLImageResizer} against resizes that do not share its code:
+ * Java 2D's own bilinear, nearest-neighbor and area-averaging scaling, and
+ * the {@link OGLGraphicUtils} resizes that the loader used before.
+ * <p>
+ * Java 2D's bilinear scaling samples the same points as BILINEAR, so on opaque images
+ * the two only differ by rounding, at any size. TRILINEAR is the same as BILINEAR when
+ * enlarging, and when shrinking, it is compared with area averaging on a smooth image,
+ * where a tent and a box filter of the same width come out nearly the same.
+ * @author Matthew Tropiano
+ */
+public class OGLImageResizerTest
+{
+	/** Largest difference in any channel from Java 2D's bilinear scaling, on opaque images. */
+	private static final int BILINEAR_TOLERANCE = 2;
+	/** Largest difference in any channel from area averaging, for a TRILINEAR shrink of a smooth image. */
+	private static final int AREA_TOLERANCE = 4;
+	/** Largest difference in any channel from the OGLGraphicUtils filtered resizes, on a smooth image. */
+	private static final int OLD_FILTERED_TOLERANCE = 3;
+
+	/** Source and destination sizes: enlarging, shrinking, both at once, a single pixel, and enough rows to be split across tasks. */
+	private static final int[][] SIZES = {
+		{13, 7, 40, 29},
+		{10, 10, 20, 20},
+		{64, 48, 16, 12},
+		{64, 48, 23, 31},
+		{1, 1, 5, 3},
+		{200, 300, 150, 97},
+		{30, 20, 31, 21},
+	};
+
+	/** Sizes for smooth images: shrinking and enlarging by whole and fractional amounts. */
+	private static final int[][] SMOOTH_SIZES = {
+		{96, 80, 40, 29},
+		{120, 90, 47, 61},
+		{64, 64, 16, 16},
+		{256, 256, 64, 32},
+		{96, 80, 200, 170},
+		{30, 20, 31, 21},
+	};
+
+	public static void main(String[] args)
+	{
+		OGLImageResizer resizer = new OGLImageResizer();
+		Random random = new Random(1L);
+
+		for (int[] size : SIZES)
+		{
+			int sw = size[0], sh = size[1], dw = size[2], dh = size[3];
+			String name = sw + "x" + sh + " to " + dw + "x" + dh;
+			BufferedImage source = randomImage(random, sw, sh);
+			BufferedImage bilinear = java2DResize(source, dw, dh, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+			BufferedImage actual = resizer.resize(source, dw, dh, Filter.BILINEAR);
+			check(actual.getWidth() == dw && actual.getHeight() == dh, "BILINEAR made the wrong size.");
+			int difference = compare(bilinear, actual);
+			check(difference <= BILINEAR_TOLERANCE, "BILINEAR " + name + " differs from Java 2D bilinear by " + difference + ".");
+
+			if (dw >= sw && dh >= sh)
+			{
+				difference = compare(bilinear, resizer.resize(source, dw, dh, Filter.TRILINEAR));
+				check(difference <= BILINEAR_TOLERANCE, "TRILINEAR " + name + " differs from Java 2D bilinear by " + difference + ".");
+			}
+
+			actual = resizer.resize(source, dw, dh, Filter.NEAREST);
+			checkNearestCoverage(source, actual, name);
+			if ((dw % sw == 0 || sw % dw == 0) && (dh % sh == 0 || sh % dh == 0))
+			{
+				difference = compare(java2DResize(source, dw, dh, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR), actual);
+				check(difference == 0, "NEAREST " + name + " differs from Java 2D nearest-neighbor by " + difference + ".");
+			}
+		}
+
+		for (int[] size : SMOOTH_SIZES)
+		{
+			int sw = size[0], sh = size[1], dw = size[2], dh = size[3];
+			String name = sw + "x" + sh + " to " + dw + "x" + dh;
+			BufferedImage source = smoothImage(sw, sh);
+
+			if (dw <= sw && dh <= sh)
+			{
+				int difference = compare(areaAverage(source, dw, dh), resizer.resize(source, dw, dh, Filter.TRILINEAR));
+				check(difference <= AREA_TOLERANCE, "TRILINEAR " + name + " differs from area averaging by " + difference + ".");
+			}
+
+			// NEAREST may round a sample position the other way, and pick a neighboring pixel.
+			int nearestTolerance = neighborDifference(source);
+			checkOld(OGLGraphicUtils.performResize(source, dw, dh), resizer.resize(source, dw, dh, Filter.NEAREST),
+				nearestTolerance, "NEAREST " + name + " against performResize");
+			checkOld(OGLGraphicUtils.performResizeBilinear(source, dw, dh), resizer.resize(source, dw, dh, Filter.BILINEAR),
+				OLD_FILTERED_TOLERANCE, "BILINEAR " + name + " against performResizeBilinear");
+			checkOld(OGLGraphicUtils.performResizeTrilinear(source, dw, dh), resizer.resize(source, dw, dh, Filter.TRILINEAR),
+				OLD_FILTERED_TOLERANCE, "TRILINEAR " + name + " against performResizeTrilinear");
+		}
+
+		// a one-pixel checkerboard shrunk by 4 averages out to gray with TRILINEAR.
+		BufferedImage checkers = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < 64; y++)
+			for (int x = 0; x < 64; x++)
+				checkers.setRGB(x, y, ((x + y) & 1) == 0 ? 0xff000000 : 0xffffffff);
+		BufferedImage gray = resizer.resize(checkers, 16, 16, Filter.TRILINEAR);
+		for (int y = 0; y < 16; y++)
+			for (int x = 0; x < 16; x++)
+			{
+				int green = (gray.getRGB(x, y) >> 8) & 0x0ff;
+				check(Math.abs(green - 128) <= 16, "TRILINEAR shrink aliased a checkerboard to " + green + " at " + x + ", " + y + ".");
+			}
+
+		// colors are filtered with premultiplied alpha, so fully transparent pixels add no color.
+		BufferedImage halves = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < 16; y++)
+			for (int x = 0; x < 16; x++)
+				halves.setRGB(x, y, x < 8 ? 0xffff0000 : 0x0000ff00);
+		for (Filter filter : new Filter[]{Filter.BILINEAR, Filter.TRILINEAR})
+		{
+			for (int[] size : new int[][]{{5, 5}, {37, 37}})
+			{
+				BufferedImage out = resizer.resize(halves, size[0], size[1], filter);
+				for (int y = 0; y < out.getHeight(); y++)
+					for (int x = 0; x < out.getWidth(); x++)
+					{
+						int argb = out.getRGB(x, y);
+						if ((argb >>> 24) == 0)
+							continue;
+						check(((argb >> 8) & 0x0ff) == 0, filter + " blended a transparent pixel's color into " + Integer.toHexString(argb) + ".");
+						check(((argb >> 16) & 0x0ff) == 0x0ff, filter + " darkened a partly transparent red to " + Integer.toHexString(argb) + ".");
+					}
+			}
+		}
+
+		System.out.println("OGLImageResizerTest: OK");
+	}
+
+	/**
+	 * Checks that each pixel of a NEAREST resize is one of the source pixels under it.
+	 */
+	private static void checkNearestCoverage(BufferedImage source, BufferedImage actual, String name)
+	{
+		int sw = source.getWidth(), sh = source.getHeight(), dw = actual.getWidth(), dh = actual.getHeight();
+		for (int y = 0; y < dh; y++)
+			for (int x = 0; x < dw; x++)
+			{
+				// the source pixels that overlap the output pixel's area.
+				int x0 = (int)((long)x * sw / dw), x1 = (int)(((long)(x + 1) * sw + dw - 1) / dw);
+				int y0 = (int)((long)y * sh / dh), y1 = (int)(((long)(y + 1) * sh + dh - 1) / dh);
+				boolean found = false;
+				for (int sy = y0; sy < y1 && !found; sy++)
+					for (int sx = x0; sx < x1 && !found; sx++)
+						found = source.getRGB(sx, sy) == actual.getRGB(x, y);
+				check(found, "NEAREST " + name + " output pixel " + x + ", " + y + " is not a source pixel under it.");
+			}
+	}
+
+	/**
+	 * Checks a resize against one of the OGLGraphicUtils resizes.
+	 */
+	private static void checkOld(BufferedImage expected, BufferedImage actual, int tolerance, String name)
+	{
+		check(expected != null, name + ": OGLGraphicUtils returned no image.");
+		int difference = compare(expected, actual);
+		check(difference <= tolerance, name + " differs by " + difference + ", more than " + tolerance + ".");
+	}
+
+	/**
+	 * Makes an image of random opaque pixels.
+	 */
+	private static BufferedImage randomImage(Random random, int width, int height)
+	{
+		BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				out.setRGB(x, y, 0xff000000 | random.nextInt());
+		return out;
+	}
+
+	/**
+	 * Makes an opaque image of slow waves, a few levels apart from pixel to pixel.
+	 */
+	private static BufferedImage smoothImage(int width, int height)
+	{
+		BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+			{
+				int r = (int)(127.5 + 127.0 * Math.sin(x * 0.07 + y * 0.03));
+				int g = (int)(127.5 + 127.0 * Math.cos(y * 0.05));
+				int b = (int)(127.5 + 127.0 * Math.sin((x + y) * 0.04));
+				out.setRGB(x, y, 0xff000000 | (r << 16) | (g << 8) | b);
+			}
+		return out;
+	}
+
+	/**
+	 * Returns the largest difference in any channel between neighboring pixels of an image, 
+	 * including diagonal neighbors.
+	 */
+	private static int neighborDifference(BufferedImage image)
+	{
+		int out = 0;
+		for (int y = 0; y < image.getHeight(); y++)
+			for (int x = 0; x < image.getWidth(); x++)
+			{
+				if (x > 0)
+					out = Math.max(out, channelDifference(image.getRGB(x - 1, y), image.getRGB(x, y)));
+				if (y > 0)
+					out = Math.max(out, channelDifference(image.getRGB(x, y - 1), image.getRGB(x, y)));
+				if (x > 0 && y > 0)
+					out = Math.max(out, channelDifference(image.getRGB(x - 1, y - 1), image.getRGB(x, y)));
+				if (x < image.getWidth() - 1 && y > 0)
+					out = Math.max(out, channelDifference(image.getRGB(x + 1, y - 1), image.getRGB(x, y)));
+			}
+		return out;
+	}
+
+	/**
+	 * Resizes an image by drawing it scaled with Java 2D, with an interpolation hint.
+	 */
+	private static BufferedImage java2DResize(BufferedImage image, int width, int height, Object interpolation)
+	{
+		BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2d = out.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+		g2d.drawImage(image, 0, 0, width, height, null);
+		g2d.dispose();
+		return out;
+	}
+
+	/**
+	 * Resizes an image with Java 2D's area-averaging scale filter.
+	 */
+	private static BufferedImage areaAverage(BufferedImage image, int width, int height)
+	{
+		Image scaled = image.getScaledInstance(width, height, Image.SCALE_AREA_AVERAGING);
+		BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2d = out.createGraphics();
+		g2d.drawImage(scaled, 0, 0, null);
+		g2d.dispose();
+		return out;
+	}
+
+	/**
+	 * Returns the largest difference in any channel between two images.
+	 */
+	private static int compare(BufferedImage expected, BufferedImage actual)
+	{
+		check(expected.getWidth() == actual.getWidth() && expected.getHeight() == actual.getHeight(), "Compared images of different sizes.");
+		int out = 0;
+		for (int y = 0; y < expected.getHeight(); y++)
+			for (int x = 0; x < expected.getWidth(); x++)
+				out = Math.max(out, channelDifference(expected.getRGB(x, y), actual.getRGB(x, y)));
+		return out;
+	}
+
+	/**
+	 * Returns the largest difference in any channel between two ARGB pixels.
+	 */
+	private static int channelDifference(int a, int b)
+	{
+		int out = 0;
+		for (int shift = 0; shift < 32; shift += 8)
+			out = Math.max(out, Math.abs(((a >>> shift) & 0x0ff) - ((b >>> shift) & 0x0ff)));
+		return out;
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+}
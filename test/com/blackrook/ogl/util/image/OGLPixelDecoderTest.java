@@ -0,0 +1,739 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.image;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Checks {@link OGLPixelDecoder} pixel for pixel.
+ * <p>
+ * PNGs are checked against what ImageIO reads from the same bytes. They are written
+ * both by ImageIO, for the color types and depths that it writes, and by a small encoder
+ * here, which covers every color type and bit depth, transparency keys, and every
+ * scanline filter, with the image data split across several IDAT chunks.
+ * The JDK has no TGA reader, so TGAs are built here from known pixels, raw and
+ * run-length encoded, stored top-down and bottom-up, and checked against those pixels.
+ * Truncated images must throw, and give their buffer back to the pool.
+ * @author Matthew Tropiano
+ */
+public class OGLPixelDecoderTest
+{
+	/** PNG color types. */
+	private static final int GRAY = 0, RGB = 2, PALETTE = 3, GRAY_ALPHA = 4, RGBA = 6;
+	/** Valid bit depths for each PNG color type. */
+	private static final int[][] PNG_DEPTHS = {
+		{GRAY, 1, 2, 4, 8, 16},
+		{RGB, 8, 16},
+		{PALETTE, 1, 2, 4, 8},
+		{GRAY_ALPHA, 8, 16},
+		{RGBA, 8, 16},
+	};
+	/** Size of the PNG IDAT chunks written here, so that the data spans several. */
+	private static final int IDAT_LENGTH = 97;
+
+	public static void main(String[] args) throws IOException
+	{
+		Random random = new Random(1L);
+		OGLPixelDecoder decoder = new OGLPixelDecoder(new OGLImageBufferPool());
+
+		// every color type and depth, with and without a transparency chunk.
+		for (int[] depths : PNG_DEPTHS)
+		{
+			int colorType = depths[0];
+			for (int d = 1; d < depths.length; d++)
+			{
+				boolean[] transparency = colorType == GRAY_ALPHA || colorType == RGBA ? new boolean[]{false} : new boolean[]{false, true};
+				for (boolean trns : transparency)
+				{
+					String name = "PNG type " + colorType + ", " + depths[d] + "-bit" + (trns ? " with tRNS" : "");
+					byte[] png = encodePNG(random, colorType, depths[d], 13, 23, trns);
+					checkPNG(decoder, png, name, depths[d] == 16 ? 1 : 0);
+				}
+			}
+		}
+
+		// images written by ImageIO.
+		checkImageIOPNG(decoder, randomImage(random, 17, 9, BufferedImage.TYPE_INT_RGB), "ImageIO RGB");
+		checkImageIOPNG(decoder, randomImage(random, 17, 9, BufferedImage.TYPE_INT_ARGB), "ImageIO ARGB");
+		checkImageIOPNG(decoder, randomImage(random, 17, 9, BufferedImage.TYPE_BYTE_GRAY), "ImageIO gray");
+		checkImageIOPNG(decoder, randomImage(random, 17, 9, BufferedImage.TYPE_USHORT_GRAY), "ImageIO 16-bit gray");
+		checkImageIOPNG(decoder, randomImage(random, 17, 9, BufferedImage.TYPE_BYTE_BINARY), "ImageIO 1-bit");
+		checkImageIOPNG(decoder, random16BitImage(random, 17, 9, true), "ImageIO 16-bit RGBA");
+		checkImageIOPNG(decoder, random16BitImage(random, 17, 9, false), "ImageIO 16-bit RGB");
+		for (int bits : new int[]{1, 2, 4, 8})
+			checkImageIOPNG(decoder, randomIndexedImage(random, 19, 7, bits), "ImageIO " + bits + "-bit palette with alpha");
+
+		// interlaced PNGs are left to other decoders.
+		ByteArrayOutputStream interlaced = new ByteArrayOutputStream();
+		writeImageIOPNG(randomImage(random, 8, 8, BufferedImage.TYPE_INT_RGB), interlaced, true);
+		check(decoder.decodePNG(new ByteArrayInputStream(interlaced.toByteArray())) == null, "An interlaced PNG was decoded.");
+
+		// TGAs: every pixel kind, raw and RLE, both row orders.
+		int[][] tgaKinds = {
+			// image type, bits per pixel, alpha bits, color map entry bits
+			{2, 24, 0, 0},
+			{2, 32, 8, 0},
+			{2, 16, 1, 0},
+			{2, 15, 0, 0},
+			{3, 8, 0, 0},
+			{1, 8, 0, 24},
+			{1, 8, 8, 32},
+			{1, 16, 0, 24},
+		};
+		for (int[] kind : tgaKinds)
+			for (boolean rle : new boolean[]{false, true})
+				for (boolean topFirst : new boolean[]{false, true})
+					checkTGA(decoder, random, kind[0], kind[1], kind[2], kind[3], rle, topFirst);
+
+		// right-to-left TGAs are left to other decoders.
+		byte[] rightToLeft = encodeTGA(new int[4], 2, 2, 2, 24, 0, 0, false, false);
+		rightToLeft[17] |= 0x10;
+		check(decoder.decodeTGA(new ByteArrayInputStream(rightToLeft)) == null, "A right-to-left TGA was decoded.");
+
+		// truncated data throws, and gives the output buffer back.
+		checkTruncated(encodePNG(random, RGBA, 8, 32, 32, false), true);
+		checkTruncated(encodeTGA(randomPixels(random, 32 * 32, true), 32, 32, 2, 32, 8, 0, false, false), false);
+		checkTruncated(encodeTGA(randomRuns(random, 32 * 32), 32, 32, 2, 24, 0, 0, true, true), false);
+
+		System.out.println("OGLPixelDecoderTest: OK");
+	}
+
+	/**
+	 * Decodes a PNG, and checks it against ImageIO.
+	 * @param tolerance the largest difference in any channel, for 16-bit samples that both reduce to 8 bits.
+	 */
+	private static void checkPNG(OGLPixelDecoder decoder, byte[] png, String name, int tolerance) throws IOException
+	{
+		BufferedImage expected = ImageIO.read(new ByteArrayInputStream(png));
+		check(expected != null, name + ": ImageIO could not read it.");
+		OGLPixelImage actual = decoder.decode(new ByteArrayInputStream(png), "image.png");
+		check(actual != null, name + " was not decoded.");
+		try {
+			comparePixels(getImageIOPixels(expected, png), hasAlpha(png), actual, tolerance, name);
+		} finally {
+			actual.release();
+		}
+	}
+
+	/**
+	 * Writes an image with ImageIO, decodes it, and checks it against ImageIO.
+	 */
+	private static void checkImageIOPNG(OGLPixelDecoder decoder, BufferedImage image, String name) throws IOException
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		writeImageIOPNG(image, bos, false);
+		checkPNG(decoder, bos.toByteArray(), name, image.getColorModel().getComponentSize(0) == 16 ? 1 : 0);
+	}
+
+	/**
+	 * Builds a TGA, decodes it, and checks it against the pixels that it was built from.
+	 */
+	private static void checkTGA(OGLPixelDecoder decoder, Random random, int imageType, int bits, int alphaBits, int mapBits,
+		boolean rle, boolean topFirst) throws IOException
+	{
+		int width = 21, height = 6;
+		String name = "TGA type " + imageType + ", " + bits + "-bit" + (mapBits > 0 ? " with " + mapBits + "-bit map" : "")
+			+ (rle ? ", RLE" : ", raw") + (topFirst ? ", top-down" : ", bottom-up");
+
+		boolean alpha = mapBits > 0 ? mapBits == 32 : alphaBits > 0;
+		int[] pixels = rle ? randomRuns(random, width * height) : randomPixels(random, width * height, alpha);
+		for (int i = 0; i < pixels.length; i++)
+		{
+			// keep only what the pixel kind stores.
+			int depth = mapBits > 0 ? mapBits : bits;
+			if (imageType == 3)
+			{
+				int v = pixels[i] & 0x0ff;
+				pixels[i] = 0xff000000 | (v << 16) | (v << 8) | v;
+			}
+			else if (depth == 15 || depth == 16)
+			{
+				int a = depth == 16 && alphaBits > 0 && (pixels[i] >>> 31) == 0 ? 0 : 0xff;
+				pixels[i] = (a << 24) | (expand5(pixels[i] >> 19) << 16) | (expand5(pixels[i] >> 11) << 8) | expand5(pixels[i] >> 3);
+			}
+			else if (depth == 24)
+				pixels[i] |= 0xff000000;
+		}
+
+		byte[] tga = encodeTGA(pixels, width, height, imageType, bits, alphaBits, mapBits, rle, topFirst);
+		OGLPixelImage actual = decoder.decode(new ByteArrayInputStream(tga), "image.tga");
+		check(actual != null, name + " was not decoded.");
+		try {
+			comparePixels(pixels, alpha, actual, 0, name);
+		} finally {
+			actual.release();
+		}
+	}
+
+	/**
+	 * Checks that decoding a truncated image throws, and gives its buffer back to the pool.
+	 */
+	private static void checkTruncated(byte[] data, boolean png) throws IOException
+	{
+		OGLImageBufferPool pool = new OGLImageBufferPool();
+		OGLPixelDecoder decoder = new OGLPixelDecoder(pool);
+
+		// whole, it decodes, and the buffer size is known.
+		OGLPixelImage whole = png ? decoder.decodePNG(new ByteArrayInputStream(data)) : decoder.decodeTGA(new ByteArrayInputStream(data));
+		check(whole != null, "The untruncated image was not decoded.");
+		int capacity = whole.getData().capacity();
+		whole.release();
+		check(pool.getPooledBytes() == capacity, "The released image's buffer was not pooled.");
+		pool.clear();
+
+		byte[] truncated = Arrays.copyOf(data, data.length * 2 / 3);
+		boolean thrown = false;
+		try {
+			if (png)
+				decoder.decodePNG(new ByteArrayInputStream(truncated));
+			else
+				decoder.decodeTGA(new ByteArrayInputStream(truncated));
+		} catch (IOException e) {
+			thrown = true;
+		}
+		String name = png ? "Truncated PNG" : "Truncated TGA";
+		check(thrown, name + " did not throw.");
+		check(pool.getPooledBytes() == capacity, name + " did not give its buffer back to the pool.");
+	}
+
+	/**
+	 * Checks decoded pixels against expected ARGB pixels.
+	 */
+	private static void comparePixels(int[] expected, boolean alpha, OGLPixelImage actual, int tolerance, String name)
+	{
+		int size = actual.getWidth() * actual.getHeight();
+		check(size == expected.length, name + " was decoded at the wrong size.");
+		check(actual.getFormat() == (alpha ? OGLPixelImage.Format.RGBA8 : OGLPixelImage.Format.RGB8),
+			name + " was decoded as " + actual.getFormat() + ".");
+		ByteBuffer data = actual.getData().duplicate();
+		check(data.remaining() == actual.getFormat().getDataSize(actual.getWidth(), actual.getHeight()), name + " has the wrong amount of data.");
+		for (int i = 0; i < size; i++)
+		{
+			int e = expected[i];
+			int r = data.get() & 0x0ff, g = data.get() & 0x0ff, b = data.get() & 0x0ff;
+			int a = alpha ? data.get() & 0x0ff : 0xff;
+			int difference = Math.max(Math.max(Math.abs(r - ((e >> 16) & 0x0ff)), Math.abs(g - ((e >> 8) & 0x0ff))),
+				Math.max(Math.abs(b - (e & 0x0ff)), Math.abs(a - (e >>> 24))));
+			check(difference <= tolerance, name + " differs at pixel " + (i % actual.getWidth()) + ", " + (i / actual.getWidth())
+				+ ": expected " + Integer.toHexString(e) + ", got " + Integer.toHexString((a << 24) | (r << 16) | (g << 8) | b) + ".");
+		}
+	}
+
+	/**
+	 * Gets the pixels of an image that ImageIO read, as 8-bit ARGB.
+	 * Samples are read from the raster and scaled to 8 bits, since
+	 * {@link BufferedImage#getRGB(int, int)} converts gray images as linear.
+	 * Gray and RGB transparency keys are applied here: depending on its version, ImageIO
+	 * ignores them, or compares them against gray samples already scaled to 8 bits.
+	 */
+	private static int[] getImageIOPixels(BufferedImage image, byte[] png)
+	{
+		int width = image.getWidth(), height = image.getHeight();
+		int[] out = new int[width * height];
+		ColorModel cm = image.getColorModel();
+		Raster raster = image.getRaster();
+		int[] key = getTransparencyKey(png);
+		int depth = png[24];
+		boolean gray = cm.getColorSpace().getType() == ColorSpace.TYPE_GRAY;
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+			{
+				int argb;
+				boolean keyed = false;
+				if (cm instanceof IndexColorModel)
+				{
+					// gray PNGs under 8 bits are read as a gray palette.
+					int v = raster.getSample(x, y, 0);
+					keyed = key != null && key.length == 1 && isKey(v, cm.getComponentSize(0), key[0], depth);
+					argb = cm.getRGB(v);
+				}
+				else if (gray)
+				{
+					int v = raster.getSample(x, y, 0);
+					keyed = key != null && key.length == 1 && isKey(v, cm.getComponentSize(0), key[0], depth);
+					int c = scale(v, cm.getComponentSize(0));
+					int a = cm.hasAlpha() ? scale(raster.getSample(x, y, 1), cm.getComponentSize(1)) : 0xff;
+					argb = (a << 24) | (c << 16) | (c << 8) | c;
+				}
+				else
+				{
+					int r = raster.getSample(x, y, 0), g = raster.getSample(x, y, 1), b = raster.getSample(x, y, 2);
+					keyed = key != null && key.length == 3 && isKey(r, cm.getComponentSize(0), key[0], depth)
+						&& isKey(g, cm.getComponentSize(1), key[1], depth) && isKey(b, cm.getComponentSize(2), key[2], depth);
+					int a = cm.hasAlpha() ? scale(raster.getSample(x, y, 3), cm.getComponentSize(3)) : 0xff;
+					argb = (a << 24) | (scale(r, cm.getComponentSize(0)) << 16) | (scale(g, cm.getComponentSize(1)) << 8) | scale(b, cm.getComponentSize(2));
+				}
+				if (key != null)
+					argb = keyed ? argb & 0x00ffffff : argb | 0xff000000;
+				out[y * width + x] = argb;
+			}
+		return out;
+	}
+
+	/**
+	 * Checks if a sample read by ImageIO is a PNG's transparency key.
+	 * Samples under 8 bits may have been scaled to 8 bits by ImageIO, so both are compared at 8 bits.
+	 */
+	private static boolean isKey(int value, int bits, int key, int depth)
+	{
+		return bits == depth ? value == key : scale(value, bits) == scale(key, depth);
+	}
+
+	/**
+	 * Scales a sample of a bit depth to 8 bits, rounding to nearest.
+	 */
+	private static int scale(int value, int bits)
+	{
+		int max = (1 << bits) - 1;
+		return (value * 255 + max / 2) / max;
+	}
+
+	/**
+	 * Finds a PNG's gray or RGB transparency key, if it has one.
+	 */
+	private static int[] getTransparencyKey(byte[] png)
+	{
+		ByteBuffer b = ByteBuffer.wrap(png);
+		b.position(8);
+		int colorType = png[25];
+		while (b.remaining() >= 12)
+		{
+			int length = b.getInt();
+			int type = b.getInt();
+			if (type == 0x74524e53 && (colorType == GRAY || colorType == RGB)) // tRNS
+			{
+				int[] out = new int[colorType == GRAY ? 1 : 3];
+				for (int i = 0; i < out.length; i++)
+					out[i] = b.getShort() & 0x0ffff;
+				return out;
+			}
+			b.position(b.position() + length + 4);
+		}
+		return null;
+	}
+
+	/**
+	 * Checks if a PNG has an alpha channel or a transparency chunk.
+	 */
+	private static boolean hasAlpha(byte[] png)
+	{
+		int colorType = png[25];
+		if (colorType == GRAY_ALPHA || colorType == RGBA)
+			return true;
+		ByteBuffer b = ByteBuffer.wrap(png);
+		b.position(8);
+		while (b.remaining() >= 12)
+		{
+			int length = b.getInt();
+			if (b.getInt() == 0x74524e53) // tRNS
+				return true;
+			b.position(b.position() + length + 4);
+		}
+		return false;
+	}
+
+	/**
+	 * Encodes a PNG of random samples. Each row uses the next of the five filters,
+	 * and the compressed data is split into several IDAT chunks.
+	 * @param transparency if true, adds a tRNS chunk: alpha for half of the palette,
+	 * or a gray or RGB key equal to the first pixel, so that it is used.
+	 */
+	private static byte[] encodePNG(Random random, int colorType, int depth, int width, int height, boolean transparency) throws IOException
+	{
+		int channels = colorType == RGB ? 3 : colorType == GRAY_ALPHA ? 2 : colorType == RGBA ? 4 : 1;
+		int bitsPerPixel = channels * depth;
+		int stride = (width * bitsPerPixel + 7) / 8;
+		int step = Math.max(1, bitsPerPixel / 8);
+
+		// every other run of five rows is drawn from a few values, so that filter predictors tie.
+		byte[] few = {0, 1, 2, (byte)128, (byte)255};
+		byte[][] rows = new byte[height][stride];
+		for (int y = 0; y < height; y++)
+		{
+			random.nextBytes(rows[y]);
+			if (y % 10 >= 5)
+				for (int i = 0; i < stride; i++)
+					rows[y][i] = few[(rows[y][i] & 0x0ff) % few.length];
+		}
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bos);
+		out.write(new byte[]{(byte)137, 80, 78, 71, 13, 10, 26, 10});
+
+		ByteBuffer ihdr = ByteBuffer.allocate(13);
+		ihdr.putInt(width).putInt(height).put((byte)depth).put((byte)colorType).put((byte)0).put((byte)0).put((byte)0);
+		writeChunk(out, "IHDR", ihdr.array());
+
+		if (colorType == PALETTE)
+		{
+			byte[] palette = new byte[3 << depth];
+			random.nextBytes(palette);
+			writeChunk(out, "PLTE", palette);
+			if (transparency)
+			{
+				byte[] alpha = new byte[Math.max(1, (1 << depth) / 2)];
+				random.nextBytes(alpha);
+				writeChunk(out, "tRNS", alpha);
+			}
+		}
+		else if (transparency && (colorType == GRAY || colorType == RGB))
+		{
+			ByteBuffer key = ByteBuffer.allocate(colorType == GRAY ? 2 : 6);
+			for (int c = 0; c < channels; c++)
+				key.putShort((short)getSample(rows[0], c, depth));
+			writeChunk(out, "tRNS", key.array());
+		}
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		DeflaterOutputStream deflater = new DeflaterOutputStream(compressed, new Deflater(Deflater.BEST_COMPRESSION));
+		byte[] previous = new byte[stride];
+		for (int y = 0; y < height; y++)
+		{
+			int filter = y % 5;
+			deflater.write(filter);
+			deflater.write(filter(filter, rows[y], previous, step));
+			previous = rows[y];
+		}
+		deflater.close();
+		byte[] data = compressed.toByteArray();
+		for (int i = 0; i < data.length; i += IDAT_LENGTH)
+			writeChunk(out, "IDAT", Arrays.copyOfRange(data, i, Math.min(i + IDAT_LENGTH, data.length)));
+		writeChunk(out, "IEND", new byte[0]);
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Applies a PNG scanline filter.
+	 */
+	private static byte[] filter(int filter, byte[] current, byte[] previous, int step)
+	{
+		byte[] out = new byte[current.length];
+		for (int i = 0; i < current.length; i++)
+		{
+			int a = i >= step ? current[i - step] & 0x0ff : 0;
+			int b = previous[i] & 0x0ff;
+			int c = i >= step ? previous[i - step] & 0x0ff : 0;
+			int predictor;
+			switch (filter)
+			{
+				case 1: predictor = a; break;
+				case 2: predictor = b; break;
+				case 3: predictor = (a + b) / 2; break;
+				case 4:
+				{
+					int p = a + b - c;
+					int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+					predictor = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+					break;
+				}
+				default: predictor = 0; break;
+			}
+			out[i] = (byte)(current[i] - predictor);
+		}
+		return out;
+	}
+
+	/**
+	 * Gets a sample from a packed scanline.
+	 */
+	private static int getSample(byte[] row, int index, int depth)
+	{
+		if (depth == 16)
+			return ((row[index * 2] & 0x0ff) << 8) | (row[index * 2 + 1] & 0x0ff);
+		int bit = index * depth;
+		return ((row[bit / 8] & 0x0ff) >> (8 - depth - bit % 8)) & ((1 << depth) - 1);
+	}
+
+	/**
+	 * Writes a PNG chunk.
+	 */
+	private static void writeChunk(DataOutputStream out, String type, byte[] data) throws IOException
+	{
+		byte[] typeBytes = type.getBytes("US-ASCII");
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data);
+		out.writeInt(data.length);
+		out.write(typeBytes);
+		out.write(data);
+		out.writeInt((int)crc.getValue());
+	}
+
+	/**
+	 * Writes an image as a PNG with ImageIO.
+	 */
+	private static void writeImageIOPNG(BufferedImage image, ByteArrayOutputStream bos, boolean interlaced) throws IOException
+	{
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
+		ImageWriter writer = writers.next();
+		ImageOutputStream out = ImageIO.createImageOutputStream(bos);
+		try {
+			writer.setOutput(out);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if (interlaced)
+				param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+			else
+				param.setProgressiveMode(ImageWriteParam.MODE_DISABLED);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			out.close();
+			writer.dispose();
+		}
+	}
+
+	/**
+	 * Makes an image of a standard type with random samples.
+	 */
+	private static BufferedImage randomImage(Random random, int width, int height, int type)
+	{
+		BufferedImage out = new BufferedImage(width, height, type);
+		WritableRaster raster = out.getRaster();
+		for (int b = 0; b < raster.getNumBands(); b++)
+		{
+			int max = (1 << out.getColorModel().getComponentSize(b)) - 1;
+			for (int y = 0; y < height; y++)
+				for (int x = 0; x < width; x++)
+					raster.setSample(x, y, b, random.nextInt(max + 1));
+		}
+		return out;
+	}
+
+	/**
+	 * Makes a 16-bit per channel RGB or RGBA image with random samples.
+	 */
+	private static BufferedImage random16BitImage(Random random, int width, int height, boolean alpha)
+	{
+		ColorModel cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), alpha, false,
+			alpha ? Transparency.TRANSLUCENT : Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+		WritableRaster raster = cm.createCompatibleWritableRaster(width, height);
+		for (int b = 0; b < raster.getNumBands(); b++)
+			for (int y = 0; y < height; y++)
+				for (int x = 0; x < width; x++)
+					raster.setSample(x, y, b, random.nextInt(65536));
+		return new BufferedImage(cm, raster, false, null);
+	}
+
+	/**
+	 * Makes a palette image with random colors and alpha, which ImageIO writes with a tRNS chunk.
+	 */
+	private static BufferedImage randomIndexedImage(Random random, int width, int height, int bits)
+	{
+		int size = 1 << bits;
+		byte[] r = new byte[size], g = new byte[size], b = new byte[size], a = new byte[size];
+		random.nextBytes(r);
+		random.nextBytes(g);
+		random.nextBytes(b);
+		random.nextBytes(a);
+		IndexColorModel cm = new IndexColorModel(bits, size, r, g, b, a);
+		BufferedImage out = bits == 8
+			? new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, cm)
+			: new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY, cm);
+		WritableRaster raster = out.getRaster();
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				raster.setSample(x, y, 0, random.nextInt(size));
+		return out;
+	}
+
+	/**
+	 * Builds a TGA from ARGB pixels, listed from the top row down.
+	 * @param imageType 1 (color-mapped), 2 (true-color) or 3 (gray).
+	 * @param bits bits per pixel in the data: map indices for color-mapped images.
+	 * @param alphaBits alpha bits per pixel, for the image descriptor.
+	 * @param mapBits bits per color map entry, for color-mapped images.
+	 * @param rle if true, the data is run-length encoded. Runs may cross rows.
+	 * @param topFirst if true, the top row is stored first.
+	 */
+	private static byte[] encodeTGA(int[] pixels, int width, int height, int imageType, int bits, int alphaBits, int mapBits,
+		boolean rle, boolean topFirst) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] id = "test".getBytes("US-ASCII");
+
+		// color map of the distinct colors, starting at a nonzero index.
+		int mapFirst = 3;
+		int[] map = null;
+		if (imageType == 1)
+		{
+			int[] distinct = pixels.clone();
+			Arrays.sort(distinct);
+			int n = 0;
+			for (int i = 0; i < distinct.length; i++)
+				if (i == 0 || distinct[i] != distinct[i - 1])
+					distinct[n++] = distinct[i];
+			map = Arrays.copyOf(distinct, n);
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(18).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+		header.put((byte)id.length);
+		header.put((byte)(map != null ? 1 : 0));
+		header.put((byte)(imageType | (rle ? 8 : 0)));
+		header.putShort((short)(map != null ? mapFirst : 0));
+		header.putShort((short)(map != null ? map.length : 0));
+		header.put((byte)(map != null ? mapBits : 0));
+		header.putShort((short)0);
+		header.putShort((short)0);
+		header.putShort((short)width);
+		header.putShort((short)height);
+		header.put((byte)bits);
+		header.put((byte)(alphaBits | (topFirst ? 0x20 : 0)));
+		out.write(header.array());
+		out.write(id);
+		if (map != null)
+			for (int color : map)
+				out.write(encodeTGAColor(color, mapBits));
+
+		// pixels in stored order.
+		byte[][] stored = new byte[pixels.length][];
+		for (int y = 0; y < height; y++)
+		{
+			int sourceRow = topFirst ? y : height - 1 - y;
+			for (int x = 0; x < width; x++)
+			{
+				int color = pixels[sourceRow * width + x];
+				byte[] value;
+				if (imageType == 1)
+				{
+					int index = mapFirst + Arrays.binarySearch(map, color);
+					value = bits == 8 ? new byte[]{(byte)index} : new byte[]{(byte)index, (byte)(index >> 8)};
+				}
+				else if (imageType == 3)
+					value = new byte[]{(byte)color};
+				else
+					value = encodeTGAColor(color, bits);
+				stored[y * width + x] = value;
+			}
+		}
+
+		if (!rle)
+		{
+			for (byte[] value : stored)
+				out.write(value);
+		}
+		else
+		{
+			int i = 0;
+			while (i < stored.length)
+			{
+				int run = 1;
+				while (i + run < stored.length && run < 128 && Arrays.equals(stored[i + run], stored[i]))
+					run++;
+				if (run > 1)
+				{
+					out.write(0x80 | (run - 1));
+					out.write(stored[i]);
+					i += run;
+				}
+				else
+				{
+					int count = 1;
+					while (i + count < stored.length && count < 128
+						&& (i + count + 1 >= stored.length || !Arrays.equals(stored[i + count], stored[i + count + 1])))
+						count++;
+					out.write(count - 1);
+					for (int j = 0; j < count; j++)
+						out.write(stored[i + j]);
+					i += count;
+				}
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Encodes an ARGB color as a little-endian TGA color.
+	 */
+	private static byte[] encodeTGAColor(int argb, int bits)
+	{
+		switch (bits)
+		{
+			case 15:
+			case 16:
+			{
+				int v = (((argb >> 19) & 0x1f) << 10) | (((argb >> 11) & 0x1f) << 5) | ((argb >> 3) & 0x1f);
+				if ((argb >>> 31) != 0)
+					v |= 0x8000;
+				return new byte[]{(byte)v, (byte)(v >> 8)};
+			}
+			case 24:
+				return new byte[]{(byte)argb, (byte)(argb >> 8), (byte)(argb >> 16)};
+			default:
+				return new byte[]{(byte)argb, (byte)(argb >> 8), (byte)(argb >> 16), (byte)(argb >>> 24)};
+		}
+	}
+
+	/**
+	 * Expands a 5-bit channel (the low 5 bits of a value) to 8 bits.
+	 */
+	private static int expand5(int value)
+	{
+		int v = value & 0x1f;
+		return (v << 3) | (v >> 2);
+	}
+
+	/**
+	 * Makes random ARGB pixels, opaque unless alpha is wanted.
+	 */
+	private static int[] randomPixels(Random random, int count, boolean alpha)
+	{
+		int[] out = new int[count];
+		for (int i = 0; i < count; i++)
+			out[i] = alpha ? random.nextInt() : 0xff000000 | random.nextInt();
+		return out;
+	}
+
+	/**
+	 * Makes ARGB pixels from a few colors, in runs of random length, so that RLE data has both kinds of packets.
+	 */
+	private static int[] randomRuns(Random random, int count)
+	{
+		int[] colors = randomPixels(random, 4, true);
+		int[] out = new int[count];
+		int i = 0;
+		while (i < count)
+		{
+			int color = colors[random.nextInt(colors.length)];
+			int run = random.nextInt(3) == 0 ? 1 + random.nextInt(40) : 1;
+			for (int j = 0; j < run && i < count; j++)
+				out[i++] = run == 1 ? randomPixels(random, 1, true)[0] : color;
+		}
+		return out;
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+}
@@ -0,0 +1,386 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.ogl.util.resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Checks that {@link OGLPakArchive} reads back what {@link OGLPakWriter} writes,
+ * and that {@link OGLZipArchive} reads what {@link ZipOutputStream} writes.
+ * @author Matthew Tropiano
+ */
+public class OGLResourceArchiveTest
+{
+	/** A modified time with whole seconds, as file systems keep them. */
+	private static final long TIME = 1400000000000L;
+
+	public static void main(String[] args) throws IOException
+	{
+		File dir = File.createTempFile("ogltest", "");
+		if (!dir.delete() || !dir.mkdir())
+			throw new IOException("Could not create temporary directory.");
+		try {
+			testPak(dir);
+			testZip(dir);
+			testZipEncrypted(dir);
+			testZip64(dir);
+		} finally {
+			delete(dir);
+		}
+		System.out.println("OGLResourceArchiveTest: OK");
+	}
+
+	/**
+	 * Writes a pak of a directory tree and some streamed entries, and reads it back.
+	 */
+	private static void testPak(File dir) throws IOException
+	{
+		Random random = new Random(1L);
+		Map<String, byte[]> expected = new TreeMap<String, byte[]>();
+		Map<String, Long> times = new TreeMap<String, Long>();
+
+		// a directory tree: compressible, incompressible, empty, nested.
+		File tree = new File(dir, "tree");
+		writeTreeFile(tree, "text.txt", text(5000), TIME, expected, times);
+		writeTreeFile(tree, "noise.bin", noise(random, 3000), TIME + 1000L, expected, times);
+		writeTreeFile(tree, "empty.txt", new byte[0], TIME + 2000L, expected, times);
+		writeTreeFile(tree, "shaders/common/lighting.glsl", text(800), TIME + 3000L, expected, times);
+		writeTreeFile(tree, "shaders/common/deep/er/still.glsl", text(100), TIME + 4000L, expected, times);
+		writeTreeFile(tree, "textures/wall.png", noise(random, 10000), TIME + 5000L, expected, times);
+
+		File pak = new File(dir, "test.pak");
+		OGLPakWriter writer = new OGLPakWriter(pak);
+		writer.addDirectory(tree, true);
+		byte[] storedText = text(2000);
+		writer.addEntry("stored/text.txt", new ByteArrayInputStream(storedText), TIME + 6000L, false);
+		expected.put("stored/text.txt", storedText);
+		times.put("stored/text.txt", TIME + 6000L);
+		byte[] unicode = text(300);
+		writer.addEntry("\u00fcnicode/\u6587\u5b57.txt", new ByteArrayInputStream(unicode), 0L, true);
+		expected.put("\u00fcnicode/\u6587\u5b57.txt", unicode);
+		times.put("\u00fcnicode/\u6587\u5b57.txt", 0L);
+
+		boolean duplicate = false;
+		try {
+			writer.addEntry("text.txt", new ByteArrayInputStream(new byte[1]), 0L, true);
+		} catch (IllegalArgumentException e) {
+			duplicate = true;
+		}
+		check(duplicate, "The pak writer took a duplicate name.");
+		writer.close();
+
+		OGLResourceArchive archive = OGLResourceArchive.open(pak);
+		try {
+			check(archive instanceof OGLPakArchive, "A pak was opened as " + archive.getClass().getSimpleName() + ".");
+			checkEntries(archive, expected);
+			for (Map.Entry<String, Long> time : times.entrySet())
+			{
+				// unrecorded times fall back to the archive's.
+				long t = time.getValue() != 0L ? time.getValue() : pak.lastModified();
+				check(archive.getEntryModifiedTime(time.getKey()) == t, "Pak entry " + time.getKey() + " has the wrong modified time.");
+			}
+
+			check(archive.isCompressed("text.txt"), "Compressible text was not compressed.");
+			check(archive.isCompressed("shaders/common/lighting.glsl"), "Nested compressible text was not compressed.");
+			check(!archive.isCompressed("noise.bin"), "Incompressible data was compressed.");
+			check(!archive.isCompressed("textures/wall.png"), "Incompressible data was compressed.");
+			check(!archive.isCompressed("stored/text.txt"), "An entry added without compression was compressed.");
+		} finally {
+			archive.close();
+		}
+	}
+
+	/**
+	 * Writes a zip with stored, deflated, empty and directory entries, and reads it.
+	 */
+	private static void testZip(File dir) throws IOException
+	{
+		Random random = new Random(2L);
+		Map<String, byte[]> expected = new TreeMap<String, byte[]>();
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ZipOutputStream zip = new ZipOutputStream(bos);
+		zip.putNextEntry(new ZipEntry("textures/"));
+		zip.closeEntry();
+		putEntry(zip, "textures/wall.png", noise(random, 4000), true, expected);
+		putEntry(zip, "text.txt", text(5000), false, expected);
+		putEntry(zip, "empty.txt", new byte[0], false, expected);
+		putEntry(zip, "shaders/common/lighting.glsl", text(700), true, expected);
+		putEntry(zip, "\u00fcnicode/\u6587\u5b57.txt", text(200), false, expected);
+
+		// variable-length fields in the central directory.
+		ZipEntry extra = new ZipEntry("extra.txt");
+		extra.setExtra(new byte[]{(byte)0xfe, (byte)0xca, 4, 0, 1, 2, 3, 4});
+		extra.setComment("an entry comment");
+		extra.setTime(TIME);
+		zip.putNextEntry(extra);
+		byte[] extraData = text(600);
+		zip.write(extraData);
+		zip.closeEntry();
+		expected.put("extra.txt", extraData);
+
+		zip.setComment("an archive comment");
+		zip.close();
+
+		File file = new File(dir, "test.zip");
+		writeFile(file, bos.toByteArray());
+		OGLResourceArchive archive = OGLResourceArchive.open(file);
+		try {
+			check(archive instanceof OGLZipArchive, "A zip was opened as " + archive.getClass().getSimpleName() + ".");
+			checkEntries(archive, expected);
+			for (String name : expected.keySet())
+				check(archive.getEntryModifiedTime(name) == TIME, "Zip entry " + name + " has the wrong modified time.");
+			check(archive.isCompressed("text.txt"), "A deflated zip entry is not compressed.");
+			check(!archive.isCompressed("textures/wall.png"), "A stored zip entry is compressed.");
+		} finally {
+			archive.close();
+		}
+	}
+
+	/**
+	 * Marks a zip entry as encrypted, and checks that it is left out, and the rest are still read.
+	 */
+	private static void testZipEncrypted(File dir) throws IOException
+	{
+		Map<String, byte[]> expected = new TreeMap<String, byte[]>();
+		Map<String, byte[]> secret = new TreeMap<String, byte[]>();
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ZipOutputStream zip = new ZipOutputStream(bos);
+		putEntry(zip, "before.txt", text(300), false, expected);
+		putEntry(zip, "secret.txt", text(400), false, secret);
+		putEntry(zip, "after.txt", text(500), true, expected);
+		zip.close();
+
+		// set the encrypted flag in the entry's local and central headers.
+		byte[] data = bos.toByteArray();
+		setFlag(data, 0x04034b50, 6, 26, 30, "secret.txt", 0x0001);
+		setFlag(data, 0x02014b50, 8, 28, 46, "secret.txt", 0x0001);
+
+		File file = new File(dir, "encrypted.zip");
+		writeFile(file, data);
+		OGLZipArchive archive = new OGLZipArchive(file);
+		try {
+			check(!archive.contains("secret.txt"), "An encrypted zip entry was listed.");
+			check(archive.openStream("secret.txt") == null, "An encrypted zip entry was opened.");
+			checkEntries(archive, expected);
+		} finally {
+			archive.close();
+		}
+	}
+
+	/**
+	 * Writes a zip with too many entries for the plain end record, which makes it a Zip64 archive,
+	 * and checks that it is rejected.
+	 */
+	private static void testZip64(File dir) throws IOException
+	{
+		File file = new File(dir, "zip64.zip");
+		ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			for (int i = 0; i < 0x10000; i++)
+			{
+				ZipEntry entry = new ZipEntry(Integer.toHexString(i));
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(0L);
+				entry.setCrc(0L);
+				zip.putNextEntry(entry);
+				zip.closeEntry();
+			}
+		} finally {
+			zip.close();
+		}
+
+		boolean rejected = false;
+		try {
+			new OGLZipArchive(file).close();
+		} catch (IOException e) {
+			rejected = true;
+		}
+		check(rejected, "A Zip64 archive was not rejected.");
+	}
+
+	/**
+	 * Checks an archive's names, sizes and contents.
+	 */
+	private static void checkEntries(OGLResourceArchive archive, Map<String, byte[]> expected) throws IOException
+	{
+		String[] names = archive.getEntryNames();
+		Arrays.sort(names);
+		check(Arrays.equals(names, expected.keySet().toArray(new String[expected.size()])),
+			"Archive lists " + Arrays.toString(names) + ", not " + expected.keySet() + ".");
+		check(archive.size() == expected.size(), "Archive has the wrong size.");
+
+		for (Map.Entry<String, byte[]> entry : expected.entrySet())
+		{
+			String name = entry.getKey();
+			byte[] data = entry.getValue();
+			check(archive.contains(name), "Archive is missing " + name + ".");
+			check(archive.getEntrySize(name) == data.length, "Entry " + name + " has the wrong size.");
+			check(Arrays.equals(read(archive.openStream(name)), data), "Entry " + name + " has the wrong contents.");
+			check(Arrays.equals(read(archive.openStreamForPath(archive.getEntryPath(name))), data),
+				"Entry " + name + " has the wrong contents by path.");
+
+			ByteBuffer buffer = archive.getEntryData(name);
+			if (archive.isCompressed(name))
+				check(buffer == null, "Compressed entry " + name + " was handed out as stored data.");
+			else
+			{
+				check(buffer != null && buffer.isReadOnly(), "Stored entry " + name + " was not handed out read-only.");
+				byte[] stored = new byte[buffer.remaining()];
+				buffer.get(stored);
+				check(Arrays.equals(stored, data), "Stored entry " + name + " has the wrong data.");
+			}
+		}
+		check(!archive.contains("missing.txt") && archive.openStream("missing.txt") == null
+			&& archive.getEntrySize("missing.txt") == -1L, "Archive has an entry that was not written.");
+	}
+
+	/**
+	 * Sets a flag in the general purpose flags of the zip header that has an entry's name.
+	 * @param signature the header signature.
+	 * @param flagsOffset the offset of the flags in the header.
+	 * @param nameLengthOffset the offset of the name length in the header.
+	 * @param nameOffset the offset of the name in the header.
+	 */
+	private static void setFlag(byte[] data, int signature, int flagsOffset, int nameLengthOffset, int nameOffset, String name, int flag)
+		throws IOException
+	{
+		ByteBuffer b = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		byte[] nameBytes = name.getBytes("UTF-8");
+		for (int pos = 0; pos + nameOffset + nameBytes.length <= data.length; pos++)
+		{
+			if (b.getInt(pos) != signature || (b.getShort(pos + nameLengthOffset) & 0x0ffff) != nameBytes.length)
+				continue;
+			if (!Arrays.equals(Arrays.copyOfRange(data, pos + nameOffset, pos + nameOffset + nameBytes.length), nameBytes))
+				continue;
+			b.putShort(pos + flagsOffset, (short)(b.getShort(pos + flagsOffset) | flag));
+			return;
+		}
+		throw new IOException("Header for " + name + " not found.");
+	}
+
+	/**
+	 * Adds a zip entry, with the modified time {@link #TIME}.
+	 */
+	private static void putEntry(ZipOutputStream zip, String name, byte[] data, boolean stored, Map<String, byte[]> expected)
+		throws IOException
+	{
+		ZipEntry entry = new ZipEntry(name);
+		if (stored)
+		{
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(data.length);
+			entry.setCrc(crc.getValue());
+		}
+		entry.setTime(TIME);
+		zip.putNextEntry(entry);
+		zip.write(data);
+		zip.closeEntry();
+		expected.put(name, data);
+	}
+
+	/**
+	 * Writes a file under a directory, creating its parent directories, and sets its modified time.
+	 */
+	private static void writeTreeFile(File tree, String name, byte[] data, long time, Map<String, byte[]> expected,
+		Map<String, Long> times) throws IOException
+	{
+		File file = new File(tree, name);
+		File parent = file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs())
+			throw new IOException("Could not create directory " + parent + ".");
+		writeFile(file, data);
+		if (!file.setLastModified(time))
+			throw new IOException("Could not set the modified time of " + file + ".");
+		expected.put(name, data);
+		times.put(name, time);
+	}
+
+	private static void writeFile(File file, byte[] data) throws IOException
+	{
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads and closes a stream.
+	 */
+	private static byte[] read(InputStream in) throws IOException
+	{
+		check(in != null, "Entry stream was not opened.");
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			byte[] buffer = new byte[777];
+			int n;
+			while ((n = in.read(buffer)) > 0)
+				bos.write(buffer, 0, n);
+			return bos.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Makes compressible text.
+	 */
+	private static byte[] text(int length) throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < length; i++)
+			sb.append("line ").append(i).append(": the quick brown fox jumps over the lazy dog.\n");
+		return Arrays.copyOf(sb.toString().getBytes("UTF-8"), length);
+	}
+
+	/**
+	 * Makes incompressible data.
+	 */
+	private static byte[] noise(Random random, int length)
+	{
+		byte[] out = new byte[length];
+		random.nextBytes(out);
+		return out;
+	}
+
+	private static void delete(File file)
+	{
+		File[] files = file.listFiles();
+		if (files != null)
+			for (File f : files)
+				delete(f);
+		file.delete();
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+}